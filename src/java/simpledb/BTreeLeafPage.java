@@ -2,19 +2,31 @@ package simpledb;
 
 import java.util.*;
 import java.io.*;
+import java.nio.ByteBuffer;
 
 /**
  * Each instance of BTreeLeafPage stores data for one page of a BTreeFile and 
  * implements the Page interface that is used by BufferPool.
+ * <p>
+ * Tuples are not decoded when the page is read. The page keeps the bytes it
+ * was created from (on the heap, or in an off-heap frame attached by the
+ * BufferPool) and decodes a tuple from them each time it is asked for one.
+ * Tuples that are inserted or moved are kept in {@code tuples}, which
+ * overrides the original bytes for that slot.
  *
  * @see BTreeFile
  * @see BufferPool
  *
  */
-public class BTreeLeafPage extends BTreePage {
+public class BTreeLeafPage extends BTreePage implements FrameBackedPage {
 	private final byte header[];
-	private final Tuple tuples[];
+	private final Tuple tuples[]; // null for slots still held only in raw
 	private final int numSlots;
+	private final int tuplesOffset;
+
+	// the bytes this page was read from; never modified, only replaced by
+	// an identical copy when a frame is attached or detached
+	private volatile ByteBuffer raw;
 	
 	private int leftSibling; // leaf node or 0
 	private int rightSibling; // leaf node or 0
@@ -92,18 +104,15 @@ public class BTreeLeafPage extends BTreePage {
 		header = new byte[getHeaderSize()];
 		for (int i=0; i<header.length; i++)
 			header[i] = dis.readByte();
+		dis.close();
 
+		// the records themselves are decoded lazily from the raw data
 		tuples = new Tuple[numSlots];
-		try{
-			// allocate and read the actual records of this page
-			for (int i=0; i<tuples.length; i++)
-				tuples[i] = readNextTuple(dis,i);
-		}catch(NoSuchElementException e){
-			e.printStackTrace();
-		}
-		dis.close();
+		tuplesOffset = 3 * INDEX_SIZE + header.length;
+		raw = ByteBuffer.wrap(data);
 
-		setBeforeImage();
+		// until setBeforeImage is called, raw is the before image
+		oldData = null;
 	}
 
 	/** 
@@ -137,6 +146,8 @@ public class BTreeLeafPage extends BTreePage {
 			{
 				oldDataRef = oldData;
 			}
+			if (oldDataRef == null)
+				oldDataRef = rawBytes(0, BufferPool.getPageSize());
 			return new BTreeLeafPage(pid,oldDataRef,keyField);
 		} catch (IOException e) {
 			e.printStackTrace();
@@ -154,37 +165,61 @@ public class BTreeLeafPage extends BTreePage {
 	}
 
 	/**
-	 * Read tuples from the source file.
+	 * Decode the tuple in the specified slot from the raw page data.
 	 */
-	private Tuple readNextTuple(DataInputStream dis, int slotId) throws NoSuchElementException {
-		// if associated bit is not set, read forward to the next tuple, and
-		// return null.
-		if (!isSlotUsed(slotId)) {
-			for (int i=0; i<td.getSize(); i++) {
-				try {
-					dis.readByte();
-				} catch (IOException e) {
-					throw new NoSuchElementException("error reading empty tuple");
+	private Tuple readTuple(int slotId) throws NoSuchElementException {
+		while (true) {
+			ByteBuffer buf = raw;
+			try {
+				Tuple t = new Tuple(td);
+				t.setRecordId(new RecordId(pid, slotId));
+				int offset = tuplesOffset + slotId * td.getSize();
+				for (int j=0; j<td.numFields(); j++) {
+					Type type = td.getFieldType(j);
+					t.setField(j, type.parse(buf, offset));
+					offset += type.getLen();
 				}
+				// if a frame was attached or detached while we were reading,
+				// buf may have been reused for another page; read it again
+				if (buf == raw)
+					return t;
+			} catch (RuntimeException e) {
+				if (buf == raw)
+					throw new NoSuchElementException("parsing error!");
 			}
-			return null;
 		}
+	}
 
-		// read fields in the tuple
-		Tuple t = new Tuple(td);
-		RecordId rid = new RecordId(pid, slotId);
-		t.setRecordId(rid);
-		try {
-			for (int j=0; j<td.numFields(); j++) {
-				Field f = td.getFieldType(j).parse(dis);
-				t.setField(j, f);
-			}
-		} catch (java.text.ParseException e) {
-			e.printStackTrace();
-			throw new NoSuchElementException("parsing error!");
-		}
+	/**
+	 * Copy len bytes of the raw page data, starting at offset.
+	 */
+	private byte[] rawBytes(int offset, int len) {
+		byte[] bytes = new byte[len];
+		ByteBuffer buf;
+		do {
+			buf = raw;
+			ByteBuffer dup = buf.duplicate();
+			dup.position(offset);
+			dup.get(bytes);
+		} while (buf != raw);
+		return bytes;
+	}
+
+	public boolean attachFrame(ByteBuffer frame) {
+		ByteBuffer buf = raw;
+		if (frame.capacity() != buf.capacity())
+			return false;
+		ByteBuffer src = buf.duplicate();
+		src.clear();
+		ByteBuffer dst = frame.duplicate();
+		dst.clear();
+		dst.put(src);
+		raw = frame;
+		return true;
+	}
 
-		return t;
+	public void detachFrame() {
+		raw = ByteBuffer.wrap(rawBytes(0, raw.capacity()));
 	}
 
 	/**
@@ -249,6 +284,16 @@ public class BTreeLeafPage extends BTreePage {
 				continue;
 			}
 
+			// non-empty slot that has not changed since the page was read
+			if (tuples[i] == null) {
+				try {
+					dos.write(rawBytes(tuplesOffset + i * td.getSize(), td.getSize()));
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+				continue;
+			}
+
 			// non-empty slot
 			for (int j=0; j<td.numFields(); j++) {
 				Field f = tuples[i].getField(j);
@@ -327,7 +372,7 @@ public class BTreeLeafPage extends BTreePage {
 		Field key = t.getField(keyField);
 		for (int i=0; i<numSlots; i++) {
 			if(isSlotUsed(i)) {
-				if(tuples[i].getField(keyField).compare(Predicate.Op.LESS_THAN_OR_EQ, key))
+				if(getTuple(i).getField(keyField).compare(Predicate.Op.LESS_THAN_OR_EQ, key))
 					lessOrEqKey = i;
 				else
 					break;	
@@ -366,8 +411,9 @@ public class BTreeLeafPage extends BTreePage {
 		if(!isSlotUsed(to) && isSlotUsed(from)) {
 			markSlotUsed(to, true);
 			RecordId rid = new RecordId(pid, to);
-			tuples[to] = tuples[from];
+			tuples[to] = getTuple(from);
 			tuples[to].setRecordId(rid);
+			tuples[from] = null;
 			markSlotUsed(from, false);
 		}
 	}
@@ -509,7 +555,8 @@ public class BTreeLeafPage extends BTreePage {
 			}
 
 			Debug.log(1, "BTreeLeafPage.getTuple: returning tuple %d", i);
-			return tuples[i];
+			Tuple t = tuples[i];
+			return t != null ? t : readTuple(i);
 
 		} catch (ArrayIndexOutOfBoundsException e) {
 			throw new NoSuchElementException();
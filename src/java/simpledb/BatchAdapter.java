@@ -0,0 +1,148 @@
+package simpledb;
+
+import java.util.NoSuchElementException;
+
+/**
+ * Adapters that let tuple-at-a-time {@link OpIterator}s and batch
+ * {@link BatchIterator}s be mixed in one plan.
+ */
+public class BatchAdapter {
+
+    private BatchAdapter() {
+    }
+
+    /**
+     * @return a BatchIterator that reads the tuples of child and returns
+     *   them in batches of the default capacity
+     */
+    public static BatchIterator toBatches(OpIterator child) {
+        return new Batcher(child, TupleBatch.DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @return a BatchIterator that reads the tuples of child and returns
+     *   them in batches of the specified capacity
+     */
+    public static BatchIterator toBatches(OpIterator child, int capacity) {
+        return new Batcher(child, capacity);
+    }
+
+    /**
+     * @return an OpIterator that returns the selected rows of child's
+     *   batches one Tuple at a time
+     */
+    public static OpIterator toTuples(BatchIterator child) {
+        return new Unbatcher(child);
+    }
+
+    /** Collects the tuples of an OpIterator into batches. */
+    static class Batcher extends BatchOperator {
+        private static final long serialVersionUID = 1L;
+
+        private final OpIterator child;
+        private final int capacity;
+        private transient TupleBatch batch;
+
+        Batcher(OpIterator child, int capacity) {
+            this.child = child;
+            this.capacity = capacity;
+        }
+
+        public TupleDesc getTupleDesc() {
+            return child.getTupleDesc();
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            child.open();
+            batch = new TupleBatch(child.getTupleDesc(), capacity);
+            super.open();
+        }
+
+        protected TupleBatch fetchNextBatch() throws DbException,
+                TransactionAbortedException {
+            batch.clear();
+            while (!batch.isFull() && child.hasNext())
+                batch.addTuple(child.next());
+            return batch.size() > 0 ? batch : null;
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            child.rewind();
+        }
+
+        public void close() {
+            super.close();
+            child.close();
+            batch = null;
+        }
+
+        /** @return no batch children; the child is an OpIterator */
+        public BatchIterator[] getChildren() {
+            return new BatchIterator[0];
+        }
+
+        /** @return the OpIterator this batcher reads from */
+        public OpIterator getChild() {
+            return child;
+        }
+    }
+
+    /** Returns the rows of a BatchIterator one Tuple at a time. */
+    static class Unbatcher implements OpIterator {
+        private static final long serialVersionUID = 1L;
+
+        private final BatchIterator child;
+        private transient TupleBatch batch;
+        private transient int pos;
+        private boolean open = false;
+
+        Unbatcher(BatchIterator child) {
+            this.child = child;
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            child.open();
+            batch = null;
+            open = true;
+        }
+
+        public boolean hasNext() throws DbException, TransactionAbortedException {
+            if (!open)
+                throw new IllegalStateException("Operator not yet open");
+            while (batch == null || pos == batch.numSelected()) {
+                batch = child.nextBatch();
+                pos = 0;
+                if (batch == null)
+                    return false;
+            }
+            return true;
+        }
+
+        public Tuple next() throws DbException, TransactionAbortedException,
+                NoSuchElementException {
+            if (!hasNext())
+                throw new NoSuchElementException();
+            return batch.getTuple(batch.selectedRow(pos++));
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            child.rewind();
+            batch = null;
+        }
+
+        public TupleDesc getTupleDesc() {
+            return child.getTupleDesc();
+        }
+
+        public void close() {
+            child.close();
+            batch = null;
+            open = false;
+        }
+
+        /** @return the BatchIterator this iterator reads from */
+        public BatchIterator getChild() {
+            return child;
+        }
+    }
+}
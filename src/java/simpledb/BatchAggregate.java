@@ -0,0 +1,212 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * BatchAggregate is the batch version of {@link Aggregate}: it computes a
+ * single aggregate (min, max, sum, avg or count) over one column, grouped
+ * by at most one column. Integer columns are aggregated straight from the
+ * batch's int[], into a long[] of running values per group. Groups of an
+ * INT_TYPE column, and the single group with no grouping, are kept in an
+ * {@link IntGroupTable}, so no key is boxed either. Any column can be
+ * counted; only INT_TYPE columns can be summed, averaged or compared.
+ * <p>
+ * As with Aggregate, the output has the group value (if there is a
+ * grouping) followed by the aggregate value, which is always an integer.
+ */
+public class BatchAggregate extends BatchOperator {
+
+    private static final long serialVersionUID = 1L;
+
+    // indexes into the running values of a group
+    private static final int COUNT = 0, SUM = 1, MIN = 2, MAX = 3;
+
+    private BatchIterator child;
+    private final int afield;
+    private final int gfield;
+    private final Aggregator.Op aop;
+    private final TupleDesc td;
+
+    // groups of an INT_TYPE column, or the single group
+    private transient IntGroupTable intGroups;
+    private transient int nextGroup;
+    // groups of any other column
+    private transient LinkedHashMap<Field, long[]> groups;
+    private transient Iterator<Map.Entry<Field, long[]>> it;
+    private transient TupleBatch out;
+
+    /**
+     * Constructor.
+     *
+     * @param child
+     *            The BatchIterator that is feeding us rows.
+     * @param afield
+     *            The column over which we are computing an aggregate.
+     * @param gfield
+     *            The column over which we are grouping the result, or
+     *            {@link Aggregator#NO_GROUPING} if there is no grouping
+     * @param aop
+     *            The aggregation operator to use
+     * @throws IllegalArgumentException if aop cannot be computed over afield
+     */
+    public BatchAggregate(BatchIterator child, int afield, int gfield, Aggregator.Op aop) {
+        TupleDesc childtd = child.getTupleDesc();
+        if (aop == Aggregator.Op.SUM_COUNT || aop == Aggregator.Op.SC_AVG)
+            throw new IllegalArgumentException("unsupported aggregate " + aop);
+        if (aop != Aggregator.Op.COUNT && childtd.getFieldType(afield) != Type.INT_TYPE)
+            throw new IllegalArgumentException("can only count a non-integer column");
+        this.child = child;
+        this.afield = afield;
+        this.gfield = gfield;
+        this.aop = aop;
+
+        String aname = Aggregate.nameOfAggregatorOp(aop) + " ("
+            + childtd.getFieldName(afield) + ")";
+        if (gfield == Aggregator.NO_GROUPING)
+            td = new TupleDesc(new Type[] { Type.INT_TYPE }, new String[] { aname });
+        else
+            td = new TupleDesc(new Type[] { childtd.getFieldType(gfield), Type.INT_TYPE },
+                    new String[] { childtd.getFieldName(gfield), aname });
+    }
+
+    public int groupField() {
+        return gfield;
+    }
+
+    public int aggregateField() {
+        return afield;
+    }
+
+    public Aggregator.Op aggregateOp() {
+        return aop;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        child.open();
+        out = new TupleBatch(td);
+        aggregate();
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        child.close();
+        intGroups = null;
+        groups = null;
+        it = null;
+        out = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        nextGroup = 0;
+        if (groups != null)
+            it = groups.entrySet().iterator();
+    }
+
+    /** Reads all of the child's rows into the group table. */
+    private void aggregate() throws DbException, TransactionAbortedException {
+        boolean intGroup = gfield == Aggregator.NO_GROUPING
+            || child.getTupleDesc().getFieldType(gfield) == Type.INT_TYPE;
+        boolean intAgg = child.getTupleDesc().getFieldType(afield) == Type.INT_TYPE;
+        intGroups = intGroup ? new IntGroupTable(1024) : null;
+        groups = intGroup ? null : new LinkedHashMap<Field, long[]>();
+        TupleBatch b;
+        while ((b = child.nextBatch()) != null) {
+            int n = b.numSelected();
+            int[] avals = intAgg ? b.intColumn(afield) : null;
+            if (gfield == Aggregator.NO_GROUPING) {
+                int single = intGroups.add(0);
+                for (int i = 0; i < n; i++)
+                    intGroups.merge(single, avals == null ? 0 : avals[b.selectedRow(i)]);
+            } else if (intGroup) {
+                int[] gvals = b.intColumn(gfield);
+                for (int i = 0; i < n; i++) {
+                    int row = b.selectedRow(i);
+                    intGroups.merge(intGroups.add(gvals[row]), avals == null ? 0 : avals[row]);
+                }
+            } else {
+                Field[] gvals = b.fieldColumn(gfield);
+                for (int i = 0; i < n; i++) {
+                    int row = b.selectedRow(i);
+                    merge(group(gvals[row]), avals == null ? 0 : avals[row]);
+                }
+            }
+        }
+        nextGroup = 0;
+        if (groups != null)
+            it = groups.entrySet().iterator();
+    }
+
+    private static long[] newGroup() {
+        return new long[] { 0, 0, Long.MAX_VALUE, Long.MIN_VALUE };
+    }
+
+    private long[] group(Field key) {
+        long[] g = groups.get(key);
+        if (g == null) {
+            g = newGroup();
+            groups.put(key, g);
+        }
+        return g;
+    }
+
+    private static void merge(long[] g, int v) {
+        g[COUNT]++;
+        g[SUM] += v;
+        if (v < g[MIN])
+            g[MIN] = v;
+        if (v > g[MAX])
+            g[MAX] = v;
+    }
+
+    /** @return the aggregate value of a group */
+    private int result(long count, long sum, long min, long max) {
+        switch (aop) {
+        case MIN:
+            return (int) min;
+        case MAX:
+            return (int) max;
+        case SUM:
+            return (int) sum;
+        case AVG:
+            return (int) (sum / count);
+        default:
+            return (int) count;
+        }
+    }
+
+    protected TupleBatch fetchNextBatch() throws DbException,
+            TransactionAbortedException {
+        out.clear();
+        int acol = gfield == Aggregator.NO_GROUPING ? 0 : 1;
+        int[] avals = out.intColumn(acol);
+        if (intGroups != null) {
+            int[] keys = acol == 1 ? out.intColumn(0) : null;
+            while (!out.isFull() && nextGroup < intGroups.size()) {
+                int g = nextGroup++;
+                int row = out.addRow();
+                if (keys != null)
+                    keys[row] = intGroups.key(g);
+                avals[row] = result(intGroups.count(g), intGroups.sum(g),
+                        intGroups.min(g), intGroups.max(g));
+            }
+            return out.size() > 0 ? out : null;
+        }
+        while (!out.isFull() && it.hasNext()) {
+            Map.Entry<Field, long[]> e = it.next();
+            int row = out.addRow();
+            out.setField(0, row, e.getKey());
+            long[] g = e.getValue();
+            avals[row] = result(g[COUNT], g[SUM], g[MIN], g[MAX]);
+        }
+        return out.size() > 0 ? out : null;
+    }
+
+    public BatchIterator[] getChildren() {
+        return new BatchIterator[] { this.child };
+    }
+}
@@ -0,0 +1,148 @@
+package simpledb;
+
+/**
+ * BatchFilter is the batch version of {@link Filter}. Rather than copying
+ * the rows that satisfy the predicate, it narrows the selection vector of
+ * each batch it reads. Comparisons of an INT_TYPE column with an integer
+ * are done directly on the column's int[]; other predicates fall back to
+ * Field.compare.
+ */
+public class BatchFilter extends BatchOperator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Predicate p;
+    private BatchIterator child;
+    private transient int[] sel;
+
+    /**
+     * Constructor accepts a predicate to apply and a child operator to read
+     * batches to filter from.
+     *
+     * @param p
+     *            The predicate to filter rows with
+     * @param child
+     *            The child operator
+     */
+    public BatchFilter(Predicate p, BatchIterator child) {
+        this.p = p;
+        this.child = child;
+    }
+
+    public Predicate getPredicate() {
+        return p;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        child.open();
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        child.close();
+        sel = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+    }
+
+    protected TupleBatch fetchNextBatch() throws DbException,
+            TransactionAbortedException {
+        TupleBatch b;
+        while ((b = child.nextBatch()) != null) {
+            // b may still be using the array we handed out last time
+            if (sel == null || sel.length < b.capacity() || sel == b.getSelection())
+                sel = new int[b.capacity()];
+            int n;
+            if (p.getOperand() instanceof IntField
+                    && child.getTupleDesc().getFieldType(p.getField()) == Type.INT_TYPE)
+                n = filterInts(b, b.intColumn(p.getField()),
+                        ((IntField) p.getOperand()).getValue(), sel);
+            else
+                n = filterFields(b, sel);
+            if (n > 0) {
+                b.setSelection(sel, n);
+                return b;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Puts the selected rows of b whose value in col satisfies the
+     * predicate's comparison with v into out.
+     * @return the number of rows put into out
+     */
+    private int filterInts(TupleBatch b, int[] col, int v, int[] out) {
+        int n = b.numSelected();
+        int k = 0;
+        switch (p.getOp()) {
+        case EQUALS:
+        case LIKE:
+            for (int i = 0; i < n; i++) {
+                int row = b.selectedRow(i);
+                if (col[row] == v)
+                    out[k++] = row;
+            }
+            break;
+        case NOT_EQUALS:
+            for (int i = 0; i < n; i++) {
+                int row = b.selectedRow(i);
+                if (col[row] != v)
+                    out[k++] = row;
+            }
+            break;
+        case GREATER_THAN:
+            for (int i = 0; i < n; i++) {
+                int row = b.selectedRow(i);
+                if (col[row] > v)
+                    out[k++] = row;
+            }
+            break;
+        case GREATER_THAN_OR_EQ:
+            for (int i = 0; i < n; i++) {
+                int row = b.selectedRow(i);
+                if (col[row] >= v)
+                    out[k++] = row;
+            }
+            break;
+        case LESS_THAN:
+            for (int i = 0; i < n; i++) {
+                int row = b.selectedRow(i);
+                if (col[row] < v)
+                    out[k++] = row;
+            }
+            break;
+        case LESS_THAN_OR_EQ:
+            for (int i = 0; i < n; i++) {
+                int row = b.selectedRow(i);
+                if (col[row] <= v)
+                    out[k++] = row;
+            }
+            break;
+        }
+        return k;
+    }
+
+    /** Like filterInts, but for any column type, using Field.compare. */
+    private int filterFields(TupleBatch b, int[] out) {
+        int n = b.numSelected();
+        int k = 0;
+        for (int i = 0; i < n; i++) {
+            int row = b.selectedRow(i);
+            if (b.getField(p.getField(), row).compare(p.getOp(), p.getOperand()))
+                out[k++] = row;
+        }
+        return k;
+    }
+
+    public BatchIterator[] getChildren() {
+        return new BatchIterator[] { this.child };
+    }
+}
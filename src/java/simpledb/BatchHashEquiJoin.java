@@ -0,0 +1,244 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * BatchHashEquiJoin is the batch version of {@link HashEquiJoin}. Like
+ * HashEquiJoin, it loads as many rows of the left child as fit in the
+ * {@link OperatorMemory} budget into a hash table at a time, and then
+ * probes the table with every row of the right child, rewinding the right
+ * child for each chunk of the left. The rows of the left child are kept in
+ * batches rather than as Tuples, and output rows are written column by
+ * column into an output batch. Integer keys go in an {@link IntHashTable},
+ * whose entry numbers are the row numbers of the chunk.
+ * <p>
+ * Output rows are the left row's fields followed by the right row's, in
+ * the same order HashEquiJoin produces them.
+ */
+public class BatchHashEquiJoin extends BatchOperator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final JoinPredicate pred;
+    private BatchIterator child1, child2;
+    private final TupleDesc comboTD;
+
+    // the current chunk of the left child
+    private transient ArrayList<TupleBatch> build;
+    private transient HashMap<Object, ArrayList<Integer>> map;
+    private transient IntHashTable table; // instead of map for integer keys
+    private transient int buildLimit;
+    private transient TupleBatch leftover; // batch of child1 that did not fit
+    private transient int leftoverPos;
+    private transient boolean child1Done;
+
+    // probe position
+    private transient TupleBatch probe;
+    private transient int probePos;
+    private transient ArrayList<Integer> matches;
+    private transient int matchPos;
+    private transient int match = -1; // next entry of table, or -1
+    private transient TupleBatch out;
+
+    /**
+     * Constructor. Accepts to children to join and the predicate to join them
+     * on
+     *
+     * @param p
+     *            The predicate to use to join the children; its operator
+     *            must be EQUALS
+     * @param child1
+     *            Iterator for the left(outer) relation to join
+     * @param child2
+     *            Iterator for the right(inner) relation to join
+     */
+    public BatchHashEquiJoin(JoinPredicate p, BatchIterator child1, BatchIterator child2) {
+        if (p.getOperator() != Predicate.Op.EQUALS)
+            throw new IllegalArgumentException("BatchHashEquiJoin only supports equality");
+        this.pred = p;
+        this.child1 = child1;
+        this.child2 = child2;
+        comboTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return pred;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return comboTD;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        child1.open();
+        child2.open();
+        build = new ArrayList<TupleBatch>();
+        if (intKeys())
+            table = new IntHashTable(TupleBatch.DEFAULT_CAPACITY);
+        else
+            map = new HashMap<Object, ArrayList<Integer>>();
+        buildLimit = OperatorMemory.maxRows(rowBytes(child1.getTupleDesc())
+                + IntHashTable.BYTES_PER_ENTRY);
+        out = new TupleBatch(comboTD);
+        start();
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        child2.close();
+        child1.close();
+        build = null;
+        map = null;
+        table = null;
+        leftover = null;
+        probe = null;
+        matches = null;
+        out = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child1.rewind();
+        child2.rewind();
+        start();
+    }
+
+    /** Starts the join from the first chunk of the left child. */
+    private void start() throws DbException, TransactionAbortedException {
+        leftover = null;
+        child1Done = false;
+        probe = null;
+        matches = null;
+        match = -1;
+        loadMap();
+    }
+
+    private boolean intKeys() {
+        return child1.getTupleDesc().getFieldType(pred.getField1()) == Type.INT_TYPE
+            && child2.getTupleDesc().getFieldType(pred.getField2()) == Type.INT_TYPE;
+    }
+
+    /** @return an estimate of the bytes a row of td takes in a TupleBatch */
+    private static long rowBytes(TupleDesc td) {
+        long bytes = 0;
+        for (int i = 0; i < td.numFields(); i++) {
+            if (td.getFieldType(i) == Type.INT_TYPE)
+                bytes += 4;
+            else
+                bytes += 4 + 24 + 24 + 16 + Type.STRING_LEN;
+        }
+        return bytes;
+    }
+
+    /** @return the join key of a row, suitable for a HashMap */
+    private static Object key(TupleBatch b, int col, int row) {
+        if (b.getTupleDesc().getFieldType(col) == Type.INT_TYPE)
+            return Integer.valueOf(b.intColumn(col)[row]);
+        return b.getField(col, row);
+    }
+
+    /**
+     * Loads the next chunk of at most buildLimit rows of the left child.
+     * @return true if any rows were loaded
+     */
+    private boolean loadMap() throws DbException, TransactionAbortedException {
+        build.clear();
+        if (table != null)
+            table.clear();
+        else
+            map.clear();
+        TupleDesc td1 = child1.getTupleDesc();
+        int f1 = pred.getField1();
+        TupleBatch dst = null;
+        int cnt = 0;
+        while (cnt < buildLimit) {
+            if (leftover == null || leftoverPos == leftover.numSelected()) {
+                leftover = child1Done ? null : child1.nextBatch();
+                leftoverPos = 0;
+                if (leftover == null) {
+                    child1Done = true;
+                    break;
+                }
+            }
+            // the child's batch is only valid until its next call: copy it
+            int row = leftover.selectedRow(leftoverPos++);
+            if (dst == null || dst.isFull()) {
+                dst = new TupleBatch(td1);
+                build.add(dst);
+            }
+            int r = dst.addRow();
+            dst.copyRow(leftover, row, r, 0);
+            cnt++;
+            if (table != null) {
+                table.add(dst.intColumn(f1)[r]);
+                continue;
+            }
+            int id = (build.size() - 1) * TupleBatch.DEFAULT_CAPACITY + r;
+            Object k = key(dst, f1, r);
+            ArrayList<Integer> list = map.get(k);
+            if (list == null) {
+                list = new ArrayList<Integer>();
+                map.put(k, list);
+            }
+            list.add(id);
+        }
+        return cnt > 0;
+    }
+
+    protected TupleBatch fetchNextBatch() throws DbException,
+            TransactionAbortedException {
+        out.clear();
+        int f2 = pred.getField2();
+        int td1n = child1.getTupleDesc().numFields();
+        while (!build.isEmpty()) {
+            // emit the matches of the current probe row
+            while (match != -1) {
+                if (out.isFull())
+                    return out;
+                TupleBatch b = build.get(match / TupleBatch.DEFAULT_CAPACITY);
+                int r = out.addRow();
+                out.copyRow(b, match % TupleBatch.DEFAULT_CAPACITY, r, 0);
+                out.copyRow(probe, probe.selectedRow(probePos - 1), r, td1n);
+                match = table.next(match);
+            }
+            while (matches != null && matchPos < matches.size()) {
+                if (out.isFull())
+                    return out;
+                int id = matches.get(matchPos++);
+                TupleBatch b = build.get(id / TupleBatch.DEFAULT_CAPACITY);
+                int r = out.addRow();
+                out.copyRow(b, id % TupleBatch.DEFAULT_CAPACITY, r, 0);
+                out.copyRow(probe, probe.selectedRow(probePos - 1), r, td1n);
+            }
+            matches = null;
+
+            // find the next probe row with matches
+            if (probe == null || probePos == probe.numSelected()) {
+                probe = child2.nextBatch();
+                probePos = 0;
+                if (probe == null) {
+                    // child2 is done: advance child1
+                    child2.rewind();
+                    if (!loadMap())
+                        break;
+                    continue;
+                }
+            }
+            int prow = probe.selectedRow(probePos++);
+            if (table != null) {
+                match = table.first(probe.intColumn(f2)[prow]);
+                continue;
+            }
+            ArrayList<Integer> l = map.get(key(probe, f2, prow));
+            if (l != null) {
+                matches = l;
+                matchPos = 0;
+            }
+        }
+        return out.size() > 0 ? out : null;
+    }
+
+    public BatchIterator[] getChildren() {
+        return new BatchIterator[] { this.child1, this.child2 };
+    }
+}
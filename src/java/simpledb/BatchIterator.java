@@ -0,0 +1,53 @@
+package simpledb;
+
+import java.io.Serializable;
+
+/**
+ * BatchIterator is the batch-at-a-time counterpart of {@link OpIterator}.
+ * Instead of one Tuple per call, {@link #nextBatch} returns a
+ * {@link TupleBatch} of up to {@link TupleBatch#DEFAULT_CAPACITY} rows
+ * stored column by column, so an operator makes one call per batch rather
+ * than one per row, and works on primitive arrays instead of Tuples.
+ * <p>
+ * As with OpIterator, none of the methods other than getTupleDesc work
+ * before open is called, and they throw IllegalStateException.
+ * <p>
+ * Use {@link BatchAdapter} to feed an OpIterator into a batch operator, or
+ * to read the output of a batch operator one Tuple at a time.
+ */
+public interface BatchIterator extends Serializable {
+    /**
+     * Opens the iterator. This must be called before any of the other methods.
+     * @throws DbException when there are problems opening/accessing the database.
+     */
+    public void open() throws DbException, TransactionAbortedException;
+
+    /**
+     * Returns the next batch of rows. The batch (and its column arrays)
+     * belongs to this iterator, and is only valid until the next call to
+     * nextBatch, rewind or close; the caller may change its selection, but
+     * should copy it if it needs the rows for longer.
+     *
+     * @return the next batch, with at least one selected row, or null if
+     *   there are no more rows
+     * @throws IllegalStateException If the iterator has not been opened
+     */
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException;
+
+    /**
+     * Resets the iterator to the start.
+     * @throws DbException when rewind is unsupported.
+     * @throws IllegalStateException If the iterator has not been opened
+     */
+    public void rewind() throws DbException, TransactionAbortedException;
+
+    /**
+     * @return the TupleDesc of the rows in the batches of this iterator.
+     */
+    public TupleDesc getTupleDesc();
+
+    /**
+     * Closes the iterator.
+     */
+    public void close();
+}
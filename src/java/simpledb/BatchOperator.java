@@ -0,0 +1,46 @@
+package simpledb;
+
+/**
+ * Abstract class for implementing batch operators, the counterpart of
+ * {@link Operator} for {@link BatchIterator}. It keeps track of whether the
+ * operator is open; subclasses implement <code>fetchNextBatch</code>.
+ */
+public abstract class BatchOperator implements BatchIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private boolean open = false;
+
+    public void open() throws DbException, TransactionAbortedException {
+        this.open = true;
+    }
+
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        if (!this.open)
+            throw new IllegalStateException("Operator not yet open");
+        return fetchNextBatch();
+    }
+
+    /**
+     * Returns the next batch, or null if there are no more rows. A batch
+     * that is returned must have at least one selected row.
+     *
+     * @see BatchIterator#nextBatch
+     */
+    protected abstract TupleBatch fetchNextBatch() throws DbException,
+            TransactionAbortedException;
+
+    /**
+     * Closes this iterator. If overridden by a subclass, they should call
+     * super.close().
+     */
+    public void close() {
+        this.open = false;
+    }
+
+    /**
+     * @return the children of this operator. If there is only one child,
+     *         return an array of only one element.
+     */
+    public abstract BatchIterator[] getChildren();
+}
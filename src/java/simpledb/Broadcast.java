@@ -0,0 +1,71 @@
+package simpledb;
+
+/**
+ * Broadcast is an {@link Exchange} that sends every tuple of its inputs to
+ * each of n streams, for example to join a small table with each part of
+ * a large one. Each stream is a Broadcast operator of its own, created by
+ * {@link #create}; as with {@link Repartition}, the streams are meant to
+ * be read in parallel, and can only be rewound together.
+ */
+public class Broadcast extends ExchangeConsumer {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final Router ALL_CHANNELS = new Router() {
+        public int route(Tuple t) {
+            return -1;
+        }
+    };
+
+    private final Group group;
+    private final int index;
+    private final int n;
+
+    private Broadcast(Group group, int index, int n) {
+        this.group = group;
+        this.index = index;
+        this.n = n;
+    }
+
+    /**
+     * @param inputs
+     *            the plans producing the tuples; each runs in a task of its own
+     * @param n
+     *            the number of streams
+     * @return the n streams
+     */
+    public static Broadcast[] create(OpIterator[] inputs, int n) {
+        Group group = new Group(inputs, ALL_CHANNELS, n);
+        Broadcast[] streams = new Broadcast[n];
+        for (int i = 0; i < n; i++)
+            streams[i] = new Broadcast(group, i, n);
+        return streams;
+    }
+
+    Channel connect() throws DbException {
+        return group.connect(index);
+    }
+
+    void disconnect() {
+        group.disconnect(index);
+    }
+
+    public String getName() {
+        return "broadcast(" + (index + 1) + "/" + n + ")";
+    }
+
+    public TupleDesc getTupleDesc() {
+        return group.getInputs()[0].getTupleDesc();
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return group.getInputs().clone();
+    }
+
+    /** Replaces the inputs of all streams. */
+    @Override
+    public void setChildren(OpIterator[] children) {
+        group.setInputs(children.clone(), ALL_CHANNELS);
+    }
+}
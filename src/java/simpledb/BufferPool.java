@@ -2,7 +2,11 @@ package simpledb;
 
 import java.io.*;
 
+import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * BufferPool manages the reading and writing of pages into memory from
@@ -12,6 +16,36 @@ import java.util.concurrent.ConcurrentHashMap;
  * The BufferPool is also responsible for locking;  when a transaction fetches
  * a page, BufferPool checks that the transaction has the appropriate
  * locks to read/write the page.
+ * <p>
+ * Which page to give up when the pool is full is delegated to an
+ * {@link EvictionPolicy}. The pool counts hits, misses and evictions so
+ * that policies can be compared on the same workload.
+ * <p>
+ * <u> Locking note: </u> the page table is a ConcurrentHashMap, so a
+ * getPage hit takes no lock in the pool itself, and none at all with the
+ * default {@link ClockEvictionPolicy}; {@link LRUEvictionPolicy} and
+ * {@link TwoQEvictionPolicy} synchronize their bookkeeping of hits. A miss reads the page while holding one
+ * of a fixed set of load latches, chosen by the hash of the PageId, so two
+ * threads never read the same page twice and misses on unrelated pages
+ * proceed in parallel. Only eviction, flushing and discarding synchronize
+ * on the BufferPool itself; this is the monitor that {@link LogFile} takes
+ * before its own (see the locking note there). A thread may take a load
+ * latch while holding the BufferPool monitor, but never the other way
+ * around: getPage makes room for a page before it takes the latch.
+ * <p>
+ * In off-heap mode the raw bytes of every cached {@link FrameBackedPage}
+ * are kept in a frame of a {@link PageFrameArena} rather than on the Java
+ * heap, and tuples are decoded from the frame when they are read. The
+ * arena has one frame per page of the pool. A page gets its frame when it
+ * is read in, and gives it back (copying its bytes to the heap, in case a
+ * transaction still holds a reference to it) when it is evicted or
+ * discarded.
+ * <p>
+ * {@link ReadAhead} loads pages ahead of sequential scans through
+ * {@link #prefetchPage}. A prefetched page that is evicted before anyone
+ * asks for it is counted as wasted, in the pool's total and for the
+ * read-ahead that prefetched it, which is how a scan notices that the pool
+ * is under too much pressure to hold the pages it reads ahead.
  * 
  * @Threadsafe, all fields are final
  */
@@ -26,13 +60,118 @@ public class BufferPool {
     constructor instead. */
     public static final int DEFAULT_PAGES = 50;
 
+    /** Number of latches used to serialize reads of the same page. */
+    private static final int NUM_LOAD_LATCHES = 64;
+
+    private final int numPages;
+    private final ConcurrentHashMap<PageId, Page> pages;
+    private final EvictionPolicy policy;
+    private final Object[] loadLatches;
+    /** Frames holding a page, plus frames reserved by reads in progress. */
+    private final AtomicInteger usedFrames = new AtomicInteger();
+
+    /** Off-heap frames, or null if pages are kept on the heap. */
+    private final PageFrameArena arena;
+    private final ConcurrentHashMap<PageId, AttachedFrame> frames;
+
+    /** A frame of the arena and the page using it. */
+    private static class AttachedFrame {
+        final FrameBackedPage page;
+        final int frame;
+
+        AttachedFrame(FrameBackedPage page, int frame) {
+            this.page = page;
+            this.frame = frame;
+        }
+    }
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final AtomicLong evictions = new AtomicLong();
+    private final LongAdder prefetches = new LongAdder();
+    private final AtomicLong wastedPrefetches = new AtomicLong();
     /**
-     * Creates a BufferPool that caches up to numPages pages.
+     * The dirty pages of the pool, as a view: asking about one page looks
+     * only at that page, so a policy looking for a victim does not make
+     * eviction cost as much as the whole pool.
+     */
+    private final Set<PageId> dirtyPages = new AbstractSet<PageId>() {
+        public boolean contains(Object o) {
+            Page page = pages.get(o);
+            return page != null && page.isDirty() != null;
+        }
+
+        public Iterator<PageId> iterator() {
+            ArrayList<PageId> dirty = new ArrayList<PageId>();
+            for (Page page : pages.values()) {
+                if (page.isDirty() != null)
+                    dirty.add(page.getId());
+            }
+            return dirty.iterator();
+        }
+
+        public int size() {
+            int n = 0;
+            for (Page page : pages.values()) {
+                if (page.isDirty() != null)
+                    n++;
+            }
+            return n;
+        }
+    };
+
+    /**
+     * Prefetched pages that have not been asked for yet, each with the
+     * counter of wasted prefetches of whoever prefetched it.
+     */
+    private final ConcurrentHashMap<PageId, AtomicLong> unusedPrefetches =
+        new ConcurrentHashMap<PageId, AtomicLong>();
+
+    /** Counts the wasted prefetches of callers that do not count them. */
+    private static final AtomicLong UNCOUNTED = new AtomicLong();
+
+    /**
+     * Creates a BufferPool that caches up to numPages pages, evicting pages
+     * with the CLOCK algorithm when it is full.
      *
      * @param numPages maximum number of pages in this buffer pool.
      */
     public BufferPool(int numPages) {
-        // some code goes here
+        this(numPages, new ClockEvictionPolicy());
+    }
+
+    /**
+     * Creates a BufferPool that caches up to numPages pages, using the
+     * specified policy to choose which page to evict when it is full.
+     *
+     * @param numPages maximum number of pages in this buffer pool.
+     * @param policy the page replacement policy; must not be shared with
+     *   another BufferPool
+     */
+    public BufferPool(int numPages, EvictionPolicy policy) {
+        this(numPages, policy, false);
+    }
+
+    /**
+     * Creates a BufferPool that caches up to numPages pages, optionally
+     * keeping the page data in off-heap frames.
+     *
+     * @param numPages maximum number of pages in this buffer pool.
+     * @param policy the page replacement policy; must not be shared with
+     *   another BufferPool
+     * @param offHeap if true, allocate numPages frames of
+     *   {@link #getPageSize()} bytes outside the Java heap and keep the
+     *   data of cached pages there
+     */
+    public BufferPool(int numPages, EvictionPolicy policy, boolean offHeap) {
+        this.numPages = numPages;
+        this.arena = offHeap ? new PageFrameArena(numPages, pageSize) : null;
+        this.frames = new ConcurrentHashMap<PageId, AttachedFrame>();
+        this.pages = new ConcurrentHashMap<PageId, Page>();
+        this.policy = policy;
+        this.loadLatches = new Object[NUM_LOAD_LATCHES];
+        for (int i = 0; i < loadLatches.length; i++)
+            loadLatches[i] = new Object();
     }
     
     public static int getPageSize() {
@@ -66,8 +205,133 @@ public class BufferPool {
      */
     public  Page getPage(TransactionId tid, PageId pid, Permissions perm)
         throws TransactionAbortedException, DbException {
-        // some code goes here
-        return null;
+        Page page = pages.get(pid);
+        if (page != null) {
+            pageHit(pid);
+            return page;
+        }
+        return loadPage(pid, false, null);
+    }
+
+    /**
+     * Reads a page into the pool on behalf of {@link ReadAhead}, unless it
+     * is already there. No locks are acquired, since the page is not handed
+     * to a transaction; the scan that wanted it still calls getPage. The
+     * read is counted as a prefetch rather than a miss.
+     *
+     * @param pid the ID of the page to read
+     * @return the page
+     * @throws DbException if there is no room for the page
+     */
+    public Page prefetchPage(PageId pid) throws DbException {
+        return prefetchPage(pid, null);
+    }
+
+    /**
+     * Like {@link #prefetchPage(PageId)}, but if this call reads the page
+     * and the page is evicted before anyone asks for it, wasted is
+     * incremented as well as the pool's count of wasted prefetches.
+     *
+     * @param wasted the caller's count of wasted prefetches, or null
+     */
+    public Page prefetchPage(PageId pid, AtomicLong wasted) throws DbException {
+        Page page = pages.get(pid);
+        if (page != null)
+            return page;
+        return loadPage(pid, true, wasted == null ? UNCOUNTED : wasted);
+    }
+
+    /** Records a getPage call satisfied from the pool. */
+    private void pageHit(PageId pid) {
+        hits.increment();
+        policy.pageHit(pid);
+        if (!unusedPrefetches.isEmpty())
+            unusedPrefetches.remove(pid);
+    }
+
+    /**
+     * Reads a page that was not in the pool, making room for it first.
+     *
+     * @param pid the ID of the page to read
+     * @param prefetch true if the read is a prefetch rather than a getPage
+     * @param wasted the count of wasted prefetches of the prefetcher
+     */
+    private Page loadPage(PageId pid, boolean prefetch, AtomicLong wasted)
+            throws DbException {
+        // make room first: eviction takes the BufferPool monitor, which must
+        // not be acquired while holding a load latch
+        reserveFrame();
+        boolean loaded = false;
+        try {
+            synchronized (loadLatches[(pid.hashCode() & 0x7fffffff) % NUM_LOAD_LATCHES]) {
+                // another thread may have read the page while we waited
+                Page page = pages.get(pid);
+                if (page != null) {
+                    if (!prefetch)
+                        pageHit(pid);
+                    return page;
+                }
+                if (prefetch)
+                    prefetches.increment();
+                else
+                    misses.increment();
+                page = Database.getCatalog().getDatabaseFile(pid.getTableId()).readPage(pid);
+                attachFrame(pid, page);
+                // mark it before it becomes visible, so a hit can unmark it
+                if (prefetch)
+                    unusedPrefetches.put(pid, wasted);
+                pages.put(pid, page);
+                policy.pageAdded(pid);
+                loaded = true;
+                return page;
+            }
+        } finally {
+            if (!loaded)
+                usedFrames.decrementAndGet();
+        }
+    }
+
+    /**
+     * In off-heap mode, moves the data of a page that is being added to the
+     * pool into a frame of the arena.
+     */
+    private void attachFrame(PageId pid, Page page) throws DbException {
+        if (arena == null || !(page instanceof FrameBackedPage))
+            return;
+        int frame = arena.allocate();
+        FrameBackedPage fp = (FrameBackedPage) page;
+        if (fp.attachFrame(arena.frame(frame)))
+            frames.put(pid, new AttachedFrame(fp, frame));
+        else
+            arena.release(frame);
+    }
+
+    /**
+     * Gives back the frame used by a page that is leaving the pool, if any.
+     */
+    private void detachFrame(PageId pid) {
+        AttachedFrame af = frames.remove(pid);
+        if (af == null)
+            return;
+        af.page.detachFrame();
+        arena.release(af.frame);
+    }
+
+    /**
+     * Claims a free frame for a page about to be read, evicting pages until
+     * one is available.
+     */
+    private void reserveFrame() throws DbException {
+        while (true) {
+            int used = usedFrames.get();
+            if (used < numPages) {
+                if (usedFrames.compareAndSet(used, used + 1))
+                    return;
+            } else if (!evictPage()) {
+                // the frames are reserved by reads that have not finished
+                Thread.yield();
+            }
+        }
     }
 
     /**
@@ -160,9 +424,8 @@ public class BufferPool {
      *     break simpledb if running in NO STEAL mode.
      */
     public synchronized void flushAllPages() throws IOException {
-        // some code goes here
-        // not necessary for lab1
-
+        for (PageId pid : pages.keySet())
+            flushPage(pid);
     }
 
     /** Remove the specific page id from the buffer pool.
@@ -174,8 +437,23 @@ public class BufferPool {
         are removed from the cache so they can be reused safely
     */
     public synchronized void discardPage(PageId pid) {
-        // some code goes here
-        // not necessary for lab1
+        // detach before removing, so that a new copy of the page read in by
+        // another thread cannot have its frame taken away
+        detachFrame(pid);
+        unusedPrefetches.remove(pid);
+        if (pages.remove(pid) != null) {
+            usedFrames.decrementAndGet();
+            policy.pageDiscarded(pid);
+        }
+    }
+
+    /**
+     * @return true if the pool holds a version of the page that has been
+     *         changed since it was read from disk
+     */
+    public boolean holdsDirtyPage(PageId pid) {
+        Page page = pages.get(pid);
+        return page != null && page.isDirty() != null;
     }
 
     /**
@@ -183,24 +461,118 @@ public class BufferPool {
      * @param pid an ID indicating the page to flush
      */
     private synchronized  void flushPage(PageId pid) throws IOException {
-        // some code goes here
-        // not necessary for lab1
+        Page page = pages.get(pid);
+        if (page == null || page.isDirty() == null)
+            return;
+        Database.getCatalog().getDatabaseFile(pid.getTableId()).writePage(page);
+        page.markDirty(false, null);
     }
 
     /** Write all pages of the specified transaction to disk.
      */
     public synchronized  void flushPages(TransactionId tid) throws IOException {
-        // some code goes here
-        // not necessary for lab1|lab2
+        for (Page page : pages.values()) {
+            if (tid.equals(page.isDirty()))
+                flushPage(page.getId());
+        }
     }
 
     /**
      * Discards a page from the buffer pool.
      * Flushes the page to disk to ensure dirty pages are updated on disk.
+     * @return false if no page can be evicted until reads in progress add
+     *         the pages they have reserved frames for
+     * @throws DbException if every frame holds a dirty page
      */
-    private synchronized  void evictPage() throws DbException {
-        // some code goes here
-        // not necessary for lab1
+    private synchronized  boolean evictPage() throws DbException {
+        // another thread may have made room while we waited for the monitor
+        if (usedFrames.get() < numPages)
+            return true;
+        // NO STEAL: dirty pages stay in the pool until their transaction ends
+        PageId victim = policy.chooseVictim(dirtyPages);
+        if (victim == null) {
+            // frames not held by dirty pages belong to pages still being read
+            if (dirtyPages.size() < usedFrames.get())
+                return false;
+            throw new DbException("all pages in the buffer pool are dirty");
+        }
+        detachFrame(victim);
+        pages.remove(victim);
+        usedFrames.decrementAndGet();
+        policy.pageRemoved(victim);
+        evictions.incrementAndGet();
+        AtomicLong wasted = unusedPrefetches.remove(victim);
+        if (wasted != null) {
+            wastedPrefetches.incrementAndGet();
+            wasted.incrementAndGet();
+        }
+        return true;
+    }
+
+    /** @return the maximum number of pages in this buffer pool */
+    public int getNumPages() {
+        return numPages;
+    }
+
+    /** @return true if this buffer pool keeps page data off the Java heap */
+    public boolean isOffHeap() {
+        return arena != null;
+    }
+
+    /** @return the replacement policy used by this buffer pool */
+    public EvictionPolicy getEvictionPolicy() {
+        return policy;
+    }
+
+    /** @return the number of getPage calls satisfied from the pool */
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    /** @return the number of getPage calls that had to read from disk */
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    /** @return the number of pages evicted to make room for others */
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    /** @return the number of pages read by {@link #prefetchPage} */
+    public long getPrefetchCount() {
+        return prefetches.sum();
+    }
+
+    /** @return the number of prefetched pages evicted before they were used */
+    public long getWastedPrefetchCount() {
+        return wastedPrefetches.get();
+    }
+
+    /** @return the fraction of getPage calls that were hits, or 0 if there
+        have been none */
+    public double getHitRatio() {
+        long h = hits.sum();
+        long total = h + misses.sum();
+        return total == 0 ? 0.0 : (double) h / total;
+    }
+
+    /** Reset the hit, miss and eviction counters. */
+    public void resetStats() {
+        hits.reset();
+        misses.reset();
+        evictions.set(0);
+        prefetches.reset();
+        wastedPrefetches.set(0);
+    }
+
+    /** @return a one-line summary of the pool's counters */
+    public String statsString() {
+        return String.format("%s: hits=%d misses=%d evictions=%d hit ratio=%.3f"
+                + " prefetches=%d wasted=%d",
+                policy.getName(), getHitCount(), getMissCount(),
+                getEvictionCount(), getHitRatio(),
+                getPrefetchCount(), getWastedPrefetchCount());
     }
 
 }
@@ -131,6 +131,8 @@ public class Catalog {
                         types.add(Type.INT_TYPE);
                     else if (els2[1].trim().toLowerCase().equals("string"))
                         types.add(Type.STRING_TYPE);
+                    else if (els2[1].trim().toLowerCase().equals("varchar"))
+                        types.add(Type.VARCHAR_TYPE);
                     else {
                         System.out.println("Unknown type " + els2[1]);
                         System.exit(0);
@@ -147,7 +149,17 @@ public class Catalog {
                 Type[] typeAr = types.toArray(new Type[0]);
                 String[] namesAr = names.toArray(new String[0]);
                 TupleDesc t = new TupleDesc(typeAr, namesAr);
-                HeapFile tabHf = new HeapFile(new File(baseFolder+"/"+name + ".dat"), t);
+                // a table whose entry ends with "pax" is stored column by
+                // column, and one whose entry ends with "encoded" also
+                // encodes its columns
+                String options = line.substring(line.indexOf(")") + 1).trim();
+                HeapFile tabHf;
+                if (options.toLowerCase().equals("pax"))
+                    tabHf = new HeapFile(new File(baseFolder+"/"+name + ".dat"), t, false, HeapFile.Format.PAX);
+                else if (options.toLowerCase().equals("encoded"))
+                    tabHf = new HeapFile(new File(baseFolder+"/"+name + ".dat"), t, false, HeapFile.Format.ENCODED);
+                else
+                    tabHf = new HeapFile(new File(baseFolder+"/"+name + ".dat"), t);
                 addTable(tabHf,name,primaryKey);
                 System.out.println("Added table : " + name + " with schema " + t);
             }
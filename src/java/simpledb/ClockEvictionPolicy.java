@@ -0,0 +1,81 @@
+package simpledb;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * CLOCK (second chance) approximation of LRU. Each frame carries a reference
+ * bit that is set on every hit; the clock hand sweeps the frames, clearing
+ * set bits and evicting the first page whose bit is already clear.
+ * <p>
+ * A hit only sets a bit, and takes no lock, so concurrent getPage hits do
+ * not contend on the policy. Adding, removing and choosing a victim are
+ * synchronized, but these only happen on buffer pool misses.
+ */
+public class ClockEvictionPolicy implements EvictionPolicy {
+
+    private final ArrayList<PageId> frames = new ArrayList<PageId>();
+    private final HashMap<PageId, Integer> frameOf = new HashMap<PageId, Integer>();
+    private final LinkedList<Integer> freeFrames = new LinkedList<Integer>();
+    private final ConcurrentHashMap<PageId, AtomicBoolean> referenced =
+        new ConcurrentHashMap<PageId, AtomicBoolean>();
+    private int hand = 0;
+
+    public void pageHit(PageId pid) {
+        AtomicBoolean bit = referenced.get(pid);
+        // read before writing, so hot pages don't bounce a cache line around
+        if (bit != null && !bit.get())
+            bit.set(true);
+    }
+
+    public synchronized void pageAdded(PageId pid) {
+        if (frameOf.containsKey(pid)) {
+            pageHit(pid);
+            return;
+        }
+        int frame;
+        if (freeFrames.isEmpty()) {
+            frame = frames.size();
+            frames.add(pid);
+        } else {
+            frame = freeFrames.removeFirst();
+            frames.set(frame, pid);
+        }
+        frameOf.put(pid, frame);
+        referenced.put(pid, new AtomicBoolean(false));
+    }
+
+    public synchronized void pageRemoved(PageId pid) {
+        Integer frame = frameOf.remove(pid);
+        if (frame == null)
+            return;
+        frames.set(frame, null);
+        referenced.remove(pid);
+        freeFrames.add(frame);
+    }
+
+    public void pageDiscarded(PageId pid) {
+        pageRemoved(pid);
+    }
+
+    public synchronized PageId chooseVictim(Set<PageId> pinned) {
+        int n = frames.size();
+        // two full sweeps are enough: the first clears every reference bit
+        for (int i = 0; i < 2 * n; i++) {
+            int frame = hand;
+            hand = (hand + 1) % n;
+            PageId pid = frames.get(frame);
+            if (pid == null || pinned.contains(pid))
+                continue;
+            if (referenced.get(pid).getAndSet(false))
+                continue;
+            return pid;
+        }
+        return null;
+    }
+
+    public String getName() {
+        return "CLOCK";
+    }
+}
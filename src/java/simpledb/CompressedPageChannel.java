@@ -0,0 +1,287 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+
+/**
+ * A CompressedPageChannel stores the pages of a DbFile compressed with
+ * {@link PageCodec}, so that files of padded, half-empty pages take less
+ * disk and less I/O to read. To the DbFile it looks like a
+ * {@link PageChannel} over the uncompressed file: every write stores a
+ * <i>block</i> at an offset of the uncompressed file, and reads must ask
+ * for whole blocks at the offsets they were written at, as HeapFile and
+ * BTreeFile always do. Pages are decompressed when they are read, which is
+ * when the {@link BufferPool} misses; the pool holds them uncompressed.
+ * <p>
+ * Compressed blocks vary in size, so their positions are kept in a page
+ * map, a sidecar file named after the data file with a {@code .map}
+ * suffix. Each write of a block appends its entry to the map: its offset
+ * in the uncompressed file, its position and the space reserved for it in
+ * the data file, and its compressed and uncompressed lengths. The map is
+ * read into memory, the last entry of each block winning, when the file
+ * is first used, and replaced by a copy without the older entries. A block that
+ * grows beyond the space reserved for it is moved to the end of the data
+ * file; the space it leaves is not reused.
+ * <p>
+ * A file is compressed if it has a page map; see {@link PageChannel#open}.
+ *
+ * @Threadsafe
+ */
+public class CompressedPageChannel extends PageChannel {
+
+    /** Suffix of the name of the page map of a data file. */
+    public static final String MAP_SUFFIX = ".map";
+
+    // space reserved for a block is rounded up to a multiple of this, so
+    // that a page that grows a little can be written in place
+    private static final int ALIGN = 64;
+    private static final int ENTRY_SIZE = 28;
+
+    /** Where a block is stored in the data file. */
+    private static class Extent {
+        final long position;
+        final int capacity;
+        final int compressedLength;
+        final int length;
+
+        Extent(long position, int capacity, int compressedLength, int length) {
+            this.position = position;
+            this.capacity = capacity;
+            this.compressedLength = compressedLength;
+            this.length = length;
+        }
+    }
+
+    private final File mapFile;
+    private final PageChannel map;
+
+    // loaded on first use
+    private HashMap<Long, Extent> extents;
+    private long length;
+    private long end;
+    private long mapEnd;
+
+    /**
+     * @param f the data file of a compressed DbFile; its page map must
+     *          exist
+     */
+    public CompressedPageChannel(File f) {
+        super(f);
+        this.mapFile = mapFile(f);
+        this.map = new PageChannel(mapFile);
+    }
+
+    /** @return the page map of the data file f */
+    public static File mapFile(File f) {
+        return new File(f.getPath() + MAP_SUFFIX);
+    }
+
+    /**
+     * Creates an empty compressed file, with an empty page map, replacing
+     * any file of the same name.
+     */
+    public static void create(File f) throws IOException {
+        new FileOutputStream(f).close();
+        new FileOutputStream(mapFile(f)).close();
+    }
+
+    /**
+     * Writes a compressed copy of an uncompressed file, whose blocks are a
+     * first block of firstBlockSize bytes followed by blocks of blockSize
+     * bytes.
+     *
+     * @param in the file to compress
+     * @param out the compressed file to write, with its page map
+     * @param firstBlockSize the size of the first block, which is blockSize
+     *        for a HeapFile and the size of the root pointer page for a
+     *        BTreeFile
+     * @param blockSize the size of the other blocks, the page size
+     */
+    public static void compress(File in, File out, int firstBlockSize, int blockSize)
+            throws IOException {
+        create(out);
+        PageChannel src = new PageChannel(in);
+        CompressedPageChannel dst = new CompressedPageChannel(out);
+        try {
+            long offset = 0;
+            byte[] block = new byte[firstBlockSize];
+            while (src.read(block, offset) == block.length) {
+                dst.write(block, offset);
+                offset += block.length;
+                if (block.length != blockSize)
+                    block = new byte[blockSize];
+            }
+        } finally {
+            src.close();
+            dst.close();
+        }
+    }
+
+    /** Reads the page map into memory, if it has not been already. */
+    private synchronized void load() throws IOException {
+        if (extents != null)
+            return;
+        HashMap<Long, Extent> m = new HashMap<Long, Extent>();
+        int entries = (int) (mapFile.length() / ENTRY_SIZE);
+        byte[] bytes = new byte[entries * ENTRY_SIZE];
+        if (bytes.length > 0 && map.read(bytes, 0) < bytes.length)
+            throw new IOException("cannot read page map " + mapFile);
+        ByteBuffer b = ByteBuffer.wrap(bytes);
+        long len = 0;
+        long last = 0;
+        for (int i = 0; i < entries; i++) {
+            long offset = b.getLong();
+            Extent e = new Extent(b.getLong(), b.getInt(), b.getInt(), b.getInt());
+            m.put(offset, e);
+            len = Math.max(len, offset + e.length);
+            last = Math.max(last, e.position + e.capacity);
+        }
+        extents = m;
+        length = len;
+        end = last;
+        mapEnd = (long) entries * ENTRY_SIZE;
+        if (m.size() < entries) {
+            // drop the entries of blocks that were written again
+            ByteBuffer compact = ByteBuffer.allocate(m.size() * ENTRY_SIZE);
+            for (Map.Entry<Long, Extent> e : m.entrySet())
+                putEntry(compact, e.getKey(), e.getValue());
+            // written to a new file first, so that a crash leaves either
+            // the old map or the new one
+            File tmp = File.createTempFile(mapFile.getName(), ".tmp",
+                    mapFile.getAbsoluteFile().getParentFile());
+            try {
+                FileOutputStream out = new FileOutputStream(tmp);
+                try {
+                    out.write(compact.array());
+                    out.getFD().sync();
+                } finally {
+                    out.close();
+                }
+                map.close(); // reopened on the next write
+                Files.move(tmp.toPath(), mapFile.toPath(),
+                        StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                tmp.delete();
+            }
+            mapEnd = compact.capacity();
+        }
+    }
+
+    private static void putEntry(ByteBuffer b, long offset, Extent e) {
+        b.putLong(offset);
+        b.putLong(e.position);
+        b.putInt(e.capacity);
+        b.putInt(e.compressedLength);
+        b.putInt(e.length);
+    }
+
+    @Override
+    public boolean isCompressed() {
+        return true;
+    }
+
+    /** @return the length of the uncompressed file */
+    @Override
+    public long length() {
+        try {
+            load();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        synchronized (this) {
+            return length;
+        }
+    }
+
+    /** @return the number of bytes the compressed blocks take on disk */
+    public long compressedLength() {
+        length();
+        synchronized (this) {
+            return end;
+        }
+    }
+
+    /**
+     * Reads the block written at the specified offset, decompressed.
+     *
+     * @param buf the buffer to read into
+     * @param offset the offset of the block in the uncompressed file
+     * @return the number of bytes read, the smaller of the size of the block
+     *   and buf.length, or -1 if offset is at or past the end of the file
+     * @throws IOException if no block starts at offset
+     */
+    @Override
+    public int read(byte[] buf, long offset) throws IOException {
+        load();
+        Extent e;
+        synchronized (this) {
+            e = extents.get(offset);
+            if (e == null && offset >= length)
+                return -1;
+        }
+        if (e == null)
+            throw new IOException("no page at offset " + offset + " of " + mapFile);
+        byte[] compressed = new byte[e.compressedLength];
+        if (super.read(compressed, e.position) < compressed.length)
+            throw new IOException("compressed page at offset " + offset + " is truncated");
+        byte[] block = buf.length >= e.length ? buf : new byte[e.length];
+        try {
+            PageCodec.decompress(compressed, 0, compressed.length, block);
+        } catch (IllegalArgumentException ex) {
+            throw new IOException(ex.getMessage() + " at offset " + offset);
+        }
+        if (block != buf)
+            System.arraycopy(block, 0, buf, 0, buf.length);
+        return Math.min(buf.length, e.length);
+    }
+
+    /**
+     * Compresses data and stores it as the block at the specified offset,
+     * in place if it fits in the space of the block it replaces.
+     *
+     * @param data the bytes of the block
+     * @param offset the offset of the block in the uncompressed file
+     */
+    @Override
+    public void write(byte[] data, long offset) throws IOException {
+        load();
+        byte[] compressed = PageCodec.compress(data, data.length);
+        synchronized (this) {
+            Extent old = extents.get(offset);
+            Extent e;
+            if (old != null && old.capacity >= compressed.length) {
+                e = new Extent(old.position, old.capacity, compressed.length, data.length);
+            } else {
+                int capacity = (compressed.length + ALIGN - 1) / ALIGN * ALIGN;
+                e = new Extent(end, capacity, compressed.length, data.length);
+                end += capacity;
+            }
+            super.write(compressed, e.position);
+            ByteBuffer entry = ByteBuffer.allocate(ENTRY_SIZE);
+            putEntry(entry, offset, e);
+            map.write(entry.array(), mapEnd);
+            mapEnd += ENTRY_SIZE;
+            extents.put(offset, e);
+            length = Math.max(length, offset + data.length);
+        }
+    }
+
+    /**
+     * Compressed files cannot be mapped.
+     * @throws IOException always
+     */
+    @Override
+    public MappedByteBuffer map(long offset, long size) throws IOException {
+        throw new IOException("cannot memory map compressed file " + mapFile);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        super.close();
+        map.close();
+    }
+}
@@ -0,0 +1,245 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * Distinct returns each distinct row of its child once, for SELECT
+ * DISTINCT. Rows are returned as they are read, the first time they are
+ * seen, so that Distinct does not wait for its whole input.
+ * <p>
+ * The rows seen are kept in a hash set, up to as many as fit in the
+ * {@link OperatorMemory} budget. Once the set is full, rows that are not
+ * in it are written to one of {@link HashAggregate#FANOUT}
+ * {@link SpillFile}s by their hash, and when the input is exhausted each
+ * spilled partition is deduplicated in the same way, with a different
+ * hash. No row in a partition has been returned, so the rows of each
+ * partition are returned after those of the input.
+ * <p>
+ * If the child returns its rows in ascending order of a field, a row can
+ * only repeat rows with the same value of that field, so only the rows of
+ * the current run of equal values are kept, and the set is emptied
+ * whenever the value changes. This sorted distinct uses memory for the
+ * longest run rather than for all distinct rows, and keeps the order of
+ * its input as long as no run outgrows the set.
+ * <p>
+ * A <i>partial</i> Distinct, run by each producer of a parallel plan,
+ * does not spill: when its set is full it starts over with an empty one,
+ * so a row may appear in its output more than once, and a Distinct over
+ * all the producers removes the rest.
+ */
+public class Distinct extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Sort field of a child whose rows are in no particular order. */
+    public static final int UNSORTED = -1;
+
+    private OpIterator child;
+    private final int sortField;
+    private final boolean partial;
+
+    transient private HashSet<List<Field>> seen;
+    transient private int maxRows;
+    // value of the sort field in the current run
+    transient private Field run;
+    // rows being read: the child or a spilled partition, at a level
+    transient private OpIterator in;
+    transient private SpillFile current;
+    transient private int level;
+    transient private SpillFile[] spill;
+    transient private ArrayList<SpillFile> pending;
+    transient private ArrayList<Integer> pendingLevels;
+    transient private int spilledPartitions;
+
+    /**
+     * Constructor for a Distinct over rows in no particular order.
+     *
+     * @param child
+     *            The OpIterator that is feeding us tuples.
+     */
+    public Distinct(OpIterator child) {
+        this(child, UNSORTED, false);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param child
+     *            The OpIterator that is feeding us tuples.
+     * @param sortField
+     *            a field the child's rows are in ascending order of, or
+     *            {@link #UNSORTED}
+     * @param partial
+     *            true to start over with an empty set whenever it is full,
+     *            rather than spill, leaving it to a final Distinct to
+     *            remove the duplicates that remain
+     */
+    public Distinct(OpIterator child, int sortField, boolean partial) {
+        if (sortField != UNSORTED
+                && (sortField < 0 || sortField >= child.getTupleDesc().numFields()))
+            throw new IllegalArgumentException("no field " + sortField);
+        this.child = child;
+        this.sortField = sortField;
+        this.partial = partial;
+    }
+
+    /** @return the field the child is sorted on, or {@link #UNSORTED} */
+    public int getSortField() {
+        return sortField;
+    }
+
+    /** @return true if this is the partial phase of a parallel distinct */
+    public boolean isPartial() {
+        return partial;
+    }
+
+    /**
+     * @return the number of partitions written to disk since the operator
+     *         was opened
+     */
+    public int numSpilledPartitions() {
+        return spilledPartitions;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child.open();
+        start();
+        super.open();
+    }
+
+    private void start() {
+        maxRows = OperatorMemory.maxRows(48 + 16
+                + OperatorMemory.tupleBytes(child.getTupleDesc()));
+        seen = new HashSet<List<Field>>();
+        run = null;
+        in = child;
+        current = null;
+        level = 0;
+        spill = new SpillFile[HashAggregate.FANOUT];
+        pending = new ArrayList<SpillFile>();
+        pendingLevels = new ArrayList<Integer>();
+        spilledPartitions = 0;
+    }
+
+    public void close() {
+        super.close();
+        closeSpills();
+        seen = null;
+        child.close();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        closeSpills();
+        child.rewind();
+        start();
+    }
+
+    /** Deletes the partitions being written and read, and those pending. */
+    private void closeSpills() {
+        if (current != null) {
+            in.close();
+            current.delete();
+            current = null;
+        }
+        in = null;
+        if (spill != null) {
+            for (SpillFile f : spill)
+                if (f != null)
+                    f.delete();
+        }
+        if (pending != null) {
+            for (SpillFile f : pending)
+                f.delete();
+            pending.clear();
+        }
+    }
+
+    /** @return the values of t, which are equal for equal rows */
+    private static List<Field> key(Tuple t) {
+        Field[] fields = new Field[t.getTupleDesc().numFields()];
+        for (int i = 0; i < fields.length; i++)
+            fields[i] = t.getField(i);
+        return Arrays.asList(fields);
+    }
+
+    /**
+     * Finishes the partitions written while reading the current input, and
+     * opens the next pending one.
+     * @return false if no partitions are left
+     */
+    private boolean nextPartition() throws DbException, TransactionAbortedException {
+        for (int p = 0; p < spill.length; p++) {
+            if (spill[p] == null)
+                continue;
+            spill[p].finish();
+            pending.add(spill[p]);
+            pendingLevels.add(level + 1);
+            spill[p] = null;
+        }
+        if (current != null) {
+            in.close();
+            current.delete();
+            current = null;
+        }
+        in = null;
+        if (pending.isEmpty())
+            return false;
+        current = pending.remove(pending.size() - 1);
+        level = pendingLevels.remove(pendingLevels.size() - 1);
+        in = current.iterator();
+        in.open();
+        seen = new HashSet<List<Field>>();
+        return true;
+    }
+
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        if (in == null)
+            return null;
+        while (true) {
+            while (in.hasNext()) {
+                Tuple t = in.next();
+                if (in == child && sortField != UNSORTED) {
+                    Field f = t.getField(sortField);
+                    if (run == null || !f.equals(run)) {
+                        run = f;
+                        seen.clear();
+                    }
+                }
+                List<Field> k = key(t);
+                if (seen.contains(k))
+                    continue;
+                if (seen.size() >= maxRows) {
+                    if (!partial) {
+                        int p = HashAggregate.partition(k.hashCode(), level);
+                        if (spill[p] == null) {
+                            spill[p] = new SpillFile(in.getTupleDesc());
+                            spilledPartitions++;
+                        }
+                        spill[p].add(t);
+                        continue;
+                    }
+                    seen.clear();
+                }
+                seen.add(k);
+                return t;
+            }
+            if (!nextPartition())
+                return null;
+        }
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[] { this.child };
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        this.child = children[0];
+    }
+}
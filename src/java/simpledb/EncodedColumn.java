@@ -0,0 +1,466 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * An EncodedColumn is the values of one column of an
+ * {@link EncodedHeapPage}, in one of the lightweight encodings of
+ * {@link Encoding}. The page stores each column in the encoding that takes
+ * the fewest bytes for its values, chosen by {@link #encode}; the column is
+ * read back by {@link #read}, without decoding its values.
+ * <p>
+ * Predicates are evaluated on the encoded values by {@link #select}: a
+ * run-length column compares each run once, a frame-of-reference column
+ * compares its packed offsets with the operand less the base, and a
+ * dictionary column compares each entry of its dictionary once and then
+ * only looks up the code of each row. No Field is made for a row unless
+ * {@link #get} asks for it.
+ * <p>
+ * An encoded column starts with the ordinal of its encoding, in a byte.
+ * Lengths, counts and offsets are unsigned shorts, so a column holds at
+ * most {@link #MAX_ROWS} rows.
+ */
+public abstract class EncodedColumn {
+
+    /** The largest number of rows a column holds. */
+    public static final int MAX_ROWS = 0xffff;
+
+    /** The encodings of a column. */
+    public enum Encoding {
+        /**
+         * Each value as it is: an int, or a string of its own length; a
+         * table of the end offsets of the strings comes first
+         */
+        PLAIN,
+        /** INT_TYPE only: the number of runs, then each as a value and a length */
+        RUN_LENGTH,
+        /**
+         * INT_TYPE only: the smallest value, the base, then the offset of
+         * each value from it, bit-packed in as many bits as the largest
+         */
+        FRAME_OF_REFERENCE,
+        /**
+         * STRING_TYPE only: the distinct values, in the order they first
+         * appear, then the code of each row, its index in the dictionary,
+         * bit-packed in as few bits as the codes need
+         */
+        DICTIONARY
+    }
+
+    final int rows;
+
+    EncodedColumn(int rows) {
+        this.rows = rows;
+    }
+
+    /** @return the encoding of this column */
+    public abstract Encoding getEncoding();
+
+    /** @return the value of row i */
+    public abstract Field get(int i);
+
+    /**
+     * Clears sel[i] for each row i whose value v does not satisfy
+     * {@code v op operand}, as {@link Field#compare} would decide it.
+     * Rows whose sel is already false are not looked at.
+     */
+    public abstract void select(Predicate.Op op, Field operand, boolean[] sel);
+
+    /** @return the number of rows of this column */
+    public int getNumRows() {
+        return rows;
+    }
+
+    /**
+     * Encodes column j of the first n rows, in the encoding of its type that
+     * takes the fewest bytes.
+     * @return the encoded column
+     * @throws IllegalArgumentException if the type is not INT_TYPE or
+     *         STRING_TYPE, or n is more than {@link #MAX_ROWS}
+     */
+    public static byte[] encode(Type type, Field[][] rows, int j, int n) {
+        if (n > MAX_ROWS)
+            throw new IllegalArgumentException("a column holds at most " + MAX_ROWS + " rows");
+        if (type == Type.INT_TYPE) {
+            int[] values = new int[n];
+            for (int i = 0; i < n; i++)
+                values[i] = ((IntField) rows[i][j]).getValue();
+            return encodeInts(values);
+        }
+        if (type == Type.STRING_TYPE) {
+            byte[][] values = new byte[n][];
+            for (int i = 0; i < n; i++)
+                values[i] = ((StringField) rows[i][j]).getValue().getBytes();
+            return encodeStrings(values);
+        }
+        throw new IllegalArgumentException("cannot encode columns of type " + type);
+    }
+
+    /**
+     * Reads the column of the given number of rows that starts at offset
+     * in b.
+     */
+    public static EncodedColumn read(Type type, ByteBuffer b, int offset, int rows) {
+        Encoding e = Encoding.values()[b.get(offset)];
+        offset++;
+        switch (e) {
+        case RUN_LENGTH:
+            return new RunLengthInts(b, offset, rows);
+        case FRAME_OF_REFERENCE:
+            return new FrameOfReferenceInts(b, offset, rows);
+        case DICTIONARY:
+            return new DictionaryStrings(b, offset, rows);
+        default:
+            if (type == Type.INT_TYPE)
+                return new PlainInts(b, offset, rows);
+            return new PlainStrings(b, offset, rows);
+        }
+    }
+
+    /** @return v op c, as {@link IntField#compare} decides it */
+    static boolean compare(long v, Predicate.Op op, long c) {
+        switch (op) {
+        case EQUALS:
+        case LIKE:
+            return v == c;
+        case NOT_EQUALS:
+            return v != c;
+        case GREATER_THAN:
+            return v > c;
+        case GREATER_THAN_OR_EQ:
+            return v >= c;
+        case LESS_THAN:
+            return v < c;
+        case LESS_THAN_OR_EQ:
+            return v <= c;
+        }
+        return false;
+    }
+
+    /** @return the number of bits needed to write values up to max */
+    static int bitsFor(long max) {
+        return 64 - Long.numberOfLeadingZeros(max);
+    }
+
+    /** @return the bytes taken by n values of the given number of bits */
+    static int packedLength(int n, int bits) {
+        return (int) (((long) n * bits + 7) / 8);
+    }
+
+    /** Writes the low bits of each value, least significant bit first. */
+    static void pack(DataOutputStream out, long[] values, int bits) throws IOException {
+        byte[] packed = new byte[packedLength(values.length, bits)];
+        long pos = 0;
+        for (long v : values) {
+            for (int k = 0; k < bits; k++, pos++) {
+                if ((v & (1L << k)) != 0)
+                    packed[(int) (pos >>> 3)] |= (byte) (1 << (pos & 7));
+            }
+        }
+        out.write(packed);
+    }
+
+    /** @return value i of the values packed in bits bits at offset of b */
+    static long unpack(ByteBuffer b, int offset, int i, int bits) {
+        if (bits == 0)
+            return 0;
+        long pos = (long) i * bits;
+        int first = offset + (int) (pos >>> 3);
+        int last = offset + (int) ((pos + bits - 1) >>> 3);
+        long word = 0;
+        for (int k = last; k >= first; k--)
+            word = (word << 8) | (b.get(k) & 0xff);
+        return (word >>> (pos & 7)) & ((1L << bits) - 1);
+    }
+
+    private static byte[] encodeInts(int[] values) {
+        int n = values.length;
+        int runs = 0;
+        long min = Integer.MAX_VALUE;
+        long max = Integer.MIN_VALUE;
+        for (int i = 0; i < n; i++) {
+            if (i == 0 || values[i] != values[i - 1])
+                runs++;
+            min = Math.min(min, values[i]);
+            max = Math.max(max, values[i]);
+        }
+        int bits = n == 0 ? 0 : bitsFor(max - min);
+        int plain = 4 * n;
+        int rle = 2 + 6 * runs;
+        int frame = 5 + packedLength(n, bits);
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(baos);
+        try {
+            if (frame < plain && frame <= rle) {
+                out.writeByte(Encoding.FRAME_OF_REFERENCE.ordinal());
+                out.writeInt((int) min);
+                out.writeByte(bits);
+                long[] offsets = new long[n];
+                for (int i = 0; i < n; i++)
+                    offsets[i] = values[i] - min;
+                pack(out, offsets, bits);
+            } else if (rle < plain) {
+                out.writeByte(Encoding.RUN_LENGTH.ordinal());
+                out.writeShort(runs);
+                for (int i = 0; i < n; ) {
+                    int len = 1;
+                    while (i + len < n && values[i + len] == values[i])
+                        len++;
+                    out.writeInt(values[i]);
+                    out.writeShort(len);
+                    i += len;
+                }
+            } else {
+                out.writeByte(Encoding.PLAIN.ordinal());
+                for (int v : values)
+                    out.writeInt(v);
+            }
+            out.flush();
+        } catch (IOException e) {
+            // writing to an array cannot fail
+            throw new RuntimeException(e);
+        }
+        return baos.toByteArray();
+    }
+
+    private static byte[] encodeStrings(byte[][] values) {
+        int n = values.length;
+        int plain = 2 * n;
+        for (byte[] v : values)
+            plain += v.length;
+        LinkedHashMap<String, Integer> dictionary = new LinkedHashMap<String, Integer>();
+        long[] codes = new long[n];
+        int entryBytes = 0;
+        for (int i = 0; i < n; i++) {
+            String s = new String(values[i]);
+            Integer code = dictionary.get(s);
+            if (code == null) {
+                code = dictionary.size();
+                dictionary.put(s, code);
+                entryBytes += values[i].length;
+            }
+            codes[i] = code;
+        }
+        int bits = dictionary.size() <= 1 ? 0 : bitsFor(dictionary.size() - 1);
+        int dict = 3 + 2 * dictionary.size() + entryBytes + packedLength(n, bits);
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(baos);
+        try {
+            if (dict < plain) {
+                out.writeByte(Encoding.DICTIONARY.ordinal());
+                out.writeShort(dictionary.size());
+                ArrayList<byte[]> entries = new ArrayList<byte[]>();
+                for (String s : dictionary.keySet())
+                    entries.add(s.getBytes());
+                writeStrings(out, entries);
+                out.writeByte(bits);
+                pack(out, codes, bits);
+            } else {
+                out.writeByte(Encoding.PLAIN.ordinal());
+                writeStrings(out, Arrays.asList(values));
+            }
+            out.flush();
+        } catch (IOException e) {
+            // writing to an array cannot fail
+            throw new RuntimeException(e);
+        }
+        return baos.toByteArray();
+    }
+
+    /** Writes the end offset of each string, then the strings. */
+    private static void writeStrings(DataOutputStream out, List<byte[]> values)
+            throws IOException {
+        int end = 0;
+        for (byte[] v : values) {
+            end += v.length;
+            out.writeShort(end);
+        }
+        for (byte[] v : values)
+            out.write(v);
+    }
+
+    /** @return string i of the n strings written by writeStrings at offset */
+    private static String readString(ByteBuffer b, int offset, int n, int i) {
+        int start = i == 0 ? 0 : b.getChar(offset + 2 * (i - 1));
+        int end = b.getChar(offset + 2 * i);
+        byte[] bytes = new byte[end - start];
+        for (int k = 0; k < bytes.length; k++)
+            bytes[k] = b.get(offset + 2 * n + start + k);
+        return new String(bytes);
+    }
+
+    /** INT_TYPE values as they are. */
+    private static class PlainInts extends EncodedColumn {
+        private final ByteBuffer b;
+        private final int offset;
+
+        PlainInts(ByteBuffer b, int offset, int rows) {
+            super(rows);
+            this.b = b;
+            this.offset = offset;
+        }
+
+        public Encoding getEncoding() {
+            return Encoding.PLAIN;
+        }
+
+        public Field get(int i) {
+            return new IntField(b.getInt(offset + 4 * i));
+        }
+
+        public void select(Predicate.Op op, Field operand, boolean[] sel) {
+            int c = ((IntField) operand).getValue();
+            for (int i = 0; i < rows; i++) {
+                if (sel[i])
+                    sel[i] = compare(b.getInt(offset + 4 * i), op, c);
+            }
+        }
+    }
+
+    /** INT_TYPE values as runs of equal values. */
+    private static class RunLengthInts extends EncodedColumn {
+        private final int[] values;
+        private final int[] ends;
+
+        RunLengthInts(ByteBuffer b, int offset, int rows) {
+            super(rows);
+            int runs = b.getChar(offset);
+            values = new int[runs];
+            ends = new int[runs];
+            int end = 0;
+            for (int r = 0; r < runs; r++) {
+                values[r] = b.getInt(offset + 2 + 6 * r);
+                end += b.getChar(offset + 6 + 6 * r);
+                ends[r] = end;
+            }
+        }
+
+        public Encoding getEncoding() {
+            return Encoding.RUN_LENGTH;
+        }
+
+        public Field get(int i) {
+            int r = Arrays.binarySearch(ends, i + 1);
+            return new IntField(values[r < 0 ? -r - 1 : r]);
+        }
+
+        public void select(Predicate.Op op, Field operand, boolean[] sel) {
+            int c = ((IntField) operand).getValue();
+            int start = 0;
+            for (int r = 0; r < values.length; r++) {
+                if (!compare(values[r], op, c))
+                    Arrays.fill(sel, start, ends[r], false);
+                start = ends[r];
+            }
+        }
+    }
+
+    /** INT_TYPE values as bit-packed offsets from the smallest. */
+    private static class FrameOfReferenceInts extends EncodedColumn {
+        private final ByteBuffer b;
+        private final long base;
+        private final int bits;
+        private final int packed;
+
+        FrameOfReferenceInts(ByteBuffer b, int offset, int rows) {
+            super(rows);
+            this.b = b;
+            this.base = b.getInt(offset);
+            this.bits = b.get(offset + 4);
+            this.packed = offset + 5;
+        }
+
+        public Encoding getEncoding() {
+            return Encoding.FRAME_OF_REFERENCE;
+        }
+
+        public Field get(int i) {
+            return new IntField((int) (base + unpack(b, packed, i, bits)));
+        }
+
+        public void select(Predicate.Op op, Field operand, boolean[] sel) {
+            // v op c exactly when v - base op c - base
+            long c = ((IntField) operand).getValue() - base;
+            for (int i = 0; i < rows; i++) {
+                if (sel[i])
+                    sel[i] = compare(unpack(b, packed, i, bits), op, c);
+            }
+        }
+    }
+
+    /** STRING_TYPE values as they are. */
+    private static class PlainStrings extends EncodedColumn {
+        private final ByteBuffer b;
+        private final int offset;
+
+        PlainStrings(ByteBuffer b, int offset, int rows) {
+            super(rows);
+            this.b = b;
+            this.offset = offset;
+        }
+
+        public Encoding getEncoding() {
+            return Encoding.PLAIN;
+        }
+
+        public Field get(int i) {
+            return new StringField(readString(b, offset, rows, i), Type.STRING_LEN);
+        }
+
+        public void select(Predicate.Op op, Field operand, boolean[] sel) {
+            // without a dictionary, each row is compared on its own
+            for (int i = 0; i < rows; i++) {
+                if (sel[i])
+                    sel[i] = get(i).compare(op, operand);
+            }
+        }
+    }
+
+    /** STRING_TYPE values as codes into a dictionary of distinct values. */
+    private static class DictionaryStrings extends EncodedColumn {
+        private final ByteBuffer b;
+        private final StringField[] dictionary;
+        private final int bits;
+        private final int packed;
+
+        DictionaryStrings(ByteBuffer b, int offset, int rows) {
+            super(rows);
+            this.b = b;
+            int entries = b.getChar(offset);
+            dictionary = new StringField[entries];
+            for (int k = 0; k < entries; k++)
+                dictionary[k] = new StringField(readString(b, offset + 2, entries, k), Type.STRING_LEN);
+            int end = entries == 0 ? 0 : b.getChar(offset + 2 * entries);
+            int bitsAt = offset + 2 + 2 * entries + end;
+            this.bits = b.get(bitsAt);
+            this.packed = bitsAt + 1;
+        }
+
+        public Encoding getEncoding() {
+            return Encoding.DICTIONARY;
+        }
+
+        /** @return the code of row i */
+        int code(int i) {
+            return (int) unpack(b, packed, i, bits);
+        }
+
+        public Field get(int i) {
+            return dictionary[code(i)];
+        }
+
+        public void select(Predicate.Op op, Field operand, boolean[] sel) {
+            boolean[] matches = new boolean[dictionary.length];
+            for (int k = 0; k < dictionary.length; k++)
+                matches[k] = dictionary[k].compare(op, operand);
+            for (int i = 0; i < rows; i++) {
+                if (sel[i])
+                    sel[i] = matches[code(i)];
+            }
+        }
+    }
+}
@@ -0,0 +1,388 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * An EncodedHeapPage stores a page of a HeapFile column by column, as a
+ * {@link PaxHeapPage} does, but with each column in a lightweight encoding
+ * of its values: run-length or frame-of-reference for INT_TYPE columns and
+ * a dictionary for STRING_TYPE columns, whichever is smallest; see
+ * {@link EncodedColumn}. A page holds as many tuples as fit once encoded,
+ * usually many more than a HeapPage of the same TupleDesc, and a scan can
+ * evaluate predicates on the encoded columns, decoding only the tuples
+ * that satisfy them; see {@link #iterator(int[], Predicate[])}.
+ * <p>
+ * The page starts with the number of rows and the offset of each column in
+ * the page, as unsigned shorts, followed by a bitmap of the rows in use and
+ * the encoded columns. A page of zeroes is an empty page, and pages may be
+ * at most {@link #MAX_PAGE_SIZE} bytes. Deleting a tuple only clears its
+ * bit; inserting one encodes the page again with the tuple in the first
+ * unused row, so a tuple keeps its RecordId as long as it is on the page.
+ *
+ * @see HeapFile.Format#ENCODED
+ */
+public class EncodedHeapPage implements Page {
+
+    /** Largest page size the offsets of the format can address. */
+    public static final int MAX_PAGE_SIZE = 0xffff;
+
+    final HeapPageId pid;
+    final TupleDesc td;
+    private final int pageSize;
+    private byte[] data;
+    private ByteBuffer buf;
+    // decoded on first use, and again after an insert
+    private EncodedColumn[] columns;
+    private volatile TransactionId dirtier;
+    // the page hasRoomFor last encoded with a tuple, and the row it put the
+    // tuple in, for insertTuple to use if the page has not changed since
+    private Tuple roomFor;
+    private byte[] roomPage;
+    private int roomSlot;
+
+    byte[] oldData;
+    private final Object oldDataLock = new Object();
+
+    /**
+     * Create an EncodedHeapPage from a set of bytes of data read from disk,
+     * in the format described above. The TupleDesc of the page is that of
+     * its table in the {@link Catalog}.
+     *
+     * @param id the id of this page
+     * @param data the raw data of this page
+     * @throws IllegalArgumentException if the page is too big for the
+     *         format
+     */
+    public EncodedHeapPage(HeapPageId id, byte[] data) throws IOException {
+        if (data.length > MAX_PAGE_SIZE)
+            throw new IllegalArgumentException("encoded pages hold at most "
+                    + MAX_PAGE_SIZE + " bytes");
+        this.pid = id;
+        this.td = Database.getCatalog().getTupleDesc(id.getTableId());
+        this.pageSize = data.length;
+        this.data = data.clone();
+        this.buf = ByteBuffer.wrap(this.data);
+        setBeforeImage();
+    }
+
+    /**
+     * @return the bytes of an empty page; a page of zeroes has no rows
+     */
+    public static byte[] createEmptyPageData() {
+        return new byte[BufferPool.getPageSize()];
+    }
+
+    /**
+     * Encodes the first n rows as a page, with only the rows whose used
+     * flag is set in use.
+     *
+     * @param rows the fields of each row
+     * @param used the rows in use, or null if all are
+     * @return the page, or null if the rows do not fit in pageSize bytes
+     */
+    static byte[] encode(TupleDesc td, Field[][] rows, boolean[] used, int n, int pageSize) {
+        if (n > EncodedColumn.MAX_ROWS)
+            return null;
+        int header = 2 + 2 * td.numFields();
+        int pos = header + (n + 7) / 8;
+        byte[][] encoded = new byte[td.numFields()][];
+        for (int j = 0; j < encoded.length; j++) {
+            encoded[j] = EncodedColumn.encode(td.getFieldType(j), rows, j, n);
+            pos += encoded[j].length;
+            if (pos > pageSize)
+                return null;
+        }
+        byte[] page = new byte[pageSize];
+        ByteBuffer b = ByteBuffer.wrap(page);
+        b.putChar(0, (char) n);
+        for (int i = 0; i < n; i++) {
+            if (used == null || used[i])
+                page[header + i / 8] |= (byte) (1 << (i % 8));
+        }
+        pos = header + (n + 7) / 8;
+        for (int j = 0; j < encoded.length; j++) {
+            b.putChar(2 + 2 * j, (char) pos);
+            System.arraycopy(encoded[j], 0, page, pos, encoded[j].length);
+            pos += encoded[j].length;
+        }
+        return page;
+    }
+
+    /**
+     * @return the largest number of rows, from the first, of rows[0..n)
+     *         that fit in a page of pageSize bytes
+     */
+    static int rowsThatFit(TupleDesc td, Field[][] rows, int n, int pageSize) {
+        // the encoded size only grows with the rows, so find a number that
+        // does not fit by doubling, then search below it
+        int fits = 0;
+        int tooMany = -1;
+        for (int k = 1; tooMany < 0; k *= 2) {
+            int m = Math.min(k, n);
+            if (encode(td, rows, null, m, pageSize) == null)
+                tooMany = m;
+            else if (m == n)
+                return n;
+            else
+                fits = m;
+        }
+        while (tooMany - fits > 1) {
+            int mid = (fits + tooMany) >>> 1;
+            if (encode(td, rows, null, mid, pageSize) == null)
+                tooMany = mid;
+            else
+                fits = mid;
+        }
+        return fits;
+    }
+
+    /** Return a view of this page before it was modified
+        -- used by recovery */
+    public EncodedHeapPage getBeforeImage() {
+        try {
+            byte[] oldDataRef = null;
+            synchronized(oldDataLock)
+            {
+                oldDataRef = oldData;
+            }
+            return new EncodedHeapPage(pid,oldDataRef);
+        } catch (IOException e) {
+            e.printStackTrace();
+            //should never happen -- we parsed it OK before!
+            System.exit(1);
+        }
+        return null;
+    }
+
+    public void setBeforeImage() {
+        synchronized(oldDataLock)
+        {
+        oldData = getPageData();
+        }
+    }
+
+    /**
+     * @return the PageId associated with this page.
+     */
+    public HeapPageId getId() {
+        return pid;
+    }
+
+    /**
+     * @return the number of rows on the page, used or not
+     */
+    public synchronized int getNumSlots() {
+        return buf.getChar(0);
+    }
+
+    /**
+     * Returns the number of unused rows on this page.
+     */
+    public synchronized int getNumEmptySlots() {
+        int empty = 0;
+        for (int i = 0; i < getNumSlots(); i++) {
+            if (!isSlotUsed(i))
+                empty++;
+        }
+        return empty;
+    }
+
+    /**
+     * Returns true if associated slot on this page is filled.
+     */
+    public synchronized boolean isSlotUsed(int i) {
+        return i >= 0 && i < getNumSlots()
+                && (data[2 + 2 * td.numFields() + i / 8] & (1 << (i % 8))) != 0;
+    }
+
+    /** @return the encoded column j */
+    public synchronized EncodedColumn getColumn(int j) {
+        if (columns == null) {
+            int n = getNumSlots();
+            columns = new EncodedColumn[td.numFields()];
+            for (int k = 0; k < columns.length; k++)
+                columns[k] = EncodedColumn.read(td.getFieldType(k), buf,
+                        buf.getChar(2 + 2 * k), n);
+        }
+        return columns[j];
+    }
+
+    /**
+     * @return the page encoded with the fields of t in the first unused
+     *         row, or null if it does not fit; slot[0] is set to that row
+     */
+    private byte[] encodeWith(Tuple t, int[] slot) {
+        int n = getNumSlots();
+        int s = 0;
+        while (s < n && isSlotUsed(s))
+            s++;
+        int rows = Math.max(n, s + 1);
+        Field[][] values = new Field[rows][td.numFields()];
+        boolean[] used = new boolean[rows];
+        for (int j = 0; j < td.numFields(); j++) {
+            EncodedColumn c = getColumn(j);
+            for (int i = 0; i < n; i++)
+                values[i][j] = c.get(i);
+            values[s][j] = t.getField(j);
+        }
+        for (int i = 0; i < n; i++)
+            used[i] = isSlotUsed(i);
+        used[s] = true;
+        slot[0] = s;
+        return encode(td, values, used, rows, pageSize);
+    }
+
+    /**
+     * @return true if t can be inserted into this page; the page encoded
+     *         with t is kept for {@link #insertTuple} to use
+     */
+    public synchronized boolean hasRoomFor(Tuple t) {
+        int[] slot = new int[1];
+        roomPage = encodeWith(t, slot);
+        roomFor = t;
+        roomSlot = slot[0];
+        return roomPage != null;
+    }
+
+    /**
+     * Returns the tuple in slot i with only the given columns decoded from
+     * the page data; its other fields are not set.
+     * @param columns the columns to decode, or null for all of them
+     * @return the tuple in slot i, or null if the slot is empty
+     */
+    synchronized Tuple getTuple(int i, int[] columns) throws NoSuchElementException {
+        if (i < 0 || i >= getNumSlots())
+            throw new NoSuchElementException();
+        if (!isSlotUsed(i))
+            return null;
+        Tuple t = new Tuple(td);
+        t.setRecordId(new RecordId(pid, i));
+        int n = columns == null ? td.numFields() : columns.length;
+        for (int c = 0; c < n; c++) {
+            int j = columns == null ? c : columns[c];
+            t.setField(j, getColumn(j).get(i));
+        }
+        return t;
+    }
+
+    /**
+     * Generates a byte array representing the contents of this page.
+     * Used to serialize this page to disk.
+     *
+     * @return A byte array correspond to the bytes of this page.
+     */
+    public synchronized byte[] getPageData() {
+        return data.clone();
+    }
+
+    /**
+     * Delete the specified tuple from the page; its values are left in the
+     * encoded columns until its row is used again.
+     * @throws DbException if this tuple is not on this page, or tuple slot is
+     *         already empty.
+     * @param t The tuple to delete
+     */
+    public synchronized void deleteTuple(Tuple t) throws DbException {
+        RecordId rid = t.getRecordId();
+        if (rid == null || !pid.equals(rid.getPageId()))
+            throw new DbException("tuple is not on page " + pid);
+        int slot = rid.getTupleNumber();
+        if (!isSlotUsed(slot))
+            throw new DbException("slot " + slot + " is already empty");
+        data[2 + 2 * td.numFields() + slot / 8] &= (byte) ~(1 << (slot % 8));
+        roomFor = null;
+        roomPage = null;
+        t.setRecordId(null);
+    }
+
+    /**
+     * Adds the specified tuple to the page;  the tuple is updated to reflect
+     *  that it is now stored on this page.
+     * @throws DbException if the page has no room for the tuple or tupledesc
+     *         is mismatch.
+     * @param t The tuple to add.
+     */
+    public synchronized void insertTuple(Tuple t) throws DbException {
+        if (!td.equals(t.getTupleDesc()))
+            throw new DbException("tuple does not match the TupleDesc of page " + pid);
+        int[] slot = new int[1];
+        byte[] page;
+        if (t == roomFor) {
+            page = roomPage;
+            slot[0] = roomSlot;
+        } else {
+            page = encodeWith(t, slot);
+        }
+        roomFor = null;
+        roomPage = null;
+        if (page == null)
+            throw new DbException("no room for the tuple once encoded on page " + pid);
+        data = page;
+        buf = ByteBuffer.wrap(data);
+        columns = null;
+        t.setRecordId(new RecordId(pid, slot[0]));
+    }
+
+    /**
+     * Marks this page as dirty/not dirty and record that transaction
+     * that did the dirtying
+     */
+    public void markDirty(boolean dirty, TransactionId tid) {
+        dirtier = dirty ? tid : null;
+    }
+
+    /**
+     * Returns the tid of the transaction that last dirtied this page, or null if the page is not dirty
+     */
+    public TransactionId isDirty() {
+        return dirtier;
+    }
+
+    /**
+     * @return an iterator over all tuples on this page, in slot order
+     *         (calling remove on this iterator throws an
+     *         UnsupportedOperationException)
+     */
+    public Iterator<Tuple> iterator() {
+        return iterator(null, null);
+    }
+
+    /**
+     * Returns an iterator over the tuples on this page that satisfy all of
+     * the given predicates, in slot order, with only the given columns
+     * decoded; the other fields of the tuples are not set. The predicates
+     * are evaluated on the encoded columns, and only the tuples that satisfy
+     * them are decoded, a column at a time.
+     *
+     * @param columns the columns to decode, or null for all of them
+     * @param preds the predicates the tuples must satisfy, or null for none
+     */
+    public synchronized Iterator<Tuple> iterator(int[] columns, Predicate[] preds) {
+        int n = getNumSlots();
+        boolean[] sel = new boolean[n];
+        for (int i = 0; i < n; i++)
+            sel[i] = isSlotUsed(i);
+        if (preds != null) {
+            for (Predicate p : preds)
+                getColumn(p.getField()).select(p.getOp(), p.getOperand(), sel);
+        }
+        ArrayList<Tuple> l = new ArrayList<Tuple>();
+        for (int i = 0; i < n; i++) {
+            if (!sel[i])
+                continue;
+            Tuple t = new Tuple(td);
+            t.setRecordId(new RecordId(pid, i));
+            l.add(t);
+        }
+        int m = columns == null ? td.numFields() : columns.length;
+        for (int c = 0; c < m; c++) {
+            int j = columns == null ? c : columns[c];
+            EncodedColumn column = getColumn(j);
+            for (Tuple t : l)
+                t.setField(j, column.get(t.getRecordId().getTupleNumber()));
+        }
+        return Collections.unmodifiableList(l).iterator();
+    }
+}
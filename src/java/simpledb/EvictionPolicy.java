@@ -0,0 +1,70 @@
+package simpledb;
+
+import java.util.Set;
+
+/**
+ * EvictionPolicy decides which resident page the BufferPool gives up when it
+ * needs room for a new one. The BufferPool reports every hit, every page it
+ * reads in and every page that leaves the pool, and asks the policy for a
+ * victim from {@link BufferPool#evictPage}.
+ * <p>
+ * Policies may be called from several threads at once (getPage hits are not
+ * serialized by the BufferPool), so implementations must be thread-safe.
+ * {@link #pageHit} is on the hot path of every getPage call and should avoid
+ * taking a lock if at all possible.
+ *
+ * @see BufferPool
+ * @see LRUEvictionPolicy
+ * @see ClockEvictionPolicy
+ * @see TwoQEvictionPolicy
+ */
+public interface EvictionPolicy {
+
+    /**
+     * Called when a page that is already resident is requested again.
+     *
+     * @param pid the id of the page that was hit
+     */
+    public void pageHit(PageId pid);
+
+    /**
+     * Called when a page is read from disk and added to the pool.
+     *
+     * @param pid the id of the page that was added
+     */
+    public void pageAdded(PageId pid);
+
+    /**
+     * Called when a page chosen as a victim is evicted from the pool.
+     *
+     * @param pid the id of the page that was removed
+     */
+    public void pageRemoved(PageId pid);
+
+    /**
+     * Called when a page leaves the pool because it was discarded, for
+     * example because it was freed or its transaction aborted. Unlike an
+     * evicted page, it says nothing about what will be read next, so the
+     * policy should forget it entirely.
+     *
+     * @param pid the id of the page that was discarded
+     */
+    public void pageDiscarded(PageId pid);
+
+    /**
+     * Picks the page that should be evicted next. The victim is not removed
+     * from the policy's bookkeeping until {@link #pageRemoved} is called.
+     *
+     * @param pinned pages that may not be evicted right now (for example,
+     *   dirty pages under NO STEAL); this may be a view that is costly to
+     *   list, so policies should only ask it about the pages they consider
+     * @return the id of the page to evict, or null if every resident page
+     *   is pinned
+     */
+    public PageId chooseVictim(Set<PageId> pinned);
+
+    /**
+     * @return a short name for this policy, used when reporting statistics
+     */
+    public String getName();
+}
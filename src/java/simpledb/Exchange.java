@@ -0,0 +1,274 @@
+package simpledb;
+
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An Exchange moves tuples between threads, so that parts of a query plan
+ * run in parallel. The plans below an exchange, its inputs, each run as a
+ * producer task on a shared {@link ForkJoinPool} and send their tuples in
+ * batches through bounded channels to the consumers of the exchange, which
+ * are operators in the plan above it:
+ * <ul>
+ * <li>{@link Gather} merges all inputs into one stream,
+ * <li>{@link Repartition} splits the tuples of all inputs into n streams
+ * by the hash of a field, so that equal values meet in the same stream,
+ * <li>{@link Broadcast} sends every tuple of all inputs to each of n
+ * streams.
+ * </ul>
+ * A producer opens its input when the exchange is opened, and closes it
+ * when the input is exhausted or the exchange is closed. Producers and
+ * consumers that wait on a full or empty channel block through
+ * {@link ForkJoinPool#managedBlock}, so the pool adds threads rather than
+ * running out of them when many tasks wait on each other.
+ */
+public abstract class Exchange extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Number of tuples a producer sends at a time. */
+    public static final int BATCH_SIZE = 256;
+
+    /** Number of batches a channel holds before producers wait. */
+    public static final int CHANNEL_BATCHES = 16;
+
+    /**
+     * Fewest pages of a table worth giving a producer of its own; smaller
+     * tables are scanned by a single thread.
+     */
+    public static final int MIN_PAGES_PER_PRODUCER = 32;
+
+    private static volatile int parallelism = Runtime.getRuntime().availableProcessors();
+    private static ForkJoinPool pool;
+
+    /** @return the number of producers a plan is split into */
+    public static int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Sets the number of producers a plan is split into; 1 turns off
+     * parallel plans.
+     */
+    public static void setParallelism(int n) {
+        if (n < 1)
+            throw new IllegalArgumentException("parallelism must be positive");
+        parallelism = n;
+    }
+
+    public static void resetParallelism() {
+        parallelism = Runtime.getRuntime().availableProcessors();
+    }
+
+    /** @return the pool producers run on */
+    static synchronized ForkJoinPool pool() {
+        if (pool == null)
+            pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+        return pool;
+    }
+
+    /** @return the name shown for this exchange in query plans */
+    public abstract String getName();
+
+    /** The tuples of one consumer, in batches. */
+    static class Channel {
+        // a producer sends END when its input is exhausted
+        private static final Tuple[] END = new Tuple[0];
+
+        private final ArrayBlockingQueue<Tuple[]> queue =
+            new ArrayBlockingQueue<Tuple[]>(CHANNEL_BATCHES);
+        private final int producers;
+        private int ended;
+        private volatile boolean cancelled;
+        private volatile Exception error;
+
+        Channel(int producers) {
+            this.producers = producers;
+        }
+
+        /**
+         * Sends a batch, waiting while the channel is full.
+         * @return false if the channel was cancelled, and nothing more
+         *         should be sent
+         */
+        boolean put(final Tuple[] batch) throws InterruptedException {
+            final boolean[] sent = new boolean[1];
+            ForkJoinPool.managedBlock(new ForkJoinPool.ManagedBlocker() {
+                public boolean block() throws InterruptedException {
+                    while (!sent[0] && !cancelled)
+                        sent[0] = queue.offer(batch, 10, TimeUnit.MILLISECONDS);
+                    return true;
+                }
+
+                public boolean isReleasable() {
+                    if (!sent[0] && !cancelled)
+                        sent[0] = queue.offer(batch);
+                    return sent[0] || cancelled;
+                }
+            });
+            return sent[0] && !cancelled;
+        }
+
+        void end() throws InterruptedException {
+            put(END);
+        }
+
+        /** Ends the stream with an error, which the consumer throws. */
+        void fail(Exception e) {
+            if (error == null)
+                error = e;
+        }
+
+        /** Stops producers from sending any more tuples. */
+        void cancel() {
+            cancelled = true;
+            queue.clear();
+        }
+
+        /**
+         * Receives the next batch, waiting while the channel is empty.
+         * @return the batch, or null once every producer has ended
+         */
+        Tuple[] take() throws DbException, TransactionAbortedException {
+            final Tuple[][] taken = new Tuple[1][];
+            while (true) {
+                if (error != null)
+                    rethrow(error);
+                if (ended == producers)
+                    return null;
+                try {
+                    ForkJoinPool.managedBlock(new ForkJoinPool.ManagedBlocker() {
+                        public boolean block() throws InterruptedException {
+                            if (taken[0] == null)
+                                taken[0] = queue.poll(10, TimeUnit.MILLISECONDS);
+                            return true;
+                        }
+
+                        public boolean isReleasable() {
+                            if (taken[0] == null)
+                                taken[0] = queue.poll();
+                            return taken[0] != null;
+                        }
+                    });
+                } catch (InterruptedException e) {
+                    throw new DbException("interrupted while waiting for producers");
+                }
+                Tuple[] b = taken[0];
+                taken[0] = null;
+                if (b == END)
+                    ended++;
+                else if (b != null)
+                    return b;
+            }
+        }
+
+        private static void rethrow(Exception e) throws DbException,
+                TransactionAbortedException {
+            if (e instanceof DbException)
+                throw (DbException) e;
+            if (e instanceof TransactionAbortedException)
+                throw (TransactionAbortedException) e;
+            DbException d = new DbException("producer failed: " + e);
+            d.initCause(e);
+            throw d;
+        }
+    }
+
+    /**
+     * Chooses the channel a tuple is sent to.
+     */
+    interface Router {
+        /**
+         * @return the index of the channel t goes to, or -1 to send it to
+         *         every channel
+         */
+        int route(Tuple t);
+    }
+
+    /** The producer tasks of an exchange, one per input. */
+    static class Producers {
+        private final OpIterator[] inputs;
+        private final Router router;
+        private Channel[] channels;
+        private ForkJoinTask<?>[] tasks;
+
+        Producers(OpIterator[] inputs, Router router) {
+            this.inputs = inputs;
+            this.router = router;
+        }
+
+        OpIterator[] getInputs() {
+            return inputs;
+        }
+
+        /** Starts one task per input, sending to channels. */
+        synchronized void start(Channel[] channels) {
+            this.channels = channels;
+            tasks = new ForkJoinTask<?>[inputs.length];
+            for (int i = 0; i < inputs.length; i++) {
+                final OpIterator input = inputs[i];
+                final Channel[] out = channels;
+                tasks[i] = pool().submit(new Runnable() {
+                    public void run() {
+                        produce(input, out);
+                    }
+                });
+            }
+        }
+
+        /** Cancels the channels and waits for the tasks to close their inputs. */
+        synchronized void stop() {
+            if (tasks == null)
+                return;
+            for (Channel c : channels)
+                c.cancel();
+            for (ForkJoinTask<?> t : tasks)
+                t.quietlyJoin();
+            tasks = null;
+            channels = null;
+        }
+
+        private void produce(OpIterator input, Channel[] out) {
+            Tuple[][] batches = new Tuple[out.length][BATCH_SIZE];
+            int[] sizes = new int[out.length];
+            try {
+                input.open();
+                try {
+                    while (input.hasNext()) {
+                        Tuple t = input.next();
+                        int c = router.route(t);
+                        for (int i = c < 0 ? 0 : c; i < (c < 0 ? out.length : c + 1); i++) {
+                            batches[i][sizes[i]++] = t;
+                            if (sizes[i] == BATCH_SIZE) {
+                                if (!out[i].put(batches[i]) && allCancelled(out))
+                                    return;
+                                batches[i] = new Tuple[BATCH_SIZE];
+                                sizes[i] = 0;
+                            }
+                        }
+                    }
+                    for (int i = 0; i < out.length; i++)
+                        if (sizes[i] > 0)
+                            out[i].put(Arrays.copyOf(batches[i], sizes[i]));
+                } finally {
+                    input.close();
+                }
+                for (Channel c : out)
+                    c.end();
+            } catch (Exception e) {
+                for (Channel c : out)
+                    c.fail(e);
+            }
+        }
+
+        private static boolean allCancelled(Channel[] out) {
+            for (Channel c : out)
+                if (!c.cancelled)
+                    return false;
+            return true;
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package simpledb;
+
+/**
+ * ExchangeConsumer is the part of an {@link Exchange} that runs in the plan
+ * above it: it starts the producers of the exchange when it is opened, and
+ * returns the tuples they send it.
+ */
+public abstract class ExchangeConsumer extends Exchange {
+
+    private static final long serialVersionUID = 1L;
+
+    transient private Channel channel;
+    transient private Tuple[] batch;
+    transient private int pos;
+
+    /**
+     * Starts sending tuples to this consumer.
+     * @return the channel the tuples arrive on
+     */
+    abstract Channel connect() throws DbException;
+
+    /** Stops sending tuples to this consumer. */
+    abstract void disconnect();
+
+    public void open() throws DbException, TransactionAbortedException {
+        channel = connect();
+        batch = null;
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        if (channel != null)
+            disconnect();
+        channel = null;
+        batch = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        disconnect();
+        channel = null;
+        channel = connect();
+        batch = null;
+    }
+
+    protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+        while (batch == null || pos == batch.length) {
+            batch = channel.take();
+            pos = 0;
+            if (batch == null)
+                return null;
+        }
+        return batch[pos++];
+    }
+
+    /**
+     * The producers of an exchange with several consumers, such as a
+     * {@link Repartition}. The producers start when the first consumer
+     * connects, and stop when all have disconnected; a consumer that
+     * disconnects early no longer receives tuples, but the others do.
+     */
+    static class Group {
+        private Producers producers;
+        private final int n;
+        private Channel[] channels;
+        private boolean[] connected;
+        private int disconnected;
+
+        Group(OpIterator[] inputs, Router router, int n) {
+            this.producers = new Producers(inputs, router);
+            this.n = n;
+        }
+
+        OpIterator[] getInputs() {
+            return producers.getInputs();
+        }
+
+        synchronized void setInputs(OpIterator[] inputs, Router router) {
+            if (channels != null)
+                throw new IllegalStateException("exchange is running");
+            producers = new Producers(inputs, router);
+        }
+
+        synchronized Channel connect(int i) throws DbException {
+            if (channels == null) {
+                channels = new Channel[n];
+                for (int c = 0; c < n; c++)
+                    channels[c] = new Channel(producers.getInputs().length);
+                connected = new boolean[n];
+                disconnected = 0;
+                producers.start(channels);
+            }
+            if (connected[i])
+                throw new DbException("the streams of an exchange can only be restarted together");
+            connected[i] = true;
+            return channels[i];
+        }
+
+        synchronized void disconnect(int i) {
+            if (channels == null || !connected[i])
+                return;
+            channels[i].cancel();
+            if (++disconnected < n)
+                return;
+            producers.stop();
+            channels = null;
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package simpledb;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A Page that can keep its raw, on-disk bytes in a frame of a
+ * {@link PageFrameArena} instead of on the Java heap, and decode tuples from
+ * those bytes on demand rather than all at once when it is constructed.
+ * <p>
+ * In off-heap mode, the BufferPool attaches a frame to every such page it
+ * caches, and detaches it again before the page leaves the pool.
+ *
+ * @see BufferPool
+ */
+public interface FrameBackedPage extends Page {
+
+    /**
+     * Copies the raw bytes of this page into the frame, and reads from the
+     * frame from now on.
+     *
+     * @param frame a buffer whose capacity is the page size
+     * @return false if the page could not be moved into the frame (for
+     *   example, because its size does not match), in which case the frame
+     *   is not used
+     */
+    public boolean attachFrame(ByteBuffer frame);
+
+    /**
+     * Stops using the frame attached by {@link #attachFrame}, copying any
+     * bytes the page still needs back onto the heap. After this returns the
+     * frame may be reused by another page.
+     */
+    public void detachFrame();
+}
@@ -0,0 +1,94 @@
+package simpledb;
+
+/**
+ * Gather is an {@link Exchange} that runs each of its inputs in a task of
+ * its own and returns the tuples of all of them, in no particular order.
+ * The inputs must have the same TupleDesc.
+ */
+public class Gather extends ExchangeConsumer {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final Router ONE_CHANNEL = new Router() {
+        public int route(Tuple t) {
+            return 0;
+        }
+    };
+
+    private Producers producers;
+    private final TupleDesc td;
+
+    /**
+     * @param inputs
+     *            the plans to run in parallel; each is opened and closed by
+     *            its producer task
+     */
+    public Gather(OpIterator[] inputs) {
+        if (inputs.length == 0)
+            throw new IllegalArgumentException("nothing to gather");
+        td = inputs[0].getTupleDesc();
+        for (OpIterator input : inputs)
+            if (!input.getTupleDesc().equals(td))
+                throw new IllegalArgumentException("inputs have different TupleDescs");
+        producers = new Producers(inputs, ONE_CHANNEL);
+    }
+
+    /**
+     * Builds a copy of a pipeline on top of each worker of a parallel
+     * scan, such as a {@link MorselScan}, and gathers their results.
+     *
+     * @param sources
+     *            the workers, one per producer
+     * @param pipeline
+     *            builds the plan each producer runs over its worker
+     */
+    public Gather(OpIterator[] sources, Pipeline pipeline) {
+        this(build(sources, pipeline));
+    }
+
+    private static OpIterator[] build(OpIterator[] sources, Pipeline pipeline) {
+        OpIterator[] inputs = new OpIterator[sources.length];
+        for (int i = 0; i < sources.length; i++)
+            inputs[i] = pipeline.build(sources[i]);
+        return inputs;
+    }
+
+    /**
+     * Builds the copy of a pipeline that one producer of a Gather runs.
+     */
+    public interface Pipeline {
+        /**
+         * @return a new plan reading source, with no operators shared
+         *         with other copies
+         */
+        OpIterator build(OpIterator source);
+    }
+
+    Channel connect() {
+        Channel c = new Channel(producers.getInputs().length);
+        producers.start(new Channel[] { c });
+        return c;
+    }
+
+    void disconnect() {
+        producers.stop();
+    }
+
+    public String getName() {
+        return "gather(" + producers.getInputs().length + ")";
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return producers.getInputs().clone();
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        producers = new Producers(children.clone(), ONE_CHANNEL);
+    }
+}
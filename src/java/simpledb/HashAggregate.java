@@ -0,0 +1,599 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * HashAggregate computes any number of aggregates in one pass over its
+ * input, grouped by any number of columns, like {@link Aggregate} does for
+ * a single aggregate and grouping column, but for inputs with more groups
+ * than fit in memory, and in two phases for parallel plans.
+ * <p>
+ * Groups are kept in a hash table of running values (count, sum, min and
+ * max) per aggregate, up to as many as fit in the {@link OperatorMemory}
+ * budget; groups of a single integer column (or the single group, with no
+ * grouping) are kept in an {@link IntGroupTable}, so that no key is boxed.
+ * Once the table is full, the rows of groups that are not in it are
+ * written to one of {@link #FANOUT} {@link SpillFile}s by the hash of their
+ * group values. When the input is exhausted the groups in the table are
+ * returned, and then each spilled partition is aggregated in the same way,
+ * with a different hash, so that partitions that are still too big are
+ * split further. Every pass over a partition finishes at least a table's
+ * worth of groups, so this always ends.
+ * <p>
+ * A <i>partial</i> HashAggregate does not spill: when its table is full it
+ * returns the groups it holds and starts over with an empty table, so a
+ * group may appear in its output more than once. A final HashAggregate
+ * over the partial results of several inputs, typically gathered from
+ * parallel producers, combines them; see {@link #twoPhase}. Counts are
+ * combined by summing them, and averages by computing
+ * {@link Aggregator.Op#SUM_COUNT} in the partial phase and
+ * {@link Aggregator.Op#SC_AVG} in the final one.
+ * <p>
+ * The output has the group values, in the order of the grouping columns,
+ * followed by the value of each aggregate, which is always an integer;
+ * SUM_COUNT has a sum column and a count column. SC_AVG reads the sum from
+ * its aggregate field and the count from the field after it.
+ */
+public class HashAggregate extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Number of partitions the rows of groups that do not fit are split into. */
+    public static final int FANOUT = 16;
+
+    // offsets of the running values of an aggregate of a group with a
+    // non-integer key
+    private static final int COUNT = 0, SUM = 1, MIN = 2, MAX = 3, VALUES = 4;
+
+    private static final int[] NO_FIELDS = new int[0];
+
+    private OpIterator child;
+    private final int[] gfields;
+    private final int[] afields;
+    private final Aggregator.Op[] aops;
+    private final boolean partial;
+    private final TupleDesc td;
+    // true if groups are kept in an IntGroupTable
+    private final boolean intKeys;
+    private final boolean[] intAgg;
+
+    transient private IntGroupTable intGroups;
+    transient private int nextGroup;
+    transient private LinkedHashMap<List<Field>, long[]> groups;
+    transient private Iterator<Map.Entry<List<Field>, long[]>> it;
+    transient private int maxGroups;
+    // non-partial: partitions still to aggregate, and their levels
+    transient private ArrayList<SpillFile> pending;
+    transient private ArrayList<Integer> pendingLevels;
+    transient private int spilledPartitions;
+    // partial: the row that did not fit in the last table
+    transient private Tuple carry;
+    transient private boolean childDone;
+
+    /**
+     * Constructor for a single aggregate that spills groups that do not fit
+     * in memory.
+     *
+     * @param child
+     *            The OpIterator that is feeding us tuples.
+     * @param afield
+     *            The column over which we are computing an aggregate.
+     * @param gfield
+     *            The column over which we are grouping the result, or
+     *            {@link Aggregator#NO_GROUPING} if there is no grouping
+     * @param aop
+     *            The aggregation operator to use
+     * @throws IllegalArgumentException if aop cannot be computed over afield
+     */
+    public HashAggregate(OpIterator child, int afield, int gfield, Aggregator.Op aop) {
+        this(child, afield, gfield, aop, false);
+    }
+
+    /**
+     * Constructor for a single aggregate.
+     *
+     * @param partial
+     *            true to return the groups held whenever the table is full,
+     *            rather than spill, leaving it to a final aggregate to
+     *            combine the results
+     * @see #HashAggregate(OpIterator, int, int, Aggregator.Op)
+     */
+    public HashAggregate(OpIterator child, int afield, int gfield,
+            Aggregator.Op aop, boolean partial) {
+        this(child, groupFields(gfield), new int[] { afield },
+                new Aggregator.Op[] { aop }, partial);
+    }
+
+    /**
+     * Constructor for several aggregates that spill groups that do not fit
+     * in memory.
+     *
+     * @param child
+     *            The OpIterator that is feeding us tuples.
+     * @param gfields
+     *            The columns over which we are grouping the result; empty
+     *            if there is no grouping
+     * @param afields
+     *            The column of each aggregate
+     * @param aops
+     *            The operator of each aggregate
+     * @throws IllegalArgumentException if an aggregate cannot be computed
+     *             over its column
+     */
+    public HashAggregate(OpIterator child, int[] gfields, int[] afields,
+            Aggregator.Op[] aops) {
+        this(child, gfields, afields, aops, false);
+    }
+
+    /**
+     * Constructor for several aggregates.
+     *
+     * @param partial
+     *            true to return the groups held whenever the table is full,
+     *            rather than spill, leaving it to a final aggregate to
+     *            combine the results
+     * @see #HashAggregate(OpIterator, int[], int[], Aggregator.Op[])
+     */
+    public HashAggregate(OpIterator child, int[] gfields, int[] afields,
+            Aggregator.Op[] aops, boolean partial) {
+        TupleDesc childtd = child.getTupleDesc();
+        if (afields.length == 0 || afields.length != aops.length)
+            throw new IllegalArgumentException("need an operator for each aggregate field");
+        intAgg = new boolean[afields.length];
+        for (int a = 0; a < afields.length; a++) {
+            // a count does not read the values of its field
+            intAgg[a] = aops[a] != Aggregator.Op.COUNT
+                    && childtd.getFieldType(afields[a]) == Type.INT_TYPE;
+            if (aops[a] != Aggregator.Op.COUNT && !intAgg[a])
+                throw new IllegalArgumentException("can only count a non-integer column");
+            if (aops[a] == Aggregator.Op.SC_AVG && (afields[a] + 1 >= childtd.numFields()
+                    || childtd.getFieldType(afields[a] + 1) != Type.INT_TYPE))
+                throw new IllegalArgumentException("SC_AVG needs a count column after the sum");
+        }
+        this.child = child;
+        this.gfields = gfields.clone();
+        this.afields = afields.clone();
+        this.aops = aops.clone();
+        this.partial = partial;
+        intKeys = gfields.length == 0
+                || (gfields.length == 1 && childtd.getFieldType(gfields[0]) == Type.INT_TYPE);
+
+        ArrayList<Type> types = new ArrayList<Type>();
+        ArrayList<String> names = new ArrayList<String>();
+        for (int g : gfields) {
+            types.add(childtd.getFieldType(g));
+            names.add(childtd.getFieldName(g));
+        }
+        for (int a = 0; a < afields.length; a++) {
+            String fname = childtd.getFieldName(afields[a]);
+            if (aops[a] == Aggregator.Op.SUM_COUNT) {
+                types.add(Type.INT_TYPE);
+                names.add(Aggregator.Op.SUM + " (" + fname + ")");
+                types.add(Type.INT_TYPE);
+                names.add(Aggregator.Op.COUNT + " (" + fname + ")");
+            } else {
+                types.add(Type.INT_TYPE);
+                names.add(Aggregate.nameOfAggregatorOp(aops[a]) + " (" + fname + ")");
+            }
+        }
+        td = new TupleDesc(types.toArray(new Type[0]), names.toArray(new String[0]));
+    }
+
+    private static int[] groupFields(int gfield) {
+        return gfield == Aggregator.NO_GROUPING ? NO_FIELDS : new int[] { gfield };
+    }
+
+    /** @return the op a partial aggregate computes for op */
+    public static Aggregator.Op partialOp(Aggregator.Op op) {
+        return op == Aggregator.Op.AVG ? Aggregator.Op.SUM_COUNT : op;
+    }
+
+    /** @return the op that combines the partial results of op */
+    public static Aggregator.Op finalOp(Aggregator.Op op) {
+        if (op == Aggregator.Op.AVG)
+            return Aggregator.Op.SC_AVG;
+        return op == Aggregator.Op.COUNT ? Aggregator.Op.SUM : op;
+    }
+
+    /**
+     * Aggregates several inputs in two phases, with a single aggregate.
+     * @see #twoPhase(OpIterator[], int[], int[], Aggregator.Op[])
+     */
+    public static HashAggregate twoPhase(OpIterator[] inputs, int afield,
+            int gfield, Aggregator.Op op) {
+        return twoPhase(inputs, groupFields(gfield), new int[] { afield },
+                new Aggregator.Op[] { op });
+    }
+
+    /**
+     * Aggregates several inputs in two phases: a partial aggregate per
+     * input, each run by a producer of a {@link Gather}, and a final
+     * aggregate of their results.
+     *
+     * @param inputs
+     *            the inputs, which have the same TupleDesc
+     * @return the final aggregate, whose output is that of a HashAggregate
+     *         of all the inputs' rows
+     */
+    public static HashAggregate twoPhase(OpIterator[] inputs, int[] gfields,
+            int[] afields, Aggregator.Op[] ops) {
+        Aggregator.Op[] partialOps = new Aggregator.Op[ops.length];
+        Aggregator.Op[] finalOps = new Aggregator.Op[ops.length];
+        // the partial results are the group values, then the value(s) of
+        // each aggregate
+        int[] finalGroups = new int[gfields.length];
+        for (int i = 0; i < gfields.length; i++)
+            finalGroups[i] = i;
+        int[] finalFields = new int[ops.length];
+        int pos = gfields.length;
+        for (int a = 0; a < ops.length; a++) {
+            partialOps[a] = partialOp(ops[a]);
+            finalOps[a] = finalOp(ops[a]);
+            finalFields[a] = pos;
+            pos += partialOps[a] == Aggregator.Op.SUM_COUNT ? 2 : 1;
+        }
+        OpIterator[] parts = new OpIterator[inputs.length];
+        for (int i = 0; i < inputs.length; i++)
+            parts[i] = new HashAggregate(inputs[i], gfields, afields, partialOps, true);
+        return new HashAggregate(new Gather(parts), finalGroups, finalFields, finalOps);
+    }
+
+    /**
+     * @return the first group by field index in the <b>INPUT</b> tuples, or
+     *         {@link Aggregator#NO_GROUPING}
+     */
+    public int groupField() {
+        return gfields.length == 0 ? Aggregator.NO_GROUPING : gfields[0];
+    }
+
+    /** @return the group by field indexes in the <b>INPUT</b> tuples */
+    public int[] groupFields() {
+        return gfields.clone();
+    }
+
+    /**
+     * @return the name of the first group by field in the <b>OUTPUT</b>
+     *         tuples, or null if there is no grouping
+     */
+    public String groupFieldName() {
+        return gfields.length == 0 ? null : td.getFieldName(0);
+    }
+
+    /** @return the names of the group by fields in the <b>OUTPUT</b> tuples */
+    public String[] groupFieldNames() {
+        String[] names = new String[gfields.length];
+        for (int i = 0; i < names.length; i++)
+            names[i] = td.getFieldName(i);
+        return names;
+    }
+
+    /** @return the field of the first aggregate */
+    public int aggregateField() {
+        return afields[0];
+    }
+
+    public int[] aggregateFields() {
+        return afields.clone();
+    }
+
+    /** @return the name of the first aggregate field in the <b>INPUT</b> tuples */
+    public String aggregateFieldName() {
+        return child.getTupleDesc().getFieldName(afields[0]);
+    }
+
+    /** @return the operator of the first aggregate */
+    public Aggregator.Op aggregateOp() {
+        return aops[0];
+    }
+
+    public Aggregator.Op[] aggregateOps() {
+        return aops.clone();
+    }
+
+    /** @return true if this is the partial phase of a two-phase aggregate */
+    public boolean isPartial() {
+        return partial;
+    }
+
+    /**
+     * @return the number of partitions written to disk since the aggregate
+     *         was opened
+     */
+    public int numSpilledPartitions() {
+        return spilledPartitions;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child.open();
+        start();
+        super.open();
+    }
+
+    private void start() {
+        if (intKeys) {
+            maxGroups = OperatorMemory.maxRows(IntGroupTable.bytesPerGroup(afields.length));
+        } else {
+            Type[] keyTypes = new Type[gfields.length];
+            for (int i = 0; i < keyTypes.length; i++)
+                keyTypes[i] = child.getTupleDesc().getFieldType(gfields[i]);
+            maxGroups = OperatorMemory.maxRows(48 + 16 + 8 * VALUES * afields.length
+                    + OperatorMemory.tupleBytes(new TupleDesc(keyTypes)));
+        }
+        intGroups = null;
+        nextGroup = 0;
+        groups = null;
+        it = null;
+        pending = null;
+        pendingLevels = new ArrayList<Integer>();
+        spilledPartitions = 0;
+        carry = null;
+        childDone = false;
+    }
+
+    public void close() {
+        super.close();
+        deletePending();
+        intGroups = null;
+        groups = null;
+        it = null;
+        carry = null;
+        child.close();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        deletePending();
+        child.rewind();
+        start();
+    }
+
+    private void deletePending() {
+        if (pending == null)
+            return;
+        for (SpillFile f : pending)
+            f.delete();
+        pending.clear();
+    }
+
+    /** @return the hash of the group values of t */
+    private int groupHash(Tuple t) {
+        int h = 1;
+        for (int g : gfields)
+            h = 31 * h + t.getField(g).hashCode();
+        return h;
+    }
+
+    /**
+     * @return the partition of a hash at a level; {@link Distinct} and
+     *         {@link HybridHashJoin} partition their inputs with this too
+     */
+    static int partition(int hash, int level) {
+        int h = hash * 0x9e3779b9 + level * 0x7f4a7c15;
+        h ^= h >>> 15;
+        h *= 0x2c1b3c6d;
+        h ^= h >>> 12;
+        return (h & 0x7fffffff) % FANOUT;
+    }
+
+    /** Starts a new, empty table of groups. */
+    private void newTable() {
+        if (!intKeys)
+            groups = new LinkedHashMap<List<Field>, long[]>();
+        else if (intGroups == null)
+            intGroups = new IntGroupTable(Math.min(maxGroups, 1024), afields.length);
+        else
+            intGroups.clear();
+        nextGroup = 0;
+        it = null;
+    }
+
+    private int intValue(Tuple t, int field) {
+        return ((IntField) t.getField(field)).getValue();
+    }
+
+    /**
+     * Adds t to its group if it is in the table or there is room for it.
+     * @return false if the table is full and t's group is not in it
+     */
+    private boolean add(Tuple t) {
+        if (intKeys) {
+            int key = gfields.length == 0 ? 0 : intValue(t, gfields[0]);
+            int g = intGroups.find(key);
+            if (g == -1) {
+                if (intGroups.size() >= maxGroups)
+                    return false;
+                g = intGroups.add(key);
+            }
+            for (int a = 0; a < afields.length; a++) {
+                if (aops[a] == Aggregator.Op.SC_AVG)
+                    intGroups.mergeSumCount(g, a, intValue(t, afields[a]),
+                            intValue(t, afields[a] + 1));
+                else
+                    intGroups.merge(g, a, intAgg[a] ? intValue(t, afields[a]) : 0);
+            }
+            return true;
+        }
+        Field[] key = new Field[gfields.length];
+        for (int i = 0; i < key.length; i++)
+            key[i] = t.getField(gfields[i]);
+        List<Field> k = Arrays.asList(key);
+        long[] g = groups.get(k);
+        if (g == null) {
+            if (groups.size() >= maxGroups)
+                return false;
+            g = new long[VALUES * afields.length];
+            for (int a = 0; a < afields.length; a++) {
+                g[a * VALUES + MIN] = Long.MAX_VALUE;
+                g[a * VALUES + MAX] = Long.MIN_VALUE;
+            }
+            groups.put(k, g);
+        }
+        for (int a = 0; a < afields.length; a++) {
+            int i = a * VALUES;
+            if (aops[a] == Aggregator.Op.SC_AVG) {
+                g[i + SUM] += intValue(t, afields[a]);
+                g[i + COUNT] += intValue(t, afields[a] + 1);
+                continue;
+            }
+            int v = intAgg[a] ? intValue(t, afields[a]) : 0;
+            g[i + COUNT]++;
+            g[i + SUM] += v;
+            if (v < g[i + MIN])
+                g[i + MIN] = v;
+            if (v > g[i + MAX])
+                g[i + MAX] = v;
+        }
+        return true;
+    }
+
+    /**
+     * Aggregates the rows of in into a new table, spilling the rows of
+     * groups that do not fit into new pending partitions one level down.
+     */
+    private void aggregate(OpIterator in, int level) throws DbException,
+            TransactionAbortedException {
+        newTable();
+        SpillFile[] spill = new SpillFile[FANOUT];
+        while (in.hasNext()) {
+            Tuple t = in.next();
+            if (add(t))
+                continue;
+            int p = partition(groupHash(t), level);
+            if (spill[p] == null) {
+                spill[p] = new SpillFile(in.getTupleDesc());
+                spilledPartitions++;
+            }
+            spill[p].add(t);
+        }
+        for (SpillFile f : spill) {
+            if (f == null)
+                continue;
+            f.finish();
+            pending.add(f);
+            pendingLevels.add(level + 1);
+        }
+    }
+
+    /**
+     * Fills the next table of groups to return.
+     * @return false if there are no more groups
+     */
+    private boolean nextTable() throws DbException, TransactionAbortedException {
+        if (partial) {
+            if (childDone && carry == null)
+                return false;
+            newTable();
+            if (carry != null)
+                add(carry);
+            carry = null;
+            while (child.hasNext()) {
+                Tuple t = child.next();
+                if (!add(t)) {
+                    carry = t;
+                    return true;
+                }
+            }
+            childDone = true;
+            return intKeys ? intGroups.size() > 0 : !groups.isEmpty();
+        }
+        if (pending == null) {
+            pending = new ArrayList<SpillFile>();
+            aggregate(child, 0);
+            return true;
+        }
+        if (pending.isEmpty())
+            return false;
+        SpillFile f = pending.remove(pending.size() - 1);
+        int level = pendingLevels.remove(pendingLevels.size() - 1);
+        OpIterator in = f.iterator();
+        in.open();
+        try {
+            aggregate(in, level);
+        } finally {
+            in.close();
+            f.delete();
+        }
+        return true;
+    }
+
+    /**
+     * Sets the value(s) of aggregate a, from its running values, starting
+     * at field i of t.
+     * @return the next field of t
+     */
+    private int setResult(Tuple t, int i, int a, long count, long sum,
+            long min, long max) {
+        switch (aops[a]) {
+        case MIN:
+            t.setField(i, new IntField((int) min));
+            break;
+        case MAX:
+            t.setField(i, new IntField((int) max));
+            break;
+        case SUM:
+            t.setField(i, new IntField((int) sum));
+            break;
+        case AVG:
+        case SC_AVG:
+            t.setField(i, new IntField((int) (sum / count)));
+            break;
+        case SUM_COUNT:
+            t.setField(i, new IntField((int) sum));
+            t.setField(++i, new IntField((int) count));
+            break;
+        default:
+            t.setField(i, new IntField((int) count));
+        }
+        return i + 1;
+    }
+
+    /** @return true if groups of the current table are left to return */
+    private boolean moreGroups() {
+        if (intKeys)
+            return intGroups != null && nextGroup < intGroups.size();
+        return it != null && it.hasNext();
+    }
+
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        while (!moreGroups()) {
+            if (!nextTable())
+                return null;
+            if (!intKeys)
+                it = groups.entrySet().iterator();
+        }
+        Tuple t = new Tuple(td);
+        int i = 0;
+        if (intKeys) {
+            int g = nextGroup++;
+            if (gfields.length == 1)
+                t.setField(i++, new IntField(intGroups.key(g)));
+            for (int a = 0; a < afields.length; a++)
+                i = setResult(t, i, a, intGroups.count(g, a), intGroups.sum(g, a),
+                        intGroups.min(g, a), intGroups.max(g, a));
+            return t;
+        }
+        Map.Entry<List<Field>, long[]> e = it.next();
+        for (Field f : e.getKey())
+            t.setField(i++, f);
+        long[] g = e.getValue();
+        for (int a = 0; a < afields.length; a++) {
+            int v = a * VALUES;
+            i = setResult(t, i, a, g[v + COUNT], g[v + SUM], g[v + MIN], g[v + MAX]);
+        }
+        return t;
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[] { this.child };
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        this.child = children[0];
+    }
+}
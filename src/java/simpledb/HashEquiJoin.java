@@ -4,6 +4,12 @@ import java.util.*;
 
 /**
  * The Join operator implements the relational join operation.
+ * <p>
+ * HashEquiJoin loads as many rows of child1 as fit in the operator memory
+ * budget into a hash table, probes it with every row of child2, and repeats
+ * (rescanning child2) until child1 is exhausted. When both join fields are
+ * integers the table is an {@link IntHashTable}, so neither the keys nor
+ * the per-key lists of rows are objects.
  */
 public class HashEquiJoin extends Operator {
 
@@ -51,12 +57,44 @@ public class HashEquiJoin extends Operator {
     }
     
     HashMap<Object, ArrayList<Tuple>> map = new HashMap<Object, ArrayList<Tuple>>();
-    public final static int MAP_SIZE = 20000;
 
+    /** Bytes per entry of map, beyond the Tuple itself. */
+    private static final int MAP_ENTRY_BYTES = 80;
+
+    // used instead of map when both join fields are integers: the rows of
+    // child1 are in rows[], numbered as the entries of table
+    transient private IntHashTable table = null;
+    transient private Tuple[] rows = null;
+    transient private int match = -1;
+
+    /** Maximum number of rows of child1 held at once. */
+    transient private int buildLimit;
+
+    private boolean intKeys() {
+        return child1.getTupleDesc().getFieldType(pred.getField1()) == Type.INT_TYPE
+            && child2.getTupleDesc().getFieldType(pred.getField2()) == Type.INT_TYPE;
+    }
+
+    /**
+     * @return how many rows of child1 fit in the operator memory budget
+     *         (see {@link OperatorMemory}) together with their hash entries
+     */
+    int buildLimit() {
+        int entryBytes = table != null ? IntHashTable.BYTES_PER_ENTRY : MAP_ENTRY_BYTES;
+        return OperatorMemory.maxRows(OperatorMemory.tupleBytes(child1.getTupleDesc())
+                + entryBytes);
+    }
+
+    /**
+     * Loads the next rows of child1, as many as fit in the budget.
+     * @return true if any rows were loaded
+     */
     private boolean loadMap() throws DbException, TransactionAbortedException {
+        if (table != null)
+            return loadTable();
         int cnt = 0;
         map.clear();
-        while (child1.hasNext()) {
+        while (cnt < buildLimit && child1.hasNext()) {
             t1 = child1.next();
             ArrayList<Tuple> list = map.get(t1.getField(pred.getField1()));
             if (list == null) {
@@ -64,17 +102,37 @@ public class HashEquiJoin extends Operator {
                 map.put(t1.getField(pred.getField1()), list);
             }
             list.add(t1);
-            if (cnt++ == MAP_SIZE)
-                return true;
+            cnt++;
         }
         return cnt > 0;
 
     }
 
+    /** loadMap for integer join fields. */
+    private boolean loadTable() throws DbException, TransactionAbortedException {
+        Arrays.fill(rows, 0, table.size(), null);
+        table.clear();
+        int f1 = pred.getField1();
+        while (table.size() < buildLimit && child1.hasNext()) {
+            t1 = child1.next();
+            int e = table.add(((IntField) t1.getField(f1)).getValue());
+            if (e == rows.length)
+                rows = Arrays.copyOf(rows, rows.length * 2);
+            rows[e] = t1;
+        }
+        return table.size() > 0;
+    }
+
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         child1.open();
         child2.open();
+        if (intKeys()) {
+            table = new IntHashTable(1024);
+            rows = new Tuple[1024];
+        }
+        buildLimit = buildLimit();
+        match = -1;
         loadMap();
         super.open();
     }
@@ -87,11 +145,16 @@ public class HashEquiJoin extends Operator {
         this.t2=null;
         this.listIt=null;
         this.map.clear();
+        this.table=null;
+        this.rows=null;
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
         child1.rewind();
         child2.rewind();
+        listIt = null;
+        match = -1;
+        loadMap();
     }
 
     transient Iterator<Tuple> listIt = null;
@@ -116,21 +179,34 @@ public class HashEquiJoin extends Operator {
      */
     private Tuple processList() throws TransactionAbortedException, DbException {
         t1 = listIt.next();
+        return joinTuples(t1);
+    }
+
+    /** @return the concatenation of left and the current row of child2 */
+    private Tuple joinTuples(Tuple left) {
+        return joinTuples(comboTD, left, t2);
+    }
 
-        int td1n = t1.getTupleDesc().numFields();
-        int td2n = t2.getTupleDesc().numFields();
+    /**
+     * @return the concatenation of left and right, a tuple of td; the join
+     *         operators all build their output rows with this
+     */
+    static Tuple joinTuples(TupleDesc td, Tuple left, Tuple right) {
+        int td1n = left.getTupleDesc().numFields();
+        int td2n = right.getTupleDesc().numFields();
 
         // set fields in combined tuple
-        Tuple t = new Tuple(comboTD);
+        Tuple t = new Tuple(td);
         for (int i = 0; i < td1n; i++)
-            t.setField(i, t1.getField(i));
+            t.setField(i, left.getField(i));
         for (int i = 0; i < td2n; i++)
-            t.setField(td1n + i, t2.getField(i));
+            t.setField(td1n + i, right.getField(i));
         return t;
-
     }
 
     protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        if (table != null)
+            return fetchNextInt();
         if (listIt != null && listIt.hasNext()) {
             return processList();
         }
@@ -159,6 +235,33 @@ public class HashEquiJoin extends Operator {
         return null;
     }
 
+    /** fetchNext for integer join fields. */
+    private Tuple fetchNextInt() throws TransactionAbortedException, DbException {
+        int f2 = pred.getField2();
+        while (true) {
+            if (match != -1) {
+                Tuple t = joinTuples(rows[match]);
+                match = table.next(match);
+                return t;
+            }
+
+            // loop around child2
+            while (child2.hasNext()) {
+                t2 = child2.next();
+                match = table.first(((IntField) t2.getField(f2)).getValue());
+                if (match != -1)
+                    break;
+            }
+            if (match != -1)
+                continue;
+
+            // child2 is done: advance child1
+            child2.rewind();
+            if (!loadTable())
+                return null;
+        }
+    }
+
     @Override
     public OpIterator[] getChildren() {
         return new OpIterator[]{this.child1, this.child2};
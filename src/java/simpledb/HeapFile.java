@@ -1,6 +1,8 @@
 package simpledb;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
 import java.util.*;
 
 /**
@@ -9,12 +11,74 @@ import java.util.*;
  * size, and the file is simply a collection of those pages. HeapFile works
  * closely with HeapPage. The format of HeapPages is described in the HeapPage
  * constructor.
+ * <p>
+ * A HeapFile that is only ever read (for example, one loaded once with
+ * {@link HeapFileEncoder#convert}) can be opened memory mapped. Pages are
+ * then read straight out of the mapping, in segments of at most
+ * {@link #MAX_SEGMENT_BYTES} bytes, without a read call or a copy into a
+ * fresh array; HeapPage decodes its tuples from the mapped bytes. A mapped
+ * HeapFile covers the pages the file had when it was first read, and cannot
+ * be written.
+ * <p>
+ * Pages are in one of the formats of {@link Format}: {@link HeapPage}s,
+ * whose slots all have the size of the TupleDesc, {@link SlottedHeapPage}s
+ * of variable-length records, {@link PaxHeapPage}s, which store each
+ * column separately so that scans decode only the columns they need, or
+ * {@link EncodedHeapPage}s, which also encode each column, so that scans
+ * can evaluate predicates on the encoded values; see
+ * {@link #iterator(TransactionId, int, int, int[], Predicate[])}. Tables with a
+ * {@link Type#VARCHAR_TYPE} column are slotted unless asked otherwise, and
+ * others are in the row format, so files written before the other formats
+ * existed are read as they were.
+ * <p>
+ * A HeapFile keeps the range of each of its INT_TYPE columns on each page
+ * in a {@link ZoneMap}, and scans with predicates skip the pages whose
+ * ranges show they hold no tuple that satisfies them.
  * 
  * @see simpledb.HeapPage#HeapPage
+ * @see simpledb.SlottedHeapPage
+ * @see simpledb.PaxHeapPage
+ * @see simpledb.EncodedHeapPage
  * @author Sam Madden
  */
 public class HeapFile implements DbFile {
 
+    /** Largest region of the file mapped by a single MappedByteBuffer. */
+    public static final int MAX_SEGMENT_BYTES = 1 << 30;
+
+    private static volatile int segmentBytes = MAX_SEGMENT_BYTES;
+
+    /** The formats of the pages of a HeapFile. */
+    public enum Format {
+        /** {@link HeapPage}s of fixed-size tuples, stored row by row */
+        ROW,
+        /** {@link SlottedHeapPage}s of variable-length records */
+        SLOTTED,
+        /** {@link PaxHeapPage}s of fixed-size tuples, stored column by column */
+        PAX,
+        /**
+         * {@link EncodedHeapPage}s of fixed-size tuples, stored column by
+         * column in lightweight encodings
+         */
+        ENCODED
+    }
+
+    private final File f;
+    private final PageChannel channel;
+    private final TupleDesc td;
+    private final int tableid;
+    private final boolean mapped;
+    private final Format format;
+    private final ZoneMap zones;
+    // the page the last insert went into; the pages before it had no room
+    // then, and have not had a tuple deleted since
+    private volatile int insertHint;
+
+    // mapped mode only; set on first read
+    private MappedByteBuffer[] segments;
+    private int pagesPerSegment;
+    private int mappedPages;
+
     /**
      * Constructs a heap file backed by the specified file.
      * 
@@ -23,7 +87,123 @@ public class HeapFile implements DbFile {
      *            file.
      */
     public HeapFile(File f, TupleDesc td) {
-        // some code goes here
+        this(f, td, false);
+    }
+
+    /**
+     * Constructs a heap file backed by the specified file, optionally
+     * reading it through a read-only memory mapping.
+     * 
+     * @param f
+     *            the file that stores the on-disk backing store for this heap
+     *            file.
+     * @param td
+     *            the tuple descriptor of tuples in the file
+     * @param mapped
+     *            if true, memory map the file and read pages from the
+     *            mapping; writePage will then fail
+     */
+    public HeapFile(File f, TupleDesc td, boolean mapped) {
+        this(f, td, mapped, hasVarchar(td) ? Format.SLOTTED : Format.ROW);
+    }
+
+    /**
+     * Constructs a heap file backed by the specified file, with pages in
+     * the given format.
+     * 
+     * @param f
+     *            the file that stores the on-disk backing store for this heap
+     *            file.
+     * @param td
+     *            the tuple descriptor of tuples in the file
+     * @param mapped
+     *            if true, memory map the file and read pages from the
+     *            mapping; writePage will then fail
+     * @param slotted
+     *            if true, pages are {@link SlottedHeapPage}s, and otherwise
+     *            {@link HeapPage}s
+     */
+    public HeapFile(File f, TupleDesc td, boolean mapped, boolean slotted) {
+        this(f, td, mapped, slotted ? Format.SLOTTED : Format.ROW);
+    }
+
+    /**
+     * Constructs a heap file backed by the specified file, with pages in
+     * the given format.
+     * 
+     * @param f
+     *            the file that stores the on-disk backing store for this heap
+     *            file.
+     * @param td
+     *            the tuple descriptor of tuples in the file
+     * @param mapped
+     *            if true, memory map the file and read pages from the
+     *            mapping; writePage will then fail
+     * @param format
+     *            the format of the pages of the file
+     * @throws IllegalArgumentException if td has a variable-length field
+     *            and the format only holds fixed-size tuples
+     */
+    public HeapFile(File f, TupleDesc td, boolean mapped, Format format) {
+        if (format != Format.SLOTTED && hasVarchar(td))
+            throw new IllegalArgumentException(format + " pages cannot hold VARCHAR fields");
+        this.f = f;
+        this.channel = PageChannel.open(f);
+        if (mapped && channel.isCompressed())
+            throw new IllegalArgumentException("cannot memory map compressed file " + f);
+        this.td = td;
+        this.tableid = f.getAbsoluteFile().hashCode();
+        this.mapped = mapped;
+        this.format = format;
+        this.zones = new ZoneMap(f, td);
+    }
+
+    /** @return true if td has a {@link Type#VARCHAR_TYPE} field */
+    static boolean hasVarchar(TupleDesc td) {
+        for (int i = 0; i < td.numFields(); i++) {
+            if (td.getFieldType(i) == Type.VARCHAR_TYPE)
+                return true;
+        }
+        return false;
+    }
+
+    // THIS FUNCTION SHOULD ONLY BE USED FOR TESTING!!
+    static void setSegmentBytes(int bytes) {
+        segmentBytes = bytes;
+    }
+
+    // THIS FUNCTION SHOULD ONLY BE USED FOR TESTING!!
+    static void resetSegmentBytes() {
+        segmentBytes = MAX_SEGMENT_BYTES;
+    }
+
+    /**
+     * @return true if this file was opened memory mapped
+     */
+    public boolean isMapped() {
+        return mapped;
+    }
+
+    /**
+     * @return true if the pages of this file are {@link SlottedHeapPage}s
+     */
+    public boolean isSlotted() {
+        return format == Format.SLOTTED;
+    }
+
+    /**
+     * @return the format of the pages of this file
+     */
+    public Format getFormat() {
+        return format;
+    }
+
+    /**
+     * @return true if the pages of this file are stored compressed, through
+     *         a {@link CompressedPageChannel}
+     */
+    public boolean isCompressed() {
+        return channel.isCompressed();
     }
 
     /**
@@ -32,8 +212,7 @@ public class HeapFile implements DbFile {
      * @return the File backing this HeapFile on disk.
      */
     public File getFile() {
-        // some code goes here
-        return null;
+        return f;
     }
 
     /**
@@ -46,8 +225,7 @@ public class HeapFile implements DbFile {
      * @return an ID uniquely identifying this HeapFile.
      */
     public int getId() {
-        // some code goes here
-        throw new UnsupportedOperationException("implement this");
+        return tableid;
     }
 
     /**
@@ -56,33 +234,346 @@ public class HeapFile implements DbFile {
      * @return TupleDesc of this DbFile.
      */
     public TupleDesc getTupleDesc() {
-        // some code goes here
-        throw new UnsupportedOperationException("implement this");
+        return td;
+    }
+
+    /**
+     * Closes the data file of this table and its zone map. They are opened
+     * again if the table is used after this; a mapped file stays mapped.
+     */
+    public void close() throws IOException {
+        channel.close();
+        zones.close();
     }
 
     // see DbFile.java for javadocs
     public Page readPage(PageId pid) {
-        // some code goes here
-        return null;
+        if (mapped) {
+            try {
+                ByteBuffer page = mappedPage(pid.getPageNumber());
+                if (format == Format.ROW)
+                    return new HeapPage((HeapPageId) pid, page);
+                // other pages are changed in place, so they get a copy
+                byte[] bytes = new byte[page.remaining()];
+                page.get(bytes);
+                return newPage((HeapPageId) pid, bytes);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        byte[] pageBuf = new byte[BufferPool.getPageSize()];
+        try {
+            int retval = channel.read(pageBuf, pageOffset(pid.getPageNumber()));
+            if (retval == -1)
+                throw new IllegalArgumentException("Read past end of table");
+            if (retval < pageBuf.length)
+                throw new IllegalArgumentException("Unable to read "
+                        + pageBuf.length + " bytes from HeapFile");
+            return newPage((HeapPageId) pid, pageBuf);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /** @return a page in the format of this file, holding data */
+    private Page newPage(HeapPageId pid, byte[] data) throws IOException {
+        switch (format) {
+        case SLOTTED:
+            return new SlottedHeapPage(pid, data);
+        case PAX:
+            return new PaxHeapPage(pid, data);
+        case ENCODED:
+            return new EncodedHeapPage(pid, data);
+        default:
+            return new HeapPage(pid, data);
+        }
     }
 
     // see DbFile.java for javadocs
     public void writePage(Page page) throws IOException {
-        // some code goes here
-        // not necessary for lab1
+        if (mapped)
+            throw new IOException("cannot write to memory mapped HeapFile " + f);
+        int pgNo = page.getId().getPageNumber();
+        if (zones.hasColumns())
+            zones.beforeWrite();
+        channel.write(page.getPageData(), pageOffset(pgNo));
+        if (zones.hasColumns())
+            zones.written(pgNo, tuples(page));
+    }
+
+    /**
+     * @return an iterator over all tuples of a page of this file, or null
+     *         if the page cannot list them
+     */
+    private static Iterator<Tuple> tuples(Page page) {
+        if (page instanceof EncodedHeapPage)
+            return ((EncodedHeapPage) page).iterator();
+        if (page instanceof PaxHeapPage)
+            return ((PaxHeapPage) page).iterator();
+        if (page instanceof SlottedHeapPage)
+            return ((SlottedHeapPage) page).iterator();
+        return ((HeapPage) page).iterator();
+    }
+
+    /** @return the summaries of the INT_TYPE columns of the pages of this file */
+    public ZoneMap getZoneMap() {
+        return zones;
+    }
+
+    /**
+     * Returns true if a scan with the given predicates need not read page
+     * pgNo, since its summary shows that none of its tuples satisfy them.
+     * A page the BufferPool holds a changed version of is always read.
+     *
+     * @param preds the predicates of the scan, or null for none
+     */
+    boolean canSkip(int pgNo, Predicate[] preds) {
+        if (preds == null || preds.length == 0 || !zones.hasColumns())
+            return false;
+        if (Database.getBufferPool().holdsDirtyPage(new HeapPageId(tableid, pgNo)))
+            return false;
+        try {
+            return !zones.mayMatch(pgNo, preds);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Called by scans with predicates as they start: makes sure the
+     * summaries {@link #canSkip} goes by are those of the file as it is.
+     */
+    void refreshZones() {
+        if (!zones.hasColumns())
+            return;
+        try {
+            zones.refresh();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Called by scans with each page they read: summarizes the page if it
+     * has no summary made from the page yet and is as it is on disk, so
+     * that later scans can skip it.
+     */
+    void pageScanned(Page page) {
+        if (!zones.hasColumns() || page.isDirty() != null)
+            return;
+        int pgNo = page.getId().getPageNumber();
+        try {
+            if (zones.isTrusted(pgNo))
+                return;
+            Iterator<Tuple> it = tuples(page);
+            if (it != null)
+                zones.summarize(pgNo, it);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Summarizes every page of this file that has no summary yet, reading
+     * them from disk, and returns the smallest and largest value of an
+     * INT_TYPE column in the file, for use by {@link TableStats}.
+     *
+     * @return the range, or null if the column is not an INT_TYPE column,
+     *         the file is empty, or its pages cannot be summarized
+     */
+    public int[] columnRange(int field) throws IOException {
+        if (!zones.hasColumns())
+            return null;
+        zones.refresh();
+        int n = numPages();
+        for (int i = 0; i < n; i++) {
+            if (zones.isSummarized(i))
+                continue;
+            Iterator<Tuple> it = tuples(readPage(new HeapPageId(tableid, i)));
+            if (it == null)
+                return null;
+            zones.summarize(i, it);
+        }
+        return zones.range(field, n);
+    }
+
+    /**
+     * Returns a buffer holding the specified page, backed directly by the
+     * mapping of the file. The file is mapped the first time this is called.
+     */
+    private ByteBuffer mappedPage(int pgNo) throws IOException {
+        int pageSize = BufferPool.getPageSize();
+        MappedByteBuffer segment;
+        synchronized (this) {
+            if (segments == null) {
+                long len = f.length();
+                pagesPerSegment = Math.max(1, segmentBytes / pageSize);
+                mappedPages = (int) (len / pageSize);
+                segments = new MappedByteBuffer[(mappedPages + pagesPerSegment - 1) / pagesPerSegment];
+                for (int i = 0; i < segments.length; i++) {
+                    int pages = Math.min(pagesPerSegment, mappedPages - i * pagesPerSegment);
+                    segments[i] = channel.map(pageOffset(i * pagesPerSegment), (long) pages * pageSize);
+                }
+            }
+            if (pgNo < 0 || pgNo >= mappedPages)
+                throw new IllegalArgumentException("Read past end of table");
+            segment = segments[pgNo / pagesPerSegment];
+        }
+        ByteBuffer buf = segment.duplicate();
+        int start = (pgNo % pagesPerSegment) * pageSize;
+        buf.limit(start + pageSize);
+        buf.position(start);
+        return buf.slice();
+    }
+
+    /** Returns the offset in the file of the page with the specified number. */
+    private long pageOffset(int pgNo) {
+        return (long) pgNo * BufferPool.getPageSize();
+    }
+
+    /**
+     * Returns the order in which a scan reads the pages of this file, page
+     * 0 first, for use with {@link ReadAhead}.
+     */
+    public ReadAhead.PageOrder pageOrder() {
+        return new ReadAhead.PageOrder() {
+            public PageId next(PageId pid, Page page) {
+                int pgNo = pid.getPageNumber() + 1;
+                return pgNo < numPages() ? new HeapPageId(tableid, pgNo) : null;
+            }
+        };
     }
 
     /**
      * Returns the number of pages in this HeapFile.
      */
     public int numPages() {
-        // some code goes here
-        return 0;
+        if (mapped) {
+            synchronized (this) {
+                if (segments != null)
+                    return mappedPages;
+            }
+        }
+        // we only ever write full pages
+        return (int) (channel.length() / BufferPool.getPageSize());
+    }
+
+    /**
+     * Returns an iterator over the tuples on pages startPage (inclusive) to
+     * endPage (exclusive) of this file, in page order. Scans of disjoint
+     * page ranges can run in parallel, each with its own read-ahead.
+     *
+     * @param tid the transaction the scan runs as
+     * @param startPage the first page to read
+     * @param endPage one past the last page to read
+     */
+    public DbFileIterator iterator(TransactionId tid, int startPage, int endPage) {
+        return iterator(tid, startPage, endPage, null);
+    }
+
+    /**
+     * Returns an iterator over the tuples on pages startPage (inclusive) to
+     * endPage (exclusive) of this file, in page order, that need only the
+     * given columns. The tuples of a PAX file have only those fields set;
+     * in other formats, whose pages are decoded a whole tuple at a time,
+     * all fields are set.
+     *
+     * @param tid the transaction the scan runs as
+     * @param startPage the first page to read
+     * @param endPage one past the last page to read
+     * @param columns the indices of the columns needed, or null for all
+     */
+    public DbFileIterator iterator(TransactionId tid, int startPage, int endPage,
+            int[] columns) {
+        return iterator(tid, startPage, endPage, columns, null);
+    }
+
+    /**
+     * Returns an iterator over the tuples on pages startPage (inclusive) to
+     * endPage (exclusive) of this file that satisfy all of the given
+     * predicates, in page order, with only the given columns set as in
+     * {@link #iterator(TransactionId, int, int, int[])}. The pages of an
+     * encoded file evaluate the predicates on their encoded columns, and
+     * decode only the tuples that satisfy them; tuples of other formats are
+     * decoded, then compared. Pages whose {@link ZoneMap} summary shows they
+     * hold no tuple that satisfies the predicates are not read at all.
+     *
+     * @param tid the transaction the scan runs as
+     * @param startPage the first page to read
+     * @param endPage one past the last page to read
+     * @param columns the indices of the columns needed, or null for all
+     * @param preds the predicates the tuples must satisfy, or null for none
+     */
+    public DbFileIterator iterator(TransactionId tid, int startPage, int endPage,
+            int[] columns, Predicate[] preds) {
+        return new HeapFileRangeIterator(this, tid, startPage, endPage, columns, preds);
+    }
+
+    /**
+     * Returns a cursor that hands out the pages of this file in morsels of
+     * morselPages consecutive pages, to be read by the given number of
+     * {@link MorselScan} workers.
+     */
+    public MorselCursor morsels(int morselPages, int workers) {
+        return new MorselCursor(this, morselPages, workers);
+    }
+
+    /**
+     * Inserts t into the first page of a slotted, PAX or encoded file with
+     * room for it, or into a new page at the end of the file. The search
+     * starts at the page the last insert went into, unless a tuple has been
+     * deleted from an earlier page since, so that loading a table does not
+     * look at every page for each tuple.
+     */
+    private ArrayList<Page> insertFormattedTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        ArrayList<Page> dirtied = new ArrayList<Page>();
+        for (int i = Math.min(insertHint, numPages()); i < numPages(); i++) {
+            Page p = Database.getBufferPool().getPage(
+                    tid, new HeapPageId(tableid, i), Permissions.READ_WRITE);
+            if (hasRoomFor(p, t)) {
+                insertInto(p, t);
+                insertHint = i;
+                if (zones.hasColumns())
+                    zones.widen(i, t);
+                dirtied.add(p);
+                return dirtied;
+            }
+        }
+        HeapPageId pid = new HeapPageId(tableid, numPages());
+        insertHint = pid.getPageNumber();
+        writePage(newPage(pid, new byte[BufferPool.getPageSize()]));
+        Page p = Database.getBufferPool().getPage(tid, pid, Permissions.READ_WRITE);
+        insertInto(p, t);
+        if (zones.hasColumns())
+            zones.widen(pid.getPageNumber(), t);
+        dirtied.add(p);
+        return dirtied;
+    }
+
+    private static boolean hasRoomFor(Page p, Tuple t) {
+        if (p instanceof SlottedHeapPage)
+            return ((SlottedHeapPage) p).hasRoomFor(t);
+        if (p instanceof EncodedHeapPage)
+            return ((EncodedHeapPage) p).hasRoomFor(t);
+        return ((PaxHeapPage) p).hasRoomFor(t);
+    }
+
+    private static void insertInto(Page p, Tuple t) throws DbException {
+        if (p instanceof SlottedHeapPage)
+            ((SlottedHeapPage) p).insertTuple(t);
+        else if (p instanceof EncodedHeapPage)
+            ((EncodedHeapPage) p).insertTuple(t);
+        else
+            ((PaxHeapPage) p).insertTuple(t);
     }
 
     // see DbFile.java for javadocs
     public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
             throws DbException, IOException, TransactionAbortedException {
+        if (format != Format.ROW)
+            return insertFormattedTuple(tid, t);
         // some code goes here
         return null;
         // not necessary for lab1
@@ -91,6 +582,25 @@ public class HeapFile implements DbFile {
     // see DbFile.java for javadocs
     public ArrayList<Page> deleteTuple(TransactionId tid, Tuple t) throws DbException,
             TransactionAbortedException {
+        if (format != Format.ROW) {
+            RecordId rid = t.getRecordId();
+            if (rid == null || rid.getPageId().getTableId() != tableid)
+                throw new DbException("tuple is not in table " + tableid);
+            Page p = Database.getBufferPool().getPage(
+                    tid, rid.getPageId(), Permissions.READ_WRITE);
+            if (p instanceof SlottedHeapPage)
+                ((SlottedHeapPage) p).deleteTuple(t);
+            else if (p instanceof EncodedHeapPage)
+                ((EncodedHeapPage) p).deleteTuple(t);
+            else
+                ((PaxHeapPage) p).deleteTuple(t);
+            insertHint = Math.min(insertHint, rid.getPageId().getPageNumber());
+            // the ranges of the page are left as they are: the page on disk
+            // still holds t until it is written, when it is summarized again
+            ArrayList<Page> dirtied = new ArrayList<Page>();
+            dirtied.add(p);
+            return dirtied;
+        }
         // some code goes here
         return null;
         // not necessary for lab1
@@ -98,9 +608,117 @@ public class HeapFile implements DbFile {
 
     // see DbFile.java for javadocs
     public DbFileIterator iterator(TransactionId tid) {
+        if (format != Format.ROW)
+            return iterator(tid, 0, numPages());
         // some code goes here
         return null;
     }
 
 }
 
+/**
+ * Helper class that implements the DbFileIterator over a range of pages of
+ * a HeapFile
+ */
+class HeapFileRangeIterator extends AbstractDbFileIterator {
+
+    private final HeapFile f;
+    private final TransactionId tid;
+    private final int startPage;
+    private final int endPage;
+    private final int[] columns;
+    private final Predicate[] preds;
+
+    private int pgNo;
+    private Iterator<Tuple> it;
+    private boolean pageFiltered;
+    private ReadAhead readAhead;
+
+    HeapFileRangeIterator(HeapFile f, TransactionId tid, int startPage, int endPage,
+            int[] columns, Predicate[] preds) {
+        this.f = f;
+        this.tid = tid;
+        this.startPage = startPage;
+        this.endPage = endPage;
+        this.columns = columns == null ? null : columns.clone();
+        this.preds = preds == null ? null : preds.clone();
+    }
+
+    /** @return the first page from pgNo on that the scan has to read */
+    private int nextPage(int pgNo) {
+        while (pgNo < endPage && f.canSkip(pgNo, preds))
+            pgNo++;
+        return pgNo;
+    }
+
+    /** @return true if t satisfies all of the predicates of this scan */
+    private boolean matches(Tuple t) {
+        for (Predicate p : preds) {
+            if (!t.getField(p.getField()).compare(p.getOp(), p.getOperand()))
+                return false;
+        }
+        return true;
+    }
+
+    public void open() {
+        pgNo = startPage;
+        it = null;
+        if (preds != null)
+            f.refreshZones();
+        readAhead = new ReadAhead(new ReadAhead.PageOrder() {
+            public PageId next(PageId pid, Page page) {
+                int next = nextPage(pid.getPageNumber() + 1);
+                return next < endPage ? new HeapPageId(f.getId(), next) : null;
+            }
+        });
+    }
+
+    @Override
+    protected Tuple readNext() throws DbException, TransactionAbortedException {
+        if (readAhead == null)
+            return null;
+        while (true) {
+            Tuple t = nextOnPage();
+            if (t == null || preds == null || pageFiltered || matches(t))
+                return t;
+        }
+    }
+
+    /** @return the next tuple of the scan, before the predicates of the scan */
+    private Tuple nextOnPage() throws DbException, TransactionAbortedException {
+        while (it == null || !it.hasNext()) {
+            pgNo = nextPage(pgNo);
+            if (pgNo >= endPage)
+                return null;
+            HeapPageId pid = new HeapPageId(f.getId(), pgNo++);
+            Page page = Database.getBufferPool().getPage(tid, pid,
+                    Permissions.READ_ONLY);
+            readAhead.pageRead(pid, page);
+            f.pageScanned(page);
+            // encoded pages evaluate the predicates themselves
+            pageFiltered = page instanceof EncodedHeapPage;
+            if (page instanceof EncodedHeapPage)
+                it = ((EncodedHeapPage) page).iterator(columns, preds);
+            else if (page instanceof PaxHeapPage)
+                it = ((PaxHeapPage) page).iterator(columns);
+            else if (page instanceof SlottedHeapPage)
+                it = ((SlottedHeapPage) page).iterator();
+            else
+                it = ((HeapPage) page).iterator();
+        }
+        return it.next();
+    }
+
+    public void rewind() {
+        close();
+        open();
+    }
+
+    public void close() {
+        super.close();
+        it = null;
+        if (readAhead != null)
+            readAhead.close();
+        readAhead = null;
+    }
+}
@@ -2,6 +2,7 @@ package simpledb;
 
 import java.io.*;
 import java.util.ArrayList;
+import java.util.Arrays;
 
 /**
  * HeapFileEncoder reads a comma delimited text file or accepts
@@ -91,6 +92,13 @@ public class HeapFileEncoder {
                  int numFields, Type[] typeAr, char fieldSeparator)
       throws IOException {
 
+      for (int i = 0; i < numFields; i++) {
+          if (typeAr[i] == Type.VARCHAR_TYPE) {
+              convertSlotted(inFile, outFile, npagebytes, numFields, typeAr, fieldSeparator);
+              return;
+          }
+      }
+
       int nrecbytes = 0;
       for (int i = 0; i < numFields ; i++) {
           nrecbytes += typeAr[i].getLen();
@@ -222,5 +230,210 @@ public class HeapFileEncoder {
     }
     br.close();
     os.close();
+    ZoneMap.changed(outFile);
+  }
+
+   /** Convert the specified input text file into a binary page file of
+    * {@link SlottedHeapPage}s, as read by a slotted {@link HeapFile}. The
+    * input has the format described in {@link #convert(File, File, int,
+    * int, Type[], char)}; lines whose fields do not parse are skipped.
+    *
+    * @see SlottedHeapPage
+    * @throws IOException if the input/output file can't be opened, or a
+    *   line does not fit in a page
+    */
+  public static void convertSlotted(File inFile, File outFile, int npagebytes,
+                 int numFields, Type[] typeAr, char fieldSeparator)
+      throws IOException {
+    if (npagebytes > SlottedHeapPage.MAX_PAGE_SIZE)
+        throw new IOException("slotted pages hold at most "
+                + SlottedHeapPage.MAX_PAGE_SIZE + " bytes");
+    BufferedReader br = new BufferedReader(new FileReader(inFile));
+    FileOutputStream os = new FileOutputStream(outFile);
+    String separator = java.util.regex.Pattern.quote(String.valueOf(fieldSeparator));
+
+    byte[] page = new byte[npagebytes];
+    int records = 0;
+    int npages = 0;
+    String line;
+    while ((line = br.readLine()) != null) {
+        if (line.length() == 0)
+            continue;
+        String[] fields = line.split(separator, -1);
+        ByteArrayOutputStream recordBAOS = new ByteArrayOutputStream();
+        DataOutputStream recordStream = new DataOutputStream(recordBAOS);
+        try {
+            for (int i = 0; i < numFields; i++) {
+                String f = fields[i].trim();
+                Field field;
+                if (typeAr[i] == Type.INT_TYPE)
+                    field = new IntField(Integer.parseInt(f));
+                else if (typeAr[i] == Type.VARCHAR_TYPE)
+                    field = new VarcharField(f, Type.STRING_LEN);
+                else
+                    field = new StringField(f, Type.STRING_LEN);
+                typeAr[i].serialize(field, recordStream);
+            }
+        } catch (RuntimeException e) {
+            System.out.println ("BAD LINE : " + line);
+            continue;
+        }
+        recordStream.flush();
+        byte[] record = recordBAOS.toByteArray();
+
+        if (SlottedHeapPage.insertRecord(page, record) == -1) {
+            // the page is full; start the next one
+            os.write(page);
+            npages++;
+            page = new byte[npagebytes];
+            records = 0;
+            if (SlottedHeapPage.insertRecord(page, record) == -1)
+                throw new IOException("line does not fit in a page: " + line);
+        }
+        records++;
+    }
+    // write the last page, or an empty page for an empty file
+    if (records > 0 || npages == 0)
+        os.write(page);
+    br.close();
+    os.close();
+    ZoneMap.changed(outFile);
+  }
+   /** Convert the specified input text file into a binary page file of
+    * {@link PaxHeapPage}s, as read by a {@link HeapFile} in the
+    * {@link HeapFile.Format#PAX} format. The input has the format described
+    * in {@link #convert(File, File, int, int, Type[], char)}; lines whose
+    * fields do not parse are skipped.
+    *
+    * @see PaxHeapPage
+    * @throws IOException if the input/output file can't be opened, or a
+    *   column has a variable-length type
+    */
+  public static void convertPax(File inFile, File outFile, int npagebytes,
+                 int numFields, Type[] typeAr, char fieldSeparator)
+      throws IOException {
+    TupleDesc td = new TupleDesc(Arrays.copyOf(typeAr, numFields));
+    try {
+        if (PaxHeapPage.numSlots(td, npagebytes) == 0)
+            throw new IOException("tuples of " + td.getSize() + " bytes do not fit in a page");
+    } catch (IllegalArgumentException e) {
+        throw new IOException(e.getMessage());
+    }
+    BufferedReader br = new BufferedReader(new FileReader(inFile));
+    FileOutputStream os = new FileOutputStream(outFile);
+    String separator = java.util.regex.Pattern.quote(String.valueOf(fieldSeparator));
+
+    byte[] page = new byte[npagebytes];
+    int records = 0;
+    int npages = 0;
+    String line;
+    while ((line = br.readLine()) != null) {
+        if (line.length() == 0)
+            continue;
+        String[] fields = line.split(separator, -1);
+        Field[] values = new Field[numFields];
+        try {
+            for (int i = 0; i < numFields; i++) {
+                String f = fields[i].trim();
+                if (typeAr[i] == Type.INT_TYPE)
+                    values[i] = new IntField(Integer.parseInt(f));
+                else
+                    values[i] = new StringField(f, Type.STRING_LEN);
+            }
+        } catch (RuntimeException e) {
+            System.out.println ("BAD LINE : " + line);
+            continue;
+        }
+
+        if (PaxHeapPage.insertFields(page, td, values) == -1) {
+            // the page is full; start the next one
+            os.write(page);
+            npages++;
+            page = new byte[npagebytes];
+            records = 0;
+            PaxHeapPage.insertFields(page, td, values);
+        }
+        records++;
+    }
+    // write the last page, or an empty page for an empty file
+    if (records > 0 || npages == 0)
+        os.write(page);
+    br.close();
+    os.close();
+    ZoneMap.changed(outFile);
+  }
+
+   /** Convert the specified input text file into a binary page file of
+    * {@link EncodedHeapPage}s, as read by a {@link HeapFile} in the
+    * {@link HeapFile.Format#ENCODED} format. The input has the format
+    * described in {@link #convert(File, File, int, int, Type[], char)};
+    * lines whose fields do not parse are skipped. Each page holds as many
+    * lines as fit once its columns are encoded.
+    *
+    * @see EncodedHeapPage
+    * @throws IOException if the input/output file can't be opened, a
+    *   column has a variable-length type, or a line does not fit in a page
+    */
+  public static void convertEncoded(File inFile, File outFile, int npagebytes,
+                 int numFields, Type[] typeAr, char fieldSeparator)
+      throws IOException {
+    if (npagebytes > EncodedHeapPage.MAX_PAGE_SIZE)
+        throw new IOException("encoded pages hold at most "
+                + EncodedHeapPage.MAX_PAGE_SIZE + " bytes");
+    TupleDesc td = new TupleDesc(Arrays.copyOf(typeAr, numFields));
+    for (int i = 0; i < numFields; i++) {
+        if (typeAr[i] != Type.INT_TYPE && typeAr[i] != Type.STRING_TYPE)
+            throw new IOException("cannot encode columns of type " + typeAr[i]);
+    }
+    BufferedReader br = new BufferedReader(new FileReader(inFile));
+    FileOutputStream os = new FileOutputStream(outFile);
+    String separator = java.util.regex.Pattern.quote(String.valueOf(fieldSeparator));
+
+    // the lines read but not yet written, at most as many as a page holds
+    Field[][] rows = new Field[EncodedColumn.MAX_ROWS][];
+    int pending = 0;
+    int npages = 0;
+    boolean eof = false;
+    while (!eof || pending > 0) {
+        while (!eof && pending < rows.length) {
+            String line = br.readLine();
+            if (line == null) {
+                eof = true;
+                break;
+            }
+            if (line.length() == 0)
+                continue;
+            String[] fields = line.split(separator, -1);
+            Field[] values = new Field[numFields];
+            try {
+                for (int i = 0; i < numFields; i++) {
+                    String f = fields[i].trim();
+                    if (typeAr[i] == Type.INT_TYPE)
+                        values[i] = new IntField(Integer.parseInt(f));
+                    else
+                        values[i] = new StringField(f, Type.STRING_LEN);
+                }
+            } catch (RuntimeException e) {
+                System.out.println ("BAD LINE : " + line);
+                continue;
+            }
+            rows[pending++] = values;
+        }
+        if (pending == 0)
+            break;
+        int n = EncodedHeapPage.rowsThatFit(td, rows, pending, npagebytes);
+        if (n == 0)
+            throw new IOException("line does not fit in a page: " + Arrays.toString(rows[0]));
+        os.write(EncodedHeapPage.encode(td, rows, null, n, npagebytes));
+        npages++;
+        System.arraycopy(rows, n, rows, 0, pending - n);
+        pending -= n;
+    }
+    // an empty file still has an empty page
+    if (npages == 0)
+        os.write(new byte[npagebytes]);
+    br.close();
+    os.close();
+    ZoneMap.changed(outFile);
   }
 }
@@ -2,24 +2,35 @@ package simpledb;
 
 import java.util.*;
 import java.io.*;
+import java.nio.ByteBuffer;
 
 /**
  * Each instance of HeapPage stores data for one page of HeapFiles and 
  * implements the Page interface that is used by BufferPool.
+ * <p>
+ * Tuples are not decoded when the page is read. The page keeps the bytes it
+ * was created from (on the heap, or in an off-heap frame attached by the
+ * BufferPool) and {@link #getTuple} decodes a tuple from them each time it
+ * is asked for one. A tuple stored in {@code tuples} overrides the original
+ * bytes for that slot, so inserted tuples only need to be put there.
  *
  * @see HeapFile
  * @see BufferPool
  *
  */
-public class HeapPage implements Page {
+public class HeapPage implements FrameBackedPage {
 
     final HeapPageId pid;
     final TupleDesc td;
     final byte header[];
-    final Tuple tuples[];
+    final Tuple tuples[]; // null for slots still held only in raw
     final int numSlots;
 
-    byte[] oldData;
+    // the bytes this page was read from; never modified, only replaced by
+    // an identical copy when a frame is attached or detached
+    private volatile ByteBuffer raw;
+
+    byte[] oldData; // null means raw is the before image
     private final Byte oldDataLock=new Byte((byte)0);
 
     /**
@@ -39,27 +50,31 @@ public class HeapPage implements Page {
      * @see BufferPool#getPageSize()
      */
     public HeapPage(HeapPageId id, byte[] data) throws IOException {
+        this(id, ByteBuffer.wrap(data));
+    }
+
+    /**
+     * Create a HeapPage that reads its tuples directly from a buffer, such
+     * as a region of a memory-mapped file, without copying it. The buffer
+     * holds the page in the same format as {@link #HeapPage(HeapPageId, byte[])}
+     * starting at position 0, and must not change while the page is in use.
+     *
+     * @param id the id of this page
+     * @param data the raw data of this page
+     */
+    public HeapPage(HeapPageId id, ByteBuffer data) throws IOException {
         this.pid = id;
         this.td = Database.getCatalog().getTupleDesc(id.getTableId());
         this.numSlots = getNumTuples();
-        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
 
         // allocate and read the header slots of this page
         header = new byte[getHeaderSize()];
         for (int i=0; i<header.length; i++)
-            header[i] = dis.readByte();
-        
-        tuples = new Tuple[numSlots];
-        try{
-            // allocate and read the actual records of this page
-            for (int i=0; i<tuples.length; i++)
-                tuples[i] = readNextTuple(dis,i);
-        }catch(NoSuchElementException e){
-            e.printStackTrace();
-        }
-        dis.close();
+            header[i] = data.get(i);
 
-        setBeforeImage();
+        // the records themselves are decoded lazily from the raw data
+        tuples = new Tuple[numSlots];
+        raw = data;
     }
 
     /** Retrieve the number of tuples on this page.
@@ -91,6 +106,8 @@ public class HeapPage implements Page {
             {
                 oldDataRef = oldData;
             }
+            if (oldDataRef == null)
+                oldDataRef = rawBytes(0, BufferPool.getPageSize());
             return new HeapPage(pid,oldDataRef);
         } catch (IOException e) {
             e.printStackTrace();
@@ -116,37 +133,76 @@ public class HeapPage implements Page {
     }
 
     /**
-     * Suck up tuples from the source file.
+     * Decode the tuple in the specified slot from the raw page data.
      */
-    private Tuple readNextTuple(DataInputStream dis, int slotId) throws NoSuchElementException {
-        // if associated bit is not set, read forward to the next tuple, and
-        // return null.
-        if (!isSlotUsed(slotId)) {
-            for (int i=0; i<td.getSize(); i++) {
-                try {
-                    dis.readByte();
-                } catch (IOException e) {
-                    throw new NoSuchElementException("error reading empty tuple");
+    private Tuple readTuple(int slotId) throws NoSuchElementException {
+        while (true) {
+            ByteBuffer buf = raw;
+            try {
+                Tuple t = new Tuple(td);
+                t.setRecordId(new RecordId(pid, slotId));
+                int offset = header.length + slotId * td.getSize();
+                for (int j=0; j<td.numFields(); j++) {
+                    Type type = td.getFieldType(j);
+                    t.setField(j, type.parse(buf, offset));
+                    offset += type.getLen();
                 }
+                // if a frame was attached or detached while we were reading,
+                // buf may have been reused for another page; read it again
+                if (buf == raw)
+                    return t;
+            } catch (RuntimeException e) {
+                if (buf == raw)
+                    throw new NoSuchElementException("parsing error!");
             }
-            return null;
         }
+    }
 
-        // read fields in the tuple
-        Tuple t = new Tuple(td);
-        RecordId rid = new RecordId(pid, slotId);
-        t.setRecordId(rid);
-        try {
-            for (int j=0; j<td.numFields(); j++) {
-                Field f = td.getFieldType(j).parse(dis);
-                t.setField(j, f);
-            }
-        } catch (java.text.ParseException e) {
-            e.printStackTrace();
-            throw new NoSuchElementException("parsing error!");
-        }
+    /**
+     * Copy len bytes of the raw page data, starting at offset.
+     */
+    private byte[] rawBytes(int offset, int len) {
+        byte[] bytes = new byte[len];
+        ByteBuffer buf;
+        do {
+            buf = raw;
+            ByteBuffer dup = buf.duplicate();
+            dup.position(offset);
+            dup.get(bytes);
+        } while (buf != raw);
+        return bytes;
+    }
 
-        return t;
+    public boolean attachFrame(ByteBuffer frame) {
+        ByteBuffer buf = raw;
+        // a page read from a mapped file is already off the heap
+        if (buf.isDirect() || frame.capacity() != buf.capacity())
+            return false;
+        ByteBuffer src = buf.duplicate();
+        src.clear();
+        ByteBuffer dst = frame.duplicate();
+        dst.clear();
+        dst.put(src);
+        raw = frame;
+        return true;
+    }
+
+    public void detachFrame() {
+        raw = ByteBuffer.wrap(rawBytes(0, raw.capacity()));
+    }
+
+    /**
+     * Returns the tuple in slot i, decoding it from the raw page data if it
+     * has not been replaced since the page was read.
+     * @return the tuple in slot i, or null if the slot is empty
+     */
+    Tuple getTuple(int i) throws NoSuchElementException {
+        if (i < 0 || i >= numSlots)
+            throw new NoSuchElementException();
+        if (!isSlotUsed(i))
+            return null;
+        Tuple t = tuples[i];
+        return t != null ? t : readTuple(i);
     }
 
     /**
@@ -191,6 +247,16 @@ public class HeapPage implements Page {
                 continue;
             }
 
+            // non-empty slot that has not changed since the page was read
+            if (tuples[i] == null) {
+                try {
+                    dos.write(rawBytes(header.length + i * td.getSize(), td.getSize()));
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+                continue;
+            }
+
             // non-empty slot
             for (int j=0; j<td.numFields(); j++) {
                 Field f = tuples[i].getField(j);
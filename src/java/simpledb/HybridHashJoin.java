@@ -0,0 +1,293 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * HybridHashJoin is an equi-join for inputs that may not fit in memory.
+ * Unlike {@link HashEquiJoin}, which rescans child2 once for every chunk of
+ * child1 that fits in memory, it reads each input once and writes what does
+ * not fit to disk once per level of partitioning.
+ * <p>
+ * The rows of child1 are split by the hash of their join field into
+ * {@link #FANOUT} partitions. All partitions start in memory; whenever the
+ * rows held exceed the {@link OperatorMemory} budget, the largest
+ * partition still in memory is written to a {@link SpillFile}, along with
+ * every later row that falls into it. The partitions left in memory are
+ * then joined with child2 as it is read, and the rows of child2 that fall
+ * into a spilled partition are written to a spill file of their own.
+ * Finally each pair of spilled partitions is joined by a HybridHashJoin
+ * one level down, which partitions them again with a different hash. A
+ * partition that is still too big after {@link #MAX_LEVELS} levels (for
+ * example, because all of its rows have the same key) is joined by a
+ * HashEquiJoin, which needs no more memory than the budget.
+ * <p>
+ * Output rows are the row of child1 followed by the row of child2, but the
+ * order of the output is not the order of either input.
+ */
+public class HybridHashJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Number of partitions each level splits its input into, the same as
+     * {@link HashAggregate}, whose hash function the partitions share.
+     */
+    public static final int FANOUT = HashAggregate.FANOUT;
+
+    /** Number of levels of partitioning before falling back to HashEquiJoin. */
+    public static final int MAX_LEVELS = 4;
+
+    private final JoinPredicate pred;
+    private OpIterator child1, child2;
+    private final TupleDesc comboTD;
+    private final int level;
+
+    // partitions of child1; a partition is spilled if buildSpill[p] != null
+    transient private ArrayList<ArrayList<Tuple>> resident;
+    transient private SpillFile[] buildSpill;
+    transient private SpillFile[] probeSpill;
+
+    // the resident rows, by the hash code of their join field
+    transient private IntHashTable table;
+    transient private Tuple[] rows;
+
+    transient private Tuple t2;
+    transient private int match = -1;
+    transient private boolean child2Done;
+
+    // join of the spilled partitions, one at a time
+    transient private int nextSpilled;
+    transient private OpIterator spilledJoin;
+
+    /**
+     * Constructor. Accepts two children to join and the predicate to join
+     * them on.
+     *
+     * @param p
+     *            The predicate to use to join the children; its operator
+     *            must be EQUALS
+     * @param child1
+     *            Iterator for the left (build) relation to join
+     * @param child2
+     *            Iterator for the right (probe) relation to join
+     */
+    public HybridHashJoin(JoinPredicate p, OpIterator child1, OpIterator child2) {
+        this(p, child1, child2, 0);
+    }
+
+    private HybridHashJoin(JoinPredicate p, OpIterator child1, OpIterator child2, int level) {
+        if (p.getOperator() != Predicate.Op.EQUALS)
+            throw new IllegalArgumentException("HybridHashJoin only supports equality");
+        this.pred = p;
+        this.child1 = child1;
+        this.child2 = child2;
+        this.level = level;
+        comboTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return pred;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return comboTD;
+    }
+
+    public String getJoinField1Name() {
+        return this.child1.getTupleDesc().getFieldName(this.pred.getField1());
+    }
+
+    public String getJoinField2Name() {
+        return this.child2.getTupleDesc().getFieldName(this.pred.getField2());
+    }
+
+    /** @return the number of partitions of child1 that were written to disk */
+    public int numSpilledPartitions() {
+        int n = 0;
+        if (buildSpill != null)
+            for (SpillFile f : buildSpill)
+                if (f != null)
+                    n++;
+        return n;
+    }
+
+    /** @return the partition of a join field value at this level */
+    private int partition(Field f) {
+        return HashAggregate.partition(f.hashCode(), level);
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child1.open();
+        child2.open();
+        build();
+        super.open();
+    }
+
+    /** Partitions child1, spilling partitions until the rest fit the budget. */
+    private void build() throws DbException, TransactionAbortedException {
+        resident = new ArrayList<ArrayList<Tuple>>(FANOUT);
+        for (int i = 0; i < FANOUT; i++)
+            resident.add(new ArrayList<Tuple>());
+        buildSpill = new SpillFile[FANOUT];
+        probeSpill = new SpillFile[FANOUT];
+        int maxRows = OperatorMemory.maxRows(OperatorMemory.tupleBytes(child1.getTupleDesc())
+                + IntHashTable.BYTES_PER_ENTRY);
+        int f1 = pred.getField1();
+        int held = 0;
+        while (child1.hasNext()) {
+            Tuple t = child1.next();
+            int p = partition(t.getField(f1));
+            if (buildSpill[p] != null) {
+                buildSpill[p].add(t);
+                continue;
+            }
+            resident.get(p).add(t);
+            if (++held > maxRows)
+                held -= spillLargest();
+        }
+
+        int n = 0;
+        for (int i = 0; i < FANOUT; i++) {
+            if (buildSpill[i] != null) {
+                buildSpill[i].finish();
+                probeSpill[i] = new SpillFile(child2.getTupleDesc());
+            }
+        }
+        for (ArrayList<Tuple> l : resident)
+            n += l.size();
+        table = new IntHashTable(n);
+        rows = new Tuple[Math.max(1, n)];
+        for (int i = 0; i < FANOUT; i++) {
+            for (Tuple t : resident.get(i))
+                rows[table.add(t.getField(f1).hashCode())] = t;
+            resident.set(i, null);
+        }
+        t2 = null;
+        match = -1;
+        child2Done = false;
+        nextSpilled = 0;
+        spilledJoin = null;
+    }
+
+    /**
+     * Writes the largest partition still in memory to a spill file.
+     * @return the number of rows written
+     */
+    private int spillLargest() throws DbException {
+        int largest = -1;
+        for (int i = 0; i < FANOUT; i++)
+            if (buildSpill[i] == null
+                    && (largest == -1 || resident.get(i).size() > resident.get(largest).size()))
+                largest = i;
+        SpillFile f = new SpillFile(child1.getTupleDesc());
+        for (Tuple t : resident.get(largest))
+            f.add(t);
+        buildSpill[largest] = f;
+        int n = resident.get(largest).size();
+        resident.set(largest, new ArrayList<Tuple>(0));
+        return n;
+    }
+
+    /** Deletes the spill files and drops the in-memory rows. */
+    private void release() {
+        if (spilledJoin != null)
+            spilledJoin.close();
+        spilledJoin = null;
+        for (SpillFile[] files : new SpillFile[][] { buildSpill, probeSpill }) {
+            if (files == null)
+                continue;
+            for (SpillFile f : files)
+                if (f != null)
+                    f.delete();
+        }
+        buildSpill = null;
+        probeSpill = null;
+        resident = null;
+        table = null;
+        rows = null;
+        t2 = null;
+    }
+
+    public void close() {
+        super.close();
+        release();
+        child2.close();
+        child1.close();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        release();
+        child1.rewind();
+        child2.rewind();
+        build();
+    }
+
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        int f1 = pred.getField1();
+        int f2 = pred.getField2();
+        while (!child2Done) {
+            // rows of the resident partitions with the same hash code as t2
+            while (match != -1) {
+                Tuple t1 = rows[match];
+                match = table.next(match);
+                if (t1.getField(f1).equals(t2.getField(f2)))
+                    return HashEquiJoin.joinTuples(comboTD, t1, t2);
+            }
+
+            if (!child2.hasNext()) {
+                child2Done = true;
+                // the joins of the spilled partitions get the whole budget
+                table = null;
+                rows = null;
+                for (SpillFile f : probeSpill)
+                    if (f != null)
+                        f.finish();
+                break;
+            }
+            t2 = child2.next();
+            Field k = t2.getField(f2);
+            int p = partition(k);
+            if (probeSpill[p] != null)
+                probeSpill[p].add(t2);
+            else
+                match = table.first(k.hashCode());
+        }
+
+        // join the spilled partitions
+        while (true) {
+            if (spilledJoin != null) {
+                if (spilledJoin.hasNext())
+                    return spilledJoin.next();
+                spilledJoin.close();
+                spilledJoin = null;
+                buildSpill[nextSpilled - 1].delete();
+                probeSpill[nextSpilled - 1].delete();
+            }
+            while (nextSpilled < FANOUT
+                    && (buildSpill[nextSpilled] == null || probeSpill[nextSpilled].size() == 0))
+                nextSpilled++;
+            if (nextSpilled == FANOUT)
+                return null;
+            OpIterator build = buildSpill[nextSpilled].iterator();
+            OpIterator probe = probeSpill[nextSpilled].iterator();
+            nextSpilled++;
+            if (level + 1 < MAX_LEVELS)
+                spilledJoin = new HybridHashJoin(pred, build, probe, level + 1);
+            else
+                spilledJoin = new HashEquiJoin(pred, build, probe);
+            spilledJoin.open();
+        }
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[] { this.child1, this.child2 };
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        this.child1 = children[0];
+        this.child2 = children[1];
+    }
+}
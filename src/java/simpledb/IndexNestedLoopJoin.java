@@ -0,0 +1,203 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * IndexNestedLoopJoin joins child1 with a table stored in a
+ * {@link BTreeFile} whose key field is the join field, without reading the
+ * whole table: for every row of child1 it looks up the matching rows with
+ * {@link BTreeFile#indexIterator}.
+ * <p>
+ * Rows of child1 are read in batches of as many rows as fit in the
+ * {@link OperatorMemory} budget, and each batch is sorted on the join field
+ * before probing. The probes of a batch then walk the leaves of the tree in
+ * key order, so each leaf is read from disk at most once per batch, and
+ * rows of child1 with equal keys share a single probe.
+ * <p>
+ * Output rows are the row of child1 followed by the row of the table;
+ * within a batch they come out in the order of the join field of child1.
+ */
+public class IndexNestedLoopJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final JoinPredicate pred;
+    private OpIterator child1;
+    private OpIterator child2;
+    private final TransactionId tid;
+    private final int tableid;
+    private final Predicate.Op indexOp;
+    private final TupleDesc comboTD;
+
+    // the current batch of child1, sorted on the join field
+    transient private ArrayList<Tuple> batch;
+    // rows [runStart, runEnd) of the batch have the key being probed
+    transient private int runStart, runEnd;
+    transient private int pos;
+    transient private DbFileIterator probe;
+    transient private Tuple t2;
+
+    /**
+     * Constructor.
+     *
+     * @param p
+     *            The predicate to join on; field2 must be the key field of
+     *            the table, and the operator cannot be NOT_EQUALS or LIKE
+     * @param child1
+     *            Iterator for the left (outer) relation to join
+     * @param tid
+     *            The transaction the probes run as
+     * @param tableid
+     *            The table to probe, which must be a BTreeFile
+     * @param tableAlias
+     *            The alias of the table, which prefixes its field names as
+     *            in {@link BTreeScan}
+     */
+    public IndexNestedLoopJoin(JoinPredicate p, OpIterator child1,
+            TransactionId tid, int tableid, String tableAlias) {
+        DbFile f = Database.getCatalog().getDatabaseFile(tableid);
+        if (!(f instanceof BTreeFile) || ((BTreeFile) f).keyField() != p.getField2())
+            throw new IllegalArgumentException("join field is not the key of a B+ tree");
+        this.pred = p;
+        this.child1 = child1;
+        this.tid = tid;
+        this.tableid = tableid;
+        this.indexOp = indexOp(p.getOperator());
+        this.child2 = new BTreeScan(tid, tableid, tableAlias, null);
+        comboTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+    }
+
+    /**
+     * @return the operator op' such that a op b holds exactly when b op' a
+     *         does, or null if a B+ tree cannot answer it
+     */
+    static Predicate.Op indexOp(Predicate.Op op) {
+        switch (op) {
+        case EQUALS:
+            return Predicate.Op.EQUALS;
+        case LESS_THAN:
+            return Predicate.Op.GREATER_THAN;
+        case LESS_THAN_OR_EQ:
+            return Predicate.Op.GREATER_THAN_OR_EQ;
+        case GREATER_THAN:
+            return Predicate.Op.LESS_THAN;
+        case GREATER_THAN_OR_EQ:
+            return Predicate.Op.LESS_THAN_OR_EQ;
+        default:
+            return null;
+        }
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return pred;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return comboTD;
+    }
+
+    public String getJoinField1Name() {
+        return this.child1.getTupleDesc().getFieldName(this.pred.getField1());
+    }
+
+    public String getJoinField2Name() {
+        return this.child2.getTupleDesc().getFieldName(this.pred.getField2());
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        if (indexOp == null)
+            throw new DbException("index join does not support " + pred.getOperator());
+        child1.open();
+        batch = new ArrayList<Tuple>();
+        runStart = runEnd = pos = 0;
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        closeProbe();
+        batch = null;
+        child1.close();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        closeProbe();
+        child1.rewind();
+        batch = new ArrayList<Tuple>();
+        runStart = runEnd = pos = 0;
+    }
+
+    private void closeProbe() {
+        if (probe != null)
+            probe.close();
+        probe = null;
+        t2 = null;
+    }
+
+    /** Reads the next batch of child1 and sorts it. @return false at the end */
+    private boolean readBatch() throws DbException, TransactionAbortedException {
+        batch.clear();
+        int maxRows = OperatorMemory.maxRows(OperatorMemory.tupleBytes(child1.getTupleDesc()) + 8);
+        while (batch.size() < maxRows && child1.hasNext())
+            batch.add(child1.next());
+        final int f1 = pred.getField1();
+        // a stable sort, so rows with equal keys stay in the order of child1
+        Collections.sort(batch, new Comparator<Tuple>() {
+            public int compare(Tuple a, Tuple b) {
+                Field x = a.getField(f1), y = b.getField(f1);
+                if (x.compare(Predicate.Op.LESS_THAN, y))
+                    return -1;
+                return x.compare(Predicate.Op.GREATER_THAN, y) ? 1 : 0;
+            }
+        });
+        runStart = runEnd = 0;
+        return !batch.isEmpty();
+    }
+
+    /** Starts the probe for the next run of equal keys. @return false at the end */
+    private boolean nextRun() throws DbException, TransactionAbortedException {
+        closeProbe();
+        if (runEnd == batch.size() && !readBatch())
+            return false;
+        int f1 = pred.getField1();
+        runStart = runEnd;
+        Field key = batch.get(runStart).getField(f1);
+        runEnd = runStart + 1;
+        while (runEnd < batch.size() && batch.get(runEnd).getField(f1).equals(key))
+            runEnd++;
+        probe = ((BTreeFile) Database.getCatalog().getDatabaseFile(tableid))
+                .indexIterator(tid, new IndexPredicate(indexOp, key));
+        probe.open();
+        return true;
+    }
+
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        while (true) {
+            // join the current row of the table with every row of the run
+            if (t2 != null && pos < runEnd)
+                return HashEquiJoin.joinTuples(comboTD, batch.get(pos++), t2);
+            if (probe != null && probe.hasNext()) {
+                t2 = probe.next();
+                pos = runStart;
+                continue;
+            }
+            if (!nextRun())
+                return null;
+        }
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[] { this.child1, this.child2 };
+    }
+
+    /**
+     * Replaces child1. The second child is the scan of the indexed table,
+     * which is only used to describe its rows, and cannot be replaced.
+     */
+    @Override
+    public void setChildren(OpIterator[] children) {
+        this.child1 = children[0];
+    }
+}
@@ -0,0 +1,219 @@
+package simpledb;
+
+import java.util.Arrays;
+
+/**
+ * IntGroupTable is the group table of an aggregate grouped by an integer
+ * column, kept entirely in primitive arrays. Groups are numbered 0, 1,
+ * 2, ... in the order their keys are first seen, and the running count,
+ * sum, minimum and maximum of each of a group's aggregates are kept in
+ * parallel long[]s, at index group * aggregates + aggregate. Nothing is
+ * boxed, and merging a value into its group allocates nothing once the
+ * arrays are big enough.
+ * <p>
+ * Keys live in an open-addressing table with linear probing, like
+ * {@link IntHashTable}; each slot holds a key and its group number.
+ */
+public class IntGroupTable {
+
+    /**
+     * Bytes used per group of a single aggregate in the worst case: four
+     * slots of two ints just after the table grows, the group's key, and
+     * its four running values.
+     */
+    public static final int BYTES_PER_GROUP = 4 * 2 * 4 + 4 + 4 * 8;
+
+    /** @return the bytes used per group with the given number of aggregates */
+    public static int bytesPerGroup(int aggregates) {
+        return BYTES_PER_GROUP + (aggregates - 1) * 4 * 8;
+    }
+
+    private static final int EMPTY = -1;
+
+    // open-addressing table; group[slot] == EMPTY marks a free slot
+    private int[] keys;
+    private int[] group;
+    private int mask;
+
+    // key and running values of each group
+    private final int aggregates;
+    private int[] groupKeys;
+    private long[] count;
+    private long[] sum;
+    private long[] min;
+    private long[] max;
+    private int size;
+
+    /** Creates an empty table of one aggregate, sized for about expected groups. */
+    public IntGroupTable(int expected) {
+        this(expected, 1);
+    }
+
+    /**
+     * Creates an empty table sized for about expected groups, with running
+     * values for the given number of aggregates.
+     */
+    public IntGroupTable(int expected, int aggregates) {
+        if (aggregates < 1)
+            throw new IllegalArgumentException("no aggregates");
+        this.aggregates = aggregates;
+        int cap = 16;
+        while (cap < expected * 2 && cap < (1 << 30))
+            cap <<= 1;
+        allocate(cap);
+        int n = Math.max(16, expected);
+        groupKeys = new int[n];
+        count = new long[n * aggregates];
+        sum = new long[n * aggregates];
+        min = new long[n * aggregates];
+        max = new long[n * aggregates];
+    }
+
+    private void allocate(int cap) {
+        keys = new int[cap];
+        group = new int[cap];
+        Arrays.fill(group, EMPTY);
+        mask = cap - 1;
+    }
+
+    /** Spreads the bits of k, so that sequential keys do not cluster. */
+    private static int hash(int k) {
+        k ^= k >>> 16;
+        k *= 0x85ebca6b;
+        k ^= k >>> 13;
+        k *= 0xc2b2ae35;
+        k ^= k >>> 16;
+        return k;
+    }
+
+    /** @return the slot holding key, or the free slot where it would go */
+    private int slot(int key) {
+        int s = hash(key) & mask;
+        while (group[s] != EMPTY && keys[s] != key)
+            s = (s + 1) & mask;
+        return s;
+    }
+
+    /** @return the group with key, or -1 if there is none */
+    public int find(int key) {
+        return group[slot(key)];
+    }
+
+    /**
+     * @return the group with key, which is added with no values if there
+     *         is none
+     */
+    public int add(int key) {
+        int s = slot(key);
+        if (group[s] != EMPTY)
+            return group[s];
+        if (size == groupKeys.length) {
+            int n = size * 2;
+            groupKeys = Arrays.copyOf(groupKeys, n);
+            count = Arrays.copyOf(count, n * aggregates);
+            sum = Arrays.copyOf(sum, n * aggregates);
+            min = Arrays.copyOf(min, n * aggregates);
+            max = Arrays.copyOf(max, n * aggregates);
+        }
+        int g = size++;
+        groupKeys[g] = key;
+        for (int i = g * aggregates; i < (g + 1) * aggregates; i++) {
+            count[i] = 0;
+            sum[i] = 0;
+            min[i] = Long.MAX_VALUE;
+            max[i] = Long.MIN_VALUE;
+        }
+        keys[s] = key;
+        group[s] = g;
+        if (size * 2 > keys.length)
+            rehash();
+        return g;
+    }
+
+    private void rehash() {
+        int[] oldKeys = keys, oldGroup = group;
+        allocate(oldKeys.length * 2);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldGroup[i] == EMPTY)
+                continue;
+            int s = slot(oldKeys[i]);
+            keys[s] = oldKeys[i];
+            group[s] = oldGroup[i];
+        }
+    }
+
+    /** Merges one value into the first aggregate of group g. */
+    public void merge(int g, long v) {
+        merge(g, 0, v);
+    }
+
+    /** Merges one value into aggregate a of group g. */
+    public void merge(int g, int a, long v) {
+        int i = g * aggregates + a;
+        count[i]++;
+        sum[i] += v;
+        if (v < min[i])
+            min[i] = v;
+        if (v > max[i])
+            max[i] = v;
+    }
+
+    /** Merges a partial sum of c values into aggregate a of group g. */
+    public void mergeSumCount(int g, int a, long s, long c) {
+        int i = g * aggregates + a;
+        count[i] += c;
+        sum[i] += s;
+    }
+
+    /** @return the number of groups */
+    public int size() {
+        return size;
+    }
+
+    public int key(int g) {
+        return groupKeys[g];
+    }
+
+    /** @return the number of aggregates of each group */
+    public int aggregates() {
+        return aggregates;
+    }
+
+    public long count(int g) {
+        return count[g * aggregates];
+    }
+
+    public long sum(int g) {
+        return sum[g * aggregates];
+    }
+
+    public long min(int g) {
+        return min[g * aggregates];
+    }
+
+    public long max(int g) {
+        return max[g * aggregates];
+    }
+
+    public long count(int g, int a) {
+        return count[g * aggregates + a];
+    }
+
+    public long sum(int g, int a) {
+        return sum[g * aggregates + a];
+    }
+
+    public long min(int g, int a) {
+        return min[g * aggregates + a];
+    }
+
+    public long max(int g, int a) {
+        return max[g * aggregates + a];
+    }
+
+    /** Removes all groups, keeping the allocated arrays. */
+    public void clear() {
+        Arrays.fill(group, EMPTY);
+        size = 0;
+    }
+}
@@ -0,0 +1,134 @@
+package simpledb;
+
+import java.util.Arrays;
+
+/**
+ * IntHashTable is a multimap from int keys to entries, kept entirely in
+ * primitive arrays. Entries are numbered 0, 1, 2, ... in the order they are
+ * added, and the caller stores whatever goes with an entry (a Tuple, a row
+ * of a batch) in its own array under that number. Nothing is boxed and no
+ * per-key list is allocated.
+ * <p>
+ * Keys live in an open-addressing table with linear probing. Each slot
+ * holds a key and the first and last entry with that key; the entries of a
+ * key are chained through {@link #next}, in the order they were added.
+ */
+public class IntHashTable {
+
+    /**
+     * Bytes used per entry in the worst case: its link in the chain, and
+     * up to four slots of three ints if every key is distinct.
+     */
+    public static final int BYTES_PER_ENTRY = 4 + 4 * 3 * 4;
+
+    private static final int EMPTY = -1;
+
+    // open-addressing table; head[slot] == EMPTY marks a free slot
+    private int[] keys;
+    private int[] head;
+    private int[] tail;
+    private int mask;
+    private int numKeys;
+
+    // chain of each entry
+    private int[] next;
+    private int size;
+
+    /** Creates an empty table sized for about expected entries. */
+    public IntHashTable(int expected) {
+        int cap = 16;
+        while (cap < expected * 2 && cap < (1 << 30))
+            cap <<= 1;
+        allocate(cap);
+        next = new int[Math.max(16, expected)];
+    }
+
+    private void allocate(int cap) {
+        keys = new int[cap];
+        head = new int[cap];
+        tail = new int[cap];
+        Arrays.fill(head, EMPTY);
+        mask = cap - 1;
+    }
+
+    /** Spreads the bits of k, so that sequential keys do not cluster. */
+    private static int hash(int k) {
+        k ^= k >>> 16;
+        k *= 0x85ebca6b;
+        k ^= k >>> 13;
+        k *= 0xc2b2ae35;
+        k ^= k >>> 16;
+        return k;
+    }
+
+    /** @return the slot holding key, or the free slot where it would go */
+    private int slot(int key) {
+        int s = hash(key) & mask;
+        while (head[s] != EMPTY && keys[s] != key)
+            s = (s + 1) & mask;
+        return s;
+    }
+
+    /**
+     * Adds an entry with the given key.
+     * @return the number of the new entry
+     */
+    public int add(int key) {
+        if (size == next.length)
+            next = Arrays.copyOf(next, size * 2);
+        int e = size++;
+        next[e] = EMPTY;
+        int s = slot(key);
+        if (head[s] == EMPTY) {
+            keys[s] = key;
+            head[s] = e;
+            tail[s] = e;
+            if (++numKeys * 2 > keys.length)
+                rehash();
+        } else {
+            next[tail[s]] = e;
+            tail[s] = e;
+        }
+        return e;
+    }
+
+    private void rehash() {
+        int[] oldKeys = keys, oldHead = head, oldTail = tail;
+        allocate(oldKeys.length * 2);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldHead[i] == EMPTY)
+                continue;
+            int s = slot(oldKeys[i]);
+            keys[s] = oldKeys[i];
+            head[s] = oldHead[i];
+            tail[s] = oldTail[i];
+        }
+    }
+
+    /** @return the first entry with key, or -1 if there is none */
+    public int first(int key) {
+        return head[slot(key)];
+    }
+
+    /** @return the entry with the same key added after e, or -1 */
+    public int next(int e) {
+        return next[e];
+    }
+
+    /** @return the number of entries */
+    public int size() {
+        return size;
+    }
+
+    /** @return the number of distinct keys */
+    public int numKeys() {
+        return numKeys;
+    }
+
+    /** Removes all entries, keeping the allocated arrays. */
+    public void clear() {
+        Arrays.fill(head, EMPTY);
+        numKeys = 0;
+        size = 0;
+    }
+}
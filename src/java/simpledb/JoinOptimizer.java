@@ -44,9 +44,13 @@ public class JoinOptimizer {
      */
     public static OpIterator instantiateJoin(LogicalJoinNode lj,
                                              OpIterator plan1, OpIterator plan2) throws ParsingException {
+        return new Join(joinPredicate(lj, plan1, plan2), plan1, plan2);
+    }
 
+    /** @return the predicate of lj over the fields of plan1 and plan2 */
+    private static JoinPredicate joinPredicate(LogicalJoinNode lj,
+            OpIterator plan1, OpIterator plan2) throws ParsingException {
         int t1id = 0, t2id = 0;
-        OpIterator j;
 
         try {
             t1id = plan1.getTupleDesc().fieldNameToIndex(lj.f1QuantifiedName);
@@ -66,14 +70,243 @@ public class JoinOptimizer {
             }
         }
 
-        JoinPredicate p = new JoinPredicate(t1id, lj.p, t2id);
+        return new JoinPredicate(t1id, lj.p, t2id);
+    }
 
-        j = new Join(p,plan1,plan2);
+    /**
+     * Like {@link #instantiateJoin(LogicalJoinNode, OpIterator, OpIterator)},
+     * which always returns a nested-loop {@link Join}, but given an estimate
+     * of the cardinality of plan1, which lets it choose the algorithm. An
+     * equi-join builds a hash table on plan1: in memory with a
+     * {@link HashEquiJoin} if card1 rows fit in the {@link OperatorMemory}
+     * budget, and otherwise with a {@link HybridHashJoin}, which spills to
+     * disk.
+     *
+     * @param card1
+     *            The estimated number of rows of plan1
+     */
+    public static OpIterator instantiateJoin(LogicalJoinNode lj,
+            OpIterator plan1, OpIterator plan2, int card1) throws ParsingException {
+        return instantiateJoin(lj, plan1, plan2, card1, null, null, false);
+    }
+
+    /**
+     * Like {@link #instantiateJoin(LogicalJoinNode, OpIterator, OpIterator, int)},
+     * but given the base table plan2 reads, if any. If
+     * {@link #indexJoinApplies} holds, the join is an
+     * {@link IndexNestedLoopJoin}. Otherwise, if both plans are sorted on
+     * their join fields (see {@link #isSortedOn}), it is a
+     * {@link SortMergeJoin}.
+     *
+     * @param t
+     *            The transaction the join runs as
+     * @param table2Id
+     *            The table plan2 reads, or null if plan2 is a subquery or
+     *            the result of another join
+     * @param filtered
+     *            true if plan2 filters the rows of table2Id
+     */
+    public static OpIterator instantiateJoin(LogicalJoinNode lj,
+            OpIterator plan1, OpIterator plan2, int card1, TransactionId t,
+            Integer table2Id, boolean filtered) throws ParsingException {
+
+        OpIterator j;
+        JoinPredicate p = joinPredicate(lj, plan1, plan2);
+        int t1id = p.getField1();
+        int t2id = p.getField2();
+
+        if (indexJoinApplies(lj, table2Id, filtered, card1)) {
+            j = new IndexNestedLoopJoin(p, plan1, t, table2Id, lj.t2Alias);
+        } else if (SortMergeJoin.supports(lj.p) && isSortedOn(plan1, t1id)
+                && !(lj instanceof LogicalSubplanJoinNode) && isSortedOn(plan2, t2id)) {
+            j = new SortMergeJoin(p, plan1, plan2);
+        } else if (lj.p == Predicate.Op.EQUALS
+                && (plan1 instanceof Gather || plan2 instanceof Gather)) {
+            j = instantiateParallelJoin(p, plan1, plan2, card1);
+        } else if (lj.p == Predicate.Op.EQUALS) {
+            if (buildFitsInMemory(plan1.getTupleDesc(), card1))
+                j = new HashEquiJoin(p, plan1, plan2);
+            else
+                j = new HybridHashJoin(p, plan1, plan2);
+        } else {
+            j = new Join(p,plan1,plan2);
+        }
 
         return j;
 
     }
 
+    /**
+     * Instantiates an equi-join of plans of which at least one is a
+     * parallel {@link Gather}, as a Gather of joins running in parallel.
+     * If plan1 is serial and its rows fit in memory, they are broadcast to
+     * a {@link HashEquiJoin} with each input of plan2, or to a
+     * {@link HybridHashJoin} if the inputs of plan2 cannot be rescanned on
+     * their own. Otherwise both plans are repartitioned on their join
+     * fields, and each pair of streams is joined by a HybridHashJoin, which
+     * reads each of its children once.
+     */
+    static OpIterator instantiateParallelJoin(JoinPredicate p, OpIterator plan1,
+            OpIterator plan2, int card1) {
+        OpIterator[] in1 = plan1 instanceof Gather ? ((Gather) plan1).getChildren()
+                : new OpIterator[] { plan1 };
+        OpIterator[] in2 = plan2 instanceof Gather ? ((Gather) plan2).getChildren()
+                : new OpIterator[] { plan2 };
+        OpIterator[] joins;
+        if (!(plan1 instanceof Gather) && buildFitsInMemory(plan1.getTupleDesc(), card1)) {
+            Broadcast[] b = Broadcast.create(in1, in2.length);
+            joins = new OpIterator[in2.length];
+            for (int i = 0; i < joins.length; i++)
+                // the estimate of card1 may be low, and HashEquiJoin then
+                // rescans its probe side once per chunk of the build side
+                joins[i] = isRewindable(in2[i]) ? new HashEquiJoin(p, b[i], in2[i])
+                        : new HybridHashJoin(p, b[i], in2[i]);
+        } else {
+            int n = Math.max(in1.length, in2.length);
+            Repartition[] r1 = Repartition.create(in1, p.getField1(), n);
+            Repartition[] r2 = Repartition.create(in2, p.getField2(), n);
+            joins = new OpIterator[n];
+            for (int i = 0; i < n; i++)
+                joins[i] = new HybridHashJoin(p, r1[i], r2[i]);
+        }
+        return new Gather(joins);
+    }
+
+    /**
+     * Returns true if the rows of plan come out in ascending order of
+     * field. Plans are sorted if they read a B+ tree on its key field,
+     * with a {@link BTreeScan} or through {@link BTreeFile#iterator}, or
+     * sort their input, and this order passes through Filters and
+     * SortMergeJoins. Such orders let a join be a {@link SortMergeJoin}
+     * without sorting its inputs first.
+     */
+    static boolean isSortedOn(OpIterator plan, int field) {
+        if (plan instanceof BTreeScan || plan instanceof SeqScan) {
+            String name = plan instanceof BTreeScan ? ((BTreeScan) plan).getTableName()
+                    : ((SeqScan) plan).getTableName();
+            if (name == null)
+                return false;
+            DbFile f = Database.getCatalog().getDatabaseFile(
+                    Database.getCatalog().getTableId(name));
+            return f instanceof BTreeFile && ((BTreeFile) f).keyField() == field;
+        }
+        if (plan instanceof OrderBy)
+            return ((OrderBy) plan).isASC() && ((OrderBy) plan).getOrderByField() == field;
+        if (plan instanceof SortMergeJoin) {
+            SortMergeJoin j = (SortMergeJoin) plan;
+            if (j.getSortField() == field)
+                return true;
+            // with equality, the join fields of both sides are equal
+            JoinPredicate p = j.getJoinPredicate();
+            int n1 = j.getChildren()[0].getTupleDesc().numFields();
+            return p.getOperator() == Predicate.Op.EQUALS
+                    && (field == p.getField1() || field == n1 + p.getField2());
+        }
+        if (plan instanceof Filter) {
+            OpIterator[] children = ((Filter) plan).getChildren();
+            return children != null && children[0] != null && isSortedOn(children[0], field);
+        }
+        return false;
+    }
+
+    /**
+     * Returns true if plan can be rewound by itself. A plan that reads one
+     * of the streams of a {@link Repartition} or {@link Broadcast} cannot,
+     * since those streams can only be restarted together.
+     */
+    static boolean isRewindable(OpIterator plan) {
+        if (plan instanceof Repartition || plan instanceof Broadcast)
+            return false;
+        if (plan instanceof Gather || !(plan instanceof Operator))
+            return true;
+        OpIterator[] children = ((Operator) plan).getChildren();
+        if (children != null)
+            for (OpIterator c : children)
+                if (c != null && !isRewindable(c))
+                    return false;
+        return true;
+    }
+
+    /**
+     * @return true if card rows of td and their hash table entries fit in
+     *         the operator memory budget
+     */
+    static boolean buildFitsInMemory(TupleDesc td, int card) {
+        return card <= OperatorMemory.maxRows(OperatorMemory.tupleBytes(td)
+                + IntHashTable.BYTES_PER_ENTRY);
+    }
+
+    /**
+     * @return the file of table if it is a B+ tree that can find the rows
+     *         joining with a given key, that is, one keyed on field whose
+     *         index can answer op; null otherwise
+     */
+    static BTreeFile joinIndex(int table, Predicate.Op op, int field) {
+        DbFile f = Database.getCatalog().getDatabaseFile(table);
+        if (!(f instanceof BTreeFile) || ((BTreeFile) f).keyField() != field
+                || IndexNestedLoopJoin.indexOp(op) == null)
+            return null;
+        return (BTreeFile) f;
+    }
+
+    /**
+     * Decides whether lj is an {@link IndexNestedLoopJoin}: both the cost
+     * of a join order and the join built for it ask this, so that joins are
+     * ordered by the cost of the joins that run. The inner side must be an
+     * unfiltered scan of a B+ tree keyed on the join field, whose index can
+     * answer the join's operator, and probing it card1 times must cost less
+     * than reading it once.
+     *
+     * @param table2
+     *            The table the inner side reads, or null if the inner side
+     *            is a subquery or the result of another join
+     * @param filtered
+     *            true if the inner side filters the rows of table2
+     * @param card1
+     *            The estimated number of rows of the outer side
+     */
+    static boolean indexJoinApplies(LogicalJoinNode lj, Integer table2,
+            boolean filtered, int card1) {
+        if (table2 == null || filtered || lj instanceof LogicalSubplanJoinNode)
+            return false;
+        BTreeFile index;
+        try {
+            index = joinIndex(table2, lj.p, Database.getCatalog()
+                    .getTupleDesc(table2).fieldNameToIndex(lj.f2PureName));
+        } catch (NoSuchElementException e) {
+            return false; // not a field of the table
+        }
+        return index != null
+                && estimateIndexJoinCost(index, card1) < estimateFullScanCost(index);
+    }
+
+    /**
+     * Estimates the cost of one lookup in a B+ tree: reading one page per
+     * level of the tree, down to the first leaf with the key. Further
+     * leaves read by range predicates are not counted.
+     */
+    static double estimateIndexProbeCost(BTreeFile f) {
+        int keyLen = f.getTupleDesc().getFieldType(f.keyField()).getLen();
+        double fanout = Math.max(2, BufferPool.getPageSize() / (keyLen + Type.INT_TYPE.getLen()));
+        double height = Math.ceil(Math.log(Math.max(2, f.numPages())) / Math.log(fanout));
+        return (height + 1) * TableStats.IOCOSTPERPAGE;
+    }
+
+    /**
+     * Estimates the cost of probing f with card1 keys. As the keys are
+     * probed in sorted order, pages near the root stay in the buffer pool,
+     * and no more pages are read than the file has.
+     */
+    static double estimateIndexJoinCost(BTreeFile f, int card1) {
+        return Math.min((double) card1 * estimateIndexProbeCost(f),
+                card1 + estimateFullScanCost(f));
+    }
+
+    /** @return the cost of reading every page of f once */
+    static double estimateFullScanCost(BTreeFile f) {
+        return (double) f.numPages() * TableStats.IOCOSTPERPAGE;
+    }
+
     /**
      * Estimate the cost of a join.
      * 
@@ -102,10 +335,25 @@ public class JoinOptimizer {
      */
     public double estimateJoinCost(LogicalJoinNode j, int card1, int card2,
             double cost1, double cost2) {
+        return estimateJoinCost(j, card1, card2, cost1, cost2,
+                j.t2Alias == null ? null : p.getTableId(j.t2Alias));
+    }
+
+    /**
+     * Like {@link #estimateJoinCost(LogicalJoinNode, int, int, double, double)},
+     * but given the base table the right-hand side reads, or null if it is
+     * the result of another join.
+     */
+    private double estimateJoinCost(LogicalJoinNode j, int card1, int card2,
+            double cost1, double cost2, Integer table2) {
         if (j instanceof LogicalSubplanJoinNode) {
             // A LogicalSubplanJoinNode represents a subquery.
             // You do not need to implement proper support for these for Lab 3.
             return card1 + cost1 + cost2;
+        }
+        if (indexJoinApplies(j, table2, p.isFiltered(j.t2Alias), card1)) {
+            BTreeFile index = (BTreeFile) Database.getCatalog().getDatabaseFile(table2);
+            return cost1 + estimateIndexJoinCost(index, card1) + card1;
         } else {
             // Insert your code here.
             // HINT: You may need to use the variable "j" if you implemented
@@ -349,11 +597,17 @@ public class JoinOptimizer {
             }
         }
 
+        // only a side that is not prevBest can be read through an index
+        Integer table1Id = doesJoin(prevBest, table1Alias) ? null
+                : this.p.getTableId(j.t1Alias);
+        Integer table2Id = j.t2Alias == null || doesJoin(prevBest, j.t2Alias) ? null
+                : this.p.getTableId(j.t2Alias);
+
         // case where prevbest is left
-        double cost1 = estimateJoinCost(j, t1card, t2card, t1cost, t2cost);
+        double cost1 = estimateJoinCost(j, t1card, t2card, t1cost, t2cost, table2Id);
 
         LogicalJoinNode j2 = j.swapInnerOuter();
-        double cost2 = estimateJoinCost(j2, t2card, t1card, t2cost, t1cost);
+        double cost2 = estimateJoinCost(j2, t2card, t1card, t2cost, t1cost, table1Id);
         if (cost2 < cost1) {
             boolean tmp;
             j = j2;
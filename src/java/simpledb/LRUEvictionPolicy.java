@@ -0,0 +1,47 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * Evicts the least recently used page. Simple and effective for workloads
+ * with good locality, but a single large sequential scan will flush every
+ * other page out of the pool.
+ * <p>
+ * Every method is synchronized, including {@link #pageHit}, which reorders
+ * the list of pages, so concurrent getPage hits contend on the policy; see
+ * {@link ClockEvictionPolicy} for a policy whose hits take no lock.
+ */
+public class LRUEvictionPolicy implements EvictionPolicy {
+
+    /** Resident pages, least recently used first. */
+    private final LinkedHashMap<PageId, Boolean> pages =
+        new LinkedHashMap<PageId, Boolean>(16, 0.75f, true);
+
+    public synchronized void pageHit(PageId pid) {
+        pages.get(pid);
+    }
+
+    public synchronized void pageAdded(PageId pid) {
+        pages.put(pid, Boolean.TRUE);
+    }
+
+    public synchronized void pageRemoved(PageId pid) {
+        pages.remove(pid);
+    }
+
+    public void pageDiscarded(PageId pid) {
+        pageRemoved(pid);
+    }
+
+    public synchronized PageId chooseVictim(Set<PageId> pinned) {
+        for (PageId pid : pages.keySet()) {
+            if (!pinned.contains(pid))
+                return pid;
+        }
+        return null;
+    }
+
+    public String getName() {
+        return "LRU";
+    }
+}
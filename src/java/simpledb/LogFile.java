@@ -32,6 +32,10 @@ must not be declared synchronized and must begin with a block like:
        }
     }
 </pre>
+
+BufferPool.getPage only takes the BufferPool monitor when it has to
+evict a page, so holding it here does not stall readers whose pages are
+already cached.
 */
 
 /**
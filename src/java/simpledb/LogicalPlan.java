@@ -2,19 +2,20 @@ package simpledb;
 import java.util.Map;
 import java.util.Vector;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.io.File;
 import java.util.ArrayList;
 import java.util.NoSuchElementException;
+import java.util.Set;
 
 /**
  * LogicalPlan represents a logical query plan that has been through
  * the parser and is ready to be processed by the optimizer.
  * <p>
  * A LogicalPlan consits of a collection of table scan nodes, join
- * nodes, filter nodes, a select list, and a group by field.
- * LogicalPlans can only represent queries with one aggregation field
- * and one group by field.
+ * nodes, filter nodes, a select list, group by fields, and the
+ * aggregates computed over each group.
  * <p>
  * LogicalPlans can be converted to physical (optimized) plans using
  * the {@link #physicalPlan} method, which uses the
@@ -29,15 +30,20 @@ public class LogicalPlan {
     private HashMap<String,Integer> tableMap;
 
     private Vector<LogicalSelectListNode> selectList;
-    private String groupByField = null;
+    private Vector<String> groupByFields;
     private boolean hasAgg = false;
-    private String aggOp;
-    private String aggField;
+    private Vector<String> aggOps;
+    private Vector<String> aggFields;
     private boolean oByAsc, hasOrderBy = false;
     private String oByField;
+    private int limit = NO_LIMIT;
+    private boolean distinct = false;
     private String query;
 //    private Query owner;
 
+    /** Value of {@link #getLimit} for a query without a LIMIT. */
+    public static final int NO_LIMIT = -1;
+
     /** Constructor -- generate an empty logical plan */
     public LogicalPlan() {
         joins = new Vector<LogicalJoinNode>();
@@ -47,6 +53,9 @@ public class LogicalPlan {
         tableMap = new HashMap<String,Integer>();
 
         selectList = new Vector<LogicalSelectListNode>();
+        groupByFields = new Vector<String>();
+        aggOps = new Vector<String>();
+        aggFields = new Vector<String>();
         this.query = "";
     }
 
@@ -75,7 +84,16 @@ public class LogicalPlan {
     public Integer getTableId(String alias) {
         return tableMap.get(alias);
     }
-    
+
+    /** @return true if the plan filters the rows of the table with the given alias */
+    boolean isFiltered(String alias) {
+        for (LogicalFilterNode lf : filters) {
+            if (lf.tableAlias.equals(alias))
+                return true;
+        }
+        return false;
+    }
+
     public HashMap<String,Integer> getTableAliasToIdMapping()
     {
         return this.tableMap;
@@ -186,21 +204,55 @@ public class LogicalPlan {
     }
     
     /** Add an aggregate over the field with the specified grouping to
-        the query.  SimpleDb only supports a single aggregate
-        expression and GROUP BY field.
+        the query.
         @param op the aggregation operator
         @param afield the field to aggregate over
-        @param gfield the field to group by
+        @param gfield the field to group by, or null
      * @throws ParsingException 
     */
     public void addAggregate(String op, String afield, String gfield) throws ParsingException {
-        afield=disambiguateName(afield);
         if (gfield!=null)
-            gfield=disambiguateName(gfield);
-        aggOp = op;
-        aggField = afield;
-        groupByField = gfield;
+            addGroupBy(gfield);
+        addAggregate(op, afield);
+    }
+
+    /** Add an aggregate over the field to the query.  All the aggregates
+        of a query are computed in one pass over each group; an aggregate
+        that was already added is computed once.
+        @param op the aggregation operator
+        @param afield the field to aggregate over, or * to count rows
+     * @throws ParsingException 
+    */
+    public void addAggregate(String op, String afield) throws ParsingException {
+        afield=disambiguateName(afield);
+        if (afield.equals("*"))
+            afield="null.*";
         hasAgg = true;
+        if (aggregateIndex(op, afield) != -1)
+            return;
+        aggOps.addElement(op);
+        aggFields.addElement(afield);
+    }
+
+    /** Add a GROUP BY field to the query.  Groups are formed by the values
+        of all the GROUP BY fields, in the order they are added.
+        @param field the field to group by
+     * @throws ParsingException 
+    */
+    public void addGroupBy(String field) throws ParsingException {
+        field=disambiguateName(field);
+        if (!groupByFields.contains(field))
+            groupByFields.addElement(field);
+    }
+
+    /** @return the index of the aggregate op over afield, or -1 */
+    private int aggregateIndex(String op, String afield) {
+        for (int i = 0; i < aggOps.size(); i++) {
+            if (aggOps.elementAt(i).equalsIgnoreCase(op)
+                    && aggFields.elementAt(i).equals(afield))
+                return i;
+        }
+        return -1;
     }
 
     /** Add an ORDER BY expression in the specified order on the specified field.  SimpleDb only supports
@@ -216,6 +268,32 @@ public class LogicalPlan {
         hasOrderBy = true;
     }
 
+    /** Limit the result to its first n rows, as in LIMIT n.  Combined with an ORDER BY,
+        this is planned as a {@link TopN} rather than an {@link OrderBy}.
+        @param n the number of rows to return, or {@link #NO_LIMIT}
+    */
+    public void setLimit(int n) {
+        limit = n;
+    }
+
+    /** @return the number of rows the query returns at most, or {@link #NO_LIMIT} */
+    public int getLimit() {
+        return limit;
+    }
+
+    /** Return each distinct row of the result once, as in SELECT DISTINCT.
+        The rows are made distinct before any ORDER BY or LIMIT is applied.
+        @param distinct true to remove duplicate rows
+    */
+    public void setDistinct(boolean distinct) {
+        this.distinct = distinct;
+    }
+
+    /** @return true if duplicate rows are removed from the result */
+    public boolean isDistinct() {
+        return distinct;
+    }
+
     /** Given a name of a field, try to figure out what table it belongs to by looking
      *   through all of the tables added via {@link #addScan}. 
      *  @return A fully qualified name of the form tableAlias.name.  If the name parameter is already qualified
@@ -271,6 +349,182 @@ public class LogicalPlan {
         throw new ParsingException("Unknown predicate " + s);
     }
 
+    /** @return the constant of a filter on a field of type ftyp */
+    private static Field filterConstant(LogicalFilterNode lf, Type ftyp) {
+        if (ftyp == Type.INT_TYPE)
+            return new IntField(new Integer(lf.c).intValue());
+        else
+            return new StringField(lf.c, Type.STRING_LEN);
+    }
+
+    /** @return true if a B+ tree can find the tuples satisfying op by itself */
+    private static boolean isIndexable(Predicate.Op op) {
+        return op != Predicate.Op.NOT_EQUALS && op != Predicate.Op.LIKE;
+    }
+
+    /**
+     * Estimates the cost of a {@link BTreeScan} with an index predicate of
+     * the given selectivity: one page per level of the tree to find the
+     * first leaf, and then the matching fraction of the leaves, read in
+     * order like a sequential scan.
+     */
+    static double estimateIndexScanCost(BTreeFile f, TableStats s, double selectivity) {
+        return JoinOptimizer.estimateIndexProbeCost(f) + selectivity * s.estimateScanCost();
+    }
+
+    /**
+     * Chooses the access path of each table with a B+ tree index: if a
+     * filter on the key field of the index is cheaper to answer with a
+     * {@link BTreeScan} than with a SeqScan and a Filter, the scan of the
+     * table in subplanMap is replaced with a BTreeScan.
+     * @return the filters answered by an index, which need no Filter
+     */
+    private Set<LogicalFilterNode> chooseIndexScans(TransactionId t,
+            Map<String,TableStats> statsMap, boolean explain) throws ParsingException {
+        HashMap<String,LogicalFilterNode> best = new HashMap<String,LogicalFilterNode>();
+        HashMap<String,Double> bestSel = new HashMap<String,Double>();
+        for (LogicalFilterNode lf : filters) {
+            Integer tableId = tableMap.get(lf.tableAlias);
+            if (tableId == null || !isIndexable(lf.p))
+                continue;
+            DbFile file = Database.getCatalog().getDatabaseFile(tableId);
+            TableStats s = statsMap.get(Database.getCatalog().getTableName(tableId));
+            if (!(file instanceof BTreeFile) || s == null)
+                continue;
+            TupleDesc td = subplanMap.get(lf.tableAlias).getTupleDesc();
+            int field;
+            try {
+                field = td.fieldNameToIndex(lf.fieldQuantifiedName);
+            } catch (NoSuchElementException e) {
+                throw new ParsingException("Unknown field in filter expression " + lf.fieldQuantifiedName);
+            }
+            if (field != ((BTreeFile) file).keyField())
+                continue;
+            double sel = s.estimateSelectivity(field, lf.p,
+                    filterConstant(lf, td.getFieldType(field)));
+            if (!best.containsKey(lf.tableAlias) || sel < bestSel.get(lf.tableAlias)) {
+                best.put(lf.tableAlias, lf);
+                bestSel.put(lf.tableAlias, sel);
+            }
+        }
+
+        HashSet<LogicalFilterNode> indexed = new HashSet<LogicalFilterNode>();
+        for (Map.Entry<String,LogicalFilterNode> e : best.entrySet()) {
+            String alias = e.getKey();
+            LogicalFilterNode lf = e.getValue();
+            int tableId = tableMap.get(alias);
+            BTreeFile file = (BTreeFile) Database.getCatalog().getDatabaseFile(tableId);
+            TableStats s = statsMap.get(Database.getCatalog().getTableName(tableId));
+            double seqCost = s.estimateScanCost();
+            double indexCost = estimateIndexScanCost(file, s, bestSel.get(alias));
+            if (explain)
+                System.out.println("Access path for " + alias + ": index on "
+                        + lf.fieldQuantifiedName + " costs " + indexCost
+                        + ", scan costs " + seqCost);
+            if (indexCost >= seqCost)
+                continue;
+            Field f = filterConstant(lf, file.getTupleDesc().getFieldType(file.keyField()));
+            subplanMap.put(alias, new BTreeScan(t, tableId, alias, new IndexPredicate(lf.p, f)));
+            indexed.add(lf);
+        }
+        return indexed;
+    }
+
+    /**
+     * Finds the columns of a table that the plan reads: those in the select
+     * list, the filters, the joins, the GROUP BY and aggregate fields, and
+     * the ORDER BY field. Scans only need to decode those; see
+     * {@link HeapFile.Format#PAX}.
+     * @return the indices of the columns, in ascending order, or null if
+     *         all of them are read
+     */
+    private int[] requiredColumns(int tableId, String alias) {
+        HashSet<String> names = new HashSet<String>();
+        for (LogicalSelectListNode si : selectList) {
+            if (si.aggOp == null && (si.fname.equals("null.*") || si.fname.equals(alias + ".*")))
+                return null;
+            names.add(si.fname);
+        }
+        for (LogicalFilterNode lf : filters)
+            names.add(lf.tableAlias + "." + lf.fieldPureName);
+        for (LogicalJoinNode lj : joins) {
+            names.add(lj.t1Alias + "." + lj.f1PureName);
+            if (!(lj instanceof LogicalSubplanJoinNode))
+                names.add(lj.t2Alias + "." + lj.f2PureName);
+        }
+        names.addAll(groupByFields);
+        names.addAll(aggFields);
+        if (hasOrderBy)
+            names.add(oByField);
+
+        TupleDesc td = Database.getCatalog().getTupleDesc(tableId);
+        ArrayList<Integer> columns = new ArrayList<Integer>();
+        for (int i = 0; i < td.numFields(); i++) {
+            if (names.contains(alias + "." + td.getFieldName(i)))
+                columns.add(i);
+        }
+        if (columns.size() == td.numFields())
+            return null;
+        int[] result = new int[columns.size()];
+        for (int i = 0; i < result.length; i++)
+            result[i] = columns.get(i);
+        return result;
+    }
+
+    /**
+     * Builds the predicates of the filters on a table, for its scan to skip
+     * the pages that hold no tuple satisfying them; see {@link ZoneMap}.
+     * Filters that do not resolve against the table are left to the
+     * Filters built over the scan to report.
+     */
+    private Predicate[] scanPredicates(int tableId, String alias) {
+        TupleDesc td = Database.getCatalog().getTupleDesc(tableId);
+        ArrayList<Predicate> preds = new ArrayList<Predicate>();
+        for (LogicalFilterNode lf : filters) {
+            if (!alias.equals(lf.tableAlias))
+                continue;
+            try {
+                int field = td.fieldNameToIndex(lf.fieldPureName);
+                preds.add(new Predicate(field, lf.p,
+                        filterConstant(lf, td.getFieldType(field))));
+            } catch (NoSuchElementException e) {
+                // reported by the filter loop of physicalPlan
+            } catch (NumberFormatException e) {
+                // likewise
+            }
+        }
+        return preds.isEmpty() ? null : preds.toArray(new Predicate[0]);
+    }
+
+    /** @return true if the table is a HeapFile of encoded pages */
+    private static boolean isEncoded(int tableId) {
+        DbFile file = Database.getCatalog().getDatabaseFile(tableId);
+        return file instanceof HeapFile
+                && ((HeapFile) file).getFormat() == HeapFile.Format.ENCODED;
+    }
+
+    /**
+     * Splits the scan of a large HeapFile among the producers of a
+     * {@link Gather}, each running a {@link MorselScan} of the pages it
+     * claims, which decodes only the given columns and applies the table's
+     * filters itself: it skips the pages that hold no tuple satisfying them,
+     * and an encoded file evaluates them on the encoded columns.
+     * @return the Gather, or null if the table is too small to be worth it
+     */
+    private static Gather parallelScan(TransactionId t, int tableId,
+            String alias, int[] columns, ArrayList<Predicate> preds) {
+        DbFile file = Database.getCatalog().getDatabaseFile(tableId);
+        if (!(file instanceof HeapFile))
+            return null;
+        int n = Math.min(Exchange.getParallelism(),
+                ((HeapFile) file).numPages() / Exchange.MIN_PAGES_PER_PRODUCER);
+        if (n < 2)
+            return null;
+        Predicate[] scanPreds = preds.isEmpty() ? null : preds.toArray(new Predicate[0]);
+        return new Gather(MorselScan.create(t, tableId, alias, n,
+                MorselCursor.DEFAULT_MORSEL_PAGES, columns, scanPreds));
+    }
+
     /** Convert this LogicalPlan into a physicalPlan represented by a {@link OpIterator}.  Attempts to
      *   find the optimal plan by using {@link JoinOptimizer#orderJoins} to order the joins in the plan.
      *  @param t The transaction that the returned OpIterator will run as a part of
@@ -289,12 +543,17 @@ public class LogicalPlan {
         HashMap<String,String> equivMap = new HashMap<String,String>();
         HashMap<String,Double> filterSelectivities = new HashMap<String, Double>();
         HashMap<String,TableStats> statsMap = new HashMap<String,TableStats>();
+        // the columns each scan decodes
+        HashMap<String,int[]> scanColumns = new HashMap<String,int[]>();
 
         while (tableIt.hasNext()) {
             LogicalScanNode table = tableIt.next();
             SeqScan ss = null;
             try {
-                 ss = new SeqScan(t, Database.getCatalog().getDatabaseFile(table.t).getId(), table.alias);
+                 int tableId = Database.getCatalog().getDatabaseFile(table.t).getId();
+                 scanColumns.put(table.alias, requiredColumns(tableId, table.alias));
+                 ss = new SeqScan(t, tableId, table.alias, scanColumns.get(table.alias),
+                         scanPredicates(tableId, table.alias));
             } catch (NoSuchElementException e) {
                 throw new ParsingException("Unknown table " + table.t);
             }
@@ -306,6 +565,12 @@ public class LogicalPlan {
 
         }
 
+        Set<LogicalFilterNode> indexed = chooseIndexScans(t, statsMap, explain);
+        // the filters of each table, for its parallel scan
+        HashMap<String,ArrayList<Predicate>> scanFilters = new HashMap<String,ArrayList<Predicate>>();
+        for (LogicalScanNode table : tables)
+            scanFilters.put(table.alias, new ArrayList<Predicate>());
+
         Iterator<LogicalFilterNode> filterIt = filters.iterator();        
         while (filterIt.hasNext()) {
             LogicalFilterNode lf = filterIt.next();
@@ -323,10 +588,7 @@ public class LogicalPlan {
             } catch (java.util.NoSuchElementException e) {
                 throw new ParsingException("Unknown field in filter expression " + lf.fieldQuantifiedName);
             }
-            if (ftyp == Type.INT_TYPE)
-                f = new IntField(new Integer(lf.c).intValue());
-            else
-                f = new StringField(lf.c, Type.STRING_LEN);
+            f = filterConstant(lf, ftyp);
 
             Predicate p = null;
             try {
@@ -334,7 +596,10 @@ public class LogicalPlan {
             } catch (NoSuchElementException e) {
                 throw new ParsingException("Unknown field " + lf.fieldQuantifiedName);
             }
-            subplanMap.put(lf.tableAlias, new Filter(p, subplan));
+            if (!indexed.contains(lf)) {
+                subplanMap.put(lf.tableAlias, new Filter(p, subplan));
+                scanFilters.get(lf.tableAlias).add(p);
+            }
 
             TableStats s = statsMap.get(Database.getCatalog().getTableName(this.getTableId(lf.tableAlias)));
             
@@ -344,10 +609,37 @@ public class LogicalPlan {
             //s.addSelectivityFactor(estimateFilterSelectivity(lf,statsMap));
         }
         
+        for (LogicalScanNode table : tables) {
+            Gather scan = parallelScan(t, table.t, table.alias,
+                    scanColumns.get(table.alias), scanFilters.get(table.alias));
+            if (scan == null && isEncoded(table.t)) {
+                // a single scan that evaluates the filters on the encoded
+                // columns replaces the SeqScan and its Filters
+                ArrayList<Predicate> preds = scanFilters.get(table.alias);
+                subplanMap.put(table.alias, MorselScan.create(t, table.t, table.alias, 1,
+                        MorselCursor.DEFAULT_MORSEL_PAGES, scanColumns.get(table.alias),
+                        preds.toArray(new Predicate[0]))[0]);
+            }
+            if (scan == null)
+                continue;
+            if (explain)
+                System.out.println("Scanning " + table.alias + " with "
+                        + scan.getChildren().length + " producers");
+            subplanMap.put(table.alias, scan);
+        }
+
         JoinOptimizer jo = new JoinOptimizer(this,joins);
 
         joins = jo.orderJoins(statsMap,filterSelectivities,explain);
 
+        // estimated cardinality of each subplan, to choose join algorithms
+        HashMap<String,Integer> subplanCards = new HashMap<String,Integer>();
+        for (LogicalScanNode table : tables) {
+            TableStats s = statsMap.get(Database.getCatalog().getTableName(table.t));
+            subplanCards.put(table.alias,
+                    s.estimateTableCardinality(filterSelectivities.get(table.alias)));
+        }
+
         Iterator<LogicalJoinNode> joinIt = joins.iterator();
         while (joinIt.hasNext()) {
             LogicalJoinNode lj = joinIt.next();
@@ -382,8 +674,17 @@ public class LogicalPlan {
                 throw new ParsingException("Unknown table in WHERE clause " + lj.t2Alias);
             
             OpIterator j;
-            j = jo.instantiateJoin(lj,plan1,plan2);
+            int card1 = subplanCards.get(t1name);
+            Integer card2 = isSubqueryJoin ? null : subplanCards.get(t2name);
+            // plan2 still reads a single table if nothing has been joined
+            // to it
+            Integer table2Id = !isSubqueryJoin && t2name.equals(lj.t2Alias)
+                    ? getTableId(lj.t2Alias) : null;
+            j = JoinOptimizer.instantiateJoin(lj,plan1,plan2,card1,t,table2Id,
+                    isFiltered(lj.t2Alias));
             subplanMap.put(t1name, j);
+            subplanCards.put(t1name, jo.estimateJoinCardinality(lj, card1,
+                    card2 == null ? card1 : card2, false, false, statsMap));
 
             if (!isSubqueryJoin) {
                 subplanMap.remove(t2name);
@@ -414,28 +715,33 @@ public class LogicalPlan {
         for (int i = 0; i < selectList.size(); i++) {
             LogicalSelectListNode si = selectList.elementAt(i);
             if (si.aggOp != null) {
-                outFields.add(groupByField!=null?1:0);
+                int a = aggregateIndex(si.aggOp, si.fname);
+                if (a == -1)
+                    throw new ParsingException("Aggregate " + si.aggOp + "(" + si.fname + ") in SELECT list is not computed");
+                // the aggregate's output follows the group by fields
+                outFields.add(groupByFields.size() + a);
                 TupleDesc td = node.getTupleDesc();
-//                int  id;
-                try {
-//                    id = 
-                    td.fieldNameToIndex(si.fname);
-                } catch (NoSuchElementException e) {
-                    throw new ParsingException("Unknown field " +  si.fname + " in SELECT list");
+                if (!si.fname.equals("null.*")) {
+                    try {
+                        td.fieldNameToIndex(si.fname);
+                    } catch (NoSuchElementException e) {
+                        throw new ParsingException("Unknown field " +  si.fname + " in SELECT list");
+                    }
                 }
                 outTypes.add(Type.INT_TYPE);  //the type of all aggregate functions is INT
 
             } else if (hasAgg) {
-                    if (groupByField == null) {
+                    int g = groupByFields.indexOf(si.fname);
+                    if (g == -1) {
                         throw new ParsingException("Field " + si.fname + " does not appear in GROUP BY list");
                     }
-                    outFields.add(0);
+                    outFields.add(g);
                     TupleDesc td = node.getTupleDesc();
                     int  id;
                     try {
-                        id = td.fieldNameToIndex(groupByField);
+                        id = td.fieldNameToIndex(si.fname);
                     } catch (NoSuchElementException e) {
-                        throw new ParsingException("Unknown field " +  groupByField + " in GROUP BY statement");
+                        throw new ParsingException("Unknown field " +  si.fname + " in GROUP BY statement");
                     }
                     outTypes.add(td.getFieldType(id));
             } else if (si.fname.equals("null.*")) {
@@ -460,12 +766,24 @@ public class LogicalPlan {
 
         if (hasAgg) {
             TupleDesc td = node.getTupleDesc();
-            Aggregate aggNode;
+            HashAggregate aggNode;
             try {
-                aggNode = new Aggregate(node,
-                                        td.fieldNameToIndex(aggField),
-                                        groupByField == null?Aggregator.NO_GROUPING:td.fieldNameToIndex(groupByField),
-                                getAggOp(aggOp));
+                int[] gfields = new int[groupByFields.size()];
+                for (int g = 0; g < gfields.length; g++)
+                    gfields[g] = td.fieldNameToIndex(groupByFields.elementAt(g));
+                int[] afields = new int[aggFields.size()];
+                Aggregator.Op[] ops = new Aggregator.Op[aggFields.size()];
+                for (int a = 0; a < afields.length; a++) {
+                    // COUNT(*) counts rows, so any field will do
+                    String f = aggFields.elementAt(a);
+                    afields[a] = f.equals("null.*") ? 0 : td.fieldNameToIndex(f);
+                    ops[a] = getAggOp(aggOps.elementAt(a));
+                }
+                // parallel inputs are aggregated by their producers first
+                if (node instanceof Gather)
+                    aggNode = HashAggregate.twoPhase(((Gather) node).getChildren(), gfields, afields, ops);
+                else
+                    aggNode = new HashAggregate(node, gfields, afields, ops);
             } catch (NoSuchElementException e) {
                 throw new simpledb.ParsingException(e);
             } catch (IllegalArgumentException e) {
@@ -474,11 +792,69 @@ public class LogicalPlan {
             node = aggNode;
         }
 
+        if (distinct)
+            return orderAndLimit(distinctPlan(node, outFields, outTypes));
+        return new Project(outFields, outTypes, orderAndLimit(node));
+    }
+
+    /** @return node, ordered and limited as the query asks */
+    private OpIterator orderAndLimit(OpIterator node) {
+        if (hasOrderBy) {
+            int oByFieldIndex = node.getTupleDesc().fieldNameToIndex(oByField);
+            if (limit != NO_LIMIT)
+                node = new TopN(oByFieldIndex, oByAsc, limit, node);
+            else
+                node = new OrderBy(oByFieldIndex, oByAsc, node);
+        } else if (limit != NO_LIMIT) {
+            node = new Limit(limit, node);
+        }
+        return node;
+    }
+
+    /**
+     * Projects the select list out of node and removes duplicate rows. The
+     * groups of an aggregate are distinct already, so if the select list
+     * has every group by field nothing needs removing. Otherwise the rows
+     * of a parallel plan are first made distinct by each producer, and
+     * those of a plan sorted on a selected field by a sorted
+     * {@link Distinct}.
+     */
+    private OpIterator distinctPlan(OpIterator node, ArrayList<Integer> outFields,
+            ArrayList<Type> outTypes) throws ParsingException {
+        OpIterator plan;
+        if (hasAgg && outFields.containsAll(groupByFieldIndexes())) {
+            plan = new Project(outFields, outTypes, node);
+        } else if (node instanceof Gather) {
+            OpIterator[] children = ((Gather) node).getChildren();
+            OpIterator[] parts = new OpIterator[children.length];
+            for (int i = 0; i < children.length; i++)
+                parts[i] = new Distinct(new Project(outFields, outTypes, children[i]),
+                        Distinct.UNSORTED, true);
+            plan = new Distinct(new Gather(parts));
+        } else {
+            int sortField = Distinct.UNSORTED;
+            for (int i = 0; i < outFields.size() && sortField == Distinct.UNSORTED; i++) {
+                if (JoinOptimizer.isSortedOn(node, outFields.get(i)))
+                    sortField = i;
+            }
+            plan = new Distinct(new Project(outFields, outTypes, node), sortField, false);
+        }
         if (hasOrderBy) {
-            node = new OrderBy(node.getTupleDesc().fieldNameToIndex(oByField), oByAsc, node);
+            try {
+                plan.getTupleDesc().fieldNameToIndex(oByField);
+            } catch (NoSuchElementException e) {
+                throw new ParsingException("ORDER BY field " + oByField + " does not appear in SELECT DISTINCT list");
+            }
         }
+        return plan;
+    }
 
-        return new Project(outFields, outTypes, node);
+    /** @return the indexes of the group by fields in the output of the aggregate */
+    private ArrayList<Integer> groupByFieldIndexes() {
+        ArrayList<Integer> l = new ArrayList<Integer>();
+        for (int i = 0; i < groupByFields.size(); i++)
+            l.add(i);
+        return l;
     }
 
     public static void main(String argv[]) {
@@ -0,0 +1,90 @@
+package simpledb;
+
+import java.util.Comparator;
+import java.util.NoSuchElementException;
+
+/**
+ * A LoserTree merges k sorted streams of tuples into one sorted stream.
+ * Each internal node of the tournament tree remembers the stream that lost
+ * the match played there, so after the overall winner is taken, the next
+ * winner is found by replaying only the log2(k) matches on the path from
+ * the winner's leaf to the root, one comparison each.
+ * <p>
+ * When tuples of two streams compare equal, the tuple of the stream with
+ * the lower index comes first, so merging runs that were cut from the
+ * input in order keeps a stable sort stable.
+ */
+public class LoserTree {
+
+    private final OpIterator[] sources;
+    private final Comparator<Tuple> cmp;
+    private final int k;
+    // current tuple of each stream, or null if the stream is exhausted
+    private final Tuple[] heads;
+    // tree[0] is the winner, tree[1..k-1] the loser at each internal node;
+    // the leaf of stream i is node k + i
+    private final int[] tree;
+
+    /**
+     * @param sources the sorted streams, already open
+     * @param cmp the order the streams are sorted in
+     */
+    public LoserTree(OpIterator[] sources, Comparator<Tuple> cmp)
+            throws DbException, TransactionAbortedException {
+        this.sources = sources;
+        this.cmp = cmp;
+        this.k = sources.length;
+        heads = new Tuple[k];
+        tree = new int[Math.max(1, k)];
+        for (int i = 0; i < k; i++)
+            heads[i] = sources[i].hasNext() ? sources[i].next() : null;
+        if (k > 0)
+            tree[0] = play(1);
+    }
+
+    /** Plays the matches below node n. @return the winner at n */
+    private int play(int n) {
+        if (n >= k)
+            return n - k;
+        int a = play(2 * n);
+        int b = play(2 * n + 1);
+        if (beats(a, b)) {
+            tree[n] = b;
+            return a;
+        }
+        tree[n] = a;
+        return b;
+    }
+
+    /** @return true if the head of stream a comes before the head of b */
+    private boolean beats(int a, int b) {
+        if (heads[a] == null)
+            return false;
+        if (heads[b] == null)
+            return true;
+        int c = cmp.compare(heads[a], heads[b]);
+        return c < 0 || (c == 0 && a < b);
+    }
+
+    public boolean hasNext() {
+        return k > 0 && heads[tree[0]] != null;
+    }
+
+    /** @return the smallest head of all streams */
+    public Tuple next() throws DbException, TransactionAbortedException {
+        if (!hasNext())
+            throw new NoSuchElementException();
+        int s = tree[0];
+        Tuple t = heads[s];
+        heads[s] = sources[s].hasNext() ? sources[s].next() : null;
+        for (int n = (s + k) / 2; n > 0; n /= 2) {
+            if (beats(tree[n], s)) {
+                int loser = s;
+                s = tree[n];
+                tree[n] = loser;
+            }
+        }
+        tree[0] = s;
+        return t;
+    }
+}
@@ -0,0 +1,74 @@
+package simpledb;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A MorselCursor hands out the pages of a HeapFile, in morsels of a few
+ * consecutive pages, to the workers scanning the file in parallel. Each
+ * worker claims its next morsel when it finishes the last one, so workers
+ * whose pipelines run faster read more of the file, and none sits idle
+ * while pages are left.
+ * <p>
+ * A scan by all workers reads each page once. The cursor starts over once
+ * every worker has been closed; see {@link MorselScan}.
+ */
+public class MorselCursor {
+
+    /** Number of pages in a morsel, unless asked for otherwise. */
+    public static final int DEFAULT_MORSEL_PAGES = 16;
+
+    private final HeapFile f;
+    private final int morselPages;
+    private final int workers;
+    private final AtomicInteger next = new AtomicInteger();
+    private volatile int numPages;
+    private int closed;
+
+    MorselCursor(HeapFile f, int morselPages, int workers) {
+        if (morselPages < 1 || workers < 1)
+            throw new IllegalArgumentException("morsels and workers must be positive");
+        this.f = f;
+        this.morselPages = morselPages;
+        this.workers = workers;
+        numPages = f.numPages();
+    }
+
+    public HeapFile getFile() {
+        return f;
+    }
+
+    public int getMorselPages() {
+        return morselPages;
+    }
+
+    /** @return the number of workers sharing this cursor */
+    public int getWorkers() {
+        return workers;
+    }
+
+    /**
+     * Claims the next morsel.
+     * @return its first page, or -1 if every page has been handed out
+     */
+    int claim() {
+        int start = next.getAndAdd(morselPages);
+        return start < numPages ? start : -1;
+    }
+
+    /** @return one past the last page of the morsel starting at start */
+    int end(int start) {
+        return Math.min(start + morselPages, numPages);
+    }
+
+    /**
+     * Called when a worker is closed; after the last one, the next scan
+     * starts over from the first page, and sees pages added since.
+     */
+    synchronized void workerClosed() {
+        if (++closed < workers)
+            return;
+        closed = 0;
+        numPages = f.numPages();
+        next.set(0);
+    }
+}
@@ -0,0 +1,251 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * MorselScan is one worker of a parallel scan of a HeapFile: the workers
+ * share a {@link MorselCursor}, and each reads the morsels of pages it
+ * claims from it until none are left. Each worker is usually the source of
+ * a copy of the same pipeline, run by the producers of a {@link Gather};
+ * see {@link Gather#Gather(OpIterator[], Gather.Pipeline)}.
+ * <p>
+ * All workers of a cursor must be opened and closed together, as one scan
+ * of the file. Rewinding a worker reads the morsels it has claimed again,
+ * then claims more if any are left, so a worker that was read to the end
+ * returns the same tuples after a rewind.
+ * <p>
+ * A scan may be given the columns its plan reads, so that the pages of a
+ * PAX HeapFile are decoded only for those; see
+ * {@link HeapFile#iterator(TransactionId, int, int, int[])}. It may also be
+ * given predicates, to return only the tuples that satisfy them; the pages
+ * of an encoded HeapFile evaluate those on their encoded columns, see
+ * {@link HeapFile#iterator(TransactionId, int, int, int[], Predicate[])}.
+ */
+public class MorselScan implements OpIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final TransactionId tid;
+    private final int tableid;
+    private final String tablename;
+    private final String alias;
+    private final MorselCursor cursor;
+    private final TupleDesc td;
+    private final int[] columns;
+    private final Predicate[] preds;
+
+    // the first pages of the morsels claimed since open, and the next one
+    // to read again after a rewind
+    transient private ArrayList<Integer> claimed;
+    transient private int replay;
+    transient private boolean exhausted;
+    transient private DbFileIterator it;
+
+    /**
+     * Creates a worker of a scan of a table.
+     *
+     * @param tid
+     *            The transaction this scan is running as a part of.
+     * @param tableid
+     *            the table to scan, which must be a HeapFile.
+     * @param tableAlias
+     *            the alias of this table; the returned tupleDesc has fields
+     *            with name tableAlias.fieldName, as in {@link SeqScan}
+     * @param cursor
+     *            the cursor of the file, shared by all workers
+     */
+    public MorselScan(TransactionId tid, int tableid, String tableAlias,
+            MorselCursor cursor) {
+        this(tid, tableid, tableAlias, cursor, null);
+    }
+
+    /**
+     * Creates a worker of a scan of a table that reads only some of its
+     * columns; the fields of the others may be left unset.
+     *
+     * @param tid
+     *            The transaction this scan is running as a part of.
+     * @param tableid
+     *            the table to scan, which must be a HeapFile.
+     * @param tableAlias
+     *            the alias of this table; the returned tupleDesc has fields
+     *            with name tableAlias.fieldName, as in {@link SeqScan}
+     * @param cursor
+     *            the cursor of the file, shared by all workers
+     * @param columns
+     *            the indices of the columns read, or null for all
+     */
+    public MorselScan(TransactionId tid, int tableid, String tableAlias,
+            MorselCursor cursor, int[] columns) {
+        this(tid, tableid, tableAlias, cursor, columns, null);
+    }
+
+    /**
+     * Creates a worker of a scan of a table that reads only some of its
+     * columns, and returns only the tuples that satisfy all of the given
+     * predicates.
+     *
+     * @param tid
+     *            The transaction this scan is running as a part of.
+     * @param tableid
+     *            the table to scan, which must be a HeapFile.
+     * @param tableAlias
+     *            the alias of this table; the returned tupleDesc has fields
+     *            with name tableAlias.fieldName, as in {@link SeqScan}
+     * @param cursor
+     *            the cursor of the file, shared by all workers
+     * @param columns
+     *            the indices of the columns read, or null for all
+     * @param preds
+     *            the predicates the tuples must satisfy, or null for none
+     */
+    public MorselScan(TransactionId tid, int tableid, String tableAlias,
+            MorselCursor cursor, int[] columns, Predicate[] preds) {
+        this.tid = tid;
+        this.tableid = tableid;
+        this.tablename = Database.getCatalog().getTableName(tableid);
+        this.alias = tableAlias;
+        this.cursor = cursor;
+        this.columns = columns == null ? null : columns.clone();
+        this.preds = preds == null ? null : preds.clone();
+        TupleDesc fileTd = Database.getCatalog().getTupleDesc(tableid);
+        String[] names = new String[fileTd.numFields()];
+        Type[] types = new Type[fileTd.numFields()];
+        for (int i = 0; i < fileTd.numFields(); i++) {
+            names[i] = tableAlias + "." + fileTd.getFieldName(i);
+            types[i] = fileTd.getFieldType(i);
+        }
+        td = new TupleDesc(types, names);
+    }
+
+    /**
+     * Creates the workers of a scan of a table, sharing a cursor that hands
+     * out morsels of {@link MorselCursor#DEFAULT_MORSEL_PAGES} pages.
+     */
+    public static MorselScan[] create(TransactionId tid, int tableid,
+            String tableAlias, int workers) {
+        return create(tid, tableid, tableAlias, workers,
+                MorselCursor.DEFAULT_MORSEL_PAGES);
+    }
+
+    /**
+     * Creates the workers of a scan of a table, sharing a cursor that hands
+     * out morsels of morselPages pages.
+     */
+    public static MorselScan[] create(TransactionId tid, int tableid,
+            String tableAlias, int workers, int morselPages) {
+        return create(tid, tableid, tableAlias, workers, morselPages, null);
+    }
+
+    /**
+     * Creates the workers of a scan of some of the columns of a table,
+     * sharing a cursor that hands out morsels of morselPages pages.
+     */
+    public static MorselScan[] create(TransactionId tid, int tableid,
+            String tableAlias, int workers, int morselPages, int[] columns) {
+        return create(tid, tableid, tableAlias, workers, morselPages, columns, null);
+    }
+
+    /**
+     * Creates the workers of a scan of some of the columns of a table that
+     * returns only the tuples that satisfy all of the given predicates,
+     * sharing a cursor that hands out morsels of morselPages pages.
+     */
+    public static MorselScan[] create(TransactionId tid, int tableid,
+            String tableAlias, int workers, int morselPages, int[] columns,
+            Predicate[] preds) {
+        MorselCursor cursor = ((HeapFile) Database.getCatalog().getDatabaseFile(tableid))
+                .morsels(morselPages, workers);
+        MorselScan[] scans = new MorselScan[workers];
+        for (int i = 0; i < workers; i++)
+            scans[i] = new MorselScan(tid, tableid, tableAlias, cursor, columns, preds);
+        return scans;
+    }
+
+    /** @return the name of the table in the catalog */
+    public String getTableName() {
+        return tablename;
+    }
+
+    public String getAlias() {
+        return alias;
+    }
+
+    public int getTableId() {
+        return tableid;
+    }
+
+    public MorselCursor getCursor() {
+        return cursor;
+    }
+
+    /** @return the indices of the columns read, or null for all */
+    public int[] getColumns() {
+        return columns;
+    }
+
+    /** @return the predicates the tuples satisfy, or null for none */
+    public Predicate[] getPredicates() {
+        return preds;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        claimed = new ArrayList<Integer>();
+        replay = 0;
+        exhausted = false;
+        it = null;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public boolean hasNext() throws TransactionAbortedException, DbException {
+        if (claimed == null)
+            throw new IllegalStateException("scan not open");
+        while (it == null || !it.hasNext()) {
+            if (it != null)
+                it.close();
+            it = null;
+            int start;
+            if (replay < claimed.size()) {
+                start = claimed.get(replay++);
+            } else {
+                start = exhausted ? -1 : cursor.claim();
+                if (start < 0) {
+                    exhausted = true;
+                    return false;
+                }
+                claimed.add(start);
+                replay = claimed.size();
+            }
+            it = cursor.getFile().iterator(tid, start, cursor.end(start), columns, preds);
+            it.open();
+        }
+        return true;
+    }
+
+    public Tuple next() throws NoSuchElementException,
+            TransactionAbortedException, DbException {
+        if (!hasNext())
+            throw new NoSuchElementException();
+        return it.next();
+    }
+
+    public void close() {
+        if (it != null)
+            it.close();
+        it = null;
+        if (claimed != null)
+            cursor.workerClosed();
+        claimed = null;
+    }
+
+    public void rewind() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        if (it != null)
+            it.close();
+        it = null;
+        replay = 0;
+    }
+}
@@ -0,0 +1,65 @@
+package simpledb;
+
+/**
+ * OperatorMemory holds the memory budget of operators that keep a large
+ * part of their input in memory, such as the build side of a hash join.
+ * Each such operator may use up to {@link #getBudget()} bytes of Java heap
+ * for the rows it holds; what it does when its input does not fit is up to
+ * the operator.
+ * <p>
+ * Sizes are estimates: {@link #tupleBytes} counts the objects a Tuple of a
+ * given TupleDesc is made of, assuming a 64-bit JVM with compressed
+ * references.
+ */
+public class OperatorMemory {
+
+    /** Default budget per operator, in bytes. */
+    public static final long DEFAULT_BUDGET = 64L << 20;
+
+    private static volatile long budget = DEFAULT_BUDGET;
+
+    private OperatorMemory() {
+    }
+
+    /** @return the number of bytes each operator may use */
+    public static long getBudget() {
+        return budget;
+    }
+
+    /**
+     * Sets the number of bytes each operator may use. Operators read the
+     * budget when they are opened.
+     */
+    public static void setBudget(long bytes) {
+        if (bytes <= 0)
+            throw new IllegalArgumentException("budget must be positive");
+        budget = bytes;
+    }
+
+    public static void resetBudget() {
+        budget = DEFAULT_BUDGET;
+    }
+
+    /**
+     * @return an estimate of the heap bytes used by a Tuple of td: the
+     *         Tuple, its field array and one Field object per column
+     */
+    public static long tupleBytes(TupleDesc td) {
+        long bytes = 16 + 16 + 4L * td.numFields();
+        for (int i = 0; i < td.numFields(); i++) {
+            if (td.getFieldType(i) == Type.INT_TYPE)
+                bytes += 16;
+            else // StringField, its String and the String's byte[]
+                bytes += 24 + 24 + 16 + Type.STRING_LEN;
+        }
+        return bytes;
+    }
+
+    /**
+     * @return how many rows of bytesPerRow bytes fit in the budget; at least
+     *         one, so that operators always make progress
+     */
+    public static int maxRows(long bytesPerRow) {
+        return (int) Math.max(1, Math.min(Integer.MAX_VALUE - 8, budget / bytesPerRow));
+    }
+}
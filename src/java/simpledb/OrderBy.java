@@ -4,6 +4,15 @@ import java.util.*;
 
 /**
  * OrderBy is an operator that implements a relational ORDER BY.
+ * <p>
+ * If the child fits in the {@link OperatorMemory} budget, it is sorted in
+ * memory. Otherwise OrderBy does an external merge sort: it sorts the child
+ * one budget's worth of rows at a time, writing each sorted run to a
+ * {@link SpillFile}, and merges the runs with a {@link LoserTree}. A merge
+ * reads one page of every run at a time, so at most budget / page size
+ * runs are merged at once; if there are more, groups of them are first
+ * merged into longer runs. The final merge is done as tuples are fetched,
+ * and is restarted by rewind.
  */
 public class OrderBy extends Operator {
 
@@ -16,6 +25,14 @@ public class OrderBy extends Operator {
     private Iterator<Tuple> it;
     private boolean asc;
 
+    /** Most runs merged at once, regardless of the budget. */
+    public static final int MAX_MERGE_FAN_IN = 256;
+
+    // sorted runs, if the child did not fit in memory
+    private transient ArrayList<SpillFile> runs;
+    private transient OpIterator[] readers;
+    private transient LoserTree merge;
+
     /**
      * Creates a new OrderBy node over the tuples from the iterator.
      * 
@@ -56,21 +73,108 @@ public class OrderBy extends Operator {
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         child.open();
-        // load all the tuples in a collection, and sort it
-        while (child.hasNext())
-            childTups.add((Tuple) child.next());
-        Collections.sort(childTups, new TupleComparator(orderByField, asc));
-        it = childTups.iterator();
+        sort();
         super.open();
     }
 
+    /**
+     * Sorts the child: in childTups if it fits in memory, and otherwise
+     * into runs that are merged down to at most the fan-in.
+     */
+    private void sort() throws DbException, TransactionAbortedException {
+        TupleComparator cmp = new TupleComparator(orderByField, asc);
+        int maxRows = OperatorMemory.maxRows(OperatorMemory.tupleBytes(td) + 8);
+        childTups = new ArrayList<Tuple>();
+        runs = null;
+        while (child.hasNext()) {
+            childTups.add(child.next());
+            if (childTups.size() == maxRows && child.hasNext()) {
+                if (runs == null)
+                    runs = new ArrayList<SpillFile>();
+                runs.add(writeRun(cmp));
+            }
+        }
+        Collections.sort(childTups, cmp);
+        if (runs == null) {
+            it = childTups.iterator();
+            return;
+        }
+        if (!childTups.isEmpty())
+            runs.add(writeRun(cmp));
+
+        int fanIn = (int) Math.min(MAX_MERGE_FAN_IN,
+                Math.max(2, OperatorMemory.getBudget() / BufferPool.getPageSize()));
+        while (runs.size() > fanIn) {
+            ArrayList<SpillFile> merged = new ArrayList<SpillFile>();
+            for (int i = 0; i < runs.size(); i += fanIn) {
+                List<SpillFile> group = runs.subList(i, Math.min(runs.size(), i + fanIn));
+                if (group.size() == 1) {
+                    merged.add(group.get(0));
+                    continue;
+                }
+                SpillFile out = new SpillFile(td);
+                startMerge(group, cmp);
+                while (merge.hasNext())
+                    out.add(merge.next());
+                out.finish();
+                closeMerge();
+                for (SpillFile run : group)
+                    run.delete();
+                merged.add(out);
+            }
+            runs = merged;
+        }
+        startMerge(runs, cmp);
+    }
+
+    /** Sorts childTups, writes them to a new run and empties childTups. */
+    private SpillFile writeRun(TupleComparator cmp) throws DbException {
+        Collections.sort(childTups, cmp);
+        SpillFile run = new SpillFile(td);
+        for (Tuple t : childTups)
+            run.add(t);
+        run.finish();
+        childTups = new ArrayList<Tuple>();
+        return run;
+    }
+
+    private void startMerge(List<SpillFile> group, TupleComparator cmp)
+            throws DbException, TransactionAbortedException {
+        readers = new OpIterator[group.size()];
+        for (int i = 0; i < readers.length; i++) {
+            readers[i] = group.get(i).iterator();
+            readers[i].open();
+        }
+        merge = new LoserTree(readers, cmp);
+    }
+
+    private void closeMerge() {
+        if (readers != null)
+            for (OpIterator r : readers)
+                r.close();
+        readers = null;
+        merge = null;
+    }
+
     public void close() {
         super.close();
         it = null;
+        closeMerge();
+        if (runs != null)
+            for (SpillFile run : runs)
+                run.delete();
+        runs = null;
+        childTups = new ArrayList<Tuple>();
+        child.close();
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
-        it = childTups.iterator();
+        if (runs == null) {
+            it = childTups.iterator();
+            return;
+        }
+        closeMerge();
+        startMerge(runs, new TupleComparator(orderByField, asc));
     }
 
     /**
@@ -82,6 +186,8 @@ public class OrderBy extends Operator {
      */
     protected Tuple fetchNext() throws NoSuchElementException,
             TransactionAbortedException, DbException {
+        if (merge != null)
+            return merge.hasNext() ? merge.next() : null;
         if (it != null && it.hasNext()) {
             return it.next();
         } else
@@ -99,25 +205,3 @@ public class OrderBy extends Operator {
     }
 
 }
-
-class TupleComparator implements Comparator<Tuple> {
-    int field;
-    boolean asc;
-
-    public TupleComparator(int field, boolean asc) {
-        this.field = field;
-        this.asc = asc;
-    }
-
-    public int compare(Tuple o1, Tuple o2) {
-        Field t1 = (o1).getField(field);
-        Field t2 = (o2).getField(field);
-        if (t1.compare(Predicate.Op.EQUALS, t2))
-            return 0;
-        if (t1.compare(Predicate.Op.GREATER_THAN, t2))
-            return asc ? 1 : -1;
-        else
-            return asc ? -1 : 1;
-    }
-    
-}
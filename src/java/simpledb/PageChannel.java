@@ -0,0 +1,205 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * PageChannel gives a DbFile positional access to its backing file through
+ * a single FileChannel that stays open for the life of the DbFile. Reads and
+ * writes name their offset explicitly, so there is no shared file pointer
+ * and concurrent readers of the same file do not need to synchronize.
+ * <p>
+ * The channel is opened on first use, for reading only if the file cannot
+ * be written. If it is closed because another thread was interrupted in
+ * the middle of an I/O operation, it is reopened for the next caller.
+ * <p>
+ * At most {@link #DEFAULT_MAX_OPEN} channels are open at once, across all
+ * PageChannels, so that the many files a catalog or a test suite goes
+ * through do not each hold a file descriptor for good. Opening one more
+ * closes the channel opened longest ago, which is reopened the next time
+ * its file is used.
+ * <p>
+ * Files with a page map are read and written compressed, through a
+ * {@link CompressedPageChannel}; {@link #open} returns the right channel
+ * for a file.
+ *
+ * @see BTreeFile
+ * @see HeapFile
+ * @Threadsafe
+ */
+public class PageChannel {
+
+    /** Default maximum number of channels open at once. */
+    public static final int DEFAULT_MAX_OPEN = 128;
+
+    private static int maxOpen = DEFAULT_MAX_OPEN;
+    // the PageChannels whose channel is open, in the order they opened it
+    private static final LinkedHashMap<PageChannel, Boolean> open =
+        new LinkedHashMap<PageChannel, Boolean>();
+
+    private final File f;
+    private volatile FileChannel channel;
+
+    /**
+     * @param f the file to read and write
+     */
+    public PageChannel(File f) {
+        this.f = f;
+    }
+
+    /**
+     * @return a channel for the pages of f: a {@link CompressedPageChannel}
+     *         if f has a page map, and a PageChannel otherwise
+     */
+    public static PageChannel open(File f) {
+        if (CompressedPageChannel.mapFile(f).exists())
+            return new CompressedPageChannel(f);
+        return new PageChannel(f);
+    }
+
+    /** @return true if pages are stored compressed */
+    public boolean isCompressed() {
+        return false;
+    }
+
+    /** @return the length of the file in bytes */
+    public long length() {
+        return f.length();
+    }
+
+    // THIS FUNCTION SHOULD ONLY BE USED FOR TESTING!!
+    static void setMaxOpen(int channels) {
+        synchronized (open) {
+            maxOpen = Math.max(1, channels);
+        }
+    }
+
+    // THIS FUNCTION SHOULD ONLY BE USED FOR TESTING!!
+    static void resetMaxOpen() {
+        setMaxOpen(DEFAULT_MAX_OPEN);
+    }
+
+    /** @return the number of channels open at the moment */
+    static int openChannels() {
+        synchronized (open) {
+            return open.size();
+        }
+    }
+
+    /**
+     * @return the open channel, opening the file if necessary, and closing
+     *         the channel opened longest ago if too many are open
+     */
+    private FileChannel channel() throws IOException {
+        FileChannel fc = channel;
+        if (fc != null && fc.isOpen())
+            return fc;
+        synchronized (this) {
+            if (channel != null && channel.isOpen())
+                return channel;
+            String mode = f.exists() && !f.canWrite() ? "r" : "rw";
+            channel = fc = new RandomAccessFile(f, mode).getChannel();
+        }
+        ArrayList<FileChannel> victims = new ArrayList<FileChannel>();
+        synchronized (open) {
+            open.remove(this);
+            open.put(this, Boolean.TRUE);
+            Iterator<PageChannel> it = open.keySet().iterator();
+            while (open.size() > maxOpen) {
+                FileChannel victim = it.next().channel;
+                it.remove();
+                if (victim != null)
+                    victims.add(victim);
+            }
+        }
+        // closed without taking the monitors of their PageChannels; their
+        // users get a ClosedChannelException and open them again
+        for (FileChannel victim : victims)
+            victim.close();
+        return fc;
+    }
+
+    /**
+     * Reads buf.length bytes starting at the specified offset of the file,
+     * or as many as there are before the end of the file.
+     *
+     * @param buf the buffer to read into
+     * @param offset the offset in the file of the first byte to read
+     * @return the number of bytes read, or -1 if offset is at or past the end
+     *   of the file
+     */
+    public int read(byte[] buf, long offset) throws IOException {
+        ByteBuffer dst = ByteBuffer.wrap(buf);
+        while (true) {
+            FileChannel fc = channel();
+            try {
+                while (dst.hasRemaining()) {
+                    int n = fc.read(dst, offset + dst.position());
+                    if (n < 0)
+                        break;
+                }
+                if (dst.position() == 0 && buf.length > 0)
+                    return -1;
+                return dst.position();
+            } catch (ClosedByInterruptException e) {
+                throw e;
+            } catch (ClosedChannelException e) {
+                // another thread was interrupted while using the channel
+            }
+        }
+    }
+
+    /**
+     * Writes all of data starting at the specified offset of the file,
+     * extending the file if necessary.
+     *
+     * @param data the bytes to write
+     * @param offset the offset in the file of the first byte to write
+     */
+    public void write(byte[] data, long offset) throws IOException {
+        ByteBuffer src = ByteBuffer.wrap(data);
+        while (true) {
+            FileChannel fc = channel();
+            try {
+                while (src.hasRemaining())
+                    fc.write(src, offset + src.position());
+                return;
+            } catch (ClosedByInterruptException e) {
+                throw e;
+            } catch (ClosedChannelException e) {
+                // another thread was interrupted while using the channel
+            }
+        }
+    }
+
+    /**
+     * Maps a region of the file into memory, read only. The mapping stays
+     * valid after the channel is closed.
+     *
+     * @param offset the offset in the file of the start of the region
+     * @param size the size of the region in bytes
+     * @return a buffer whose contents are the region of the file
+     */
+    public MappedByteBuffer map(long offset, long size) throws IOException {
+        return channel().map(FileChannel.MapMode.READ_ONLY, offset, size);
+    }
+
+    /**
+     * Closes the channel. It is reopened if the file is used again.
+     */
+    public synchronized void close() throws IOException {
+        if (channel != null)
+            channel.close();
+        channel = null;
+        synchronized (open) {
+            open.remove(this);
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package simpledb;
+
+import java.util.Arrays;
+
+/**
+ * PageCodec compresses pages with a fast LZ77 codec in the style of LZ4,
+ * for {@link CompressedPageChannel}. Pages of fixed-width tuples are
+ * mostly zeroes, from padded strings and empty slots, and repeated bytes,
+ * which the codec replaces with short references to earlier bytes.
+ * <p>
+ * The compressed data is a sequence of sequences. Each starts with a token
+ * byte whose high four bits are the number of literal bytes that follow it
+ * and whose low four bits are the length of the match after them, less
+ * {@link #MIN_MATCH}; a value of 15 is continued by bytes that are added
+ * to it, up to and including the first byte that is not 255. The literals
+ * follow, then the offset back to the start of the match, as an unsigned
+ * little-endian short. The last sequence has only literals, and ends the
+ * data.
+ */
+public class PageCodec {
+
+    /** The shortest match the codec encodes. */
+    public static final int MIN_MATCH = 4;
+
+    private static final int MAX_OFFSET = 0xffff;
+    private static final int HASH_BITS = 12;
+
+    /** @return the largest size n bytes can take when compressed */
+    public static int maxCompressedLength(int n) {
+        return n + n / 255 + 16;
+    }
+
+    private static int readInt(byte[] b, int i) {
+        return (b[i] & 0xff) | (b[i + 1] & 0xff) << 8
+                | (b[i + 2] & 0xff) << 16 | (b[i + 3] & 0xff) << 24;
+    }
+
+    private static int hash(int v) {
+        return (v * -1640531535) >>> (32 - HASH_BITS);
+    }
+
+    /** Writes the continuation bytes of a length of at least 15. */
+    private static int writeLength(byte[] dst, int d, int len) {
+        len -= 15;
+        while (len >= 255) {
+            dst[d++] = (byte) 255;
+            len -= 255;
+        }
+        dst[d++] = (byte) len;
+        return d;
+    }
+
+    /**
+     * Writes a sequence of literals from src, followed by a match of
+     * matchLen bytes at offset back unless matchLen is 0.
+     * @return the position after the sequence
+     */
+    private static int writeSequence(byte[] dst, int d, byte[] src, int start,
+            int literals, int offset, int matchLen) {
+        int m = matchLen == 0 ? 0 : matchLen - MIN_MATCH;
+        int token = d++;
+        dst[token] = (byte) ((Math.min(literals, 15) << 4) | Math.min(m, 15));
+        if (literals >= 15)
+            d = writeLength(dst, d, literals);
+        System.arraycopy(src, start, dst, d, literals);
+        d += literals;
+        if (matchLen == 0)
+            return d;
+        dst[d++] = (byte) offset;
+        dst[d++] = (byte) (offset >>> 8);
+        if (m >= 15)
+            d = writeLength(dst, d, m);
+        return d;
+    }
+
+    /**
+     * Compresses the first n bytes of src.
+     * @return the compressed bytes
+     */
+    public static byte[] compress(byte[] src, int n) {
+        byte[] dst = new byte[maxCompressedLength(n)];
+        int[] table = new int[1 << HASH_BITS];
+        Arrays.fill(table, -1);
+        int anchor = 0;
+        int i = 0;
+        int d = 0;
+        while (i + MIN_MATCH <= n) {
+            int v = readInt(src, i);
+            int h = hash(v);
+            int ref = table[h];
+            table[h] = i;
+            if (ref < 0 || i - ref > MAX_OFFSET || readInt(src, ref) != v) {
+                i++;
+                continue;
+            }
+            int len = MIN_MATCH;
+            while (i + len < n && src[ref + len] == src[i + len])
+                len++;
+            d = writeSequence(dst, d, src, anchor, i - anchor, i - ref, len);
+            i += len;
+            anchor = i;
+        }
+        d = writeSequence(dst, d, src, anchor, n - anchor, 0, 0);
+        return Arrays.copyOf(dst, d);
+    }
+
+    /** Reads the continuation bytes of a length, adding them to len. */
+    private static int readLength(byte[] src, int[] pos, int len) {
+        int b;
+        do {
+            b = src[pos[0]++] & 0xff;
+            len += b;
+        } while (b == 255);
+        return len;
+    }
+
+    /**
+     * Decompresses n bytes of compressed data, starting at src[off], into
+     * dst.
+     * @return the number of bytes written to dst
+     * @throws IllegalArgumentException if the data is corrupt or does not
+     *         fit in dst
+     */
+    public static int decompress(byte[] src, int off, int n, byte[] dst) {
+        int[] pos = new int[] { off };
+        int end = off + n;
+        int d = 0;
+        try {
+            while (pos[0] < end) {
+                int token = src[pos[0]++] & 0xff;
+                int literals = token >>> 4;
+                if (literals == 15)
+                    literals = readLength(src, pos, literals);
+                System.arraycopy(src, pos[0], dst, d, literals);
+                pos[0] += literals;
+                d += literals;
+                if (pos[0] >= end)
+                    break;
+                int offset = (src[pos[0]] & 0xff) | (src[pos[0] + 1] & 0xff) << 8;
+                pos[0] += 2;
+                int len = token & 15;
+                if (len == 15)
+                    len = readLength(src, pos, len);
+                len += MIN_MATCH;
+                int ref = d - offset;
+                if (offset == 0 || ref < 0)
+                    throw new IllegalArgumentException("bad match offset " + offset);
+                // the match may overlap the bytes it is copied to
+                for (int k = 0; k < len; k++)
+                    dst[d + k] = dst[ref + k];
+                d += len;
+            }
+        } catch (IndexOutOfBoundsException e) {
+            throw new IllegalArgumentException("corrupt compressed page");
+        }
+        return d;
+    }
+}
@@ -0,0 +1,110 @@
+package simpledb;
+
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * PageFrameArena is a fixed set of page-sized frames carved out of a few
+ * large direct (off-heap) ByteBuffers. The BufferPool uses it in off-heap
+ * mode to hold the raw bytes of cached pages outside the Java heap, so that
+ * a large pool does not add to garbage collection time.
+ * <p>
+ * A single ByteBuffer cannot be larger than 2 GB, so frames are allocated
+ * from chunks of at most {@link #MAX_CHUNK_BYTES} bytes each.
+ *
+ * @see BufferPool
+ * @see FrameBackedPage
+ * @Threadsafe
+ */
+public class PageFrameArena {
+
+    /** Largest direct buffer allocated for a single chunk of frames. */
+    public static final int MAX_CHUNK_BYTES = 1 << 30;
+
+    private final int frameSize;
+    private final int numFrames;
+    private final int framesPerChunk;
+    private final ByteBuffer[] chunks;
+    private final ArrayDeque<Integer> freeFrames;
+
+    /**
+     * Allocates an arena of numFrames frames of frameSize bytes each.
+     *
+     * @param numFrames the number of frames in the arena
+     * @param frameSize the size of each frame in bytes (normally the page size)
+     */
+    public PageFrameArena(int numFrames, int frameSize) {
+        if (numFrames < 1 || frameSize < 1 || frameSize > MAX_CHUNK_BYTES)
+            throw new IllegalArgumentException("invalid arena size");
+        this.frameSize = frameSize;
+        this.numFrames = numFrames;
+        this.framesPerChunk = MAX_CHUNK_BYTES / frameSize;
+        int numChunks = (numFrames + framesPerChunk - 1) / framesPerChunk;
+        this.chunks = new ByteBuffer[numChunks];
+        for (int c = 0; c < numChunks; c++) {
+            int frames = Math.min(framesPerChunk, numFrames - c * framesPerChunk);
+            chunks[c] = ByteBuffer.allocateDirect(frames * frameSize);
+        }
+        this.freeFrames = new ArrayDeque<Integer>(numFrames);
+        for (int i = 0; i < numFrames; i++)
+            freeFrames.add(i);
+    }
+
+    /** @return the size of each frame in bytes */
+    public int getFrameSize() {
+        return frameSize;
+    }
+
+    /** @return the total number of frames in this arena */
+    public int getNumFrames() {
+        return numFrames;
+    }
+
+    /** @return the number of frames not currently allocated */
+    public synchronized int getNumFreeFrames() {
+        return freeFrames.size();
+    }
+
+    /**
+     * Allocates a frame.
+     *
+     * @return the number of the allocated frame
+     * @throws DbException if every frame is in use
+     */
+    public synchronized int allocate() throws DbException {
+        Integer frame = freeFrames.pollFirst();
+        if (frame == null)
+            throw new DbException("no free frames in page arena");
+        return frame;
+    }
+
+    /**
+     * Returns a frame to the arena. The caller must not use any buffer
+     * obtained from {@link #frame} for this frame afterwards.
+     *
+     * @param frame the number of the frame to release
+     */
+    public synchronized void release(int frame) {
+        if (frame < 0 || frame >= numFrames)
+            throw new IllegalArgumentException("no such frame " + frame);
+        freeFrames.addLast(frame);
+    }
+
+    /**
+     * Returns a buffer covering exactly the bytes of the specified frame.
+     * The buffer has its own position and limit, but shares its contents
+     * with the arena.
+     *
+     * @param frame the number of the frame
+     * @return a ByteBuffer of capacity {@link #getFrameSize()} for the frame
+     */
+    public ByteBuffer frame(int frame) {
+        if (frame < 0 || frame >= numFrames)
+            throw new IllegalArgumentException("no such frame " + frame);
+        ByteBuffer buf = chunks[frame / framesPerChunk].duplicate();
+        int start = (frame % framesPerChunk) * frameSize;
+        buf.limit(start + frameSize);
+        buf.position(start);
+        return buf.slice();
+    }
+}
@@ -4,6 +4,8 @@ import Zql.*;
 import java.io.*;
 import java.lang.reflect.InvocationTargetException;
 import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import jline.ArgumentCompletor;
 import jline.ConsoleReader;
@@ -182,23 +184,20 @@ public class Parser {
 
         // now look for group by fields
         ZGroupBy gby = q.getGroupBy();
-        String groupByField = null;
+        Vector<String> groupByFields = new Vector<String>();
         if (gby != null) {
             @SuppressWarnings("unchecked")
             Vector<ZExp> gbs = gby.getGroupBy();
-            if (gbs.size() > 1) {
-                throw new simpledb.ParsingException(
-                        "At most one grouping field expression supported.");
-            }
-            if (gbs.size() == 1) {
-                ZExp gbe = gbs.elementAt(0);
+            for (ZExp gbe : gbs) {
                 if (!(gbe instanceof ZConstant)) {
                     throw new simpledb.ParsingException(
                             "Complex grouping expressions (" + gbe
                                     + ") not supported.");
                 }
-                groupByField = ((ZConstant) gbe).getValue();
+                String groupByField = ((ZConstant) gbe).getValue();
                 System.out.println("GROUP BY FIELD : " + groupByField);
+                lp.addGroupBy(groupByField);
+                groupByFields.addElement(lp.disambiguateName(groupByField));
             }
 
         }
@@ -207,8 +206,7 @@ public class Parser {
         // validity
         @SuppressWarnings("unchecked")
         Vector<ZSelectItem> selectList = q.getSelect();
-        String aggField = null;
-        String aggFun = null;
+        boolean hasAgg = false;
 
         for (int i = 0; i < selectList.size(); i++) {
             ZSelectItem si = selectList.elementAt(i);
@@ -218,36 +216,34 @@ public class Parser {
                         "Expressions in SELECT list are not supported.");
             }
             if (si.getAggregate() != null) {
-                if (aggField != null) {
-                    throw new simpledb.ParsingException(
-                            "Aggregates over multiple fields not supported.");
-                }
-                aggField = ((ZConstant) ((ZExpression) si.getExpression())
+                String aggField = ((ZConstant) ((ZExpression) si.getExpression())
                         .getOperand(0)).getValue();
-                aggFun = si.getAggregate();
+                String aggFun = si.getAggregate();
                 System.out.println("Aggregate field is " + aggField
                         + ", agg fun is : " + aggFun);
                 lp.addProjectField(aggField, aggFun);
+                lp.addAggregate(aggFun, aggField);
+                hasAgg = true;
             } else {
-                if (groupByField != null
-                        && !(groupByField.equals(si.getTable() + "."
-                                + si.getColumn()) || groupByField.equals(si
-                                .getColumn()))) {
+                String column = si.getTable() + "." + si.getColumn();
+                if (!groupByFields.isEmpty()
+                        && !groupByFields.contains(lp.disambiguateName(column))) {
                     throw new simpledb.ParsingException("Non-aggregate field "
                             + si.getColumn()
                             + " does not appear in GROUP BY list.");
                 }
-                lp.addProjectField(si.getTable() + "." + si.getColumn(), null);
+                lp.addProjectField(column, null);
             }
         }
 
-        if (groupByField != null && aggFun == null) {
+        if (!groupByFields.isEmpty() && !hasAgg) {
             throw new simpledb.ParsingException("GROUP BY without aggregation.");
         }
 
-        if (aggFun != null) {
-            lp.addAggregate(aggFun, aggField, groupByField);
+        if (q.isDistinct()) {
+            lp.setDistinct(true);
         }
+
         // sort the data
 
         if (q.getOrderBy() != null) {
@@ -273,12 +269,64 @@ public class Parser {
     private Transaction curtrans = null;
     private boolean inUserTrans = false;
 
+    /**
+     * A statement with its LIMIT or TOP clause taken out. Zql knows neither
+     * clause, so they are removed from the text of a statement before Zql
+     * parses it. Both <code>SELECT ... LIMIT n</code> and
+     * <code>SELECT [DISTINCT] TOP n ...</code> are accepted.
+     */
+    static class LimitClause {
+        private static final Pattern LIMIT = Pattern.compile(
+                "(?is)^(.*?)\\s+limit\\s+(\\d+)\\s*(;?)\\s*$");
+        private static final Pattern TOP = Pattern.compile(
+                "(?is)^(\\s*select\\s+(?:distinct\\s+)?)top\\s+(\\d+)\\s+(.*)$");
+
+        /** The statement without the clause. */
+        final String statement;
+        /** The limit, or {@link LogicalPlan#NO_LIMIT} if there was no clause. */
+        final int limit;
+
+        private LimitClause(String statement, int limit) {
+            this.statement = statement;
+            this.limit = limit;
+        }
+
+        static LimitClause parse(String s) throws simpledb.ParsingException {
+            Matcher m = LIMIT.matcher(s);
+            if (m.matches())
+                return new LimitClause(m.group(1) + m.group(3), parseLimit(m.group(2)));
+            m = TOP.matcher(s);
+            if (m.matches())
+                return new LimitClause(m.group(1) + m.group(3), parseLimit(m.group(2)));
+            return new LimitClause(s, LogicalPlan.NO_LIMIT);
+        }
+
+        private static int parseLimit(String n) throws simpledb.ParsingException {
+            try {
+                return Integer.parseInt(n);
+            } catch (NumberFormatException e) {
+                throw new simpledb.ParsingException("LIMIT " + n + " is too large");
+            }
+        }
+    }
+
     public Query handleQueryStatement(ZQuery s, TransactionId tId)
             throws TransactionAbortedException, DbException, IOException,
             simpledb.ParsingException, Zql.ParseException {
+        return handleQueryStatement(s, tId, LogicalPlan.NO_LIMIT);
+    }
+
+    /**
+     * Plans and returns a query whose result is limited to its first limit
+     * rows, or not limited if limit is {@link LogicalPlan#NO_LIMIT}.
+     */
+    public Query handleQueryStatement(ZQuery s, TransactionId tId, int limit)
+            throws TransactionAbortedException, DbException, IOException,
+            simpledb.ParsingException, Zql.ParseException {
         Query query = new Query(tId);
 
         LogicalPlan lp = parseQueryLogicalPlan(tId, s);
+        lp.setLimit(limit);
         OpIterator physicalPlan = lp.physicalPlan(tId,
                 TableStats.getStatsMap(), explain);
         query.setPhysicalPlan(physicalPlan);
@@ -365,13 +413,14 @@ public class Parser {
                     IntField f = new IntField(new Integer(zc.getValue()));
                     t.setField(i, f);
                 } else if (zc.getType() == ZConstant.STRING) {
-                    if (td.getFieldType(i) != Type.STRING_TYPE) {
+                    if (td.getFieldType(i) == Type.INT_TYPE) {
                         throw new simpledb.ParsingException("Value "
                                 + zc.getValue()
                                 + " is a string, expected an integer.");
                     }
-                    StringField f = new StringField(zc.getValue(),
-                            Type.STRING_LEN);
+                    StringField f = td.getFieldType(i) == Type.VARCHAR_TYPE
+                            ? new VarcharField(zc.getValue(), Type.STRING_LEN)
+                            : new StringField(zc.getValue(), Type.STRING_LEN);
                     t.setField(i, f);
                 } else {
                     throw new simpledb.ParsingException(
@@ -465,12 +514,14 @@ public class Parser {
 
     public LogicalPlan generateLogicalPlan(TransactionId tid, String s)
             throws simpledb.ParsingException {
-        ByteArrayInputStream bis = new ByteArrayInputStream(s.getBytes());
+        LimitClause lc = LimitClause.parse(s);
+        ByteArrayInputStream bis = new ByteArrayInputStream(lc.statement.getBytes());
         ZqlParser p = new ZqlParser(bis);
         try {
             ZStatement stmt = p.readStatement();
             if (stmt instanceof ZQuery) {
                 LogicalPlan lp = parseQueryLogicalPlan(tid, (ZQuery) stmt);
+                lp.setLimit(lc.limit);
                 return lp;
             }
         } catch (Zql.ParseException e) {
@@ -503,8 +554,16 @@ public class Parser {
 
     public void processNextStatement(InputStream is) {
         try {
-            ZqlParser p = new ZqlParser(is);
+            ByteArrayOutputStream text = new ByteArrayOutputStream();
+            byte[] buf = new byte[4096];
+            for (int n; (n = is.read(buf)) != -1; )
+                text.write(buf, 0, n);
+            LimitClause lc = LimitClause.parse(text.toString("UTF-8"));
+            ZqlParser p = new ZqlParser(new ByteArrayInputStream(
+                    lc.statement.getBytes("UTF-8")));
             ZStatement s = p.readStatement();
+            if (lc.limit != LogicalPlan.NO_LIMIT && !(s instanceof ZQuery))
+                throw new simpledb.ParsingException("LIMIT is only supported in queries");
 
             Query query = null;
             if (s instanceof ZTransactStmt)
@@ -525,7 +584,7 @@ public class Parser {
                                 curtrans.getId());
                     else if (s instanceof ZQuery)
                         query = handleQueryStatement((ZQuery) s,
-                                curtrans.getId());
+                                curtrans.getId(), lc.limit);
                     else {
                         System.out
                                 .println("Can't parse "
@@ -0,0 +1,321 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * A PaxHeapPage stores a page of a HeapFile in the PAX format: the tuples
+ * of the page are split by column, and each column is stored in a
+ * <i>minipage</i> of its own. A scan that reads only some of the columns of
+ * a wide table then decodes only those, from contiguous bytes, instead of
+ * every field of every tuple as a {@link HeapPage} does.
+ * <p>
+ * The page holds as many tuples as a HeapPage of the same TupleDesc, and
+ * starts with the same header bitmap of used slots. The minipages follow
+ * in column order; the minipage of a column of type T holds the value of
+ * slot i at {@code i * T.getLen()} bytes from its start. Only fixed-width
+ * types are supported. A page of zeroes is an empty page.
+ *
+ * @see HeapFile.Format#PAX
+ */
+public class PaxHeapPage implements Page {
+
+    final HeapPageId pid;
+    final TupleDesc td;
+    private final int numSlots;
+    // the offset in the page of each column's minipage
+    private final int[] minipages;
+    private final byte[] data;
+    private final ByteBuffer buf;
+    private volatile TransactionId dirtier;
+
+    byte[] oldData;
+    private final Object oldDataLock = new Object();
+
+    /**
+     * Create a PaxHeapPage from a set of bytes of data read from disk, in
+     * the format described above. The TupleDesc of the page is that of its
+     * table in the {@link Catalog}.
+     *
+     * @param id the id of this page
+     * @param data the raw data of this page
+     * @throws IllegalArgumentException if the TupleDesc has a variable-length
+     *         field
+     */
+    public PaxHeapPage(HeapPageId id, byte[] data) throws IOException {
+        this.pid = id;
+        this.td = Database.getCatalog().getTupleDesc(id.getTableId());
+        this.numSlots = numSlots(td, data.length);
+        this.minipages = minipageOffsets(td, numSlots);
+        this.data = data.clone();
+        this.buf = ByteBuffer.wrap(this.data);
+        setBeforeImage();
+    }
+
+    /** @return the number of tuples a page of pageSize bytes holds */
+    static int numSlots(TupleDesc td, int pageSize) {
+        for (int i = 0; i < td.numFields(); i++) {
+            if (td.getFieldType(i) == Type.VARCHAR_TYPE)
+                throw new IllegalArgumentException("PAX pages hold only fixed-width columns");
+        }
+        return (pageSize * 8) / (td.getSize() * 8 + 1);
+    }
+
+    /** @return the offset of each minipage in a page of numSlots slots */
+    static int[] minipageOffsets(TupleDesc td, int numSlots) {
+        int[] offsets = new int[td.numFields()];
+        int offset = (numSlots + 7) / 8;
+        for (int i = 0; i < offsets.length; i++) {
+            offsets[i] = offset;
+            offset += numSlots * td.getFieldType(i).getLen();
+        }
+        return offsets;
+    }
+
+    /**
+     * @return the bytes of an empty page; a page of zeroes has no tuples
+     */
+    public static byte[] createEmptyPageData() {
+        return new byte[BufferPool.getPageSize()];
+    }
+
+    /**
+     * Stores the values of a tuple in the PAX page held by page.
+     * @return the slot of the tuple, or -1 if the page is full
+     */
+    static int insertFields(byte[] page, TupleDesc td, Field[] fields) {
+        int numSlots = numSlots(td, page.length);
+        int slot = 0;
+        while (slot < numSlots && (page[slot / 8] & (1 << (slot % 8))) != 0)
+            slot++;
+        if (slot == numSlots)
+            return -1;
+        final byte[] p = page;
+        final int[] pos = new int[1];
+        DataOutputStream out = new DataOutputStream(new OutputStream() {
+            public void write(int b) {
+                p[pos[0]++] = (byte) b;
+            }
+
+            public void write(byte[] b, int off, int len) {
+                System.arraycopy(b, off, p, pos[0], len);
+                pos[0] += len;
+            }
+        });
+        int[] offsets = minipageOffsets(td, numSlots);
+        try {
+            for (int i = 0; i < fields.length; i++) {
+                pos[0] = offsets[i] + slot * td.getFieldType(i).getLen();
+                fields[i].serialize(out);
+            }
+        } catch (IOException e) {
+            // writing to an array cannot fail
+            throw new RuntimeException(e);
+        }
+        page[slot / 8] |= (byte) (1 << (slot % 8));
+        return slot;
+    }
+
+    /** Return a view of this page before it was modified
+        -- used by recovery */
+    public PaxHeapPage getBeforeImage() {
+        try {
+            byte[] oldDataRef = null;
+            synchronized(oldDataLock)
+            {
+                oldDataRef = oldData;
+            }
+            return new PaxHeapPage(pid,oldDataRef);
+        } catch (IOException e) {
+            e.printStackTrace();
+            //should never happen -- we parsed it OK before!
+            System.exit(1);
+        }
+        return null;
+    }
+
+    public void setBeforeImage() {
+        synchronized(oldDataLock)
+        {
+        oldData = getPageData();
+        }
+    }
+
+    /**
+     * @return the PageId associated with this page.
+     */
+    public HeapPageId getId() {
+        return pid;
+    }
+
+    /**
+     * @return the number of tuples the page can hold
+     */
+    public int getNumSlots() {
+        return numSlots;
+    }
+
+    /**
+     * Returns the number of empty slots on this page.
+     */
+    public int getNumEmptySlots() {
+        int empty = 0;
+        for (int i = 0; i < numSlots; i++) {
+            if (!isSlotUsed(i))
+                empty++;
+        }
+        return empty;
+    }
+
+    /**
+     * Returns true if associated slot on this page is filled.
+     */
+    public boolean isSlotUsed(int i) {
+        return i >= 0 && i < numSlots && (data[i / 8] & (1 << (i % 8))) != 0;
+    }
+
+    /** @return true if t can be inserted into this page */
+    public boolean hasRoomFor(Tuple t) {
+        return getNumEmptySlots() > 0;
+    }
+
+    /**
+     * Returns the tuple in slot i with only the given columns decoded from
+     * the page data; its other fields are not set.
+     * @param columns the columns to decode, or null for all of them
+     * @return the tuple in slot i, or null if the slot is empty
+     */
+    Tuple getTuple(int i, int[] columns) throws NoSuchElementException {
+        if (i < 0 || i >= numSlots)
+            throw new NoSuchElementException();
+        if (!isSlotUsed(i))
+            return null;
+        try {
+            Tuple t = new Tuple(td);
+            t.setRecordId(new RecordId(pid, i));
+            if (columns == null) {
+                for (int j = 0; j < td.numFields(); j++)
+                    t.setField(j, getField(i, j));
+            } else {
+                for (int j : columns)
+                    t.setField(j, getField(i, j));
+            }
+            return t;
+        } catch (RuntimeException e) {
+            throw new NoSuchElementException("parsing error!");
+        }
+    }
+
+    /** @return the value of column j in slot i */
+    private Field getField(int i, int j) {
+        Type type = td.getFieldType(j);
+        return type.parse(buf, minipages[j] + i * type.getLen());
+    }
+
+    /**
+     * Generates a byte array representing the contents of this page.
+     * Used to serialize this page to disk.
+     *
+     * @return A byte array correspond to the bytes of this page.
+     */
+    public byte[] getPageData() {
+        synchronized (data) {
+            return data.clone();
+        }
+    }
+
+    /**
+     * Delete the specified tuple from the page; the values in its
+     * minipages are left to be overwritten by the next insert.
+     * @throws DbException if this tuple is not on this page, or tuple slot is
+     *         already empty.
+     * @param t The tuple to delete
+     */
+    public void deleteTuple(Tuple t) throws DbException {
+        RecordId rid = t.getRecordId();
+        if (rid == null || !pid.equals(rid.getPageId()))
+            throw new DbException("tuple is not on page " + pid);
+        int slot = rid.getTupleNumber();
+        synchronized (data) {
+            if (!isSlotUsed(slot))
+                throw new DbException("slot " + slot + " is already empty");
+            data[slot / 8] &= (byte) ~(1 << (slot % 8));
+        }
+        t.setRecordId(null);
+    }
+
+    /**
+     * Adds the specified tuple to the page;  the tuple is updated to reflect
+     *  that it is now stored on this page.
+     * @throws DbException if the page is full (no empty slots) or tupledesc
+     *         is mismatch.
+     * @param t The tuple to add.
+     */
+    public void insertTuple(Tuple t) throws DbException {
+        if (!td.equals(t.getTupleDesc()))
+            throw new DbException("tuple does not match the TupleDesc of page " + pid);
+        Field[] fields = new Field[td.numFields()];
+        for (int i = 0; i < fields.length; i++)
+            fields[i] = t.getField(i);
+        int slot;
+        synchronized (data) {
+            slot = insertFields(data, td, fields);
+        }
+        if (slot == -1)
+            throw new DbException("page " + pid + " is full");
+        t.setRecordId(new RecordId(pid, slot));
+    }
+
+    /**
+     * Marks this page as dirty/not dirty and record that transaction
+     * that did the dirtying
+     */
+    public void markDirty(boolean dirty, TransactionId tid) {
+        dirtier = dirty ? tid : null;
+    }
+
+    /**
+     * Returns the tid of the transaction that last dirtied this page, or null if the page is not dirty
+     */
+    public TransactionId isDirty() {
+        return dirtier;
+    }
+
+    /**
+     * @return an iterator over all tuples on this page, in slot order
+     *         (calling remove on this iterator throws an
+     *         UnsupportedOperationException)
+     */
+    public Iterator<Tuple> iterator() {
+        return iterator(null);
+    }
+
+    /**
+     * Returns an iterator over all tuples on this page, in slot order, with
+     * only the given columns decoded; the other fields of the tuples are
+     * not set. The page is decoded a column at a time, each from its own
+     * minipage.
+     *
+     * @param columns the columns to decode, or null for all of them
+     */
+    public Iterator<Tuple> iterator(int[] columns) {
+        ArrayList<Tuple> l = new ArrayList<Tuple>();
+        synchronized (data) {
+            for (int i = 0; i < numSlots; i++) {
+                if (!isSlotUsed(i))
+                    continue;
+                Tuple t = new Tuple(td);
+                t.setRecordId(new RecordId(pid, i));
+                l.add(t);
+            }
+            int n = columns == null ? td.numFields() : columns.length;
+            for (int c = 0; c < n; c++) {
+                int j = columns == null ? c : columns[c];
+                for (Tuple t : l)
+                    t.setField(j, getField(t.getRecordId().getTupleNumber(), j));
+            }
+        }
+        return Collections.unmodifiableList(l).iterator();
+    }
+}
@@ -0,0 +1,236 @@
+package simpledb;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * ReadAhead prefetches the pages a scan is about to read into the
+ * BufferPool, so that the reads overlap with the operators consuming the
+ * scan's tuples. A DbFileIterator creates one ReadAhead per open scan and
+ * calls {@link #pageRead} each time it moves to a new page.
+ * <p>
+ * Read-ahead only starts once the scan has read a few pages in the order
+ * given by its {@link PageOrder}, and stops as soon as it reads a page out
+ * of order. The pages themselves are read on a single, shared background
+ * thread, at most {@code window} pages ahead of the scan. The window grows
+ * by one page at a time up to the maximum, and is halved whenever the
+ * BufferPool evicts a page this read-ahead prefetched before the scan read
+ * it, since that means the pool is too busy to hold this scan's pages that
+ * far ahead. Pages other scans waste do not count. The window is also never
+ * more than a quarter of the pool.
+ * <p>
+ * Prefetching is only a hint: any error while prefetching (for example,
+ * when every page in the pool is dirty) just ends the current batch.
+ *
+ * @see BufferPool#prefetchPage
+ */
+public class ReadAhead {
+
+    /**
+     * Tells read-ahead which page a scan will read after a given page.
+     */
+    public interface PageOrder {
+        /**
+         * @param pid the id of a page
+         * @param page the contents of that page
+         * @return the id of the page the scan reads after pid, or null if
+         *   pid is the last page of the scan
+         */
+        public PageId next(PageId pid, Page page);
+    }
+
+    /** Default maximum number of pages to read ahead of a scan. */
+    public static final int DEFAULT_WINDOW = 8;
+
+    /** Number of pages a scan must read in order before read-ahead starts. */
+    private static final int SEQUENTIAL_RUN = 2;
+
+    private static volatile int defaultWindow = DEFAULT_WINDOW;
+
+    private static final ExecutorService io = Executors.newSingleThreadExecutor(
+        new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "simpledb-read-ahead");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+
+    private final PageOrder order;
+    private final int maxWindow;
+
+    // only touched by the scan's thread
+    private int window = 1;
+    private PageId expected;
+    private int run;
+    private boolean started;
+    private int consumed; // pages of the prefetched run the scan has read
+    private long lastWasted;
+
+    // shared with the I/O thread
+    private volatile PageId frontier; // next page to prefetch
+    private volatile boolean done; // prefetched up to the end of the scan
+    private final AtomicInteger prefetched = new AtomicInteger();
+    // also incremented by the BufferPool when it evicts a page we prefetched
+    private final AtomicLong wasted = new AtomicLong();
+    private final AtomicBoolean busy = new AtomicBoolean();
+    private volatile boolean closed;
+
+    /**
+     * Creates a read-ahead with the default maximum window.
+     *
+     * @param order the order in which the scan reads pages
+     */
+    public ReadAhead(PageOrder order) {
+        this(order, defaultWindow);
+    }
+
+    /**
+     * @param order the order in which the scan reads pages
+     * @param maxWindow the most pages to read ahead of the scan; 0 turns
+     *   read-ahead off
+     */
+    public ReadAhead(PageOrder order, int maxWindow) {
+        this.order = order;
+        this.maxWindow = maxWindow;
+    }
+
+    /** @return the maximum window used by new ReadAheads */
+    public static int getDefaultWindow() {
+        return defaultWindow;
+    }
+
+    /**
+     * Sets the maximum window used by ReadAheads created from now on.
+     *
+     * @param pages the most pages to read ahead of a scan; 0 turns
+     *   read-ahead off
+     */
+    public static void setDefaultWindow(int pages) {
+        if (pages < 0)
+            throw new IllegalArgumentException("negative read-ahead window");
+        defaultWindow = pages;
+    }
+
+    /**
+     * @return the number of pages this read-ahead prefetched that were
+     *   evicted before the scan read them
+     */
+    public long getWastedCount() {
+        return wasted.get();
+    }
+
+    /** @return the number of pages currently read ahead of the scan */
+    public int getWindow() {
+        return window;
+    }
+
+    /**
+     * Called by the scan each time it moves to a page. Must only be called
+     * from the scan's own thread.
+     *
+     * @param pid the id of the page the scan is now reading
+     * @param page the contents of that page
+     */
+    public void pageRead(PageId pid, Page page) {
+        if (closed || maxWindow == 0)
+            return;
+        if (pid.equals(expected)) {
+            run++;
+        } else {
+            // a jump: start looking for a new sequential run
+            run = 1;
+            window = 1;
+            started = false;
+        }
+        expected = order.next(pid, page);
+        if (expected == null || run < SEQUENTIAL_RUN)
+            return;
+
+        if (!started) {
+            // wait for a batch from an earlier run to finish
+            if (busy.get())
+                return;
+            // start reading ahead of the page after this one
+            started = true;
+            done = false;
+            frontier = expected;
+            prefetched.set(0);
+            consumed = 0;
+            lastWasted = wasted.get();
+        } else {
+            consumed++;
+        }
+        if (done)
+            return;
+        adjustWindow();
+
+        int ahead = prefetched.get() - consumed;
+        if (ahead > window / 2 || !busy.compareAndSet(false, true))
+            return;
+        if (done) {
+            busy.set(false);
+            return;
+        }
+        if (ahead < 0) {
+            // the scan overtook the prefetcher; skip what it has read
+            frontier = expected;
+            prefetched.set(consumed);
+            ahead = 0;
+        }
+        final PageId start = frontier;
+        final int n = window - ahead;
+        io.execute(new Runnable() {
+            public void run() {
+                prefetch(start, n);
+            }
+        });
+    }
+
+    /**
+     * Grows the window by one page, or halves it if the pool has evicted
+     * pages this read-ahead prefetched before the scan read them.
+     */
+    private void adjustWindow() {
+        BufferPool pool = Database.getBufferPool();
+        long w = wasted.get();
+        if (w > lastWasted)
+            window = Math.max(1, window / 2);
+        else if (window < maxWindow)
+            window++;
+        lastWasted = w;
+        window = Math.max(1, Math.min(window, pool.getNumPages() / 4));
+    }
+
+    /** Runs on the I/O thread: prefetches n pages starting at pid. */
+    private void prefetch(PageId pid, int n) {
+        try {
+            BufferPool pool = Database.getBufferPool();
+            for (int i = 0; i < n && pid != null && !closed; i++) {
+                Page page = pool.prefetchPage(pid, wasted);
+                pid = order.next(pid, page);
+                prefetched.incrementAndGet();
+            }
+        } catch (Exception e) {
+            // prefetching is only a hint; the scan will read the page itself
+            Debug.log(1, "ReadAhead: prefetch stopped: %s", e);
+        } finally {
+            frontier = pid;
+            if (pid == null)
+                done = true;
+            busy.set(false);
+        }
+    }
+
+    /**
+     * Stops reading ahead. Pages already being read are still added to the
+     * pool.
+     */
+    public void close() {
+        closed = true;
+    }
+}
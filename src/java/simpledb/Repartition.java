@@ -0,0 +1,96 @@
+package simpledb;
+
+/**
+ * Repartition is an {@link Exchange} that splits the tuples of its inputs
+ * into n streams by the hash of a field, so that tuples with equal values
+ * of the field are in the same stream. Each stream is a Repartition
+ * operator of its own, created by {@link #create}; the streams are meant
+ * to be read in parallel, for example by the inputs of a {@link Gather},
+ * since producers wait for streams that fall behind.
+ * <p>
+ * The producers start when the first stream is opened. A stream can only
+ * be rewound after every stream has been closed.
+ */
+public class Repartition extends ExchangeConsumer {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Group group;
+    private final int index;
+    private final int n;
+    private final int field;
+
+    private Repartition(Group group, int index, int n, int field) {
+        this.group = group;
+        this.index = index;
+        this.n = n;
+        this.field = field;
+    }
+
+    /**
+     * @param inputs
+     *            the plans producing the tuples; each runs in a task of its own
+     * @param field
+     *            the field to partition on
+     * @param n
+     *            the number of streams
+     * @return the n streams
+     */
+    public static Repartition[] create(OpIterator[] inputs, int field, int n) {
+        Group group = new Group(inputs, router(field, n), n);
+        Repartition[] streams = new Repartition[n];
+        for (int i = 0; i < n; i++)
+            streams[i] = new Repartition(group, i, n, field);
+        return streams;
+    }
+
+    private static Router router(final int field, final int n) {
+        return new Router() {
+            public int route(Tuple t) {
+                int h = t.getField(field).hashCode();
+                h ^= h >>> 16;
+                h *= 0x85ebca6b;
+                h ^= h >>> 13;
+                return (h & 0x7fffffff) % n;
+            }
+        };
+    }
+
+    Channel connect() throws DbException {
+        return group.connect(index);
+    }
+
+    void disconnect() {
+        group.disconnect(index);
+    }
+
+    /** @return the number of streams the tuples are split into */
+    public int getNumStreams() {
+        return n;
+    }
+
+    /** @return the field the streams are partitioned on */
+    public int getField() {
+        return field;
+    }
+
+    public String getName() {
+        return "repartition(" + (index + 1) + "/" + n + " on "
+                + getTupleDesc().getFieldName(field) + ")";
+    }
+
+    public TupleDesc getTupleDesc() {
+        return group.getInputs()[0].getTupleDesc();
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return group.getInputs().clone();
+    }
+
+    /** Replaces the inputs of all streams. */
+    @Override
+    public void setChildren(OpIterator[] children) {
+        group.setInputs(children.clone(), router(field, n));
+    }
+}
@@ -11,6 +11,11 @@ public class SeqScan implements OpIterator {
 
     private static final long serialVersionUID = 1L;
 
+    // the columns the plan reads, or null for all
+    private int[] columns;
+    // predicates the tuples the plan keeps satisfy, or null for none
+    private Predicate[] preds;
+
     /**
      * Creates a sequential scan over the specified table as a part of the
      * specified transaction.
@@ -31,6 +36,72 @@ public class SeqScan implements OpIterator {
         // some code goes here
     }
 
+    /**
+     * Creates a sequential scan over the specified table that only needs
+     * some of its columns. The scan still returns tuples of the whole
+     * TupleDesc, but the fields of the other columns may be left unset:
+     * a HeapFile in the {@link HeapFile.Format#PAX} format decodes only
+     * the columns passed to
+     * {@link HeapFile#iterator(TransactionId, int, int, int[])}.
+     *
+     * @param tid
+     *            The transaction this scan is running as a part of.
+     * @param tableid
+     *            the table to scan.
+     * @param tableAlias
+     *            the alias of this table, as in
+     *            {@link #SeqScan(TransactionId, int, String)}
+     * @param columns
+     *            the indices of the columns the plan reads, or null for all
+     */
+    public SeqScan(TransactionId tid, int tableid, String tableAlias, int[] columns) {
+        this(tid, tableid, tableAlias);
+        this.columns = columns == null ? null : columns.clone();
+    }
+
+    /**
+     * Creates a sequential scan over the specified table that only needs
+     * some of its columns, and only the tuples that satisfy the given
+     * predicates. The plan still filters the tuples of the scan, but the
+     * scan may leave out tuples that fail the predicates, and need not read
+     * the pages whose {@link ZoneMap} summary shows they have none that
+     * satisfy them, by passing the predicates to
+     * {@link HeapFile#iterator(TransactionId, int, int, int[], Predicate[])}.
+     *
+     * @param tid
+     *            The transaction this scan is running as a part of.
+     * @param tableid
+     *            the table to scan.
+     * @param tableAlias
+     *            the alias of this table, as in
+     *            {@link #SeqScan(TransactionId, int, String)}
+     * @param columns
+     *            the indices of the columns the plan reads, or null for all
+     * @param preds
+     *            predicates on the fields of the table, or null for none
+     */
+    public SeqScan(TransactionId tid, int tableid, String tableAlias, int[] columns,
+            Predicate[] preds) {
+        this(tid, tableid, tableAlias, columns);
+        this.preds = preds == null ? null : preds.clone();
+    }
+
+    /**
+     * @return the indices of the columns the plan reads, or null if it
+     *         reads all of them
+     */
+    public int[] getColumns() {
+        return columns;
+    }
+
+    /**
+     * @return the predicates pushed down into this scan, or null if there
+     *         are none
+     */
+    public Predicate[] getPredicates() {
+        return preds;
+    }
+
     /**
      * @return
      *       return the table name of the table the operator scans. This should
@@ -34,6 +34,8 @@ public class SimpleDb {
                             ts[index++]=Type.INT_TYPE;
                         else if (s.toLowerCase().equals("string"))
                                 ts[index++]=Type.STRING_TYPE;
+                        else if (s.toLowerCase().equals("varchar"))
+                                ts[index++]=Type.VARCHAR_TYPE;
                             else {
                                 System.err.println("Unknown type " + s);
                                 return;
@@ -49,6 +51,16 @@ public class SimpleDb {
         } catch (IOException e) {
                 throw new RuntimeException(e);
         }
+        } else if (args[0].equals("compress")) {
+            // compress a heap file, or a B+ tree file if "btree" follows
+            if (args.length < 3 || args.length > 4) {
+                System.err.println("Unexpected number of arguments to compress ");
+                return;
+            }
+            boolean btree = args.length == 4 && args[3].equals("btree");
+            int firstBlockSize = btree ? BTreeRootPtrPage.getPageSize() : BufferPool.getPageSize();
+            CompressedPageChannel.compress(new File(args[1]), new File(args[2]),
+                    firstBlockSize, BufferPool.getPageSize());
         } else if (args[0].equals("print")) {
             File tableFile = new File(args[1]);
             int columns = Integer.parseInt(args[2]);
@@ -0,0 +1,334 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * A SlottedHeapPage stores a page of a HeapFile in the slotted format,
+ * with variable-length records, for tables whose tuples vary in size, such
+ * as those with {@link Type#VARCHAR_TYPE} columns. Unlike a
+ * {@link HeapPage}, whose slots all take {@link TupleDesc#getSize} bytes, a
+ * record takes only the bytes its fields need, as written by
+ * {@link Type#serialize(Field, DataOutputStream)}.
+ * <p>
+ * The page starts with a header of two unsigned shorts: the number of
+ * slots, and the number of bytes at the end of the page used by records.
+ * The slot directory follows, with an offset and a length, both unsigned
+ * shorts, per slot; an offset of 0 marks an empty slot. Records are added
+ * from the end of the page towards the directory. A page of zeroes is
+ * therefore an empty page, and pages may be at most
+ * {@link #MAX_PAGE_SIZE} bytes.
+ * <p>
+ * A tuple keeps its slot, and so its RecordId, as long as it is on the
+ * page. Deleting a tuple empties its slot, which the next insert reuses;
+ * the bytes of deleted records are reclaimed by moving the others
+ * together when an insert needs them.
+ *
+ * @see HeapFile#isSlotted
+ */
+public class SlottedHeapPage implements Page {
+
+    /** Largest page size the offsets of the format can address. */
+    public static final int MAX_PAGE_SIZE = 0xffff;
+
+    static final int HEADER_SIZE = 4;
+    static final int SLOT_SIZE = 4;
+
+    final HeapPageId pid;
+    final TupleDesc td;
+    private final byte[] data;
+    private final ByteBuffer buf;
+    private volatile TransactionId dirtier;
+
+    byte[] oldData;
+    private final Object oldDataLock = new Object();
+
+    /**
+     * Create a SlottedHeapPage from a set of bytes of data read from disk,
+     * in the format described above. The TupleDesc of the page is that of
+     * its table in the {@link Catalog}.
+     *
+     * @param id the id of this page
+     * @param data the raw data of this page
+     * @throws IllegalArgumentException if the page is too big for the
+     *         format
+     */
+    public SlottedHeapPage(HeapPageId id, byte[] data) throws IOException {
+        if (data.length > MAX_PAGE_SIZE)
+            throw new IllegalArgumentException("slotted pages hold at most "
+                    + MAX_PAGE_SIZE + " bytes");
+        this.pid = id;
+        this.td = Database.getCatalog().getTupleDesc(id.getTableId());
+        this.data = data.clone();
+        this.buf = ByteBuffer.wrap(this.data);
+        setBeforeImage();
+    }
+
+    /**
+     * @return the bytes of an empty page; a page of zeroes has no slots
+     */
+    public static byte[] createEmptyPageData() {
+        return new byte[BufferPool.getPageSize()];
+    }
+
+    /** @return the record of t, as stored on a slotted page */
+    public static byte[] record(Tuple t) {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        DataOutputStream dos = new DataOutputStream(baos);
+        TupleDesc td = t.getTupleDesc();
+        try {
+            for (int i = 0; i < td.numFields(); i++)
+                td.getFieldType(i).serialize(t.getField(i), dos);
+            dos.flush();
+        } catch (IOException e) {
+            // writing to an array cannot fail
+            throw new RuntimeException(e);
+        }
+        return baos.toByteArray();
+    }
+
+    /**
+     * Stores a record in the slotted page held by page.
+     * @return the slot of the record, or -1 if it does not fit
+     */
+    static int insertRecord(byte[] page, byte[] record) {
+        ByteBuffer b = ByteBuffer.wrap(page);
+        int numSlots = b.getChar(0);
+        int slot = 0;
+        while (slot < numSlots && b.getChar(slotPos(slot)) != 0)
+            slot++;
+        int need = record.length + (slot == numSlots ? SLOT_SIZE : 0);
+        if (freeBytes(b, numSlots) < need)
+            return -1;
+        if (contiguousBytes(b, numSlots) < need)
+            compact(b, numSlots);
+        int used = b.getChar(2) + record.length;
+        int offset = page.length - used;
+        System.arraycopy(record, 0, page, offset, record.length);
+        b.putChar(2, (char) used);
+        b.putChar(slotPos(slot), (char) offset);
+        b.putChar(slotPos(slot) + 2, (char) record.length);
+        if (slot == numSlots)
+            b.putChar(0, (char) (numSlots + 1));
+        return slot;
+    }
+
+    private static int slotPos(int slot) {
+        return HEADER_SIZE + slot * SLOT_SIZE;
+    }
+
+    /** @return the bytes between the slot directory and the records */
+    private static int contiguousBytes(ByteBuffer b, int numSlots) {
+        return b.capacity() - b.getChar(2) - slotPos(numSlots);
+    }
+
+    /** @return the bytes not used by the header, directory or live records */
+    private static int freeBytes(ByteBuffer b, int numSlots) {
+        int live = 0;
+        for (int i = 0; i < numSlots; i++)
+            live += b.getChar(slotPos(i) + 2);
+        return b.capacity() - live - slotPos(numSlots);
+    }
+
+    /** Moves the live records to the end of the page, in slot order. */
+    private static void compact(ByteBuffer b, int numSlots) {
+        byte[] page = b.array();
+        byte[] copy = page.clone();
+        int used = 0;
+        for (int i = 0; i < numSlots; i++) {
+            int offset = b.getChar(slotPos(i));
+            if (offset == 0)
+                continue;
+            int len = b.getChar(slotPos(i) + 2);
+            used += len;
+            System.arraycopy(copy, offset, page, page.length - used, len);
+            b.putChar(slotPos(i), (char) (page.length - used));
+        }
+        b.putChar(2, (char) used);
+    }
+
+    /** Return a view of this page before it was modified
+        -- used by recovery */
+    public SlottedHeapPage getBeforeImage() {
+        try {
+            byte[] oldDataRef = null;
+            synchronized(oldDataLock)
+            {
+                oldDataRef = oldData;
+            }
+            return new SlottedHeapPage(pid,oldDataRef);
+        } catch (IOException e) {
+            e.printStackTrace();
+            //should never happen -- we parsed it OK before!
+            System.exit(1);
+        }
+        return null;
+    }
+
+    public void setBeforeImage() {
+        synchronized(oldDataLock)
+        {
+        oldData = getPageData();
+        }
+    }
+
+    /**
+     * @return the PageId associated with this page.
+     */
+    public HeapPageId getId() {
+        return pid;
+    }
+
+    /**
+     * @return the number of slots in the directory, used or not
+     */
+    public int getNumSlots() {
+        return buf.getChar(0);
+    }
+
+    /**
+     * Returns true if associated slot on this page is filled.
+     */
+    public boolean isSlotUsed(int i) {
+        return i >= 0 && i < getNumSlots() && buf.getChar(slotPos(i)) != 0;
+    }
+
+    /**
+     * @return the bytes free for records and their slots, once the records
+     *         are moved together
+     */
+    public int getFreeBytes() {
+        return freeBytes(buf, getNumSlots());
+    }
+
+    /** @return true if t can be inserted into this page */
+    public boolean hasRoomFor(Tuple t) {
+        int numSlots = getNumSlots();
+        int need = record(t).length + SLOT_SIZE;
+        for (int i = 0; i < numSlots; i++) {
+            if (buf.getChar(slotPos(i)) == 0) {
+                need -= SLOT_SIZE;
+                break;
+            }
+        }
+        return freeBytes(buf, numSlots) >= need;
+    }
+
+    /**
+     * Returns the tuple in slot i, decoded from the page data.
+     * @return the tuple in slot i, or null if the slot is empty
+     */
+    Tuple getTuple(int i) throws NoSuchElementException {
+        if (i < 0 || i >= getNumSlots())
+            throw new NoSuchElementException();
+        int offset = buf.getChar(slotPos(i));
+        if (offset == 0)
+            return null;
+        try {
+            Tuple t = new Tuple(td);
+            t.setRecordId(new RecordId(pid, i));
+            for (int j=0; j<td.numFields(); j++) {
+                Type type = td.getFieldType(j);
+                Field f = type.parse(buf, offset);
+                t.setField(j, f);
+                offset += type.getLen(f);
+            }
+            return t;
+        } catch (RuntimeException e) {
+            throw new NoSuchElementException("parsing error!");
+        }
+    }
+
+    /**
+     * Generates a byte array representing the contents of this page.
+     * Used to serialize this page to disk.
+     *
+     * @return A byte array correspond to the bytes of this page.
+     */
+    public byte[] getPageData() {
+        synchronized (data) {
+            return data.clone();
+        }
+    }
+
+    /**
+     * Delete the specified tuple from the page, emptying its slot.
+     * @throws DbException if this tuple is not on this page, or tuple slot is
+     *         already empty.
+     * @param t The tuple to delete
+     */
+    public void deleteTuple(Tuple t) throws DbException {
+        RecordId rid = t.getRecordId();
+        if (rid == null || !pid.equals(rid.getPageId()))
+            throw new DbException("tuple is not on page " + pid);
+        int slot = rid.getTupleNumber();
+        synchronized (data) {
+            if (!isSlotUsed(slot))
+                throw new DbException("slot " + slot + " is already empty");
+            buf.putChar(slotPos(slot), (char) 0);
+            buf.putChar(slotPos(slot) + 2, (char) 0);
+            // trailing empty slots are dropped from the directory
+            int numSlots = getNumSlots();
+            while (numSlots > 0 && buf.getChar(slotPos(numSlots - 1)) == 0)
+                numSlots--;
+            buf.putChar(0, (char) numSlots);
+            if (numSlots == 0)
+                buf.putChar(2, (char) 0);
+        }
+        t.setRecordId(null);
+    }
+
+    /**
+     * Adds the specified tuple to the page;  the tuple is updated to reflect
+     *  that it is now stored on this page.
+     * @throws DbException if the page has no room for the tuple or tupledesc
+     *         is mismatch.
+     * @param t The tuple to add.
+     */
+    public void insertTuple(Tuple t) throws DbException {
+        if (!td.equals(t.getTupleDesc()))
+            throw new DbException("tuple does not match the TupleDesc of page " + pid);
+        byte[] record = record(t);
+        int slot;
+        synchronized (data) {
+            slot = insertRecord(data, record);
+        }
+        if (slot == -1)
+            throw new DbException("no room for a record of " + record.length
+                    + " bytes on page " + pid);
+        t.setRecordId(new RecordId(pid, slot));
+    }
+
+    /**
+     * Marks this page as dirty/not dirty and record that transaction
+     * that did the dirtying
+     */
+    public void markDirty(boolean dirty, TransactionId tid) {
+        dirtier = dirty ? tid : null;
+    }
+
+    /**
+     * Returns the tid of the transaction that last dirtied this page, or null if the page is not dirty
+     */
+    public TransactionId isDirty() {
+        return dirtier;
+    }
+
+    /**
+     * @return an iterator over all tuples on this page, in slot order
+     *         (calling remove on this iterator throws an
+     *         UnsupportedOperationException)
+     */
+    public Iterator<Tuple> iterator() {
+        ArrayList<Tuple> l = new ArrayList<Tuple>();
+        synchronized (data) {
+            for (int i = 0; i < getNumSlots(); i++) {
+                Tuple t = getTuple(i);
+                if (t != null)
+                    l.add(t);
+            }
+        }
+        return Collections.unmodifiableList(l).iterator();
+    }
+}
@@ -0,0 +1,300 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * SortMergeJoin joins two children that are both sorted in ascending order
+ * of their join fields, such as scans of B+ trees keyed on the join field
+ * or the output of an ascending {@link OrderBy}, reading each child once.
+ * <p>
+ * For an equality predicate, the rows of child2 with the key of the
+ * current row of child1 are held in a buffer, so that following rows of
+ * child1 with the same key join with the whole run. For a range predicate,
+ * the rows of one child that satisfy the predicate for the current row of
+ * the other are all rows read so far, so the buffer grows as the merge
+ * advances. Buffers hold rows up to the {@link OperatorMemory} budget and
+ * write the rest to {@link SpillFile}s.
+ * <p>
+ * Output rows are the row of child1 followed by the row of child2. With an
+ * equality predicate the output is sorted on the join field of child1;
+ * with a range predicate it is sorted on the join field of the child that
+ * drives the merge (child1 for &gt; and &gt;=, child2 for &lt; and &lt;=).
+ */
+public class SortMergeJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final JoinPredicate pred;
+    private OpIterator child1, child2;
+    private final TupleDesc comboTD;
+
+    // for range predicates, rows of the buffered child are read ahead of
+    // rows of the driving child; for equality, child1 drives
+    private final boolean driveChild1;
+
+    transient private Tuple drive;
+    transient private Tuple lookahead;
+    transient private RowBuffer buffer;
+    transient private RowBuffer.Cursor cursor;
+    // equality only: the key of the rows in buffer, or null
+    transient private Field runKey;
+
+    /**
+     * Constructor. Accepts two children to join and the predicate to join
+     * them on.
+     *
+     * @param p
+     *            The predicate to use to join the children; its operator
+     *            cannot be NOT_EQUALS or LIKE
+     * @param child1
+     *            Iterator for the left relation, sorted on p's field1
+     * @param child2
+     *            Iterator for the right relation, sorted on p's field2
+     */
+    public SortMergeJoin(JoinPredicate p, OpIterator child1, OpIterator child2) {
+        if (!supports(p.getOperator()))
+            throw new IllegalArgumentException("SortMergeJoin does not support " + p.getOperator());
+        this.pred = p;
+        this.child1 = child1;
+        this.child2 = child2;
+        Predicate.Op op = p.getOperator();
+        driveChild1 = op != Predicate.Op.LESS_THAN && op != Predicate.Op.LESS_THAN_OR_EQ;
+        comboTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+    }
+
+    /** @return true if a SortMergeJoin can join on op */
+    public static boolean supports(Predicate.Op op) {
+        return op != Predicate.Op.NOT_EQUALS && op != Predicate.Op.LIKE;
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return pred;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return comboTD;
+    }
+
+    public String getJoinField1Name() {
+        return this.child1.getTupleDesc().getFieldName(this.pred.getField1());
+    }
+
+    public String getJoinField2Name() {
+        return this.child2.getTupleDesc().getFieldName(this.pred.getField2());
+    }
+
+    /**
+     * @return the index of the field of the output that the output is
+     *         sorted on
+     */
+    public int getSortField() {
+        if (driveChild1)
+            return pred.getField1();
+        return child1.getTupleDesc().numFields() + pred.getField2();
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child1.open();
+        child2.open();
+        start();
+        super.open();
+    }
+
+    private void start() throws DbException, TransactionAbortedException {
+        OpIterator buffered = bufferedChild();
+        buffer = new RowBuffer(buffered.getTupleDesc());
+        cursor = null;
+        runKey = null;
+        drive = null;
+        lookahead = buffered.hasNext() ? buffered.next() : null;
+    }
+
+    public void close() {
+        super.close();
+        if (buffer != null)
+            buffer.clear();
+        buffer = null;
+        cursor = null;
+        child2.close();
+        child1.close();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        buffer.clear();
+        child1.rewind();
+        child2.rewind();
+        start();
+    }
+
+    private OpIterator drivingChild() {
+        return driveChild1 ? child1 : child2;
+    }
+
+    private OpIterator bufferedChild() {
+        return driveChild1 ? child2 : child1;
+    }
+
+    private Field driveKey(Tuple t) {
+        return t.getField(driveChild1 ? pred.getField1() : pred.getField2());
+    }
+
+    private Field bufferedKey(Tuple t) {
+        return t.getField(driveChild1 ? pred.getField2() : pred.getField1());
+    }
+
+    /** @return a negative number, zero or a positive number as a &lt;, = or &gt; b */
+    private static int compare(Field a, Field b) {
+        if (a.compare(Predicate.Op.LESS_THAN, b))
+            return -1;
+        return a.compare(Predicate.Op.GREATER_THAN, b) ? 1 : 0;
+    }
+
+    /**
+     * For a range predicate, @return true if a buffered row with key b
+     * joins with a driving row with key d. As both children are sorted, it
+     * then joins with all later driving rows too.
+     */
+    private boolean rangeMatch(Field b, Field d) {
+        Predicate.Op op = pred.getOperator();
+        int c = compare(b, d);
+        if (op == Predicate.Op.LESS_THAN_OR_EQ || op == Predicate.Op.GREATER_THAN_OR_EQ)
+            return c <= 0;
+        return c < 0;
+    }
+
+    private Tuple next(OpIterator child) throws DbException, TransactionAbortedException {
+        return child.hasNext() ? child.next() : null;
+    }
+
+    /** @return the concatenation of the rows of child1 and child2 */
+    private Tuple joinTuples(Tuple d, Tuple b) {
+        return driveChild1 ? HashEquiJoin.joinTuples(comboTD, d, b)
+                : HashEquiJoin.joinTuples(comboTD, b, d);
+    }
+
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        OpIterator buffered = bufferedChild();
+        while (true) {
+            if (cursor != null && cursor.hasNext())
+                return joinTuples(drive, cursor.next());
+
+            drive = next(drivingChild());
+            if (drive == null)
+                return null;
+            Field k = driveKey(drive);
+
+            if (pred.getOperator() != Predicate.Op.EQUALS) {
+                // add the rows that start matching at this key
+                while (lookahead != null && rangeMatch(bufferedKey(lookahead), k)) {
+                    buffer.add(lookahead);
+                    lookahead = next(buffered);
+                }
+                cursor = buffer.cursor();
+                continue;
+            }
+
+            if (runKey != null && runKey.equals(k)) {
+                cursor = buffer.cursor();
+                continue;
+            }
+            // find the run of rows with key k, if there is one
+            buffer.clear();
+            runKey = null;
+            cursor = null;
+            while (lookahead != null && compare(bufferedKey(lookahead), k) < 0)
+                lookahead = next(buffered);
+            if (lookahead == null || compare(bufferedKey(lookahead), k) > 0)
+                continue;
+            runKey = k;
+            while (lookahead != null && compare(bufferedKey(lookahead), k) == 0) {
+                buffer.add(lookahead);
+                lookahead = next(buffered);
+            }
+            cursor = buffer.cursor();
+        }
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[] { this.child1, this.child2 };
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        this.child1 = children[0];
+        this.child2 = children[1];
+    }
+
+    /**
+     * A list of rows that keeps at most as many rows in memory as fit in the
+     * operator memory budget, and writes each full chunk of rows to a
+     * SpillFile. A cursor reads the rows added before it was created, and
+     * cannot be used once more rows are added.
+     */
+    private static class RowBuffer {
+        private final TupleDesc td;
+        private final int maxRows;
+        private final ArrayList<SpillFile> spilled = new ArrayList<SpillFile>();
+        private final ArrayList<Tuple> rows = new ArrayList<Tuple>();
+
+        RowBuffer(TupleDesc td) {
+            this.td = td;
+            maxRows = OperatorMemory.maxRows(OperatorMemory.tupleBytes(td) + 8);
+        }
+
+        void add(Tuple t) throws DbException {
+            rows.add(t);
+            if (rows.size() < maxRows)
+                return;
+            SpillFile f = new SpillFile(td);
+            for (Tuple r : rows)
+                f.add(r);
+            f.finish();
+            spilled.add(f);
+            rows.clear();
+        }
+
+        void clear() {
+            for (SpillFile f : spilled)
+                f.delete();
+            spilled.clear();
+            rows.clear();
+        }
+
+        Cursor cursor() {
+            return new Cursor();
+        }
+
+        class Cursor {
+            private final int numFiles = spilled.size();
+            private final int numRows = rows.size();
+            private int file = -1;
+            private OpIterator it;
+            private int row;
+
+            boolean hasNext() throws DbException, TransactionAbortedException {
+                while (file < numFiles) {
+                    if (it != null && it.hasNext())
+                        return true;
+                    if (it != null)
+                        it.close();
+                    it = null;
+                    if (++file < numFiles) {
+                        it = spilled.get(file).iterator();
+                        it.open();
+                    }
+                }
+                return row < numRows;
+            }
+
+            Tuple next() throws DbException, TransactionAbortedException {
+                if (!hasNext())
+                    throw new NoSuchElementException();
+                if (it != null)
+                    return it.next();
+                return rows.get(row++);
+            }
+        }
+    }
+}
@@ -0,0 +1,219 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.NoSuchElementException;
+
+/**
+ * A SpillFile is a temporary file of tuples written by an operator whose
+ * input does not fit in its {@link OperatorMemory} budget. Tuples are
+ * appended with {@link #add} and read back in the same order through
+ * {@link #iterator}, as many times as needed, once {@link #finish} has been
+ * called. The file is deleted by {@link #delete}, or when the JVM exits.
+ * <p>
+ * The file is a sequence of pages in the {@link HeapPage} format: a header
+ * bitmap of used slots followed by fixed-size slots, each holding one tuple
+ * as written by {@link Field#serialize}. Every slot is used except at the
+ * end of the last page, so a spill file can also be read as a HeapFile of
+ * the same TupleDesc. A reader holds one page in memory at a time.
+ */
+public class SpillFile {
+
+    private final TupleDesc td;
+    private final File f;
+    private final PageChannel channel;
+    private final int pageSize;
+    private final int tupleSize;
+    private final int numSlots;
+    private final int headerSize;
+
+    // page being written, or null once the file is finished
+    private byte[] page;
+    private int slot;
+    private int numPages;
+    private int size;
+    private final DataOutputStream slotOut;
+    private int slotPos;
+
+    /**
+     * Creates an empty spill file for tuples of td.
+     * @throws DbException if the file cannot be created
+     */
+    public SpillFile(TupleDesc td) throws DbException {
+        this.td = td;
+        pageSize = BufferPool.getPageSize();
+        tupleSize = td.getSize();
+        numSlots = (pageSize * 8) / (tupleSize * 8 + 1);
+        headerSize = (numSlots + 7) / 8;
+        if (numSlots == 0)
+            throw new DbException("tuples of " + tupleSize + " bytes do not fit in a page");
+        try {
+            f = File.createTempFile("spill", ".dat");
+            f.deleteOnExit();
+        } catch (IOException e) {
+            throw new DbException("cannot create spill file: " + e.getMessage());
+        }
+        channel = new PageChannel(f);
+        page = new byte[pageSize];
+        slotOut = new DataOutputStream(new OutputStream() {
+            public void write(int b) {
+                page[slotPos++] = (byte) b;
+            }
+
+            public void write(byte[] b, int off, int len) {
+                System.arraycopy(b, off, page, slotPos, len);
+                slotPos += len;
+            }
+        });
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /** @return the number of tuples added */
+    public int size() {
+        return size;
+    }
+
+    /** @return the file the tuples are written to */
+    public File getFile() {
+        return f;
+    }
+
+    /** Appends t to the file. */
+    public void add(Tuple t) throws DbException {
+        if (page == null)
+            throw new IllegalStateException("spill file already finished");
+        if (slot == numSlots)
+            writePage();
+        page[slot / 8] |= (byte) (1 << (slot % 8));
+        slotPos = headerSize + slot * tupleSize;
+        try {
+            for (int i = 0; i < td.numFields(); i++) {
+                // fields a scan did not read are left as zeroes
+                Field f = t.getField(i);
+                if (f == null)
+                    slotPos += td.getFieldType(i).getLen();
+                else
+                    f.serialize(slotOut);
+            }
+        } catch (IOException e) {
+            throw new DbException("cannot write spill file: " + e.getMessage());
+        }
+        slot++;
+        size++;
+    }
+
+    /** Writes out the current page and starts an empty one. */
+    private void writePage() throws DbException {
+        try {
+            channel.write(page, (long) numPages * pageSize);
+        } catch (IOException e) {
+            throw new DbException("cannot write spill file: " + e.getMessage());
+        }
+        numPages++;
+        page = new byte[pageSize];
+        slot = 0;
+    }
+
+    /** Writes out the last page; no more tuples can be added. */
+    public void finish() throws DbException {
+        if (page == null)
+            return;
+        if (slot > 0)
+            writePage();
+        page = null;
+    }
+
+    /** Deletes the file. */
+    public void delete() {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // the file is going away anyway
+        }
+        page = null;
+        f.delete();
+    }
+
+    /**
+     * @return an iterator over the tuples of the file, in the order they
+     *         were added. Call {@link #finish} first.
+     */
+    public OpIterator iterator() {
+        return new Reader();
+    }
+
+    private class Reader implements OpIterator {
+        private static final long serialVersionUID = 1L;
+
+        private transient byte[] buf;
+        private transient ByteBuffer bb;
+        private int pgNo;
+        private int slot;
+        private int read;
+
+        public void open() {
+            if (page != null)
+                throw new IllegalStateException("spill file not finished");
+            buf = new byte[pageSize];
+            bb = ByteBuffer.wrap(buf);
+            pgNo = -1;
+            slot = numSlots;
+            read = 0;
+        }
+
+        public boolean hasNext() {
+            if (buf == null)
+                throw new IllegalStateException("Operator not yet open");
+            return read < size;
+        }
+
+        public Tuple next() throws DbException {
+            if (!hasNext())
+                throw new NoSuchElementException();
+            // skip to the next used slot
+            while (true) {
+                if (slot == numSlots)
+                    readPage(++pgNo);
+                if ((buf[slot / 8] & (1 << (slot % 8))) != 0)
+                    break;
+                slot++;
+            }
+            Tuple t = new Tuple(td);
+            int offset = headerSize + slot * tupleSize;
+            for (int i = 0; i < td.numFields(); i++) {
+                Type type = td.getFieldType(i);
+                t.setField(i, type.parse(bb, offset));
+                offset += type.getLen();
+            }
+            slot++;
+            read++;
+            return t;
+        }
+
+        private void readPage(int pgNo) throws DbException {
+            try {
+                if (channel.read(buf, (long) pgNo * pageSize) != pageSize)
+                    throw new DbException("spill file is truncated");
+            } catch (IOException e) {
+                throw new DbException("cannot read spill file: " + e.getMessage());
+            }
+            slot = 0;
+        }
+
+        public void rewind() {
+            open();
+        }
+
+        public TupleDesc getTupleDesc() {
+            return td;
+        }
+
+        public void close() {
+            buf = null;
+            bb = null;
+        }
+    }
+}
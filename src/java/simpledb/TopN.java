@@ -0,0 +1,131 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * TopN implements ORDER BY ... LIMIT n: it returns the first n tuples of
+ * its child in the order an {@link OrderBy} on the same field would, but
+ * without sorting the whole child. It keeps the best n tuples seen so far
+ * in a heap whose root is the worst of them, so a tuple that does not
+ * belong in the result costs one comparison, and memory is O(n) rather than
+ * O(rows). Ties are broken by arrival order, as in OrderBy's stable sort.
+ */
+public class TopN extends Operator {
+
+    private static final long serialVersionUID = 1L;
+    private OpIterator child;
+    private final TupleDesc td;
+    private final int orderByField;
+    private final boolean asc;
+    private final int limit;
+    private transient ArrayList<Tuple> result;
+    private transient Iterator<Tuple> it;
+
+    /** A tuple and the position in which it arrived. */
+    private static class Entry {
+        final Tuple t;
+        final long seq;
+
+        Entry(Tuple t, long seq) {
+            this.t = t;
+            this.seq = seq;
+        }
+    }
+
+    /**
+     * Creates a new TopN node over the tuples from the iterator.
+     *
+     * @param orderbyField
+     *            the field to which the sort is applied.
+     * @param asc
+     *            true if the sort order is ascending.
+     * @param limit
+     *            the number of tuples to return
+     * @param child
+     *            the tuples to sort.
+     */
+    public TopN(int orderbyField, boolean asc, int limit, OpIterator child) {
+        if (limit < 0)
+            throw new IllegalArgumentException("negative limit " + limit);
+        this.child = child;
+        this.td = child.getTupleDesc();
+        this.orderByField = orderbyField;
+        this.asc = asc;
+        this.limit = limit;
+    }
+
+    public boolean isASC() {
+        return this.asc;
+    }
+
+    public int getOrderByField() {
+        return this.orderByField;
+    }
+
+    public int getLimit() {
+        return this.limit;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child.open();
+        final TupleComparator cmp = new TupleComparator(orderByField, asc);
+        // the root of the heap is the entry that comes last in the output
+        PriorityQueue<Entry> heap = new PriorityQueue<Entry>(Math.max(1, Math.min(limit, 1024)),
+                new Comparator<Entry>() {
+                    public int compare(Entry a, Entry b) {
+                        int c = cmp.compare(b.t, a.t);
+                        return c != 0 ? c : Long.compare(b.seq, a.seq);
+                    }
+                });
+        long seq = 0;
+        while (limit > 0 && child.hasNext()) {
+            Tuple t = child.next();
+            if (heap.size() < limit)
+                heap.add(new Entry(t, seq));
+            else if (cmp.compare(t, heap.peek().t) < 0) {
+                heap.poll();
+                heap.add(new Entry(t, seq));
+            }
+            seq++;
+        }
+        Entry[] sorted = new Entry[heap.size()];
+        for (int i = sorted.length - 1; i >= 0; i--)
+            sorted[i] = heap.poll();
+        result = new ArrayList<Tuple>(sorted.length);
+        for (Entry e : sorted)
+            result.add(e.t);
+        it = result.iterator();
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        child.close();
+        result = null;
+        it = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        it = result.iterator();
+    }
+
+    protected Tuple fetchNext() throws NoSuchElementException,
+            TransactionAbortedException, DbException {
+        return it.hasNext() ? it.next() : null;
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[] { this.child };
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        this.child = children[0];
+    }
+}
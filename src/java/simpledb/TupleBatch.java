@@ -0,0 +1,232 @@
+package simpledb;
+
+/**
+ * TupleBatch holds a batch of rows column by column, for operators that
+ * implement {@link BatchIterator}. An INT_TYPE column is stored as an
+ * {@code int[]}; any other column as a {@code Field[]}.
+ * <p>
+ * A batch has a selection vector, which lists the rows that are still part
+ * of the batch in increasing order. Filters narrow the selection rather
+ * than copying the rows they keep. When there is no selection vector, all
+ * {@link #size()} rows are selected. Operators should only look at the
+ * selected rows:
+ * <pre>
+ * for (int i = 0; i &lt; batch.numSelected(); i++) {
+ *     int row = batch.selectedRow(i);
+ *     ...
+ * }
+ * </pre>
+ */
+public class TupleBatch {
+
+    /** Number of rows in a batch unless another capacity is given. */
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    private final TupleDesc td;
+    private final int capacity;
+    private final int[][] ints;      // ints[col] for INT_TYPE columns, else null
+    private final Field[][] fields;  // fields[col] for other columns, else null
+    private int size;
+    private int[] sel;               // selected rows, or null if all are selected
+    private int numSelected;
+
+    /**
+     * Creates an empty batch with the default capacity.
+     *
+     * @param td the TupleDesc of the rows
+     */
+    public TupleBatch(TupleDesc td) {
+        this(td, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Creates an empty batch.
+     *
+     * @param td the TupleDesc of the rows
+     * @param capacity the maximum number of rows in the batch
+     */
+    public TupleBatch(TupleDesc td, int capacity) {
+        this.td = td;
+        this.capacity = capacity;
+        int n = td.numFields();
+        this.ints = new int[n][];
+        this.fields = new Field[n][];
+        for (int i = 0; i < n; i++) {
+            if (td.getFieldType(i) == Type.INT_TYPE)
+                ints[i] = new int[capacity];
+            else
+                fields[i] = new Field[capacity];
+        }
+    }
+
+    /** Creates a batch that shares the given column arrays. */
+    private TupleBatch(TupleDesc td, int capacity, int[][] ints, Field[][] fields) {
+        this.td = td;
+        this.capacity = capacity;
+        this.ints = ints;
+        this.fields = fields;
+    }
+
+    /** @return the TupleDesc of the rows in this batch */
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /** @return the maximum number of rows in this batch */
+    public int capacity() {
+        return capacity;
+    }
+
+    /** @return the number of rows stored, whether selected or not */
+    public int size() {
+        return size;
+    }
+
+    /** @return true if no more rows can be added */
+    public boolean isFull() {
+        return size == capacity;
+    }
+
+    /** @return the number of selected rows */
+    public int numSelected() {
+        return sel == null ? size : numSelected;
+    }
+
+    /**
+     * @param i a number from 0 to numSelected() - 1
+     * @return the row number of the ith selected row
+     */
+    public int selectedRow(int i) {
+        return sel == null ? i : sel[i];
+    }
+
+    /** @return the selection vector, or null if all rows are selected */
+    public int[] getSelection() {
+        return sel;
+    }
+
+    /**
+     * Replaces the selection. The batch keeps a reference to the array, so
+     * the caller must not change it while the batch is in use.
+     *
+     * @param sel the selected row numbers, in increasing order, or null to
+     *   select every row
+     * @param n the number of entries of sel that are used
+     */
+    public void setSelection(int[] sel, int n) {
+        this.sel = sel;
+        this.numSelected = sel == null ? 0 : n;
+    }
+
+    /**
+     * @param col the column number
+     * @return the values of an INT_TYPE column, indexed by row number
+     * @throws IllegalArgumentException if the column is not an INT_TYPE column
+     */
+    public int[] intColumn(int col) {
+        if (ints[col] == null)
+            throw new IllegalArgumentException("column " + col + " is not an int column");
+        return ints[col];
+    }
+
+    /**
+     * @param col the column number
+     * @return the values of a column that is not INT_TYPE, indexed by row number
+     * @throws IllegalArgumentException if the column is an INT_TYPE column
+     */
+    public Field[] fieldColumn(int col) {
+        if (fields[col] == null)
+            throw new IllegalArgumentException("column " + col + " is an int column");
+        return fields[col];
+    }
+
+    /** @return the value in the specified column and row, as a Field */
+    public Field getField(int col, int row) {
+        if (ints[col] != null)
+            return new IntField(ints[col][row]);
+        return fields[col][row];
+    }
+
+    /** Sets the value in the specified column and row. */
+    public void setField(int col, int row, Field f) {
+        if (ints[col] != null)
+            ints[col][row] = ((IntField) f).getValue();
+        else
+            fields[col][row] = f;
+    }
+
+    /** @return a new Tuple holding the values of the specified row */
+    public Tuple getTuple(int row) {
+        Tuple t = new Tuple(td);
+        for (int col = 0; col < ints.length; col++)
+            t.setField(col, getField(col, row));
+        return t;
+    }
+
+    /** Removes all rows and the selection. */
+    public void clear() {
+        size = 0;
+        sel = null;
+        numSelected = 0;
+    }
+
+    /**
+     * Adds a row at the end of the batch. The selection must be null.
+     *
+     * @return the number of the new row, whose values are not yet set
+     */
+    public int addRow() {
+        if (size == capacity)
+            throw new IllegalStateException("batch is full");
+        if (sel != null)
+            throw new IllegalStateException("cannot add rows to a batch with a selection");
+        return size++;
+    }
+
+    /** Adds the values of a Tuple as a new row. */
+    public void addTuple(Tuple t) {
+        int row = addRow();
+        for (int col = 0; col < ints.length; col++)
+            setField(col, row, t.getField(col));
+    }
+
+    /**
+     * Copies every column of a row of another batch into columns
+     * dstCol, dstCol + 1, ... of a row of this batch.
+     *
+     * @param src the batch to copy from
+     * @param srcRow the row of src to copy
+     * @param row the row of this batch to copy into
+     * @param dstCol the column of this batch that receives src's column 0
+     */
+    public void copyRow(TupleBatch src, int srcRow, int row, int dstCol) {
+        for (int col = 0; col < src.ints.length; col++) {
+            if (src.ints[col] != null)
+                ints[dstCol + col][row] = src.ints[col][srcRow];
+            else
+                fields[dstCol + col][row] = src.fields[col][srcRow];
+        }
+    }
+
+    /**
+     * Returns a batch whose columns are the given columns of this one. No
+     * values are copied: the new batch shares this batch's column arrays
+     * and selection, and is valid as long as this batch is.
+     *
+     * @param cols the columns of this batch to keep, in output order
+     * @param outTd the TupleDesc of the new batch
+     */
+    public TupleBatch project(int[] cols, TupleDesc outTd) {
+        int[][] pints = new int[cols.length][];
+        Field[][] pfields = new Field[cols.length][];
+        for (int i = 0; i < cols.length; i++) {
+            pints[i] = ints[cols[i]];
+            pfields[i] = fields[cols[i]];
+        }
+        TupleBatch b = new TupleBatch(outTd, capacity, pints, pfields);
+        b.size = size;
+        b.sel = sel;
+        b.numSelected = numSelected;
+        return b;
+    }
+}
@@ -0,0 +1,113 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * Scan-resistant 2Q replacement (Johnson and Shasha, VLDB '94).
+ * <p>
+ * Pages seen for the first time go into a small FIFO queue, A1in. When they
+ * fall out of A1in only their ids are remembered, in the "ghost" queue
+ * A1out. A page that is requested again while its id is still in A1out has
+ * proven to be re-used, and is admitted to Am, an LRU queue of hot pages.
+ * A sequential scan therefore only ever cycles through A1in, and the hot
+ * pages in Am (e.g., B+ tree internal pages) survive it.
+ * <p>
+ * Every method is synchronized, including {@link #pageHit}, which may move
+ * a page within Am, so concurrent getPage hits contend on the policy.
+ */
+public class TwoQEvictionPolicy implements EvictionPolicy {
+
+    private final int kin;
+    private final int kout;
+
+    /** Resident pages seen once, oldest first. */
+    private final LinkedHashSet<PageId> a1in = new LinkedHashSet<PageId>();
+    /** Ids of pages recently evicted from a1in, oldest first. Not resident. */
+    private final LinkedHashSet<PageId> a1out = new LinkedHashSet<PageId>();
+    /** Resident hot pages, least recently used first. */
+    private final LinkedHashMap<PageId, Boolean> am =
+        new LinkedHashMap<PageId, Boolean>(16, 0.75f, true);
+
+    /**
+     * Creates a 2Q policy with the queue sizes recommended in the paper:
+     * A1in holds a quarter of the pool and A1out remembers half a pool's
+     * worth of page ids.
+     *
+     * @param numPages the capacity of the buffer pool using this policy
+     */
+    public TwoQEvictionPolicy(int numPages) {
+        this(numPages, Math.max(1, numPages / 4), Math.max(1, numPages / 2));
+    }
+
+    /**
+     * @param numPages the capacity of the buffer pool using this policy
+     * @param kin the target number of resident pages in A1in
+     * @param kout the number of evicted page ids remembered in A1out
+     */
+    public TwoQEvictionPolicy(int numPages, int kin, int kout) {
+        if (kin < 1 || kout < 1 || kin > numPages)
+            throw new IllegalArgumentException("invalid 2Q queue sizes");
+        this.kin = kin;
+        this.kout = kout;
+    }
+
+    public synchronized void pageHit(PageId pid) {
+        // hits in a1in are correlated references and don't promote the page
+        if (am.containsKey(pid))
+            am.get(pid);
+    }
+
+    public synchronized void pageAdded(PageId pid) {
+        if (am.containsKey(pid) || a1in.contains(pid))
+            return;
+        if (a1out.remove(pid))
+            am.put(pid, Boolean.TRUE);
+        else
+            a1in.add(pid);
+    }
+
+    public synchronized void pageRemoved(PageId pid) {
+        if (a1in.remove(pid)) {
+            a1out.add(pid);
+            if (a1out.size() > kout) {
+                Iterator<PageId> it = a1out.iterator();
+                it.next();
+                it.remove();
+            }
+        } else {
+            am.remove(pid);
+        }
+    }
+
+    /** Forgets a discarded page without keeping it in A1out. */
+    public synchronized void pageDiscarded(PageId pid) {
+        if (!a1in.remove(pid))
+            am.remove(pid);
+    }
+
+    public synchronized PageId chooseVictim(Set<PageId> pinned) {
+        PageId victim = null;
+        if (a1in.size() > kin || am.isEmpty()) {
+            victim = firstUnpinned(a1in, pinned);
+            if (victim == null)
+                victim = firstUnpinned(am.keySet(), pinned);
+        } else {
+            victim = firstUnpinned(am.keySet(), pinned);
+            if (victim == null)
+                victim = firstUnpinned(a1in, pinned);
+        }
+        return victim;
+    }
+
+    private static PageId firstUnpinned(Collection<PageId> queue, Set<PageId> pinned) {
+        for (PageId pid : queue) {
+            if (!pinned.contains(pid))
+                return pid;
+        }
+        return null;
+    }
+
+    public String getName() {
+        return "2Q";
+    }
+}
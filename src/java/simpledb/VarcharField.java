@@ -0,0 +1,34 @@
+package simpledb;
+
+/**
+ * Instance of Field that stores a single String of a VARCHAR column. It
+ * compares and hashes like a {@link StringField} of the same value, and
+ * serializes the same way where fields have a fixed width, but takes only
+ * the length of its value plus four bytes in a variable-length record.
+ *
+ * @see Type#VARCHAR_TYPE
+ * @see SlottedHeapPage
+ */
+public class VarcharField extends StringField {
+
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param s
+	 *            The value of this field.
+	 * @param maxSize
+	 *            The maximum size of this string
+	 */
+	public VarcharField(String s, int maxSize) {
+		super(s, maxSize);
+	}
+
+	/**
+	 * @return the Type for this Field
+	 */
+	public Type getType() {
+		return Type.VARCHAR_TYPE;
+	}
+}
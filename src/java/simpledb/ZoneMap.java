@@ -0,0 +1,420 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A ZoneMap keeps a summary of each page of a HeapFile: the smallest and
+ * largest value of each of its INT_TYPE columns on the page. A scan with
+ * predicates skips the pages whose ranges show that none of their tuples
+ * can satisfy them, without reading them; see {@link #mayMatch}. Tables
+ * loaded in the order of a column, such as the time of an event, then read
+ * only the pages that a range of that column can be on.
+ * <p>
+ * The summaries describe the pages as they are on disk. The HeapFile
+ * summarizes a page each time it writes it, and when a scan reads a page
+ * that has no summary yet. It widens the ranges of the page a tuple is
+ * inserted into, and leaves them as they are when a tuple is deleted,
+ * since the page on disk still holds it until the page is written. A page
+ * the {@link BufferPool} holds a changed version of is read by scans
+ * whatever its summary says.
+ * <p>
+ * The summaries are kept in a sidecar file named after the data file with
+ * a {@code .zones} suffix: a header with the length and modification time
+ * of the data file when the summaries were last written, then a record per
+ * page, with flags and the range of each INT_TYPE column. If the data file
+ * has changed since, the summaries are thrown away. Summaries made by scans
+ * and widened by inserts are written to the sidecar file with the next
+ * write of the data file, so reading a table never writes to disk, and
+ * inserting into it writes to the sidecar no more often than to the data.
+ * <p>
+ * Since a data file can be rewritten without changing its length or
+ * modification time, summaries loaded from the sidecar file are only
+ * hints, good for estimates such as {@link #range}. Scans only skip pages
+ * whose summaries were made from the page as this zone map read or wrote
+ * it. Writes through another ZoneMap of the same data file, and
+ * {@link #changed} calls, make a zone map go back to treating all of its
+ * summaries as hints.
+ *
+ * @Threadsafe
+ */
+public class ZoneMap {
+
+    /** Suffix of the name of the zone map of a data file. */
+    public static final String SUFFIX = ".zones";
+
+    private static final int HEADER_SIZE = 16;
+    // flags of a page record
+    private static final int SUMMARIZED = 1;
+    private static final int HAS_TUPLES = 2;
+
+    // the number of times each data file has been written through a
+    // ZoneMap, or rewritten as a whole, in this process
+    private static final ConcurrentHashMap<String, AtomicLong> generations =
+        new ConcurrentHashMap<String, AtomicLong>();
+
+    private final File f;
+    private final File zoneFile;
+    private final PageChannel channel;
+    // the INT_TYPE columns, and the position of each column among them
+    private final int[] columns;
+    private final int[] position;
+    private final int recordSize;
+
+    // loaded on first use; the flags of page i are flags[i], and the range
+    // of its k-th INT_TYPE column is ranges[2 * (i * columns.length + k)]
+    // and the int after it
+    private byte[] flags;
+    private int[] ranges;
+    private long dataLength;
+    private long dataModified;
+    // pages summarized by scans or widened by inserts, whose records are
+    // not in the sidecar yet
+    private final BitSet unsaved = new BitSet();
+    // pages whose summaries were made from the pages as read or written
+    // since the generation of the data file was last checked
+    private final BitSet trusted = new BitSet();
+    private long generation;
+
+    /**
+     * @param f the data file of the HeapFile
+     * @param td the TupleDesc of the HeapFile
+     */
+    public ZoneMap(File f, TupleDesc td) {
+        this.f = f;
+        this.zoneFile = zoneFile(f);
+        this.channel = new PageChannel(zoneFile);
+        int n = 0;
+        for (int i = 0; i < td.numFields(); i++) {
+            if (td.getFieldType(i) == Type.INT_TYPE)
+                n++;
+        }
+        columns = new int[n];
+        position = new int[td.numFields()];
+        Arrays.fill(position, -1);
+        n = 0;
+        for (int i = 0; i < td.numFields(); i++) {
+            if (td.getFieldType(i) == Type.INT_TYPE) {
+                position[i] = n;
+                columns[n++] = i;
+            }
+        }
+        recordSize = 1 + 8 * columns.length;
+    }
+
+    /** @return the counter of the writes to the data file f */
+    private static AtomicLong generationOf(File f) {
+        String key = f.getAbsolutePath();
+        AtomicLong g = generations.get(key);
+        if (g == null) {
+            AtomicLong fresh = new AtomicLong();
+            g = generations.putIfAbsent(key, fresh);
+            if (g == null)
+                g = fresh;
+        }
+        return g;
+    }
+
+    /**
+     * Tells the zone maps of a data file that it has been rewritten other
+     * than through them, as {@link HeapFileEncoder} does, so that they no
+     * longer skip pages by the summaries they have.
+     */
+    public static void changed(File f) {
+        generationOf(f).incrementAndGet();
+    }
+
+    /** @return the zone map of the data file f */
+    public static File zoneFile(File f) {
+        return new File(f.getPath() + SUFFIX);
+    }
+
+    /**
+     * Reads the summaries from the sidecar file the first time they are
+     * needed, and again if the data file has changed since they were last
+     * written; see {@link #refresh}.
+     */
+    private void load() throws IOException {
+        if (flags == null)
+            refresh();
+    }
+
+    /**
+     * Checks that the data file has not changed since the summaries were
+     * last written, reading them from the sidecar file if they are not
+     * loaded yet. Summaries of a data file that has changed since are
+     * thrown away. Scans call this once as they start, rather than with
+     * every page they check.
+     */
+    public synchronized void refresh() throws IOException {
+        long gen = generationOf(f).get();
+        if (gen != generation) {
+            trusted.clear();
+            generation = gen;
+        }
+        long length = f.length();
+        long modified = f.lastModified();
+        if (flags != null && length == dataLength && modified == dataModified)
+            return;
+        flags = new byte[0];
+        ranges = new int[0];
+        unsaved.clear();
+        trusted.clear();
+        dataLength = length;
+        dataModified = modified;
+        if (!zoneFile.exists())
+            return;
+        byte[] bytes = new byte[(int) zoneFile.length()];
+        ByteBuffer b = ByteBuffer.wrap(bytes);
+        if (bytes.length < HEADER_SIZE || channel.read(bytes, 0) < bytes.length
+                || b.getLong(0) != length || b.getLong(8) != modified) {
+            channel.close();
+            RandomAccessFile raf = new RandomAccessFile(zoneFile, "rw");
+            try {
+                raf.setLength(0);
+            } finally {
+                raf.close();
+            }
+            return;
+        }
+        int pages = (bytes.length - HEADER_SIZE) / recordSize;
+        grow(pages);
+        for (int i = 0; i < pages; i++) {
+            int pos = HEADER_SIZE + i * recordSize;
+            flags[i] = b.get(pos);
+            for (int k = 0; k < 2 * columns.length; k++)
+                ranges[2 * i * columns.length + k] = b.getInt(pos + 1 + 4 * k);
+        }
+    }
+
+    /** Makes room for the summaries of the given number of pages. */
+    private void grow(int pages) {
+        if (pages <= flags.length)
+            return;
+        int n = Math.max(pages, 2 * flags.length);
+        flags = Arrays.copyOf(flags, n);
+        ranges = Arrays.copyOf(ranges, 2 * n * columns.length);
+    }
+
+    /**
+     * Writes the record of a page and those of the pages summarized by
+     * scans or widened by inserts since the last write, then the header.
+     */
+    private void store(int pageNo) throws IOException {
+        unsaved.set(pageNo);
+        ByteBuffer record = ByteBuffer.allocate(recordSize);
+        for (int i = unsaved.nextSetBit(0); i >= 0; i = unsaved.nextSetBit(i + 1)) {
+            record.clear();
+            record.put(flags[i]);
+            for (int k = 0; k < 2 * columns.length; k++)
+                record.putInt(ranges[2 * i * columns.length + k]);
+            channel.write(record.array(), HEADER_SIZE + (long) i * recordSize);
+        }
+        unsaved.clear();
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putLong(dataLength);
+        header.putLong(dataModified);
+        channel.write(header.array(), 0);
+    }
+
+    /** @return true if the file has INT_TYPE columns to summarize */
+    public boolean hasColumns() {
+        return columns.length > 0;
+    }
+
+    /**
+     * @return true if page pageNo has a summary, which may only be a hint
+     *         loaded from the sidecar file
+     */
+    public synchronized boolean isSummarized(int pageNo) throws IOException {
+        load();
+        return pageNo < flags.length && (flags[pageNo] & SUMMARIZED) != 0;
+    }
+
+    /**
+     * @return true if page pageNo has a summary made from the page as this
+     *         zone map read or wrote it, which scans can skip pages by
+     */
+    public synchronized boolean isTrusted(int pageNo) throws IOException {
+        load();
+        return trusted.get(pageNo);
+    }
+
+    /**
+     * Makes sure the summaries are up to date with the data file before the
+     * HeapFile writes to it; the write is then followed by
+     * {@link #written}, rather than taken for a change made behind the
+     * zone map's back.
+     */
+    public synchronized void beforeWrite() throws IOException {
+        refresh();
+    }
+
+    /** Sets the summary of a page to the ranges of the given tuples. */
+    private void set(int pageNo, Iterator<Tuple> tuples) {
+        grow(pageNo + 1);
+        flags[pageNo] = SUMMARIZED;
+        while (tuples.hasNext())
+            add(pageNo, tuples.next());
+        trusted.set(pageNo);
+    }
+
+    /**
+     * Summarizes a page of the data file that has just been written to
+     * disk, and writes the summaries to the sidecar file.
+     *
+     * @param pageNo the number of the page
+     * @param tuples the tuples of the page, or null if the page cannot
+     *        list them, to drop its summary
+     */
+    public synchronized void written(int pageNo, Iterator<Tuple> tuples) throws IOException {
+        load();
+        if (tuples != null) {
+            set(pageNo, tuples);
+        } else {
+            grow(pageNo + 1);
+            flags[pageNo] = 0;
+            trusted.clear(pageNo);
+        }
+        dataLength = f.length();
+        dataModified = f.lastModified();
+        store(pageNo);
+        generation = generationOf(f).incrementAndGet();
+    }
+
+    /**
+     * Summarizes a page of the data file as it has been read from disk. The
+     * summary is only kept in memory until the HeapFile next writes to the
+     * file, so that reading a table does not write to its sidecar file.
+     *
+     * @param pageNo the number of the page
+     * @param tuples the tuples of the page
+     */
+    public synchronized void summarize(int pageNo, Iterator<Tuple> tuples) throws IOException {
+        load();
+        set(pageNo, tuples);
+        unsaved.set(pageNo);
+    }
+
+    /**
+     * Widens the ranges of a page to take in a tuple inserted into it. A
+     * page without a summary is left without one. Like a summary made by a
+     * scan, the widened ranges are only written to the sidecar file with
+     * the next write of the data file.
+     */
+    public synchronized void widen(int pageNo, Tuple t) throws IOException {
+        load();
+        if (pageNo >= flags.length || (flags[pageNo] & SUMMARIZED) == 0)
+            return;
+        add(pageNo, t);
+        unsaved.set(pageNo);
+    }
+
+    /** Adds the values of t to the ranges of a page. */
+    private void add(int pageNo, Tuple t) {
+        boolean first = (flags[pageNo] & HAS_TUPLES) == 0;
+        flags[pageNo] |= HAS_TUPLES;
+        for (int k = 0; k < columns.length; k++) {
+            int v = ((IntField) t.getField(columns[k])).getValue();
+            int pos = 2 * (pageNo * columns.length + k);
+            if (first || v < ranges[pos])
+                ranges[pos] = v;
+            if (first || v > ranges[pos + 1])
+                ranges[pos + 1] = v;
+        }
+    }
+
+    /**
+     * Returns false if no tuple of a page can satisfy all of the given
+     * predicates: the page has no tuples, or the range of the column of a
+     * predicate on an INT_TYPE column holds no value that satisfies it.
+     * Pages without a summary, or with only a hint of one, may match any
+     * predicates.
+     *
+     * @param pageNo the number of the page
+     * @param preds the predicates, at least one
+     */
+    public synchronized boolean mayMatch(int pageNo, Predicate[] preds) throws IOException {
+        load();
+        if (!trusted.get(pageNo))
+            return true;
+        if ((flags[pageNo] & HAS_TUPLES) == 0)
+            return false;
+        for (Predicate p : preds) {
+            int k = position[p.getField()];
+            if (k < 0)
+                continue;
+            int pos = 2 * (pageNo * columns.length + k);
+            if (!overlaps(ranges[pos], ranges[pos + 1], p.getOp(),
+                    ((IntField) p.getOperand()).getValue()))
+                return false;
+        }
+        return true;
+    }
+
+    /** @return true if some v in [min, max] satisfies v op c */
+    static boolean overlaps(int min, int max, Predicate.Op op, int c) {
+        switch (op) {
+        case EQUALS:
+        case LIKE:
+            return min <= c && c <= max;
+        case NOT_EQUALS:
+            return min != c || max != c;
+        case GREATER_THAN:
+            return max > c;
+        case GREATER_THAN_OR_EQ:
+            return max >= c;
+        case LESS_THAN:
+            return min < c;
+        case LESS_THAN_OR_EQ:
+            return min <= c;
+        }
+        return true;
+    }
+
+    /**
+     * Returns the smallest and largest value of an INT_TYPE column over the
+     * first pages pages, from their summaries, including those that are
+     * only hints.
+     *
+     * @return the range, or null if a page has no summary, no page has
+     *         tuples, or the column is not an INT_TYPE column
+     */
+    public synchronized int[] range(int column, int pages) throws IOException {
+        load();
+        int k = position[column];
+        if (k < 0 || pages > flags.length)
+            return null;
+        int[] range = null;
+        for (int i = 0; i < pages; i++) {
+            if ((flags[i] & SUMMARIZED) == 0)
+                return null;
+            if ((flags[i] & HAS_TUPLES) == 0)
+                continue;
+            int pos = 2 * (i * columns.length + k);
+            if (range == null)
+                range = new int[] { ranges[pos], ranges[pos + 1] };
+            range[0] = Math.min(range[0], ranges[pos]);
+            range[1] = Math.max(range[1], ranges[pos + 1]);
+        }
+        return range;
+    }
+
+    /**
+     * Marks a data file and its zone map to be deleted when the virtual
+     * machine exits, as {@link File#deleteOnExit} does for the data file
+     * alone.
+     */
+    public static void deleteOnExit(File f) {
+        f.deleteOnExit();
+        zoneFile(f).deleteOnExit();
+    }
+
+    /** Closes the sidecar file. */
+    public void close() throws IOException {
+        channel.close();
+    }
+}
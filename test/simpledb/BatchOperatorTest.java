@@ -0,0 +1,157 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import java.util.ArrayList;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class BatchOperatorTest extends SimpleDbTestBase {
+
+  int width1 = 2;
+  int width2 = 3;
+  OpIterator scan1;
+  OpIterator scan2;
+
+  /**
+   * Initialize each unit test
+   */
+  @Before public void createTupleLists() throws Exception {
+    this.scan1 = TestUtil.createTupleList(width1,
+        new int[] { 1, 2,
+                    1, 4,
+                    1, 6,
+                    3, 2,
+                    3, 4,
+                    3, 6,
+                    5, 7 });
+    this.scan2 = TestUtil.createTupleList(width2,
+        new int[] { 1, 2, 3,
+                    2, 3, 4,
+                    3, 4, 5,
+                    4, 5, 6,
+                    5, 6, 7 });
+  }
+
+  /** Batches of capacity 3, so that every operator sees several batches */
+  private BatchIterator batches(OpIterator it) {
+    return BatchAdapter.toBatches(it, 3);
+  }
+
+  /**
+   * Unit test for the adapters: tuples survive a round trip through batches
+   */
+  @Test public void adapterRoundTrip() throws Exception {
+    OpIterator op = BatchAdapter.toTuples(batches(scan1));
+    OpIterator expected = TestUtil.createTupleList(width1,
+        new int[] { 1, 2, 1, 4, 1, 6, 3, 2, 3, 4, 3, 6, 5, 7 });
+    op.open();
+    TestUtil.compareDbIterators(op, expected);
+    op.rewind();
+    expected.rewind();
+    TestUtil.compareDbIterators(op, expected);
+    op.close();
+  }
+
+  /**
+   * Unit test for BatchFilter, including a filter over a filtered batch
+   */
+  @Test public void filter() throws Exception {
+    BatchIterator gt = new BatchFilter(
+        new Predicate(1, Predicate.Op.GREATER_THAN, TestUtil.getField(2)), batches(scan1));
+    BatchIterator both = new BatchFilter(
+        new Predicate(0, Predicate.Op.NOT_EQUALS, TestUtil.getField(3)), gt);
+    OpIterator op = BatchAdapter.toTuples(both);
+    OpIterator expected = TestUtil.createTupleList(width1,
+        new int[] { 1, 4, 1, 6, 5, 7 });
+    op.open();
+    TestUtil.compareDbIterators(op, expected);
+    op.close();
+  }
+
+  /**
+   * Unit test for BatchFilter when no rows pass
+   */
+  @Test public void filterNothing() throws Exception {
+    BatchIterator op = new BatchFilter(
+        new Predicate(0, Predicate.Op.LESS_THAN, TestUtil.getField(0)), batches(scan1));
+    op.open();
+    assertNull(op.nextBatch());
+    op.close();
+  }
+
+  /**
+   * Unit test for BatchProject
+   */
+  @Test public void project() throws Exception {
+    ArrayList<Integer> fields = new ArrayList<Integer>();
+    fields.add(2);
+    fields.add(0);
+    BatchIterator proj = new BatchProject(fields,
+        new Type[] { Type.INT_TYPE, Type.INT_TYPE }, batches(scan2));
+    OpIterator op = BatchAdapter.toTuples(proj);
+    OpIterator expected = TestUtil.createTupleList(2,
+        new int[] { 3, 1, 4, 2, 5, 3, 6, 4, 7, 5 });
+    op.open();
+    TestUtil.compareDbIterators(op, expected);
+    op.close();
+  }
+
+  /**
+   * Unit test for BatchHashEquiJoin
+   */
+  @Test public void hashEquiJoin() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    BatchIterator join = new BatchHashEquiJoin(pred, batches(scan1), batches(scan2));
+    assertEquals(Utility.getTupleDesc(width1 + width2), join.getTupleDesc());
+    OpIterator op = BatchAdapter.toTuples(join);
+    OpIterator expected = TestUtil.createTupleList(width1 + width2,
+        new int[] { 1, 2, 1, 2, 3,
+                    1, 4, 1, 2, 3,
+                    1, 6, 1, 2, 3,
+                    3, 2, 3, 4, 5,
+                    3, 4, 3, 4, 5,
+                    3, 6, 3, 4, 5,
+                    5, 7, 5, 6, 7 });
+    op.open();
+    TestUtil.matchAllTuples(expected, op);
+    op.rewind();
+    TestUtil.matchAllTuples(expected, op);
+    op.close();
+  }
+
+  /**
+   * Unit test for BatchAggregate with and without grouping
+   */
+  @Test public void aggregate() throws Exception {
+    OpIterator sum = BatchAdapter.toTuples(
+        new BatchAggregate(batches(scan1), 1, 0, Aggregator.Op.SUM));
+    OpIterator expected = TestUtil.createTupleList(width1,
+        new int[] { 1, 12, 3, 12, 5, 7 });
+    sum.open();
+    TestUtil.matchAllTuples(expected, sum);
+    sum.close();
+
+    scan1.close();
+    OpIterator avg = BatchAdapter.toTuples(
+        new BatchAggregate(batches(scan1), 1, Aggregator.NO_GROUPING, Aggregator.Op.AVG));
+    avg.open();
+    assertTrue(avg.hasNext());
+    assertEquals(TestUtil.getField(4), avg.next().getField(0));
+    assertTrue(TestUtil.checkExhausted(avg));
+    avg.close();
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(BatchOperatorTest.class);
+  }
+}
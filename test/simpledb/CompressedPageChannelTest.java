@@ -0,0 +1,154 @@
+package simpledb;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Random;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class CompressedPageChannelTest extends SimpleDbTestBase {
+
+  /** @return a temporary file, deleted with its page map and zone map on exit */
+  private static File tempFile(String prefix) throws IOException {
+    File f = File.createTempFile(prefix, ".dat");
+    ZoneMap.deleteOnExit(f);
+    CompressedPageChannel.mapFile(f).deleteOnExit();
+    return f;
+  }
+
+  private static void assertRoundTrip(byte[] page) {
+    byte[] compressed = PageCodec.compress(page, page.length);
+    assertTrue(compressed.length <= PageCodec.maxCompressedLength(page.length));
+    byte[] out = new byte[page.length];
+    assertEquals(page.length, PageCodec.decompress(compressed, 0, compressed.length, out));
+    assertArrayEquals(page, out);
+  }
+
+  /**
+   * Pages of zeroes, of random bytes and of both decompress to the bytes
+   * they were compressed from
+   */
+  @Test public void codec() {
+    int pageSize = BufferPool.getPageSize();
+    byte[] zeroes = new byte[pageSize];
+    assertRoundTrip(zeroes);
+    assertTrue(PageCodec.compress(zeroes, pageSize).length < 64);
+
+    Random r = new Random(1);
+    byte[] random = new byte[pageSize];
+    r.nextBytes(random);
+    assertRoundTrip(random);
+
+    byte[] mixed = new byte[pageSize];
+    for (int i = 0; i < pageSize / 2; i++)
+      mixed[i] = (byte) (i % 7 == 0 ? r.nextInt() : i / 100);
+    assertRoundTrip(mixed);
+    assertRoundTrip(new byte[0]);
+
+    // a literal, then a match starting before the page
+    byte[] compressed = new byte[] { 0x10, 1, 5, 0 };
+    try {
+      PageCodec.decompress(compressed, 0, compressed.length, new byte[pageSize]);
+      fail("decompressed corrupt data");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+  }
+
+  /**
+   * A compressed HeapFile is smaller than the file it was compressed from,
+   * reads the same tuples, and keeps the pages written to it after it is
+   * opened again
+   */
+  @Test public void heapFile() throws Exception {
+    ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+    File raw = SystemTestUtil.createRandomHeapFileUnopened(2, 1000, 1000, null, tuples);
+    File compressed = tempFile("compressed");
+    CompressedPageChannel.compress(raw, compressed, BufferPool.getPageSize(),
+        BufferPool.getPageSize());
+
+    HeapFile f = Utility.openHeapFile(2, compressed);
+    assertTrue(f.isCompressed());
+    assertEquals(raw.length(), (long) f.numPages() * BufferPool.getPageSize());
+    assertTrue(compressed.length() < raw.length());
+    SystemTestUtil.matchTuples(f, tuples);
+
+    // rewrite the first page without its first tuple, and add a page
+    HeapPageId first = new HeapPageId(f.getId(), 0);
+    HeapPage page = (HeapPage) f.readPage(first);
+    Tuple t = page.iterator().next();
+    page.deleteTuple(t);
+    f.writePage(page);
+    HeapPageId last = new HeapPageId(f.getId(), f.numPages());
+    HeapPage added = new HeapPage(last, HeapPage.createEmptyPageData());
+    added.insertTuple(t);
+    f.writePage(added);
+    Database.getBufferPool().discardPage(first);
+
+    f = Utility.openHeapFile(2, compressed);
+    assertEquals(last.getPageNumber() + 1, f.numPages());
+    // opening it replaced the page map with one entry of 28 bytes per page
+    File map = CompressedPageChannel.mapFile(compressed);
+    assertEquals(28L * f.numPages(), map.length());
+    for (String name : map.getAbsoluteFile().getParentFile().list())
+      assertTrue(name, !name.startsWith(map.getName()) || name.equals(map.getName()));
+    SystemTestUtil.matchTuples(f, tuples);
+    Tuple moved = ((HeapPage) f.readPage(
+        new HeapPageId(f.getId(), last.getPageNumber()))).iterator().next();
+    assertEquals(SystemTestUtil.tupleToList(t), SystemTestUtil.tupleToList(moved));
+
+    try {
+      new HeapFile(compressed, Utility.getTupleDesc(2), true, HeapFile.Format.ROW);
+      fail("memory mapped a compressed file");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+  }
+
+  /**
+   * A compressed BTreeFile reads the same tuples as the file it was
+   * compressed from, and an empty one creates its root page
+   */
+  @Test public void bTreeFile() throws Exception {
+    ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+    BTreeFile raw = BTreeUtility.createRandomBTreeFile(2, 5000, null, tuples, 0);
+    File compressed = tempFile("compressed_index");
+    CompressedPageChannel.compress(raw.getFile(), compressed,
+        BTreeRootPtrPage.getPageSize(), BufferPool.getPageSize());
+
+    BTreeFile f = BTreeUtility.openBTreeFile(2, compressed, 0);
+    assertEquals(raw.numPages(), f.numPages());
+    assertTrue(compressed.length() < raw.getFile().length());
+    SystemTestUtil.matchTuples(f, tuples);
+
+    File empty = tempFile("empty_index");
+    CompressedPageChannel.create(empty);
+    f = BTreeUtility.openBTreeFile(2, empty, 0);
+    TransactionId tid = new TransactionId();
+    f.getRootPtrPage(tid, new HashMap<PageId, Page>());
+    Database.getBufferPool().transactionComplete(tid);
+    assertEquals(1, f.numPages());
+    BTreeLeafPage root = (BTreeLeafPage) f.readPage(new BTreePageId(f.getId(), 1, BTreePageId.LEAF));
+    assertEquals(0, root.getNumTuples());
+    assertTrue(empty.length() < BufferPool.getPageSize());
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(CompressedPageChannelTest.class);
+  }
+}
@@ -0,0 +1,117 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class DistinctTest extends SimpleDbTestBase {
+
+  @After public void resetBudget() {
+    OperatorMemory.resetBudget();
+  }
+
+  /**
+   * @return n rows {r / 10, r}, where r takes distinct values: in ascending
+   *         order if sorted, and (start + i) * 7 % distinct for row i otherwise
+   */
+  private static OpIterator rows(int start, int n, int distinct, boolean sorted) {
+    int[] data = new int[2 * n];
+    for (int i = 0; i < n; i++) {
+      int r = sorted ? (start + i) * distinct / (start + n) : (start + i) * 7 % distinct;
+      data[2 * i] = r / 10;
+      data[2 * i + 1] = r;
+    }
+    return TestUtil.createTupleList(2, data);
+  }
+
+  /** @return the rows of it as strings, in order */
+  private static ArrayList<String> collect(OpIterator it) throws Exception {
+    ArrayList<String> l = new ArrayList<String>();
+    while (it.hasNext())
+      l.add(it.next().toString());
+    return l;
+  }
+
+  /** @return the first occurrence of each row of it, in order */
+  private static ArrayList<String> expected(OpIterator it) throws Exception {
+    it.open();
+    ArrayList<String> l = new ArrayList<String>(
+        new LinkedHashSet<String>(collect(it)));
+    it.close();
+    return l;
+  }
+
+  /** @return the rows of d, which are the same after a rewind */
+  private static ArrayList<String> run(Distinct d) throws Exception {
+    d.open();
+    ArrayList<String> l = collect(d);
+    d.rewind();
+    assertEquals(l, collect(d));
+    d.close();
+    return l;
+  }
+
+  private static ArrayList<String> sorted(ArrayList<String> l) {
+    l = new ArrayList<String>(l);
+    Collections.sort(l);
+    return l;
+  }
+
+  /** Rows that fit in memory are returned in the order first seen */
+  @Test public void inMemory() throws Exception {
+    assertEquals(expected(rows(0, 5000, 300, false)),
+        run(new Distinct(rows(0, 5000, 300, false))));
+  }
+
+  /** Unit test for Distinct spilling rows that do not fit */
+  @Test public void spill() throws Exception {
+    OperatorMemory.setBudget(50 * 200);
+    Distinct d = new Distinct(rows(0, 20000, 5000, false));
+    assertEquals(sorted(expected(rows(0, 20000, 5000, false))), sorted(run(d)));
+    d.open();
+    collect(d);
+    assertTrue(d.numSpilledPartitions() > HashAggregate.FANOUT);
+    d.close();
+  }
+
+  /**
+   * A sorted Distinct keeps only the current run, so with the same budget
+   * it does not spill and keeps the order of its input
+   */
+  @Test public void sortedInput() throws Exception {
+    OperatorMemory.setBudget(50 * 200);
+    Distinct d = new Distinct(rows(0, 20000, 5000, true), 0, false);
+    assertEquals(expected(rows(0, 20000, 5000, true)), run(d));
+    d.open();
+    collect(d);
+    assertEquals(0, d.numSpilledPartitions());
+    d.close();
+  }
+
+  /** Partial Distincts over parallel inputs, and a final one over them all */
+  @Test public void partial() throws Exception {
+    OperatorMemory.setBudget(50 * 200);
+    OpIterator[] parts = new OpIterator[4];
+    for (int i = 0; i < 4; i++)
+      parts[i] = new Distinct(rows(5000 * i, 5000, 3000, false), Distinct.UNSORTED, true);
+    Distinct d = new Distinct(new Gather(parts));
+    assertEquals(sorted(expected(rows(0, 20000, 3000, false))), sorted(run(d)));
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(DistinctTest.class);
+  }
+}
@@ -0,0 +1,347 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Random;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.TestUtil.SkeletonFile;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class EncodedHeapPageTest extends SimpleDbTestBase {
+
+  private static final String[] COLORS = { "red", "green", "blue" };
+  private static final TupleDesc TD = new TupleDesc(
+      new Type[] { Type.INT_TYPE, Type.INT_TYPE, Type.INT_TYPE, Type.STRING_TYPE, Type.STRING_TYPE },
+      new String[] { "id", "bucket", "noise", "color", "name" });
+
+  private HeapPageId pid;
+
+  @Before public void addTable() throws Exception {
+    pid = new HeapPageId(-1, 0);
+    Database.getCatalog().addTable(new SkeletonFile(-1, TD), SystemTestUtil.getUUID());
+  }
+
+  @After public void resetParallelism() {
+    Exchange.resetParallelism();
+  }
+
+  /**
+   * @return the fields of row i: a sorted id, a bucket of runs of 100 ids,
+   *         a random int, one of three colors and a distinct name
+   */
+  private static Field[] row(int i, Random r) {
+    return new Field[] { new IntField(i), new IntField(i / 100), new IntField(r.nextInt()),
+        new StringField(COLORS[i % 3], Type.STRING_LEN), new StringField("name" + i, Type.STRING_LEN) };
+  }
+
+  private static Tuple tuple(Field[] fields) {
+    Tuple t = new Tuple(TD);
+    for (int j = 0; j < fields.length; j++)
+      t.setField(j, fields[j]);
+    return t;
+  }
+
+  /** @return a page of as many rows as fit */
+  private EncodedHeapPage fullPage(ArrayList<Field[]> rows) throws Exception {
+    Random r = new Random(1);
+    Field[][] all = new Field[4000][];
+    for (int i = 0; i < all.length; i++)
+      all[i] = row(i, r);
+    int n = EncodedHeapPage.rowsThatFit(TD, all, all.length, BufferPool.getPageSize());
+    for (int i = 0; i < n; i++)
+      rows.add(all[i]);
+    return new EncodedHeapPage(pid, EncodedHeapPage.encode(TD, all, null, n, BufferPool.getPageSize()));
+  }
+
+  /**
+   * Each column is stored in the encoding that suits its values, and the
+   * page holds many more tuples than a HeapPage
+   */
+  @Test public void encodings() throws Exception {
+    ArrayList<Field[]> rows = new ArrayList<Field[]>();
+    EncodedHeapPage page = fullPage(rows);
+    assertEquals(rows.size(), page.getNumSlots());
+    assertEquals(0, page.getNumEmptySlots());
+    assertTrue(rows.size() > 4 * BufferPool.getPageSize() * 8 / (TD.getSize() * 8 + 1));
+    assertEquals(EncodedColumn.Encoding.FRAME_OF_REFERENCE, page.getColumn(0).getEncoding());
+    assertEquals(EncodedColumn.Encoding.RUN_LENGTH, page.getColumn(1).getEncoding());
+    assertEquals(EncodedColumn.Encoding.PLAIN, page.getColumn(2).getEncoding());
+    assertEquals(EncodedColumn.Encoding.DICTIONARY, page.getColumn(3).getEncoding());
+    assertEquals(EncodedColumn.Encoding.PLAIN, page.getColumn(4).getEncoding());
+
+    EncodedHeapPage read = new EncodedHeapPage(pid, page.getPageData());
+    Iterator<Tuple> it = read.iterator();
+    for (int i = 0; i < rows.size(); i++) {
+      Tuple t = it.next();
+      assertEquals(new RecordId(pid, i), t.getRecordId());
+      for (int j = 0; j < TD.numFields(); j++)
+        assertEquals(rows.get(i)[j], t.getField(j));
+    }
+    assertFalse(it.hasNext());
+  }
+
+  /** @return the number of rows that satisfy all of preds */
+  private static int count(ArrayList<Field[]> rows, Predicate[] preds) {
+    int n = 0;
+    for (Field[] row : rows) {
+      boolean match = true;
+      for (Predicate p : preds)
+        match &= row[p.getField()].compare(p.getOp(), p.getOperand());
+      if (match)
+        n++;
+    }
+    return n;
+  }
+
+  /**
+   * Predicates evaluated on the encoded columns select the same tuples as
+   * predicates evaluated on their fields
+   */
+  @Test public void select() throws Exception {
+    ArrayList<Field[]> rows = new ArrayList<Field[]>();
+    EncodedHeapPage page = fullPage(rows);
+    Predicate[][] queries = {
+        { new Predicate(3, Predicate.Op.EQUALS, new StringField("red", Type.STRING_LEN)) },
+        { new Predicate(3, Predicate.Op.LIKE, new StringField("re", Type.STRING_LEN)) },
+        { new Predicate(3, Predicate.Op.EQUALS, new StringField("black", Type.STRING_LEN)) },
+        { new Predicate(0, Predicate.Op.GREATER_THAN, new IntField(50)),
+          new Predicate(1, Predicate.Op.LESS_THAN_OR_EQ, new IntField(2)) },
+        { new Predicate(0, Predicate.Op.LESS_THAN, new IntField(-5)) },
+        { new Predicate(2, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(0)),
+          new Predicate(4, Predicate.Op.LIKE, new StringField("name1", Type.STRING_LEN)) },
+    };
+    for (Predicate[] preds : queries) {
+      Iterator<Tuple> it = page.iterator(new int[] { 0 }, preds);
+      int n = 0;
+      while (it.hasNext()) {
+        Tuple t = it.next();
+        Field[] row = rows.get(t.getRecordId().getTupleNumber());
+        assertEquals(row[0], t.getField(0));
+        assertNull(t.getField(3));
+        for (Predicate p : preds)
+          assertTrue(row[p.getField()].compare(p.getOp(), p.getOperand()));
+        n++;
+      }
+      assertEquals(count(rows, preds), n);
+    }
+  }
+
+  /** Deleted rows are skipped, and reused by the next insert */
+  @Test public void insertAndDelete() throws Exception {
+    EncodedHeapPage page = new EncodedHeapPage(pid, EncodedHeapPage.createEmptyPageData());
+    Random r = new Random(2);
+    ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+    for (int i = 0; i < 200; i++) {
+      Tuple t = tuple(row(i, r));
+      assertTrue(page.hasRoomFor(t));
+      page.insertTuple(t);
+      assertEquals(new RecordId(pid, i), t.getRecordId());
+      tuples.add(t);
+    }
+    page.deleteTuple(tuples.get(7));
+    assertFalse(page.isSlotUsed(7));
+    assertEquals(1, page.getNumEmptySlots());
+    try {
+      page.deleteTuple(tuples.get(7));
+      fail("deleted a tuple twice");
+    } catch (DbException e) {
+      // expected
+    }
+    Predicate red = new Predicate(3, Predicate.Op.EQUALS, new StringField("red", Type.STRING_LEN));
+    Iterator<Tuple> it = page.iterator(null, new Predicate[] { red });
+    int n = 0;
+    while (it.hasNext()) {
+      assertTrue(it.next().getRecordId().getTupleNumber() != 7);
+      n++;
+    }
+    assertEquals(67, n);
+
+    Tuple t = tuple(row(1000, r));
+    page.insertTuple(t);
+    assertEquals(new RecordId(pid, 7), t.getRecordId());
+    assertEquals(new IntField(1000), page.getTuple(7, null).getField(0));
+    assertEquals(new StringField("name8", Type.STRING_LEN), page.getTuple(8, null).getField(4));
+
+    // fill the page
+    int i = 1001;
+    while (page.hasRoomFor(t = tuple(row(i, r)))) {
+      page.insertTuple(t);
+      i++;
+    }
+    try {
+      page.insertTuple(t);
+      fail("inserted into a full page");
+    } catch (DbException e) {
+      // expected
+    }
+  }
+
+  /**
+   * @return an encoded HeapFile of rows tuples of TD, added to the catalog
+   *         as "encoded"
+   */
+  private static HeapFile encodedFile(int rows) throws Exception {
+    File text = File.createTempFile("encoded", ".txt");
+    text.deleteOnExit();
+    BufferedWriter w = new BufferedWriter(new FileWriter(text));
+    Random r = new Random(3);
+    for (int i = 0; i < rows; i++) {
+      Field[] row = row(i, r);
+      for (int j = 0; j < row.length; j++)
+        w.write((j == 0 ? "" : ",") + row[j]);
+      w.write("\n");
+    }
+    w.close();
+    File data = File.createTempFile("encoded", ".dat");
+    ZoneMap.deleteOnExit(data);
+    Type[] types = new Type[TD.numFields()];
+    for (int j = 0; j < types.length; j++)
+      types[j] = TD.getFieldType(j);
+    HeapFileEncoder.convertEncoded(text, data, BufferPool.getPageSize(), types.length, types, ',');
+    HeapFile f = new HeapFile(data, TD, false, HeapFile.Format.ENCODED);
+    Database.getCatalog().addTable(f, "encoded");
+    return f;
+  }
+
+  /**
+   * Encoded HeapFiles are written by the encoder, scanned with predicates
+   * and updated like other HeapFiles
+   */
+  @Test public void heapFile() throws Exception {
+    HeapFile f = encodedFile(20000);
+    assertEquals(HeapFile.Format.ENCODED, f.getFormat());
+    TransactionId tid = new TransactionId();
+    Predicate[] preds = { new Predicate(1, Predicate.Op.EQUALS, new IntField(42)) };
+    DbFileIterator it = f.iterator(tid, 0, f.numPages(), null, preds);
+    it.open();
+    int n = 0;
+    while (it.hasNext()) {
+      Tuple t = it.next();
+      assertEquals(new IntField(4200 + n), t.getField(0));
+      n++;
+    }
+    it.close();
+    assertEquals(100, n);
+
+    it = f.iterator(tid);
+    it.open();
+    Tuple first = it.next();
+    it.close();
+    int pages = f.numPages();
+    f.deleteTuple(tid, first);
+    // the same values take the same space once encoded
+    Field[] fields = new Field[TD.numFields()];
+    for (int j = 0; j < fields.length; j++)
+      fields[j] = first.getField(j);
+    Tuple t = tuple(fields);
+    ArrayList<Page> dirtied = f.insertTuple(tid, t);
+    assertEquals(pages, f.numPages());
+    assertEquals(new RecordId(new HeapPageId(f.getId(), 0), 0), t.getRecordId());
+    assertTrue(dirtied.get(0) instanceof EncodedHeapPage);
+  }
+
+  /**
+   * Inserts start at the page the last insert went into, so loading a
+   * table reads a page or two per tuple however many pages it has
+   */
+  @Test public void loadByInserts() throws Exception {
+    HeapFile f = encodedFile(5000);
+    int pages = f.numPages();
+    assertTrue(pages > 2);
+    TransactionId tid = new TransactionId();
+    Random r = new Random(4);
+    Tuple t = tuple(row(5000, r));
+    f.insertTuple(tid, t);
+    int hint = t.getRecordId().getPageId().getPageNumber();
+    Database.getBufferPool().resetStats();
+    for (int i = 5001; i < 5500; i++) {
+      t = tuple(row(i, r));
+      f.insertTuple(tid, t);
+      assertTrue(t.getRecordId().getPageId().getPageNumber() >= hint);
+    }
+    BufferPool pool = Database.getBufferPool();
+    assertTrue(pool.getHitCount() + pool.getMissCount() < 2 * 500);
+
+    // a delete makes room on an earlier page again
+    DbFileIterator it = f.iterator(tid);
+    it.open();
+    Tuple first = it.next();
+    it.close();
+    f.deleteTuple(tid, first);
+    t = tuple(row(0, r));
+    f.insertTuple(tid, t);
+    assertEquals(new RecordId(new HeapPageId(f.getId(), 0), 0), t.getRecordId());
+  }
+
+  /** @return the operators of plan of the given class */
+  private static ArrayList<OpIterator> find(OpIterator plan, Class<?> c) {
+    ArrayList<OpIterator> l = new ArrayList<OpIterator>();
+    if (c.isInstance(plan))
+      l.add(plan);
+    if (plan instanceof Operator)
+      for (OpIterator child : ((Operator) plan).getChildren())
+        l.addAll(find(child, c));
+    return l;
+  }
+
+  /**
+   * The filters of a plan over an encoded file are evaluated by its scans,
+   * with or without parallel producers
+   */
+  @Test public void plannedFilters() throws Exception {
+    HeapFile f = encodedFile(20000);
+    HashMap<String,TableStats> stats = new HashMap<String,TableStats>();
+    stats.put("encoded", new TableStats(f.getId(), 1));
+    for (int parallelism : new int[] { 1, 2 }) {
+      Exchange.setParallelism(parallelism);
+      LogicalPlan lp = new LogicalPlan();
+      lp.addScan(f.getId(), "e");
+      lp.addFilter("e.color", Predicate.Op.EQUALS, "blue");
+      lp.addFilter("e.bucket", Predicate.Op.LESS_THAN, "10");
+      lp.addProjectField("e.id", null);
+      TransactionId tid = new TransactionId();
+      OpIterator plan = lp.physicalPlan(tid, stats, false);
+
+      ArrayList<OpIterator> scans = find(plan, MorselScan.class);
+      assertEquals(parallelism, scans.size());
+      assertEquals(2, ((MorselScan) scans.get(0)).getPredicates().length);
+      assertEquals(0, find(plan, Filter.class).size());
+
+      ArrayList<Integer> values = new ArrayList<Integer>();
+      plan.open();
+      while (plan.hasNext())
+        values.add(((IntField) plan.next().getField(0)).getValue());
+      plan.close();
+      Database.getBufferPool().transactionComplete(tid);
+      Collections.sort(values);
+      assertEquals(333, values.size());
+      for (int i = 0; i < values.size(); i++)
+        assertEquals(3 * i + 2, (int) values.get(i));
+    }
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(EncodedHeapPageTest.class);
+  }
+}
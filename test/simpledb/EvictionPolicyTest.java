@@ -0,0 +1,273 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.TestUtil.SkeletonFile;
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class EvictionPolicyTest extends SimpleDbTestBase {
+
+	private static final Set<PageId> NONE = Collections.<PageId>emptySet();
+
+	private static PageId pid(int pgNo) {
+		return new BTreePageId(1, pgNo, BTreePageId.LEAF);
+	}
+
+	/**
+	 * Simulates a buffer pool of the given size driven by the policy, and
+	 * returns the number of hits for the reference string.
+	 */
+	private static int run(EvictionPolicy policy, int numPages, int[] refs) {
+		Set<PageId> resident = new HashSet<PageId>();
+		int hits = 0;
+		for (int r : refs) {
+			PageId p = pid(r);
+			if (resident.contains(p)) {
+				policy.pageHit(p);
+				hits++;
+				continue;
+			}
+			if (resident.size() >= numPages) {
+				PageId victim = policy.chooseVictim(NONE);
+				policy.pageRemoved(victim);
+				resident.remove(victim);
+			}
+			policy.pageAdded(p);
+			resident.add(p);
+		}
+		return hits;
+	}
+
+	/**
+	 * Unit test for LRUEvictionPolicy
+	 */
+	@Test public void lru() {
+		EvictionPolicy policy = new LRUEvictionPolicy();
+		policy.pageAdded(pid(1));
+		policy.pageAdded(pid(2));
+		policy.pageAdded(pid(3));
+		assertEquals(pid(1), policy.chooseVictim(NONE));
+
+		policy.pageHit(pid(1));
+		assertEquals(pid(2), policy.chooseVictim(NONE));
+
+		policy.pageRemoved(pid(2));
+		assertEquals(pid(3), policy.chooseVictim(NONE));
+	}
+
+	/**
+	 * Unit test for ClockEvictionPolicy
+	 */
+	@Test public void clock() {
+		EvictionPolicy policy = new ClockEvictionPolicy();
+		policy.pageAdded(pid(1));
+		policy.pageAdded(pid(2));
+		policy.pageAdded(pid(3));
+
+		// page 1 gets a second chance
+		policy.pageHit(pid(1));
+		PageId victim = policy.chooseVictim(NONE);
+		assertEquals(pid(2), victim);
+		policy.pageRemoved(victim);
+
+		// freed frames are reused
+		policy.pageAdded(pid(4));
+		victim = policy.chooseVictim(NONE);
+		assertEquals(pid(3), victim);
+	}
+
+	/**
+	 * Unit test for TwoQEvictionPolicy: a page referenced again after it fell
+	 * out of A1in is promoted to Am and survives a long scan.
+	 */
+	@Test public void twoQPromotion() {
+		EvictionPolicy policy = new TwoQEvictionPolicy(4, 1, 4);
+		for (int i = 1; i <= 4; i++)
+			policy.pageAdded(pid(i));
+		assertEquals(pid(1), policy.chooseVictim(NONE));
+		policy.pageRemoved(pid(1));
+
+		// ghost hit: page 1 comes back as a hot page
+		policy.pageAdded(pid(1));
+		for (int i = 100; i < 110; i++) {
+			PageId victim = policy.chooseVictim(NONE);
+			assertFalse(pid(1).equals(victim));
+			policy.pageRemoved(victim);
+			policy.pageAdded(pid(i));
+		}
+	}
+
+	/**
+	 * Unit test for TwoQEvictionPolicy: a discarded page is not remembered in
+	 * A1out, so when it is read again it is not promoted to Am.
+	 */
+	@Test public void twoQDiscard() {
+		EvictionPolicy policy = new TwoQEvictionPolicy(4, 1, 4);
+		for (int i = 1; i <= 4; i++)
+			policy.pageAdded(pid(i));
+		policy.pageDiscarded(pid(1));
+
+		policy.pageAdded(pid(1));
+		boolean evicted = false;
+		for (int i = 100; i < 110; i++) {
+			PageId victim = policy.chooseVictim(NONE);
+			evicted |= pid(1).equals(victim);
+			policy.pageRemoved(victim);
+			policy.pageAdded(pid(i));
+		}
+		assertTrue(evicted);
+	}
+
+	/**
+	 * Unit test for pinned pages: no policy may return a pinned page.
+	 */
+	@Test public void pinned() {
+		EvictionPolicy[] policies = new EvictionPolicy[] {
+			new LRUEvictionPolicy(), new ClockEvictionPolicy(), new TwoQEvictionPolicy(2)
+		};
+		Set<PageId> pinned = new HashSet<PageId>();
+		pinned.add(pid(1));
+		for (EvictionPolicy policy : policies) {
+			policy.pageAdded(pid(1));
+			policy.pageAdded(pid(2));
+			assertEquals(policy.getName(), pid(2), policy.chooseVictim(pinned));
+			pinned.add(pid(2));
+			assertNull(policy.getName(), policy.chooseVictim(pinned));
+			pinned.remove(pid(2));
+		}
+	}
+
+	/**
+	 * Mixed workload: a small hot set re-read between sequential scans that
+	 * are just large enough to push it out of an LRU pool. 2Q should keep
+	 * (most of) the hot set resident where LRU and CLOCK cannot.
+	 */
+	@Test public void scanResistance() {
+		int numPages = 16;
+		int hotPages = 6;
+		int scanPages = 14;
+		int rounds = 50;
+		int[] refs = new int[rounds * (hotPages + scanPages)];
+		int i = 0;
+		int scan = 1000;
+		for (int r = 0; r < rounds; r++) {
+			for (int h = 0; h < hotPages; h++)
+				refs[i++] = h;
+			for (int s = 0; s < scanPages; s++)
+				refs[i++] = scan++;
+		}
+		int lruHits = run(new LRUEvictionPolicy(), numPages, refs);
+		int clockHits = run(new ClockEvictionPolicy(), numPages, refs);
+		int twoQHits = run(new TwoQEvictionPolicy(numPages), numPages, refs);
+		assertTrue(twoQHits > lruHits);
+		assertTrue(twoQHits > clockHits);
+		assertTrue(twoQHits >= (rounds - 2) * hotPages / 2);
+	}
+
+	/**
+	 * Concurrent misses on a pool of one page: each miss waits for the
+	 * reads that hold the frame to finish, rather than failing for want
+	 * of a victim, and every getPage returns the page asked for.
+	 */
+	@Test public void concurrentMisses() throws Exception {
+		final TupleDesc td = Utility.getTupleDesc(2);
+		Database.getCatalog().addTable(new SkeletonFile(-1, td) {
+			public Page readPage(PageId id) {
+				try {
+					Thread.sleep(1);
+					return new PaxHeapPage((HeapPageId) id, PaxHeapPage.createEmptyPageData());
+				} catch (IOException e) {
+					throw new RuntimeException(e);
+				} catch (InterruptedException e) {
+					throw new RuntimeException(e);
+				}
+			}
+		}, "pages");
+		for (EvictionPolicy policy : new EvictionPolicy[] {
+				new LRUEvictionPolicy(), new ClockEvictionPolicy(), new TwoQEvictionPolicy(1) }) {
+			Database.resetBufferPool(1, policy);
+			final List<Throwable> errors = Collections.synchronizedList(new ArrayList<Throwable>());
+			Thread[] threads = new Thread[8];
+			for (int i = 0; i < threads.length; i++) {
+				final int seed = i;
+				threads[i] = new Thread() {
+					public void run() {
+						Random r = new Random(seed);
+						TransactionId tid = new TransactionId();
+						try {
+							for (int j = 0; j < 100; j++) {
+								HeapPageId pid = new HeapPageId(-1, r.nextInt(4));
+								Page page = Database.getBufferPool().getPage(tid, pid, Permissions.READ_ONLY);
+								assertEquals(pid, page.getId());
+							}
+						} catch (Throwable e) {
+							errors.add(e);
+						}
+					}
+				};
+				threads[i].start();
+			}
+			for (Thread t : threads)
+				t.join();
+			assertEquals(policy.getName() + ": " + errors, 0, errors.size());
+			assertTrue(Database.getBufferPool().getEvictionCount() > 0);
+		}
+	}
+
+	/**
+	 * Under NO STEAL the pool never evicts a dirty page, and fails when
+	 * every page it holds is dirty
+	 */
+	@Test public void dirtyPagesStay() throws Exception {
+		Database.getCatalog().addTable(new SkeletonFile(-1, Utility.getTupleDesc(2)) {
+			public Page readPage(PageId id) {
+				try {
+					return new PaxHeapPage((HeapPageId) id, PaxHeapPage.createEmptyPageData());
+				} catch (IOException e) {
+					throw new RuntimeException(e);
+				}
+			}
+		}, "pages");
+		for (EvictionPolicy policy : new EvictionPolicy[] {
+				new LRUEvictionPolicy(), new ClockEvictionPolicy(), new TwoQEvictionPolicy(2) }) {
+			Database.resetBufferPool(2, policy);
+			BufferPool pool = Database.getBufferPool();
+			TransactionId tid = new TransactionId();
+			Page dirty = pool.getPage(tid, new HeapPageId(-1, 0), Permissions.READ_WRITE);
+			dirty.markDirty(true, tid);
+			for (int i = 1; i < 10; i++)
+				pool.getPage(tid, new HeapPageId(-1, i), Permissions.READ_ONLY);
+			assertTrue(policy.getName(), pool.holdsDirtyPage(dirty.getId()));
+			pool.getPage(tid, new HeapPageId(-1, 9), Permissions.READ_WRITE).markDirty(true, tid);
+			try {
+				pool.getPage(tid, new HeapPageId(-1, 10), Permissions.READ_ONLY);
+				fail(policy.getName() + ": expected DbException");
+			} catch (DbException e) {
+				// expected
+			}
+		}
+	}
+
+	/**
+	 * JUnit suite target
+	 */
+	public static junit.framework.Test suite() {
+		return new JUnit4TestAdapter(EvictionPolicyTest.class);
+	}
+}
@@ -0,0 +1,161 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.NoSuchElementException;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class ExchangeTest extends SimpleDbTestBase {
+
+  @After public void reset() {
+    Exchange.resetParallelism();
+    OperatorMemory.resetBudget();
+  }
+
+  /** @return rows {(start + i) % mod, start + i} for i in [0, n) */
+  private static OpIterator rows(int start, int n, int mod) {
+    int[] data = new int[2 * n];
+    for (int i = 0; i < n; i++) {
+      data[2 * i] = (start + i) % mod;
+      data[2 * i + 1] = start + i;
+    }
+    return TestUtil.createTupleList(2, data);
+  }
+
+  /** @return the inputs of a table of n rows split into parts */
+  private static OpIterator[] split(int n, int mod, int parts) {
+    OpIterator[] inputs = new OpIterator[parts];
+    for (int i = 0; i < parts; i++)
+      inputs[i] = rows(n * i / parts, n * (i + 1) / parts - n * i / parts, mod);
+    return inputs;
+  }
+
+  private static ArrayList<String> collectAll(OpIterator it) throws Exception {
+    it.open();
+    ArrayList<String> l = TestUtil.sortedRows(it);
+    it.close();
+    return l;
+  }
+
+  /** Unit test for Gather, including rewinding it */
+  @Test public void gather() throws Exception {
+    Gather g = new Gather(split(5000, 5000, 4));
+    assertEquals(4, g.getChildren().length);
+    ArrayList<String> expected = collectAll(rows(0, 5000, 5000));
+    g.open();
+    assertEquals(expected, TestUtil.sortedRows(g));
+    g.rewind();
+    assertEquals(expected, TestUtil.sortedRows(g));
+    g.close();
+    // closing before the producers are done stops them
+    g.open();
+    g.next();
+    g.close();
+    assertEquals(expected, collectAll(g));
+  }
+
+  /** Unit test for a join of repartitioned inputs */
+  @Test public void repartitionJoin() throws Exception {
+    JoinPredicate p = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    Repartition[] r1 = Repartition.create(split(3000, 700, 3), 0, 4);
+    Repartition[] r2 = Repartition.create(split(2000, 900, 2), 0, 4);
+    OpIterator[] joins = new OpIterator[4];
+    for (int i = 0; i < 4; i++)
+      joins[i] = new HybridHashJoin(p, r1[i], r2[i]);
+    ArrayList<String> expected = TestUtil.nestedLoopJoin(p, rows(0, 3000, 700),
+        rows(0, 2000, 900));
+    assertEquals(expected, collectAll(new Gather(joins)));
+  }
+
+  /** Unit test for a join of a broadcast input with each part of another */
+  @Test public void broadcastJoin() throws Exception {
+    JoinPredicate p = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    OpIterator[] parts = split(4000, 1000, 3);
+    Broadcast[] b = Broadcast.create(new OpIterator[] { rows(0, 500, 300) }, 3);
+    OpIterator[] joins = new OpIterator[3];
+    for (int i = 0; i < 3; i++)
+      joins[i] = new HashEquiJoin(p, b[i], parts[i]);
+    ArrayList<String> expected = TestUtil.nestedLoopJoin(p, rows(0, 500, 300),
+        rows(0, 4000, 1000));
+    assertEquals(expected, collectAll(new Gather(joins)));
+  }
+
+  /** Unit test for JoinOptimizer.instantiateParallelJoin */
+  @Test public void parallelJoin() throws Exception {
+    JoinPredicate p = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    ArrayList<String> expected = TestUtil.nestedLoopJoin(p, rows(0, 800, 400),
+        rows(0, 3000, 1000));
+    // a small serial build side is broadcast
+    OpIterator j = JoinOptimizer.instantiateParallelJoin(p, rows(0, 800, 400),
+        new Gather(split(3000, 1000, 3)), 800);
+    assertEquals(expected, collectAll(j));
+    // a large one is repartitioned
+    OperatorMemory.setBudget(100 * OperatorMemory.tupleBytes(Utility.getTupleDesc(2)));
+    j = JoinOptimizer.instantiateParallelJoin(p, rows(0, 800, 400),
+        new Gather(split(3000, 1000, 3)), 800);
+    assertEquals(expected, collectAll(j));
+  }
+
+  /**
+   * A build side broadcast on a low estimate that turns out not to fit in
+   * memory is joined with each stream of a repartitioned probe side once
+   */
+  @Test public void broadcastOverRepartition() throws Exception {
+    JoinPredicate p = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    JoinPredicate p2 = new JoinPredicate(0, Predicate.Op.EQUALS, 2);
+    OpIterator inner = JoinOptimizer.instantiateParallelJoin(p,
+        new Gather(split(3000, 1000, 3)), new Gather(split(2000, 1000, 2)), 3000);
+    assertEquals(false, JoinOptimizer.isRewindable(((Gather) inner).getChildren()[0]));
+    ArrayList<String> expected = collectAll(new HashEquiJoin(p2, rows(0, 800, 400),
+        new HashEquiJoin(p, rows(0, 3000, 1000), rows(0, 2000, 1000))));
+    OperatorMemory.setBudget(100 * OperatorMemory.tupleBytes(Utility.getTupleDesc(2)));
+    OpIterator j = JoinOptimizer.instantiateParallelJoin(p2, rows(0, 800, 400), inner, 10);
+    assertEquals(expected, collectAll(j));
+  }
+
+  /** An error in a producer is thrown by the consumer */
+  @Test public void producerError() throws Exception {
+    OpIterator failing = new TupleIterator(Utility.getTupleDesc(2),
+        new ArrayList<Tuple>()) {
+      private static final long serialVersionUID = 1L;
+
+      public boolean hasNext() {
+        return true;
+      }
+
+      public Tuple next() {
+        throw new NoSuchElementException("broken input");
+      }
+    };
+    Gather g = new Gather(new OpIterator[] { rows(0, 10000, 10000), failing });
+    g.open();
+    try {
+      while (g.hasNext())
+        g.next();
+      fail("expected DbException");
+    } catch (DbException e) {
+      // expected
+    }
+    g.close();
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void differentTupleDescs() {
+    new Gather(new OpIterator[] { rows(0, 1, 1), TestUtil.createTupleList(1, new int[] { 1 }) });
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(ExchangeTest.class);
+  }
+}
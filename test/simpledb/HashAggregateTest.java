@@ -0,0 +1,244 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class HashAggregateTest extends SimpleDbTestBase {
+
+  private static final Aggregator.Op[] OPS = { Aggregator.Op.MIN,
+      Aggregator.Op.MAX, Aggregator.Op.SUM, Aggregator.Op.AVG, Aggregator.Op.COUNT };
+
+  @After public void resetBudget() {
+    OperatorMemory.resetBudget();
+    Exchange.resetParallelism();
+  }
+
+  /** @return rows {(start + i) * 7 % groups, (start + i) % 1000} for i in [0, n) */
+  private static OpIterator rows(int start, int n, int groups) {
+    int[] data = new int[2 * n];
+    for (int i = 0; i < n; i++) {
+      data[2 * i] = (start + i) * 7 % groups;
+      data[2 * i + 1] = (start + i) % 1000;
+    }
+    return TestUtil.createTupleList(2, data);
+  }
+
+  /** @return the aggregate of column 1 of rows(0, n, groups), grouped by column 0 */
+  private static ArrayList<String> expected(int n, int groups, Aggregator.Op op,
+      boolean grouped) {
+    Map<Integer, long[]> m = new HashMap<Integer, long[]>();
+    for (int i = 0; i < n; i++) {
+      Integer key = grouped ? i * 7 % groups : 0;
+      long v = i % 1000;
+      long[] g = m.get(key);
+      if (g == null) {
+        g = new long[] { 0, 0, Long.MAX_VALUE, Long.MIN_VALUE };
+        m.put(key, g);
+      }
+      g[0]++;
+      g[1] += v;
+      g[2] = Math.min(g[2], v);
+      g[3] = Math.max(g[3], v);
+    }
+    ArrayList<String> l = new ArrayList<String>();
+    for (Map.Entry<Integer, long[]> e : m.entrySet()) {
+      long[] g = e.getValue();
+      long v;
+      switch (op) {
+      case MIN: v = g[2]; break;
+      case MAX: v = g[3]; break;
+      case SUM: v = g[1]; break;
+      case AVG: v = g[1] / g[0]; break;
+      default: v = g[0];
+      }
+      l.add((grouped ? e.getKey() + " " : "") + v + " ");
+    }
+    Collections.sort(l);
+    return l;
+  }
+
+  private static ArrayList<String> run(OpIterator agg) throws Exception {
+    agg.open();
+    ArrayList<String> l = TestUtil.sortedRows(agg);
+    agg.rewind();
+    assertEquals(l, TestUtil.sortedRows(agg));
+    agg.close();
+    return l;
+  }
+
+  /** Unit test for HashAggregate with groups that fit in memory */
+  @Test public void inMemory() throws Exception {
+    for (Aggregator.Op op : OPS) {
+      assertEquals(expected(5000, 300, op, true),
+          run(new HashAggregate(rows(0, 5000, 300), 1, 0, op)));
+      assertEquals(expected(5000, 300, op, false),
+          run(new HashAggregate(rows(0, 5000, 300), 1, Aggregator.NO_GROUPING, op)));
+    }
+  }
+
+  /** Unit test for HashAggregate spilling groups that do not fit */
+  @Test public void spill() throws Exception {
+    OperatorMemory.setBudget(50 * 200);
+    for (Aggregator.Op op : OPS) {
+      HashAggregate a = new HashAggregate(rows(0, 20000, 5000), 1, 0, op);
+      assertEquals(expected(20000, 5000, op, true), run(a));
+    }
+    HashAggregate a = new HashAggregate(rows(0, 20000, 5000), 1, 0, Aggregator.Op.SUM);
+    a.open();
+    TestUtil.sortedRows(a);
+    assertTrue(a.numSpilledPartitions() > HashAggregate.FANOUT);
+    a.close();
+  }
+
+  /** Unit test for the output of SUM_COUNT and SC_AVG */
+  @Test public void sumCount() throws Exception {
+    HashAggregate sc = new HashAggregate(rows(0, 5000, 300), 1, 0,
+        Aggregator.Op.SUM_COUNT);
+    assertEquals(3, sc.getTupleDesc().numFields());
+    HashAggregate avg = new HashAggregate(sc, 1, 0, Aggregator.Op.SC_AVG);
+    assertEquals(expected(5000, 300, Aggregator.Op.AVG, true), run(avg));
+  }
+
+  /**
+   * Unit test for two-phase aggregation, with partial aggregates that fill
+   * their tables many times
+   */
+  @Test public void twoPhase() throws Exception {
+    for (int budget : new int[] { 0, 50 * 200 }) {
+      if (budget > 0)
+        OperatorMemory.setBudget(budget);
+      for (Aggregator.Op op : OPS) {
+        OpIterator[] inputs = new OpIterator[4];
+        for (int i = 0; i < 4; i++)
+          inputs[i] = rows(5000 * i, 5000, 3000);
+        HashAggregate a = HashAggregate.twoPhase(inputs, 1, 0, op);
+        assertEquals(expected(20000, 3000, op, true), run(a));
+        for (int i = 0; i < 4; i++)
+          inputs[i] = rows(5000 * i, 5000, 3000);
+        a = HashAggregate.twoPhase(inputs, 1, Aggregator.NO_GROUPING, op);
+        assertEquals(expected(20000, 3000, op, false), run(a));
+      }
+    }
+  }
+
+  /** @return rows {i % g1, i * 7 % g2, i % 1000} for i in [start, start + n) */
+  private static OpIterator rows3(int start, int n, int g1, int g2) {
+    int[] data = new int[3 * n];
+    for (int i = 0; i < n; i++) {
+      data[3 * i] = (start + i) % g1;
+      data[3 * i + 1] = (start + i) * 7 % g2;
+      data[3 * i + 2] = (start + i) % 1000;
+    }
+    return TestUtil.createTupleList(3, data);
+  }
+
+  /**
+   * @return every aggregate of OPS over column 2 of rows3(0, n, g1, g2),
+   *         grouped by columns 0 and 1
+   */
+  private static ArrayList<String> expected3(int n, int g1, int g2) {
+    Map<String, long[]> m = new HashMap<String, long[]>();
+    for (int i = 0; i < n; i++) {
+      String key = i % g1 + " " + i * 7 % g2 + " ";
+      long v = i % 1000;
+      long[] g = m.get(key);
+      if (g == null) {
+        g = new long[] { 0, 0, Long.MAX_VALUE, Long.MIN_VALUE };
+        m.put(key, g);
+      }
+      g[0]++;
+      g[1] += v;
+      g[2] = Math.min(g[2], v);
+      g[3] = Math.max(g[3], v);
+    }
+    ArrayList<String> l = new ArrayList<String>();
+    for (Map.Entry<String, long[]> e : m.entrySet()) {
+      long[] g = e.getValue();
+      l.add(e.getKey() + g[2] + " " + g[3] + " " + g[1] + " " + g[1] / g[0]
+          + " " + g[0] + " ");
+    }
+    Collections.sort(l);
+    return l;
+  }
+
+  /**
+   * Unit test for several aggregates grouped by two columns, in memory,
+   * spilled, and in two phases
+   */
+  @Test public void multipleGroupsAndAggregates() throws Exception {
+    int[] gfields = { 0, 1 };
+    int[] afields = { 2, 2, 2, 2, 2 };
+    ArrayList<String> expected = expected3(20000, 40, 300);
+    assertEquals(expected,
+        run(new HashAggregate(rows3(0, 20000, 40, 300), gfields, afields, OPS)));
+
+    OperatorMemory.setBudget(50 * 200);
+    HashAggregate a = new HashAggregate(rows3(0, 20000, 40, 300), gfields,
+        afields, OPS);
+    assertEquals(expected, run(a));
+    a.open();
+    TestUtil.sortedRows(a);
+    assertTrue(a.numSpilledPartitions() > 0);
+    a.close();
+
+    OpIterator[] inputs = new OpIterator[4];
+    for (int i = 0; i < 4; i++)
+      inputs[i] = rows3(5000 * i, 5000, 40, 300);
+    assertEquals(expected,
+        run(HashAggregate.twoPhase(inputs, gfields, afields, OPS)));
+  }
+
+  /** Several aggregates with no grouping, or grouped by one integer column */
+  @Test public void multipleAggregates() throws Exception {
+    OpIterator[] inputs = new OpIterator[4];
+    for (int i = 0; i < 4; i++)
+      inputs[i] = rows(5000 * i, 5000, 3000);
+    HashAggregate a = HashAggregate.twoPhase(inputs, new int[] { 0 },
+        new int[] { 1, 1 }, new Aggregator.Op[] { Aggregator.Op.AVG,
+            Aggregator.Op.COUNT });
+    ArrayList<String> avg = expected(20000, 3000, Aggregator.Op.AVG, true);
+    ArrayList<String> count = expected(20000, 3000, Aggregator.Op.COUNT, true);
+    ArrayList<String> l = run(a);
+    assertEquals(avg.size(), l.size());
+    for (int i = 0; i < l.size(); i++) {
+      // both lists are sorted by group, which comes first
+      String group = avg.get(i).substring(0, avg.get(i).indexOf(' ') + 1);
+      assertEquals(avg.get(i) + count.get(i).substring(group.length()), l.get(i));
+    }
+
+    a = new HashAggregate(rows(0, 5000, 300), new int[0], new int[] { 1, 0 },
+        new Aggregator.Op[] { Aggregator.Op.MAX, Aggregator.Op.MIN });
+    assertEquals(2, a.getTupleDesc().numFields());
+    ArrayList<String> max = expected(5000, 300, Aggregator.Op.MAX, false);
+    assertEquals(Collections.singletonList(max.get(0) + "0 "), run(a));
+  }
+
+  /** Unit test for HashAggregate.getTupleDesc() */
+  @Test public void tupleDesc() {
+    HashAggregate a = new HashAggregate(rows(0, 1, 1), 1, 0, Aggregator.Op.SUM);
+    assertEquals(2, a.getTupleDesc().numFields());
+    assertEquals(a.getTupleDesc().getFieldName(0), a.groupFieldName());
+    a = new HashAggregate(rows(0, 1, 1), 1, Aggregator.NO_GROUPING, Aggregator.Op.SUM);
+    assertEquals(1, a.getTupleDesc().numFields());
+    assertEquals(null, a.groupFieldName());
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(HashAggregateTest.class);
+  }
+}
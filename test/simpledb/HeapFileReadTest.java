@@ -3,8 +3,11 @@ package simpledb;
 import simpledb.systemtest.SimpleDbTestBase;
 import simpledb.systemtest.SystemTestUtil;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.*;
 import org.junit.After;
+import org.junit.Assume;
 import org.junit.Before;
 import org.junit.Test;
 
@@ -29,6 +32,7 @@ public class HeapFileReadTest extends SimpleDbTestBase {
     @After
     public void tearDown() throws Exception {
         Database.getBufferPool().transactionComplete(tid);
+        HeapFile.resetSegmentBytes();
     }
 
     /**
@@ -121,6 +125,51 @@ public class HeapFileReadTest extends SimpleDbTestBase {
         it.close();
     }
 
+    /**
+     * Unit test for a memory mapped HeapFile: pages are read through the
+     * mapping, on both sides of a boundary between segments, and cannot be
+     * written.
+     */
+    @Test
+    public void mapped() throws Exception {
+        // four pages, two to a segment
+        HeapFile.setSegmentBytes(2 * BufferPool.getPageSize());
+        HeapFile plain = SystemTestUtil.createRandomHeapFile(2, 1800, null, null);
+        HeapFile m = new HeapFile(plain.getFile(), td, true);
+        assertTrue(m.isMapped());
+        assertEquals(4, m.numPages());
+        for (int i = 0; i < 4; i++) {
+            HeapPageId pid = new HeapPageId(m.getId(), i);
+            assertArrayEquals(plain.readPage(pid).getPageData(),
+                    m.readPage(pid).getPageData());
+        }
+        try {
+            m.readPage(new HeapPageId(m.getId(), 4));
+            fail("expected exception");
+        } catch (IllegalArgumentException e) {
+        }
+        try {
+            m.writePage(m.readPage(new HeapPageId(m.getId(), 0)));
+            fail("expected exception");
+        } catch (IOException e) {
+        }
+    }
+
+    /**
+     * Unit test for reading a HeapFile whose file cannot be written
+     */
+    @Test
+    public void readOnlyFile() throws Exception {
+        File f = SystemTestUtil.createRandomHeapFile(2, 20, null, null).getFile();
+        assertTrue(f.setWritable(false));
+        // the superuser can write to any file
+        Assume.assumeTrue(!f.canWrite());
+        HeapFile ro = Utility.openHeapFile(2, f);
+        assertEquals(1, ro.numPages());
+        HeapPage page = (HeapPage) ro.readPage(new HeapPageId(ro.getId(), 0));
+        assertEquals(484, page.getNumEmptySlots());
+    }
+
     /**
      * JUnit suite target
      */
@@ -0,0 +1,98 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class HybridHashJoinTest extends SimpleDbTestBase {
+
+  @After public void resetBudget() {
+    OperatorMemory.resetBudget();
+  }
+
+  /** @return rows {key(i), i} for i in [0, n) */
+  private static OpIterator rows(int n, int mod) {
+    int[] data = new int[2 * n];
+    for (int i = 0; i < n; i++) {
+      data[2 * i] = i % mod;
+      data[2 * i + 1] = i;
+    }
+    return TestUtil.createTupleList(2, data);
+  }
+
+  private void checkJoin(int n1, int mod1, int n2, int mod2, boolean spills)
+      throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    HybridHashJoin op = new HybridHashJoin(pred, rows(n1, mod1), rows(n2, mod2));
+    ArrayList<String> expected = TestUtil.nestedLoopJoin(pred, rows(n1, mod1),
+        rows(n2, mod2));
+    op.open();
+    assertEquals(spills, op.numSpilledPartitions() > 0);
+    assertEquals(expected, TestUtil.sortedRows(op));
+    op.rewind();
+    assertEquals(expected, TestUtil.sortedRows(op));
+    op.close();
+  }
+
+  /**
+   * Unit test for HybridHashJoin when child1 fits in memory
+   */
+  @Test public void inMemory() throws Exception {
+    checkJoin(300, 100, 200, 150, false);
+  }
+
+  /**
+   * Unit test for HybridHashJoin when most partitions of child1 are
+   * spilled, and spilled partitions are partitioned again
+   */
+  @Test public void spill() throws Exception {
+    OperatorMemory.setBudget(20 * OperatorMemory.tupleBytes(Utility.getTupleDesc(2)));
+    checkJoin(2000, 700, 1500, 1000, true);
+  }
+
+  /**
+   * Unit test for HybridHashJoin when a partition cannot be split because
+   * all of its rows have the same key
+   */
+  @Test public void skew() throws Exception {
+    OperatorMemory.setBudget(10 * OperatorMemory.tupleBytes(Utility.getTupleDesc(2)));
+    checkJoin(200, 1, 30, 3, true);
+  }
+
+  /**
+   * Unit test for HybridHashJoin.getTupleDesc()
+   */
+  @Test public void getTupleDesc() {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    HybridHashJoin op = new HybridHashJoin(pred, rows(1, 1), rows(1, 1));
+    assertEquals(Utility.getTupleDesc(4), op.getTupleDesc());
+  }
+
+  /**
+   * Only equality joins are supported
+   */
+  @Test public void rejectsInequality() {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.LESS_THAN, 0);
+    try {
+      new HybridHashJoin(pred, rows(1, 1), rows(1, 1));
+      assertTrue(false);
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(HybridHashJoinTest.class);
+  }
+}
@@ -0,0 +1,133 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class IndexNestedLoopJoinTest extends SimpleDbTestBase {
+
+  private TransactionId tid;
+  private BTreeFile f;
+  private ArrayList<ArrayList<Integer>> inner;
+
+  @Before public void createTable() throws Exception {
+    tid = new TransactionId();
+    inner = new ArrayList<ArrayList<Integer>>();
+    f = BTreeUtility.createRandomBTreeFile(2, 3000, 500, null, inner, 0);
+  }
+
+  @After public void cleanUp() throws Exception {
+    Database.getBufferPool().transactionComplete(tid);
+    OperatorMemory.resetBudget();
+  }
+
+  /** @return rows {(i * 7) % max, i} for i in [0, n) */
+  private static OpIterator outer(int n, int max) {
+    int[] data = new int[2 * n];
+    for (int i = 0; i < n; i++) {
+      data[2 * i] = (i * 7) % max;
+      data[2 * i + 1] = i;
+    }
+    return TestUtil.createTupleList(2, data);
+  }
+
+  /** @return the join of outer and the table on the first column, by nested loops */
+  private ArrayList<String> expected(OpIterator outer, Predicate.Op op) throws Exception {
+    ArrayList<String> l = new ArrayList<String>();
+    outer.open();
+    while (outer.hasNext()) {
+      Tuple t1 = outer.next();
+      for (ArrayList<Integer> t2 : inner)
+        if (t1.getField(0).compare(op, new IntField(t2.get(0))))
+          l.add(t1.getField(0) + " " + t1.getField(1) + " "
+              + t2.get(0) + " " + t2.get(1) + " ");
+    }
+    outer.close();
+    Collections.sort(l);
+    return l;
+  }
+
+  private void validate(Predicate.Op op, int outerRows) throws Exception {
+    JoinPredicate p = new JoinPredicate(0, op, 0);
+    IndexNestedLoopJoin j = new IndexNestedLoopJoin(p, outer(outerRows, 600),
+        tid, f.getId(), "t");
+    assertEquals(4, j.getTupleDesc().numFields());
+    j.open();
+    ArrayList<String> expected = expected(outer(outerRows, 600), op);
+    assertEquals(expected, TestUtil.sortedRows(j));
+    j.rewind();
+    assertEquals(expected, TestUtil.sortedRows(j));
+    j.close();
+  }
+
+  /**
+   * Unit test for IndexNestedLoopJoin with an equality predicate; the outer
+   * rows have duplicate keys and keys missing from the table.
+   */
+  @Test public void equalityJoin() throws Exception {
+    validate(Predicate.Op.EQUALS, 1000);
+  }
+
+  /** Unit test for IndexNestedLoopJoin with range predicates */
+  @Test public void rangeJoin() throws Exception {
+    validate(Predicate.Op.LESS_THAN, 20);
+    validate(Predicate.Op.GREATER_THAN_OR_EQ, 20);
+  }
+
+  /** Unit test for IndexNestedLoopJoin reading the outer rows in many batches */
+  @Test public void smallBudget() throws Exception {
+    OperatorMemory.setBudget(20 * OperatorMemory.tupleBytes(Utility.getTupleDesc(2)));
+    validate(Predicate.Op.EQUALS, 1000);
+  }
+
+  /** The join field of the table must be the key of the index */
+  @Test(expected = IllegalArgumentException.class)
+  public void notKeyField() {
+    new IndexNestedLoopJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 1),
+        outer(10, 10), tid, f.getId(), "t");
+  }
+
+  /**
+   * A join reads the table through its index only if the table is neither
+   * filtered nor joined with another, and only few rows probe it; the
+   * optimizer's costs and the joins it builds decide this alike.
+   */
+  @Test public void indexJoinChoice() throws Exception {
+    // the same file, with fields named so the join can refer to them
+    f = new BTreeFile(f.getFile(), 0, Utility.getTupleDesc(2, "c"));
+    Database.getCatalog().addTable(f, "t");
+    LogicalJoinNode lj = new LogicalJoinNode("s", "t", "s.c0", "t.c0",
+        Predicate.Op.EQUALS);
+    assertTrue(JoinOptimizer.indexJoinApplies(lj, f.getId(), false, 2));
+    assertFalse(JoinOptimizer.indexJoinApplies(lj, f.getId(), true, 2));
+    assertFalse(JoinOptimizer.indexJoinApplies(lj, null, false, 2));
+    assertFalse(JoinOptimizer.indexJoinApplies(lj, f.getId(), false, 100000));
+
+    OpIterator plan1 = new SeqScan(tid, f.getId(), "s");
+    OpIterator plan2 = new SeqScan(tid, f.getId(), "t");
+    assertTrue(JoinOptimizer.instantiateJoin(lj, plan1, plan2, 2, tid,
+        f.getId(), false) instanceof IndexNestedLoopJoin);
+    assertFalse(JoinOptimizer.instantiateJoin(lj, plan1, plan2, 2, tid,
+        f.getId(), true) instanceof IndexNestedLoopJoin);
+    assertFalse(JoinOptimizer.instantiateJoin(lj, plan1, plan2, 100000, tid,
+        f.getId(), false) instanceof IndexNestedLoopJoin);
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(IndexNestedLoopJoinTest.class);
+  }
+}
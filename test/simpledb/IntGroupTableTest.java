@@ -0,0 +1,102 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class IntGroupTableTest extends SimpleDbTestBase {
+
+	/**
+	 * Groups are numbered in the order their keys are first added, and
+	 * adding a key again returns its group.
+	 */
+	@Test public void addAndFind() throws Exception {
+		IntGroupTable t = new IntGroupTable(4);
+		assertEquals(0, t.add(7));
+		assertEquals(1, t.add(-3));
+		assertEquals(0, t.add(7));
+		assertEquals(2, t.add(0));
+		assertEquals(3, t.size());
+		assertEquals(1, t.find(-3));
+		assertEquals(-1, t.find(8));
+		assertEquals(7, t.key(0));
+		assertEquals(0, t.key(2));
+	}
+
+	/** Unit test for the running values of a group */
+	@Test public void merge() throws Exception {
+		IntGroupTable t = new IntGroupTable(4);
+		int g = t.add(1);
+		t.merge(g, 5);
+		t.merge(g, -2);
+		t.merge(g, 9);
+		assertEquals(3, t.count(g));
+		assertEquals(12, t.sum(g));
+		assertEquals(-2, t.min(g));
+		assertEquals(9, t.max(g));
+		t.mergeSumCount(g, 0, 8, 2);
+		assertEquals(5, t.count(g));
+		assertEquals(20, t.sum(g));
+	}
+
+	/** The aggregates of a group are kept apart */
+	@Test public void aggregates() throws Exception {
+		IntGroupTable t = new IntGroupTable(1, 3);
+		for (int k = 0; k < 100; k++) {
+			int g = t.add(k);
+			t.merge(g, 0, k);
+			t.merge(g, 2, -k);
+			t.merge(g, 2, k);
+		}
+		assertEquals(100, t.size());
+		int g = t.find(42);
+		assertEquals(1, t.count(g, 0));
+		assertEquals(42, t.sum(g, 0));
+		assertEquals(0, t.count(g, 1));
+		assertEquals(2, t.count(g, 2));
+		assertEquals(-42, t.min(g, 2));
+		assertEquals(42, t.max(g, 2));
+	}
+
+	/** Many groups, which make the table grow, match a HashMap's */
+	@Test public void grow() throws Exception {
+		IntGroupTable t = new IntGroupTable(1);
+		Map<Integer, long[]> expected = new HashMap<Integer, long[]>();
+		Random r = new Random(0);
+		for (int i = 0; i < 200000; i++) {
+			int k = r.nextInt(50000) - 25000;
+			int v = r.nextInt(1000);
+			t.merge(t.add(k), v);
+			long[] e = expected.get(k);
+			if (e == null)
+				expected.put(k, e = new long[2]);
+			e[0]++;
+			e[1] += v;
+		}
+		assertEquals(expected.size(), t.size());
+		for (int g = 0; g < t.size(); g++) {
+			long[] e = expected.get(t.key(g));
+			assertEquals(e[0], t.count(g));
+			assertEquals(e[1], t.sum(g));
+			assertEquals(g, t.find(t.key(g)));
+		}
+		t.clear();
+		assertEquals(0, t.size());
+		assertEquals(-1, t.find(t.key(0)));
+	}
+
+	/**
+	 * JUnit suite target
+	 */
+	public static junit.framework.Test suite() {
+		return new JUnit4TestAdapter(IntGroupTableTest.class);
+	}
+}
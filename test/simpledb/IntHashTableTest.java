@@ -0,0 +1,86 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Random;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class IntHashTableTest extends SimpleDbTestBase {
+
+	/** @return the entries with key, in chain order */
+	private static ArrayList<Integer> entries(IntHashTable t, int key) {
+		ArrayList<Integer> l = new ArrayList<Integer>();
+		for (int e = t.first(key); e != -1; e = t.next(e))
+			l.add(e);
+		return l;
+	}
+
+	/**
+	 * Entries are numbered in the order they are added, and the entries of
+	 * a key come back in that order.
+	 */
+	@Test public void addAndFind() throws Exception {
+		IntHashTable t = new IntHashTable(4);
+		assertEquals(0, t.add(7));
+		assertEquals(1, t.add(-3));
+		assertEquals(2, t.add(7));
+		assertEquals(3, t.add(0));
+		assertEquals(4, t.size());
+		assertEquals(3, t.numKeys());
+		assertEquals("[0, 2]", entries(t, 7).toString());
+		assertEquals("[1]", entries(t, -3).toString());
+		assertEquals("[3]", entries(t, 0).toString());
+		assertEquals(-1, t.first(8));
+	}
+
+	/**
+	 * The table grows past its initial size and agrees with a HashMap of
+	 * lists.
+	 */
+	@Test public void growMatchesHashMap() throws Exception {
+		IntHashTable t = new IntHashTable(16);
+		HashMap<Integer, ArrayList<Integer>> m = new HashMap<Integer, ArrayList<Integer>>();
+		Random r = new Random(0);
+		for (int i = 0; i < 100000; i++) {
+			int k = r.nextInt(20000) * 65536;
+			int e = t.add(k);
+			ArrayList<Integer> l = m.get(k);
+			if (l == null) {
+				l = new ArrayList<Integer>();
+				m.put(k, l);
+			}
+			l.add(e);
+		}
+		assertEquals(m.size(), t.numKeys());
+		for (Integer k : m.keySet())
+			assertEquals(m.get(k), entries(t, k));
+	}
+
+	/**
+	 * After clear the table is empty and numbers entries from 0 again.
+	 */
+	@Test public void clear() throws Exception {
+		IntHashTable t = new IntHashTable(4);
+		for (int i = 0; i < 100; i++)
+			t.add(i);
+		t.clear();
+		assertEquals(0, t.size());
+		assertEquals(-1, t.first(5));
+		assertEquals(0, t.add(5));
+		assertEquals("[0]", entries(t, 5).toString());
+	}
+
+	/**
+	 * JUnit suite target
+	 */
+	public static junit.framework.Test suite() {
+		return new JUnit4TestAdapter(IntHashTableTest.class);
+	}
+}
@@ -105,6 +105,37 @@ public class JoinTest extends SimpleDbTestBase {
     TestUtil.matchAllTuples(eqJoin, op);
   }
 
+  /**
+   * Unit test for HashEquiJoin.getNext() and rewind()
+   */
+  @Test public void hashEquiJoin() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    HashEquiJoin op = new HashEquiJoin(pred, scan1, scan2);
+    op.open();
+    eqJoin.open();
+    TestUtil.matchAllTuples(eqJoin, op);
+    op.rewind();
+    eqJoin.rewind();
+    TestUtil.matchAllTuples(eqJoin, op);
+  }
+
+  /**
+   * Unit test for HashEquiJoin when only part of child1 fits in memory
+   */
+  @Test public void hashEquiJoinSmallBudget() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    HashEquiJoin op = new HashEquiJoin(pred, scan1, scan2);
+    OperatorMemory.setBudget(1);
+    try {
+      op.open();
+      assertEquals(1, op.buildLimit());
+      eqJoin.open();
+      TestUtil.matchAllTuples(eqJoin, op);
+    } finally {
+      OperatorMemory.resetBudget();
+    }
+  }
+
   /**
    * JUnit suite target
    */
@@ -0,0 +1,65 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class LimitTest extends SimpleDbTestBase {
+
+  /**
+   * Unit test for Limit.getNext() and rewind()
+   */
+  @Test public void limit() throws Exception {
+    OpIterator op = new Limit(2, TestUtil.createTupleList(1, new int[] { 1, 2, 3 }));
+    op.open();
+    TestUtil.compareDbIterators(TestUtil.createTupleList(1, new int[] { 1, 2 }), op);
+    op.rewind();
+    TestUtil.compareDbIterators(TestUtil.createTupleList(1, new int[] { 1, 2 }), op);
+    op.close();
+  }
+
+  /**
+   * Unit test for Limit when the child has fewer rows than the limit
+   */
+  @Test public void limitAboveRows() throws Exception {
+    OpIterator op = new Limit(5, TestUtil.createTupleList(1, new int[] { 1, 2, 3 }));
+    op.open();
+    TestUtil.compareDbIterators(TestUtil.createTupleList(1, new int[] { 1, 2, 3 }), op);
+  }
+
+  /**
+   * LIMIT and TOP clauses are taken out of the statement
+   */
+  @Test public void limitClause() throws Exception {
+    Parser.LimitClause lc = Parser.LimitClause.parse(
+        "select t.a from t order by t.a limit 50;");
+    assertEquals("select t.a from t order by t.a;", lc.statement);
+    assertEquals(50, lc.limit);
+
+    lc = Parser.LimitClause.parse("SELECT * FROM t\nLIMIT 7");
+    assertEquals("SELECT * FROM t", lc.statement);
+    assertEquals(7, lc.limit);
+
+    lc = Parser.LimitClause.parse("select top 10 t.a from t order by t.a desc;");
+    assertEquals("select t.a from t order by t.a desc;", lc.statement);
+    assertEquals(10, lc.limit);
+
+    lc = Parser.LimitClause.parse("select distinct TOP 3 t.a from t;");
+    assertEquals("select distinct t.a from t;", lc.statement);
+    assertEquals(3, lc.limit);
+
+    lc = Parser.LimitClause.parse("select t.limit from t;");
+    assertEquals("select t.limit from t;", lc.statement);
+    assertEquals(LogicalPlan.NO_LIMIT, lc.limit);
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(LimitTest.class);
+  }
+}
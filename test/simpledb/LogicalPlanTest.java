@@ -0,0 +1,143 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class LogicalPlanTest extends SimpleDbTestBase {
+
+  private TransactionId tid;
+  private int tableId;
+  private HashMap<String,TableStats> stats;
+
+  /** Creates a B+ tree t(c0, c1) keyed on c0, with keys in [0, 10000) */
+  @Before public void createTable() throws Exception {
+    tid = new TransactionId();
+    BTreeFile f = BTreeUtility.createRandomBTreeFile(2, 3000, 10000, null,
+        new ArrayList<ArrayList<Integer>>(), 0);
+    // the same file, with fields named so the plan can refer to them
+    f = new BTreeFile(f.getFile(), 0, Utility.getTupleDesc(2, "c"));
+    Database.getCatalog().addTable(f, "t");
+    tableId = f.getId();
+    stats = new HashMap<String,TableStats>();
+    stats.put("t", new UniformStats(f));
+  }
+
+  /** Statistics of a table of 3000 rows whose fields are uniform in [0, 10000) */
+  private static class UniformStats extends TableStats {
+    private final BTreeFile f;
+
+    UniformStats(BTreeFile f) {
+      super(f.getId(), IOCOSTPERPAGE);
+      this.f = f;
+    }
+
+    public double estimateScanCost() {
+      return (double) f.numPages() * IOCOSTPERPAGE;
+    }
+
+    public int estimateTableCardinality(double selectivityFactor) {
+      return (int) (3000 * selectivityFactor);
+    }
+
+    public double estimateSelectivity(int field, Predicate.Op op, Field constant) {
+      double below = ((IntField) constant).getValue() / 10000.0;
+      switch (op) {
+      case LESS_THAN:
+      case LESS_THAN_OR_EQ:
+        return below;
+      case GREATER_THAN:
+      case GREATER_THAN_OR_EQ:
+        return 1 - below;
+      default:
+        return 1 / 10000.0;
+      }
+    }
+  }
+
+  @After public void cleanUp() throws Exception {
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /** @return the plan of SELECT * FROM t with the given filters, of the form "field op constant" */
+  private OpIterator plan(String... filters) throws Exception {
+    LogicalPlan lp = new LogicalPlan();
+    lp.addScan(tableId, "t");
+    for (String filter : filters) {
+      String[] parts = filter.split(" ");
+      lp.addFilter(parts[0], Predicate.Op.valueOf(parts[1]), parts[2]);
+    }
+    lp.addProjectField("*", null);
+    return lp.physicalPlan(tid, stats, false);
+  }
+
+  /** @return the number of operators of class c in the plan rooted at op */
+  private static int count(OpIterator op, Class<?> c) {
+    int n = c.isInstance(op) ? 1 : 0;
+    if (op instanceof Operator)
+      for (OpIterator child : ((Operator) op).getChildren())
+        n += count(child, c);
+    return n;
+  }
+
+  /** A selective filter on the key of the index is answered by a BTreeScan */
+  @Test public void selectiveKeyFilter() throws Exception {
+    OpIterator p = plan("t.c0 LESS_THAN 5");
+    assertEquals(1, count(p, BTreeScan.class));
+    assertEquals(0, count(p, SeqScan.class));
+    assertEquals(0, count(p, Filter.class));
+  }
+
+  /** A filter that most rows pass reads the table with a SeqScan and a Filter */
+  @Test public void unselectiveKeyFilter() throws Exception {
+    OpIterator p = plan("t.c0 GREATER_THAN 5");
+    assertEquals(0, count(p, BTreeScan.class));
+    assertEquals(1, count(p, SeqScan.class));
+    assertEquals(1, count(p, Filter.class));
+  }
+
+  /**
+   * A filter on a field other than the key is kept, over the BTreeScan
+   * that answers the filter on the key
+   */
+  @Test public void nonKeyFilter() throws Exception {
+    OpIterator p = plan("t.c0 LESS_THAN 5", "t.c1 EQUALS 7");
+    assertEquals(1, count(p, BTreeScan.class));
+    assertEquals(1, count(p, Filter.class));
+    assertTrue(((Filter) findFilter(p)).getChildren()[0] instanceof BTreeScan);
+
+    p = plan("t.c1 EQUALS 7");
+    assertEquals(0, count(p, BTreeScan.class));
+    assertEquals(1, count(p, Filter.class));
+  }
+
+  /** @return the first Filter found in the plan rooted at op, or null */
+  private static OpIterator findFilter(OpIterator op) {
+    if (op instanceof Filter)
+      return op;
+    if (op instanceof Operator)
+      for (OpIterator child : ((Operator) op).getChildren()) {
+        OpIterator f = findFilter(child);
+        if (f != null)
+          return f;
+      }
+    return null;
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(LogicalPlanTest.class);
+  }
+}
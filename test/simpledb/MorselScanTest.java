@@ -0,0 +1,116 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class MorselScanTest extends SimpleDbTestBase {
+
+  private TransactionId tid;
+  private HeapFile f;
+  private ArrayList<String> expected;
+
+  @Before public void createTable() throws Exception {
+    tid = new TransactionId();
+    ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+    f = SystemTestUtil.createRandomHeapFile(2, 20000, null, tuples);
+    expected = new ArrayList<String>();
+    for (ArrayList<Integer> t : tuples)
+      expected.add(t.get(0) + " " + t.get(1) + " ");
+    Collections.sort(expected);
+  }
+
+  @After public void cleanUp() throws Exception {
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /** Unit test for a Gather of morsel scans, including rewinding it */
+  @Test public void gather() throws Exception {
+    assertTrue(f.numPages() > 20);
+    Gather g = new Gather(MorselScan.create(tid, f.getId(), "t", 4, 3));
+    g.open();
+    assertEquals(expected, TestUtil.sortedRows(g));
+    g.rewind();
+    assertEquals(expected, TestUtil.sortedRows(g));
+    g.close();
+    g.open();
+    assertEquals(expected, TestUtil.sortedRows(g));
+    g.close();
+  }
+
+  /** Unit test for Gather building a copy of a pipeline per worker */
+  @Test public void pipeline() throws Exception {
+    Gather g = new Gather(MorselScan.create(tid, f.getId(), "t", 3),
+        new Gather.Pipeline() {
+          public OpIterator build(OpIterator source) {
+            assertTrue(source instanceof MorselScan);
+            return new Project(new ArrayList<Integer>(Collections.singletonList(0)),
+                new Type[] { Type.INT_TYPE }, source);
+          }
+        });
+    assertEquals(3, g.getChildren().length);
+    ArrayList<String> firsts = new ArrayList<String>();
+    for (String s : expected)
+      firsts.add(s.substring(0, s.indexOf(' ') + 1));
+    Collections.sort(firsts);
+    g.open();
+    assertEquals(firsts, TestUtil.sortedRows(g));
+    g.close();
+  }
+
+  /**
+   * Workers read disjoint morsels that together cover the table, and a
+   * rewound worker reads its own morsels again
+   */
+  @Test public void workers() throws Exception {
+    MorselScan[] scans = MorselScan.create(tid, f.getId(), "t", 2, 5);
+    for (MorselScan s : scans)
+      s.open();
+    // interleave the workers so that both claim morsels
+    ArrayList<String> first = new ArrayList<String>();
+    ArrayList<String> second = new ArrayList<String>();
+    boolean more = true;
+    while (more) {
+      more = false;
+      for (int i = 0; i < 600 && scans[0].hasNext(); i++, more = true)
+        first.add(scans[0].next().getField(1).toString());
+      for (int i = 0; i < 600 && scans[1].hasNext(); i++, more = true)
+        second.add(scans[1].next().getField(1).toString());
+    }
+    assertEquals(expected.size(), first.size() + second.size());
+    assertTrue(first.size() > 0 && second.size() > 0);
+
+    scans[0].rewind();
+    ArrayList<String> again = new ArrayList<String>();
+    while (scans[0].hasNext())
+      again.add(scans[0].next().getField(1).toString());
+    assertEquals(first, again);
+
+    // once every worker is closed, the next scan starts over
+    for (MorselScan s : scans)
+      s.close();
+    scans[0].open();
+    scans[1].open();
+    assertEquals(expected, TestUtil.sortedRows(scans[0]));
+    scans[0].close();
+    scans[1].close();
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(MorselScanTest.class);
+  }
+}
@@ -0,0 +1,106 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class OrderByTest extends SimpleDbTestBase {
+
+  @After public void resetBudget() {
+    OperatorMemory.resetBudget();
+  }
+
+  /** @return n rows {random key in [0, mod), i} */
+  private static OpIterator rows(int n, int mod) {
+    Random r = new Random(n);
+    int[] data = new int[2 * n];
+    for (int i = 0; i < n; i++) {
+      data[2 * i] = r.nextInt(mod);
+      data[2 * i + 1] = i;
+    }
+    return TestUtil.createTupleList(2, data);
+  }
+
+  /**
+   * Checks that op returns n rows, ordered on the first column, and that
+   * rows with equal keys are in input order.
+   */
+  private static void checkSorted(OpIterator op, int n, boolean asc) throws Exception {
+    int count = 0;
+    int lastKey = 0, lastPos = 0;
+    while (op.hasNext()) {
+      Tuple t = op.next();
+      int key = ((IntField) t.getField(0)).getValue();
+      int pos = ((IntField) t.getField(1)).getValue();
+      if (count > 0) {
+        assertTrue(asc ? key >= lastKey : key <= lastKey);
+        if (key == lastKey)
+          assertTrue(pos > lastPos);
+      }
+      lastKey = key;
+      lastPos = pos;
+      count++;
+    }
+    assertEquals(n, count);
+  }
+
+  private static void sortAndCheck(int n, int mod, boolean asc) throws Exception {
+    OrderBy op = new OrderBy(0, asc, rows(n, mod));
+    op.open();
+    checkSorted(op, n, asc);
+    op.rewind();
+    checkSorted(op, n, asc);
+    op.close();
+  }
+
+  /**
+   * Unit test for OrderBy in memory
+   */
+  @Test public void inMemory() throws Exception {
+    sortAndCheck(1000, 100, true);
+    sortAndCheck(1000, 100, false);
+  }
+
+  /**
+   * Unit test for OrderBy with a single merge of the sorted runs
+   */
+  @Test public void externalOneMerge() throws Exception {
+    OperatorMemory.setBudget(64 * BufferPool.getPageSize());
+    int n = 10 * OperatorMemory.maxRows(OperatorMemory.tupleBytes(Utility.getTupleDesc(2)) + 8);
+    sortAndCheck(n, 500, true);
+    sortAndCheck(n, 500, false);
+  }
+
+  /**
+   * Unit test for OrderBy with more runs than can be merged at once
+   */
+  @Test public void externalManyMerges() throws Exception {
+    OperatorMemory.setBudget(2 * BufferPool.getPageSize());
+    sortAndCheck(3000, 50, true);
+  }
+
+  /**
+   * Unit test for OrderBy on an empty child
+   */
+  @Test public void empty() throws Exception {
+    OrderBy op = new OrderBy(0, true, TestUtil.createTupleList(2, new int[0]));
+    op.open();
+    assertTrue(TestUtil.checkExhausted(op));
+    op.close();
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(OrderByTest.class);
+  }
+}
@@ -0,0 +1,58 @@
+package simpledb;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class PageChannelTest extends SimpleDbTestBase {
+
+  @After public void reset() {
+    PageChannel.resetMaxOpen();
+  }
+
+  /**
+   * No more than the maximum number of channels are open at once, and a
+   * file whose channel was closed to make room is opened again when used
+   */
+  @Test public void boundedOpenChannels() throws Exception {
+    PageChannel.setMaxOpen(4);
+    int size = BufferPool.getPageSize();
+    PageChannel[] channels = new PageChannel[10];
+    byte[][] first = new byte[channels.length][];
+    for (int i = 0; i < channels.length; i++) {
+      File f = SystemTestUtil.createRandomHeapFile(2, 600, null, null).getFile();
+      channels[i] = new PageChannel(f);
+      first[i] = new byte[size];
+      assertEquals(size, channels[i].read(first[i], 0));
+      assertTrue(PageChannel.openChannels() <= 4);
+    }
+    for (int round = 0; round < 2; round++) {
+      for (int i = 0; i < channels.length; i++) {
+        byte[] buf = new byte[size];
+        assertEquals(size, channels[i].read(buf, 0));
+        assertArrayEquals(first[i], buf);
+        assertTrue(PageChannel.openChannels() <= 4);
+      }
+    }
+    int open = PageChannel.openChannels();
+    channels[channels.length - 1].close();
+    assertEquals(open - 1, PageChannel.openChannels());
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(PageChannelTest.class);
+  }
+}
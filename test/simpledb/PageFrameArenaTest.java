@@ -0,0 +1,65 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.nio.ByteBuffer;
+import java.util.HashSet;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class PageFrameArenaTest extends SimpleDbTestBase {
+
+	/**
+	 * Every frame can be allocated once, and allocating more fails until a
+	 * frame is released.
+	 */
+	@Test public void allocateAndRelease() throws Exception {
+		PageFrameArena arena = new PageFrameArena(4, 128);
+		HashSet<Integer> seen = new HashSet<Integer>();
+		for (int i = 0; i < 4; i++)
+			assertTrue(seen.add(arena.allocate()));
+		assertEquals(0, arena.getNumFreeFrames());
+		try {
+			arena.allocate();
+			fail("expected DbException when the arena is full");
+		} catch (DbException e) {
+			// expected
+		}
+		arena.release(2);
+		assertEquals(1, arena.getNumFreeFrames());
+		assertEquals(2, arena.allocate());
+	}
+
+	/**
+	 * Frames are page sized, and writes to one frame are not visible in its
+	 * neighbours.
+	 */
+	@Test public void framesAreDisjoint() throws Exception {
+		PageFrameArena arena = new PageFrameArena(3, 64);
+		for (int f = 0; f < 3; f++) {
+			ByteBuffer buf = arena.frame(f);
+			assertEquals(64, buf.capacity());
+			assertTrue(buf.isDirect());
+			for (int i = 0; i < 64; i++)
+				buf.put(i, (byte) f);
+		}
+		for (int f = 0; f < 3; f++) {
+			ByteBuffer buf = arena.frame(f);
+			assertEquals(f, buf.get(0));
+			assertEquals(f, buf.get(63));
+		}
+	}
+
+	/**
+	 * JUnit suite target
+	 */
+	public static junit.framework.Test suite() {
+		return new JUnit4TestAdapter(PageFrameArenaTest.class);
+	}
+}
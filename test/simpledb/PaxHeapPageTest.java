@@ -0,0 +1,224 @@
+package simpledb;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.TestUtil.SkeletonFile;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class PaxHeapPageTest extends SimpleDbTestBase {
+
+  private static final int COLUMNS = 6;
+  private static final TupleDesc TD = Utility.getTupleDesc(COLUMNS, "c");
+
+  private HeapPageId pid;
+
+  @Before public void addTable() throws Exception {
+    pid = new HeapPageId(-1, 0);
+    Database.getCatalog().addTable(new SkeletonFile(-1, TD), SystemTestUtil.getUUID());
+  }
+
+  @After public void resetParallelism() {
+    Exchange.resetParallelism();
+  }
+
+  /** @return a tuple whose column j holds 10 * i + j */
+  private static Tuple tuple(int i) {
+    Tuple t = new Tuple(TD);
+    for (int j = 0; j < COLUMNS; j++)
+      t.setField(j, new IntField(10 * i + j));
+    return t;
+  }
+
+  /**
+   * A page holds as many tuples as a HeapPage, and decodes only the
+   * columns asked for
+   */
+  @Test public void projection() throws Exception {
+    PaxHeapPage page = new PaxHeapPage(pid, PaxHeapPage.createEmptyPageData());
+    int n = 0;
+    while (page.hasRoomFor(tuple(n)))
+      page.insertTuple(tuple(n++));
+    assertEquals(BufferPool.getPageSize() * 8 / (TD.getSize() * 8 + 1), n);
+    assertEquals(0, page.getNumEmptySlots());
+    try {
+      page.insertTuple(tuple(n));
+      fail("inserted into a full page");
+    } catch (DbException e) {
+      // expected
+    }
+
+    PaxHeapPage read = new PaxHeapPage(pid, page.getPageData());
+    Iterator<Tuple> it = read.iterator();
+    for (int i = 0; i < n; i++) {
+      Tuple t = it.next();
+      assertEquals(new RecordId(pid, i), t.getRecordId());
+      for (int j = 0; j < COLUMNS; j++)
+        assertEquals(new IntField(10 * i + j), t.getField(j));
+    }
+    assertFalse(it.hasNext());
+
+    it = read.iterator(new int[] { 1, 4 });
+    for (int i = 0; i < n; i++) {
+      Tuple t = it.next();
+      assertEquals(new IntField(10 * i + 1), t.getField(1));
+      assertEquals(new IntField(10 * i + 4), t.getField(4));
+      assertNull(t.getField(0));
+      assertNull(t.getField(5));
+    }
+    assertFalse(it.hasNext());
+  }
+
+  /** Deleted slots are reused by the next insert */
+  @Test public void deleteAndReuse() throws Exception {
+    PaxHeapPage page = new PaxHeapPage(pid, PaxHeapPage.createEmptyPageData());
+    ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+    for (int i = 0; page.hasRoomFor(tuple(i)); i++) {
+      Tuple t = tuple(i);
+      page.insertTuple(t);
+      tuples.add(t);
+    }
+    page.deleteTuple(tuples.get(7));
+    assertFalse(page.isSlotUsed(7));
+    assertEquals(1, page.getNumEmptySlots());
+    try {
+      page.deleteTuple(tuples.get(7));
+      fail("deleted a tuple twice");
+    } catch (DbException e) {
+      // expected
+    }
+
+    Tuple t = tuple(-1);
+    page.insertTuple(t);
+    assertEquals(new RecordId(pid, 7), t.getRecordId());
+    assertEquals(new IntField(-10 + 3), page.getTuple(7, null).getField(3));
+  }
+
+  /** @return a PAX HeapFile of rows tuples, added to the catalog as "pax" */
+  private static HeapFile paxFile(int rows) throws Exception {
+    File text = File.createTempFile("pax", ".txt");
+    text.deleteOnExit();
+    BufferedWriter w = new BufferedWriter(new FileWriter(text));
+    for (int i = 0; i < rows; i++) {
+      for (int j = 0; j < COLUMNS; j++)
+        w.write((j == 0 ? "" : ",") + (10 * i + j));
+      w.write("\n");
+    }
+    w.close();
+    File data = File.createTempFile("pax", ".dat");
+    ZoneMap.deleteOnExit(data);
+    HeapFileEncoder.convertPax(text, data, BufferPool.getPageSize(), COLUMNS,
+        Utility.getTypes(COLUMNS), ',');
+    HeapFile f = new HeapFile(data, TD, false, HeapFile.Format.PAX);
+    Database.getCatalog().addTable(f, "pax");
+    return f;
+  }
+
+  /**
+   * PAX HeapFiles are written by the encoder, and scanned and updated like
+   * other HeapFiles
+   */
+  @Test public void heapFile() throws Exception {
+    HeapFile f = paxFile(2000);
+    assertEquals(HeapFile.Format.PAX, f.getFormat());
+    assertFalse(f.isSlotted());
+    TransactionId tid = new TransactionId();
+    DbFileIterator it = f.iterator(tid, 0, f.numPages(), new int[] { 2 });
+    it.open();
+    int n = 0;
+    while (it.hasNext()) {
+      Tuple t = it.next();
+      assertEquals(new IntField(10 * n + 2), t.getField(2));
+      assertNull(t.getField(3));
+      n++;
+    }
+    it.close();
+    assertEquals(2000, n);
+
+    it = f.iterator(tid);
+    it.open();
+    Tuple first = it.next();
+    it.close();
+    assertEquals(new IntField(3), first.getField(3));
+    int pages = f.numPages();
+    f.deleteTuple(tid, first);
+    Tuple t = tuple(5000);
+    ArrayList<Page> dirtied = f.insertTuple(tid, t);
+    assertEquals(pages, f.numPages());
+    assertEquals(new RecordId(new HeapPageId(f.getId(), 0), 0), t.getRecordId());
+    assertTrue(dirtied.get(0) instanceof PaxHeapPage);
+  }
+
+  /** @return the MorselScans in plan */
+  private static ArrayList<MorselScan> morselScans(OpIterator plan) {
+    ArrayList<MorselScan> l = new ArrayList<MorselScan>();
+    if (plan instanceof MorselScan)
+      l.add((MorselScan) plan);
+    else if (plan instanceof Operator)
+      for (OpIterator child : ((Operator) plan).getChildren())
+        l.addAll(morselScans(child));
+    return l;
+  }
+
+  /**
+   * The scans of a plan decode only the columns in its select list and
+   * filters
+   */
+  @Test public void plannedColumns() throws Exception {
+    HeapFile f = paxFile(20000);
+    Exchange.setParallelism(2);
+    HashMap<String,TableStats> stats = new HashMap<String,TableStats>();
+    stats.put("pax", new TableStats(f.getId(), 1));
+
+    LogicalPlan lp = new LogicalPlan();
+    lp.addScan(f.getId(), "p");
+    lp.addFilter("p.c4", Predicate.Op.LESS_THAN, "1000");
+    lp.addProjectField("p.c1", null);
+    TransactionId tid = new TransactionId();
+    OpIterator plan = lp.physicalPlan(tid, stats, false);
+
+    ArrayList<MorselScan> scans = morselScans(plan);
+    assertEquals(2, scans.size());
+    for (MorselScan s : scans) {
+      assertArrayEquals(new int[] { 1, 4 }, s.getColumns());
+      // the scans apply the filter themselves
+      assertEquals(1, s.getPredicates().length);
+    }
+
+    ArrayList<Integer> values = new ArrayList<Integer>();
+    plan.open();
+    while (plan.hasNext())
+      values.add(((IntField) plan.next().getField(0)).getValue());
+    plan.close();
+    Collections.sort(values);
+    assertEquals(100, values.size());
+    for (int i = 0; i < 100; i++)
+      assertEquals(10 * i + 1, (int) values.get(i));
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(PaxHeapPageTest.class);
+  }
+}
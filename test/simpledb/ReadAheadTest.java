@@ -0,0 +1,170 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.TestUtil.SkeletonFile;
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class ReadAheadTest extends SimpleDbTestBase {
+
+  private static final int TABLE = -1;
+  private static final int PAGES = 1000;
+
+  /** The pages read from the table, all of them by the prefetcher */
+  private Set<PageId> loaded;
+  private ReadAhead.PageOrder order;
+
+  @Before public void setUp() {
+    loaded = Collections.synchronizedSet(new HashSet<PageId>());
+    Database.getCatalog().addTable(new SkeletonFile(TABLE, Utility.getTupleDesc(2)) {
+      public Page readPage(PageId id) {
+        loaded.add(id);
+        try {
+          return new PaxHeapPage((HeapPageId) id, PaxHeapPage.createEmptyPageData());
+        } catch (IOException e) {
+          throw new RuntimeException(e);
+        }
+      }
+    }, "pages");
+    order = new ReadAhead.PageOrder() {
+      public PageId next(PageId pid, Page page) {
+        int next = pid.getPageNumber() + 1;
+        return next < PAGES ? new HeapPageId(TABLE, next) : null;
+      }
+    };
+  }
+
+  private static HeapPageId pid(int pgNo) {
+    return new HeapPageId(TABLE, pgNo);
+  }
+
+  /** Tells r the scan has moved to page pgNo */
+  private static void read(ReadAhead r, int pgNo) {
+    r.pageRead(pid(pgNo), null);
+  }
+
+  /** Waits for the prefetcher to read page pgNo */
+  private void awaitLoaded(int pgNo) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + 10000;
+    while (!loaded.contains(pid(pgNo))) {
+      assertTrue("pages were not prefetched", System.currentTimeMillis() < deadline);
+      Thread.sleep(1);
+    }
+  }
+
+  /**
+   * The window grows by a page for every page read in order, up to the
+   * maximum, and the pages ahead of the scan are prefetched
+   */
+  @Test public void windowGrows() throws Exception {
+    Database.resetBufferPool(64);
+    ReadAhead r = new ReadAhead(order, 8);
+    read(r, 0);
+    assertEquals(1, r.getWindow());
+    for (int i = 1; i < 12; i++) {
+      read(r, i);
+      assertEquals(Math.min(i + 1, 8), r.getWindow());
+    }
+    // the first batch starts at the page after the second one read
+    awaitLoaded(2);
+    r.close();
+  }
+
+  /** The window is halved when pages it prefetched are evicted unused */
+  @Test public void wastedPrefetchesHalveWindow() throws Exception {
+    Database.resetBufferPool(64);
+    ReadAhead r = new ReadAhead(order, 8);
+    for (int i = 0; i < 6; i++)
+      read(r, i);
+    assertEquals(6, r.getWindow());
+    awaitLoaded(2);
+    // read other pages until some of those prefetched are evicted
+    BufferPool pool = Database.getBufferPool();
+    TransactionId tid = new TransactionId();
+    for (int i = 0; r.getWastedCount() == 0; i++) {
+      assertTrue("prefetched pages were not evicted", i < 1000);
+      pool.getPage(tid, pid(PAGES + i), Permissions.READ_ONLY);
+    }
+    read(r, 6);
+    assertEquals(3, r.getWindow());
+    r.close();
+    pool.transactionComplete(tid);
+  }
+
+  /** Prefetched pages that other scans waste do not shrink the window */
+  @Test public void othersWasteIgnored() throws Exception {
+    Database.resetBufferPool(64);
+    BufferPool pool = Database.getBufferPool();
+    // fill the pool with prefetched pages no one will read
+    for (int i = 0; i < 64; i++)
+      pool.prefetchPage(pid(PAGES + i));
+    long wasted = pool.getWastedPrefetchCount();
+    ReadAhead r = new ReadAhead(order, 8);
+    read(r, 0);
+    for (int i = 1; i < 8; i++) {
+      read(r, i);
+      awaitLoaded(i + 1);
+    }
+    // the pages read ahead took the place of the others
+    assertTrue(pool.getWastedPrefetchCount() > wasted);
+    assertEquals(0, r.getWastedCount());
+    assertEquals(8, r.getWindow());
+    r.close();
+  }
+
+  /** The window is never more than a quarter of the pool */
+  @Test public void windowCappedByPool() throws Exception {
+    Database.resetBufferPool(8);
+    ReadAhead r = new ReadAhead(order, 8);
+    read(r, 0);
+    read(r, 1);
+    assertEquals(2, r.getWindow());
+    for (int i = 2; i < 20; i++) {
+      read(r, i);
+      assertTrue(r.getWindow() <= 2);
+    }
+    r.close();
+  }
+
+  /**
+   * A read out of order shrinks the window and stops read-ahead until the
+   * scan reads pages in order again
+   */
+  @Test public void outOfOrderStops() throws Exception {
+    Database.resetBufferPool(64);
+    ReadAhead r = new ReadAhead(order, 8);
+    for (int i = 0; i < 4; i++)
+      read(r, i);
+    assertEquals(4, r.getWindow());
+    for (int pgNo = 100; pgNo < 600; pgNo += 100) {
+      read(r, pgNo);
+      assertEquals(1, r.getWindow());
+    }
+    Thread.sleep(100);
+    for (int pgNo = 100; pgNo < 600; pgNo += 100)
+      assertFalse(loaded.contains(pid(pgNo + 1)));
+    // reading in order again restarts it
+    read(r, 501);
+    awaitLoaded(502);
+    r.close();
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(ReadAheadTest.class);
+  }
+}
@@ -0,0 +1,186 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.util.ArrayList;
+import java.util.Iterator;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.TestUtil.SkeletonFile;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class SlottedHeapPageTest extends SimpleDbTestBase {
+
+  private static final TupleDesc TD = new TupleDesc(
+      new Type[] { Type.INT_TYPE, Type.VARCHAR_TYPE },
+      new String[] { "id", "name" });
+
+  private HeapPageId pid;
+
+  @Before public void addTable() throws Exception {
+    pid = new HeapPageId(-1, 0);
+    Database.getCatalog().addTable(new SkeletonFile(-1, TD), SystemTestUtil.getUUID());
+  }
+
+  private static Tuple tuple(int id, String name) {
+    Tuple t = new Tuple(TD);
+    t.setField(0, new IntField(id));
+    t.setField(1, new VarcharField(name, Type.STRING_LEN));
+    return t;
+  }
+
+  /** @return the tuples of page as "id name" strings */
+  private static ArrayList<String> contents(SlottedHeapPage page) {
+    ArrayList<String> l = new ArrayList<String>();
+    Iterator<Tuple> it = page.iterator();
+    while (it.hasNext()) {
+      Tuple t = it.next();
+      l.add(t.getField(0) + " " + t.getField(1));
+    }
+    return l;
+  }
+
+  /** Records take the length of their values, not the width of the column */
+  @Test public void variableLength() throws Exception {
+    SlottedHeapPage page = new SlottedHeapPage(pid, SlottedHeapPage.createEmptyPageData());
+    assertEquals(0, page.getNumSlots());
+    int n = 0;
+    while (page.hasRoomFor(tuple(n, "name" + n)))
+      page.insertTuple(tuple(n, "name" + n++));
+    // 4 + 4 + 5..7 bytes per record and 4 per slot, against 136 bytes per
+    // tuple with a fixed-width string column
+    assertTrue(n > 5 * BufferPool.getPageSize() / (Type.STRING_TYPE.getLen() + 4));
+    assertEquals(n, page.getNumSlots());
+    try {
+      page.insertTuple(tuple(n, "name" + n));
+      fail("inserted into a full page");
+    } catch (DbException e) {
+      // expected
+    }
+
+    SlottedHeapPage read = new SlottedHeapPage(pid, page.getPageData());
+    ArrayList<String> l = contents(read);
+    assertEquals(n, l.size());
+    for (int i = 0; i < n; i++)
+      assertEquals(i + " name" + i, l.get(i));
+    Tuple t = read.getTuple(7);
+    assertEquals(new RecordId(pid, 7), t.getRecordId());
+    assertEquals(Type.VARCHAR_TYPE, t.getField(1).getType());
+  }
+
+  /**
+   * Deleted slots are reused, and the space of deleted records is reclaimed
+   * for bigger ones, without moving any tuple to another slot
+   */
+  @Test public void deleteAndReuse() throws Exception {
+    SlottedHeapPage page = new SlottedHeapPage(pid, SlottedHeapPage.createEmptyPageData());
+    ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+    for (int i = 0; page.hasRoomFor(tuple(i, "x")); i++) {
+      Tuple t = tuple(i, "x");
+      page.insertTuple(t);
+      tuples.add(t);
+    }
+    int slots = page.getNumSlots();
+    for (int i = 0; i < slots; i += 2)
+      page.deleteTuple(tuples.get(i));
+    assertFalse(page.isSlotUsed(0));
+    assertNull(page.getTuple(0));
+    try {
+      page.deleteTuple(tuple(0, "x"));
+      fail("deleted a tuple that is not on the page");
+    } catch (DbException e) {
+      // expected
+    }
+
+    // records longer than any deleted one only fit once the others move
+    String longName = "a much longer name than x";
+    int inserted = 0;
+    while (page.hasRoomFor(tuple(-1, longName))) {
+      Tuple t = tuple(-1, longName);
+      page.insertTuple(t);
+      assertEquals(0, t.getRecordId().getTupleNumber() % 2);
+      inserted++;
+    }
+    assertTrue(inserted > 0);
+    assertEquals(slots, page.getNumSlots());
+    for (int i = 1; i < slots; i += 2)
+      assertEquals("x", page.getTuple(i).getField(1).toString());
+
+    // deleting everything empties the directory
+    Iterator<Tuple> it = page.iterator();
+    while (it.hasNext())
+      page.deleteTuple(it.next());
+    assertEquals(0, page.getNumSlots());
+    assertEquals(BufferPool.getPageSize() - SlottedHeapPage.HEADER_SIZE,
+        page.getFreeBytes());
+  }
+
+  /**
+   * Tables with a VARCHAR column are written and read as slotted HeapFiles,
+   * and take far fewer pages than with a fixed-width column
+   */
+  @Test public void heapFile() throws Exception {
+    File text = File.createTempFile("slotted", ".txt");
+    text.deleteOnExit();
+    BufferedWriter w = new BufferedWriter(new FileWriter(text));
+    for (int i = 0; i < 2000; i++)
+      w.write(i + ",name" + i + "\n");
+    w.close();
+
+    File slottedFile = File.createTempFile("slotted", ".dat");
+    ZoneMap.deleteOnExit(slottedFile);
+    HeapFileEncoder.convert(text, slottedFile, BufferPool.getPageSize(), 2,
+        new Type[] { Type.INT_TYPE, Type.VARCHAR_TYPE });
+    File fixedFile = File.createTempFile("fixed", ".dat");
+    ZoneMap.deleteOnExit(fixedFile);
+    HeapFileEncoder.convert(text, fixedFile, BufferPool.getPageSize(), 2,
+        new Type[] { Type.INT_TYPE, Type.STRING_TYPE });
+    assertTrue(slottedFile.length() * 5 < fixedFile.length());
+
+    HeapFile f = new HeapFile(slottedFile, TD);
+    assertTrue(f.isSlotted());
+    Database.getCatalog().addTable(f, SystemTestUtil.getUUID());
+    TransactionId tid = new TransactionId();
+    DbFileIterator it = f.iterator(tid);
+    it.open();
+    int n = 0;
+    while (it.hasNext()) {
+      Tuple t = it.next();
+      assertEquals(n + " name" + n, t.getField(0) + " " + t.getField(1));
+      n++;
+    }
+    it.close();
+    assertEquals(2000, n);
+
+    // a deleted tuple's space is used by the next insert
+    Tuple t = tuple(5000, "inserted");
+    int pages = f.numPages();
+    it.open();
+    Tuple first = it.next();
+    it.close();
+    f.deleteTuple(tid, first);
+    ArrayList<Page> dirtied = f.insertTuple(tid, t);
+    assertEquals(0, dirtied.get(0).getId().getPageNumber());
+    assertEquals(pages, f.numPages());
+    assertEquals(new RecordId(new HeapPageId(f.getId(), 0), 0), t.getRecordId());
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(SlottedHeapPageTest.class);
+  }
+}
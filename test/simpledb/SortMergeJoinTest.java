@@ -0,0 +1,98 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class SortMergeJoinTest extends SimpleDbTestBase {
+
+  @After public void resetBudget() {
+    OperatorMemory.resetBudget();
+  }
+
+  /** @return rows {i / dup, i} for i in [0, n), sorted on the first column */
+  private static OpIterator rows(int n, int dup) {
+    int[] data = new int[2 * n];
+    for (int i = 0; i < n; i++) {
+      data[2 * i] = i / dup;
+      data[2 * i + 1] = i;
+    }
+    return TestUtil.createTupleList(2, data);
+  }
+
+  private void checkJoin(Predicate.Op op, int n1, int dup1, int n2, int dup2)
+      throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, op, 0);
+    SortMergeJoin j = new SortMergeJoin(pred, rows(n1, dup1), rows(n2, dup2));
+    ArrayList<String> expected = TestUtil.nestedLoopJoin(pred, rows(n1, dup1),
+        rows(n2, dup2));
+    j.open();
+    assertEquals(expected, TestUtil.sortedRows(j));
+    j.rewind();
+    assertEquals(expected, TestUtil.sortedRows(j));
+    j.close();
+  }
+
+  /**
+   * Unit test for SortMergeJoin with an equality predicate and runs of
+   * duplicate keys on both sides
+   */
+  @Test public void equalityJoin() throws Exception {
+    checkJoin(Predicate.Op.EQUALS, 300, 3, 500, 4);
+    checkJoin(Predicate.Op.EQUALS, 100, 1, 0, 1);
+  }
+
+  /** Unit test for SortMergeJoin with range predicates */
+  @Test public void rangeJoin() throws Exception {
+    checkJoin(Predicate.Op.LESS_THAN, 60, 2, 50, 3);
+    checkJoin(Predicate.Op.LESS_THAN_OR_EQ, 60, 2, 50, 3);
+    checkJoin(Predicate.Op.GREATER_THAN, 60, 2, 50, 3);
+    checkJoin(Predicate.Op.GREATER_THAN_OR_EQ, 60, 2, 50, 3);
+  }
+
+  /** Unit test for SortMergeJoin when buffered rows are spilled to disk */
+  @Test public void spill() throws Exception {
+    OperatorMemory.setBudget(10 * OperatorMemory.tupleBytes(Utility.getTupleDesc(2)));
+    checkJoin(Predicate.Op.EQUALS, 200, 40, 300, 50);
+    checkJoin(Predicate.Op.GREATER_THAN, 60, 2, 50, 3);
+  }
+
+  /** Unit test for SortMergeJoin.getSortField() */
+  @Test public void sortField() {
+    SortMergeJoin eq = new SortMergeJoin(new JoinPredicate(1, Predicate.Op.EQUALS, 0),
+        rows(1, 1), rows(1, 1));
+    assertEquals(1, eq.getSortField());
+    SortMergeJoin lt = new SortMergeJoin(new JoinPredicate(1, Predicate.Op.LESS_THAN, 0),
+        rows(1, 1), rows(1, 1));
+    assertEquals(2, lt.getSortField());
+  }
+
+  /** Unit test for the orders JoinOptimizer recognizes */
+  @Test public void sortedPlans() {
+    assertTrue(JoinOptimizer.isSortedOn(new OrderBy(1, true, rows(1, 1)), 1));
+    assertFalse(JoinOptimizer.isSortedOn(new OrderBy(1, false, rows(1, 1)), 1));
+    assertFalse(JoinOptimizer.isSortedOn(new OrderBy(1, true, rows(1, 1)), 0));
+    assertFalse(JoinOptimizer.isSortedOn(rows(1, 1), 0));
+    SortMergeJoin j = new SortMergeJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0),
+        rows(1, 1), rows(1, 1));
+    assertTrue(JoinOptimizer.isSortedOn(j, 0));
+    assertTrue(JoinOptimizer.isSortedOn(j, 2));
+    assertFalse(JoinOptimizer.isSortedOn(j, 1));
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(SortMergeJoinTest.class);
+  }
+}
@@ -166,6 +166,57 @@ public class TestUtil {
         }
     }
 
+    /**
+     * @return the remaining tuples of an open OpIterator as strings of
+     *   their fields, each followed by a space, in sorted order; for
+     *   comparing the output of operators that do not keep the order of
+     *   their inputs
+     */
+    public static ArrayList<String> sortedRows(OpIterator it)
+            throws DbException, TransactionAbortedException {
+        ArrayList<String> l = new ArrayList<String>();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < t.getTupleDesc().numFields(); i++)
+                sb.append(t.getField(i)).append(' ');
+            l.add(sb.toString());
+        }
+        Collections.sort(l);
+        return l;
+    }
+
+    /**
+     * @return the join of left and right on p, computed by nested loops,
+     *   in the form of {@link #sortedRows}
+     */
+    public static ArrayList<String> nestedLoopJoin(JoinPredicate p,
+            OpIterator left, OpIterator right)
+            throws DbException, TransactionAbortedException {
+        ArrayList<String> l = new ArrayList<String>();
+        left.open();
+        while (left.hasNext()) {
+            Tuple t1 = left.next();
+            right.open();
+            while (right.hasNext()) {
+                Tuple t2 = right.next();
+                if (!t1.getField(p.getField1()).compare(p.getOperator(),
+                        t2.getField(p.getField2())))
+                    continue;
+                StringBuilder sb = new StringBuilder();
+                for (int i = 0; i < t1.getTupleDesc().numFields(); i++)
+                    sb.append(t1.getField(i)).append(' ');
+                for (int i = 0; i < t2.getTupleDesc().numFields(); i++)
+                    sb.append(t2.getField(i)).append(' ');
+                l.add(sb.toString());
+            }
+            right.close();
+        }
+        left.close();
+        Collections.sort(l);
+        return l;
+    }
+
     /**
      * @return a byte array containing the contents of the file 'path'
      */
@@ -379,7 +430,7 @@ public class TestUtil {
             } catch (IOException e) {
                 throw new RuntimeException(e);
             }
-            emptyFile.deleteOnExit();
+            ZoneMap.deleteOnExit(emptyFile);
         }
 
         protected void setUp() throws Exception {
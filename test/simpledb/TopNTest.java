@@ -0,0 +1,84 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class TopNTest extends SimpleDbTestBase {
+
+  /** @return n rows {random key in [0, mod), i} */
+  private static OpIterator rows(int n, int mod) {
+    Random r = new Random(n);
+    int[] data = new int[2 * n];
+    for (int i = 0; i < n; i++) {
+      data[2 * i] = r.nextInt(mod);
+      data[2 * i + 1] = i;
+    }
+    return TestUtil.createTupleList(2, data);
+  }
+
+  /**
+   * Checks that TopN returns the first limit rows of OrderBy, in the same
+   * order, including the order of ties.
+   */
+  private static void checkTopN(int n, int mod, boolean asc, int limit) throws Exception {
+    OpIterator topN = new TopN(0, asc, limit, rows(n, mod));
+    OpIterator orderBy = new OrderBy(0, asc, rows(n, mod));
+    topN.open();
+    orderBy.open();
+    for (int pass = 0; pass < 2; pass++) {
+      int count = 0;
+      while (topN.hasNext()) {
+        assertTrue(orderBy.hasNext());
+        assertTrue(TestUtil.compareTuples(orderBy.next(), topN.next()));
+        count++;
+      }
+      assertEquals(Math.min(n, limit), count);
+      topN.rewind();
+      orderBy.rewind();
+    }
+    topN.close();
+    orderBy.close();
+  }
+
+  /**
+   * Unit test for TopN with ascending and descending order and many ties
+   */
+  @Test public void matchesOrderBy() throws Exception {
+    checkTopN(1000, 1000000, true, 50);
+    checkTopN(1000, 1000000, false, 50);
+    checkTopN(1000, 10, true, 50);
+    checkTopN(1000, 10, false, 120);
+  }
+
+  /**
+   * Unit test for TopN when the limit is at least the number of rows
+   */
+  @Test public void limitAboveRows() throws Exception {
+    checkTopN(20, 5, true, 20);
+    checkTopN(20, 5, true, 1000);
+  }
+
+  /**
+   * Unit test for TopN with a limit of 0
+   */
+  @Test public void limitZero() throws Exception {
+    OpIterator op = new TopN(0, true, 0, rows(10, 5));
+    op.open();
+    assertTrue(TestUtil.checkExhausted(op));
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(TopNTest.class);
+  }
+}
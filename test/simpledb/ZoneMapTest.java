@@ -0,0 +1,218 @@
+package simpledb;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.RandomAccessFile;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class ZoneMapTest extends SimpleDbTestBase {
+
+  private static final int COLUMNS = 3;
+  private static final int ROWS = 5000;
+  private static final TupleDesc TD = Utility.getTupleDesc(COLUMNS, "c");
+
+  private static Tuple tuple(int i) {
+    Tuple t = new Tuple(TD);
+    for (int j = 0; j < COLUMNS; j++)
+      t.setField(j, new IntField(10 * i + j));
+    return t;
+  }
+
+  /**
+   * @return a PAX file of ROWS tuples, loaded in the order of column 0,
+   *         added to the catalog as "zones"
+   */
+  private static HeapFile sortedFile() throws Exception {
+    File text = File.createTempFile("zones", ".txt");
+    text.deleteOnExit();
+    BufferedWriter w = new BufferedWriter(new FileWriter(text));
+    for (int i = 0; i < ROWS; i++) {
+      for (int j = 0; j < COLUMNS; j++)
+        w.write((j == 0 ? "" : ",") + (10 * i + j));
+      w.write("\n");
+    }
+    w.close();
+    File data = File.createTempFile("zones", ".dat");
+    ZoneMap.deleteOnExit(data);
+    HeapFileEncoder.convertPax(text, data, BufferPool.getPageSize(), COLUMNS,
+        Utility.getTypes(COLUMNS), ',');
+    HeapFile f = new HeapFile(data, TD, false, HeapFile.Format.PAX);
+    Database.getCatalog().addTable(f, "zones");
+    return f;
+  }
+
+  /** @return the number of tuples of f with from <= c0 < to, checking them */
+  private static int scan(HeapFile f, int from, int to) throws Exception {
+    Predicate[] preds = {
+        new Predicate(0, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(from)),
+        new Predicate(0, Predicate.Op.LESS_THAN, new IntField(to)) };
+    DbFileIterator it = f.iterator(new TransactionId(), 0, f.numPages(), null, preds);
+    it.open();
+    int n = 0;
+    while (it.hasNext()) {
+      Tuple t = it.next();
+      assertEquals(new IntField(from + 10 * n), t.getField(0));
+      n++;
+    }
+    it.close();
+    return n;
+  }
+
+  /** A range holds a value satisfying a predicate only if it can */
+  @Test public void overlaps() {
+    assertTrue(ZoneMap.overlaps(10, 20, Predicate.Op.EQUALS, 15));
+    assertFalse(ZoneMap.overlaps(10, 20, Predicate.Op.EQUALS, 21));
+    assertFalse(ZoneMap.overlaps(10, 20, Predicate.Op.GREATER_THAN, 20));
+    assertTrue(ZoneMap.overlaps(10, 20, Predicate.Op.GREATER_THAN_OR_EQ, 20));
+    assertFalse(ZoneMap.overlaps(10, 20, Predicate.Op.LESS_THAN, 10));
+    assertTrue(ZoneMap.overlaps(10, 20, Predicate.Op.LESS_THAN_OR_EQ, 10));
+    assertFalse(ZoneMap.overlaps(7, 7, Predicate.Op.NOT_EQUALS, 7));
+    assertTrue(ZoneMap.overlaps(7, 8, Predicate.Op.NOT_EQUALS, 7));
+  }
+
+  /**
+   * A scan summarizes the pages it reads, and later scans of a range of a
+   * sorted column read only the pages the range is on
+   */
+  @Test public void skipsPages() throws Exception {
+    HeapFile f = sortedFile();
+    int pages = f.numPages();
+    assertTrue(pages > 10);
+    assertEquals(400, scan(f, 10000, 14000));
+    for (int i = 0; i < pages; i++)
+      assertTrue(f.getZoneMap().isSummarized(i));
+
+    Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+    assertEquals(400, scan(f, 10000, 14000));
+    assertTrue(Database.getBufferPool().getMissCount()
+        + Database.getBufferPool().getPrefetchCount() <= 3);
+    assertEquals(0, scan(f, -100, 0));
+    assertEquals(1, scan(f, 10 * (ROWS - 1), Integer.MAX_VALUE));
+  }
+
+  /**
+   * Inserts widen the ranges of a page, and writing the page summarizes it
+   * again exactly
+   */
+  @Test public void insertAndWrite() throws Exception {
+    HeapFile f = sortedFile();
+    ZoneMap zones = f.getZoneMap();
+    TransactionId tid = new TransactionId();
+    scan(f, 0, 10);
+    Predicate[] big = { new Predicate(0, Predicate.Op.GREATER_THAN, new IntField(10 * ROWS)) };
+    assertFalse(zones.mayMatch(0, big));
+
+    DbFileIterator it = f.iterator(tid);
+    it.open();
+    Tuple first = it.next();
+    it.close();
+    Page page = f.deleteTuple(tid, first).get(0);
+    f.insertTuple(tid, tuple(2 * ROWS));
+    assertTrue(zones.mayMatch(0, big));
+    assertEquals(0, zones.range(0, 1)[0]);
+    // the widened ranges wait for the page to be written
+    assertFalse(ZoneMap.zoneFile(f.getFile()).exists());
+
+    f.writePage(page);
+    assertArrayEquals(new int[] { 10, 20 * ROWS }, zones.range(0, 1));
+  }
+
+  /**
+   * Summaries made by scans are written to the sidecar file with the next
+   * write, kept there for other HeapFiles of the same data file, and thrown
+   * away if the data file changes behind their back
+   */
+  @Test public void sidecar() throws Exception {
+    HeapFile f = sortedFile();
+    scan(f, 0, 10);
+    int pages = f.numPages();
+    assertFalse(ZoneMap.zoneFile(f.getFile()).exists());
+    f.writePage(f.readPage(new HeapPageId(f.getId(), 0)));
+    assertTrue(ZoneMap.zoneFile(f.getFile()).exists());
+
+    HeapFile g = new HeapFile(f.getFile(), TD, false, HeapFile.Format.PAX);
+    assertTrue(g.getZoneMap().isSummarized(pages - 1));
+    assertArrayEquals(new int[] { 0, 10 * (ROWS - 1) }, g.getZoneMap().range(0, pages));
+
+    RandomAccessFile raf = new RandomAccessFile(f.getFile(), "rw");
+    raf.setLength(raf.length() + BufferPool.getPageSize());
+    raf.close();
+    HeapFile h = new HeapFile(f.getFile(), TD, false, HeapFile.Format.PAX);
+    assertFalse(h.getZoneMap().isSummarized(0));
+    assertNull(h.getZoneMap().range(0, pages));
+    assertEquals(0, ZoneMap.zoneFile(f.getFile()).length());
+  }
+
+  /**
+   * A data file rewritten in place at the same length and modification
+   * time is scanned correctly: summaries loaded from the sidecar file are
+   * only hints, and the zone maps told of a rewrite skip no pages
+   */
+  @Test public void rewrittenInPlace() throws Exception {
+    HeapFile f = sortedFile();
+    int last = f.numPages() - 1;
+    scan(f, 0, 10);
+    f.writePage(f.readPage(new HeapPageId(f.getId(), 0)));
+
+    // copy the last page over the first
+    File data = f.getFile();
+    long modified = data.lastModified();
+    int size = BufferPool.getPageSize();
+    byte[] page = new byte[size];
+    RandomAccessFile raf = new RandomAccessFile(data, "rw");
+    raf.seek((long) last * size);
+    raf.readFully(page);
+    raf.seek(0);
+    raf.write(page);
+    raf.close();
+    assertTrue(data.setLastModified(modified));
+
+    HeapFile g = new HeapFile(data, TD, false, HeapFile.Format.PAX);
+    Database.getCatalog().addTable(g, "zones");
+    Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+    assertTrue(g.getZoneMap().isSummarized(0));
+    assertFalse(g.getZoneMap().isTrusted(0));
+    Predicate[] preds = {
+        new Predicate(0, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(10 * (ROWS - 1))) };
+    DbFileIterator it = g.iterator(new TransactionId(), 0, g.numPages(), null, preds);
+    it.open();
+    int n = 0;
+    while (it.hasNext()) {
+      it.next();
+      n++;
+    }
+    it.close();
+    assertEquals(2, n);
+
+    assertTrue(f.getZoneMap().isTrusted(last));
+    ZoneMap.changed(data);
+    f.refreshZones();
+    assertFalse(f.getZoneMap().isTrusted(last));
+  }
+
+  /** TableStats can find the range of a column from the summaries */
+  @Test public void columnRange() throws Exception {
+    HeapFile f = sortedFile();
+    assertArrayEquals(new int[] { 2, 10 * (ROWS - 1) + 2 }, TableStats.columnRange(f.getId(), 2));
+    assertTrue(f.getZoneMap().isSummarized(f.numPages() - 1));
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(ZoneMapTest.class);
+  }
+}
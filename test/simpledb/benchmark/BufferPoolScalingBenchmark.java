@@ -0,0 +1,163 @@
+package simpledb.benchmark;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import simpledb.*;
+
+/**
+ * Measures BufferPool.getPage throughput as the number of threads grows from
+ * 1 to N. Every thread looks up random pages of an in-memory table whose
+ * pages all fit in the pool, so after warm-up every call is a hit and the
+ * numbers show how well concurrent hits scale.
+ * <p>
+ * Usage: BufferPoolScalingBenchmark [maxThreads [pages [seconds]]]
+ */
+public class BufferPoolScalingBenchmark {
+
+    /** A page that holds nothing; only its id matters to the BufferPool. */
+    static class EmptyPage implements Page {
+        private final PageId pid;
+
+        EmptyPage(PageId pid) {
+            this.pid = pid;
+        }
+
+        public PageId getId() {
+            return pid;
+        }
+
+        public TransactionId isDirty() {
+            return null;
+        }
+
+        public void markDirty(boolean dirty, TransactionId tid) {
+        }
+
+        public byte[] getPageData() {
+            return new byte[BufferPool.getPageSize()];
+        }
+
+        public Page getBeforeImage() {
+            return this;
+        }
+
+        public void setBeforeImage() {
+        }
+    }
+
+    /** A table of empty pages that never touches the disk. */
+    static class MemoryFile implements DbFile {
+        private final int tableid;
+        private final TupleDesc td;
+
+        MemoryFile(int tableid, TupleDesc td) {
+            this.tableid = tableid;
+            this.td = td;
+        }
+
+        public Page readPage(PageId id) {
+            return new EmptyPage(id);
+        }
+
+        public void writePage(Page p) throws IOException {
+        }
+
+        public ArrayList<Page> insertTuple(TransactionId tid, Tuple t) {
+            throw new UnsupportedOperationException();
+        }
+
+        public ArrayList<Page> deleteTuple(TransactionId tid, Tuple t) {
+            throw new UnsupportedOperationException();
+        }
+
+        public DbFileIterator iterator(TransactionId tid) {
+            throw new UnsupportedOperationException();
+        }
+
+        public int getId() {
+            return tableid;
+        }
+
+        public TupleDesc getTupleDesc() {
+            return td;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int maxThreads = args.length > 0 ? Integer.parseInt(args[0])
+            : Runtime.getRuntime().availableProcessors();
+        int numPages = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+        int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 3;
+
+        MemoryFile f = new MemoryFile(4242, Utility.getTupleDesc(1));
+        Database.getCatalog().addTable(f, "bench");
+
+        System.out.println("threads\tops/sec\tspeedup");
+        double base = 0;
+        ArrayList<Integer> counts = new ArrayList<Integer>();
+        for (int threads = 1; threads < maxThreads; threads *= 2)
+            counts.add(threads);
+        counts.add(maxThreads);
+        for (int threads : counts) {
+            Database.resetBufferPool(numPages);
+            double opsPerSec = run(f, threads, numPages, seconds);
+            if (threads == 1)
+                base = opsPerSec;
+            System.out.printf("%d\t%.0f\t%.2fx%n", threads, opsPerSec, opsPerSec / base);
+        }
+    }
+
+    private static double run(final MemoryFile f, int threads, final int numPages,
+            int seconds) throws InterruptedException {
+        final BufferPool bp = Database.getBufferPool();
+        final TransactionId tid = new TransactionId();
+        final AtomicLong ops = new AtomicLong();
+        final CountDownLatch start = new CountDownLatch(1);
+        final long[] stopAt = new long[1];
+
+        Thread[] workers = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            final long seed = i;
+            workers[i] = new Thread() {
+                public void run() {
+                    Random r = new Random(seed);
+                    long n = 0;
+                    try {
+                        start.await();
+                        while (System.nanoTime() < stopAt[0]) {
+                            for (int j = 0; j < 1000; j++) {
+                                PageId pid = new BTreePageId(f.getId(), r.nextInt(numPages) + 1, BTreePageId.LEAF);
+                                bp.getPage(tid, pid, Permissions.READ_ONLY);
+                            }
+                            n += 1000;
+                        }
+                    } catch (Exception e) {
+                        throw new RuntimeException(e);
+                    }
+                    ops.addAndGet(n);
+                }
+            };
+            workers[i].start();
+        }
+
+        // warm up the pool so the timed run only measures hits
+        try {
+            for (int p = 0; p < numPages; p++)
+                bp.getPage(tid, new BTreePageId(f.getId(), p + 1, BTreePageId.LEAF), Permissions.READ_ONLY);
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+
+        long begin = System.nanoTime();
+        stopAt[0] = begin + seconds * 1000000000L;
+        start.countDown();
+        for (Thread t : workers)
+            t.join();
+        long elapsed = System.nanoTime() - begin;
+        return ops.get() / (elapsed / 1e9);
+    }
+}
@@ -0,0 +1,77 @@
+package simpledb.benchmark;
+
+import java.util.HashMap;
+
+import simpledb.*;
+
+/**
+ * Compares two group tables for an aggregate grouped by an integer column:
+ * a HashMap from IntField to a long[] of running values, which allocates a
+ * Field for every input row, and an {@link IntGroupTable}. Each run merges
+ * every row into its group's count, sum, minimum and maximum, and then
+ * sums the counts of all groups as a check; this is the work an aggregate
+ * does per row, without the cost of producing the rows.
+ * <p>
+ * Group keys are spread evenly over the groups, in a scrambled order, and
+ * values are the row numbers.
+ * <p>
+ * Usage: GroupByBenchmark [rows [groups [rounds]]]
+ */
+public class GroupByBenchmark {
+
+    public static void main(String[] args) {
+        final int rows = args.length > 0 ? Integer.parseInt(args[0]) : 50000000;
+        final int groups = args.length > 1 ? Integer.parseInt(args[1]) : 1000000;
+        int rounds = args.length > 2 ? Integer.parseInt(args[2]) : 3;
+
+        System.out.println("table\tms\tgroups\trows");
+        for (int round = 0; round < rounds; round++) {
+            runHashMap(rows, groups);
+            runIntGroupTable(rows, groups);
+        }
+    }
+
+    /** @return the group key of row i */
+    private static int key(int i, int groups) {
+        return (int) ((i * 0x9e3779b1L) % groups);
+    }
+
+    private static void report(String table, long begin, int groups, long rows) {
+        System.out.printf("%s\t%d\t%d\t%d%n", table,
+                (System.nanoTime() - begin) / 1000000, groups, rows);
+    }
+
+    private static void runHashMap(int rows, int groups) {
+        long begin = System.nanoTime();
+        HashMap<Field, long[]> map = new HashMap<Field, long[]>();
+        for (int i = 0; i < rows; i++) {
+            Field k = new IntField(key(i, groups));
+            long[] g = map.get(k);
+            if (g == null) {
+                g = new long[] { 0, 0, Long.MAX_VALUE, Long.MIN_VALUE };
+                map.put(k, g);
+            }
+            g[0]++;
+            g[1] += i;
+            if (i < g[2])
+                g[2] = i;
+            if (i > g[3])
+                g[3] = i;
+        }
+        long total = 0;
+        for (long[] g : map.values())
+            total += g[0];
+        report("HashMap", begin, map.size(), total);
+    }
+
+    private static void runIntGroupTable(int rows, int groups) {
+        long begin = System.nanoTime();
+        IntGroupTable table = new IntGroupTable(1024);
+        for (int i = 0; i < rows; i++)
+            table.merge(table.add(key(i, groups)), i);
+        long total = 0;
+        for (int g = 0; g < table.size(); g++)
+            total += table.count(g);
+        report("IntGroupTable", begin, table.size(), total);
+    }
+}
@@ -0,0 +1,101 @@
+package simpledb.benchmark;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Random;
+
+import simpledb.*;
+
+/**
+ * Compares the two hash tables HashEquiJoin can use for an integer
+ * equi-join: a HashMap from IntField to an ArrayList of Tuples, and an
+ * {@link IntHashTable} with the Tuples in an array. Each run builds a table
+ * from the build rows and probes it with every probe row, counting the
+ * matches; this is the work HashEquiJoin does per chunk, without the cost
+ * of producing the child rows or the output tuples, which is the same for
+ * both tables.
+ * <p>
+ * Build keys are distinct, and half of the probe keys find a match. The
+ * HashMap is probed with IntFields that already exist, as it would be with
+ * the fields of child2's tuples.
+ * <p>
+ * Usage: HashJoinBenchmark [buildRows [probeRows [rounds]]]
+ */
+public class HashJoinBenchmark {
+
+    public static void main(String[] args) {
+        final int buildRows = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        final int probeRows = args.length > 1 ? Integer.parseInt(args[1]) : 10000000;
+        int rounds = args.length > 2 ? Integer.parseInt(args[2]) : 3;
+
+        TupleDesc td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.INT_TYPE });
+        Tuple[] rows = new Tuple[buildRows];
+        IntField[] fields = new IntField[buildRows * 2];
+        for (int i = 0; i < fields.length; i++)
+            fields[i] = new IntField(i);
+        for (int i = 0; i < buildRows; i++)
+            rows[i] = new Tuple(td);
+
+        // build keys 0, 2, 4, ...; probe keys are uniform over [0, 2 * buildRows)
+        Random r = new Random(0);
+        int[] probe = new int[probeRows];
+        for (int i = 0; i < probeRows; i++)
+            probe[i] = r.nextInt(fields.length);
+
+        System.out.println("table\tbuild ms\tprobe ms\tmatches");
+        for (int round = 0; round < rounds; round++) {
+            runHashMap(rows, fields, probe);
+            runIntHashTable(rows, probe);
+        }
+    }
+
+    private static void report(String table, long begin, long built, long end, long matches) {
+        System.out.printf("%s\t%d\t%d\t%d%n", table, (built - begin) / 1000000,
+                (end - built) / 1000000, matches);
+    }
+
+    private static void runHashMap(Tuple[] rows, IntField[] fields, int[] probe) {
+        long begin = System.nanoTime();
+        HashMap<Object, ArrayList<Tuple>> map = new HashMap<Object, ArrayList<Tuple>>();
+        for (int i = 0; i < rows.length; i++) {
+            Field k = fields[2 * i];
+            ArrayList<Tuple> list = map.get(k);
+            if (list == null) {
+                list = new ArrayList<Tuple>();
+                map.put(k, list);
+            }
+            list.add(rows[i]);
+        }
+        long built = System.nanoTime();
+        long matches = 0;
+        for (int i = 0; i < probe.length; i++) {
+            ArrayList<Tuple> l = map.get(fields[probe[i]]);
+            if (l == null)
+                continue;
+            for (Tuple t : l)
+                if (t != null)
+                    matches++;
+        }
+        report("HashMap", begin, built, System.nanoTime(), matches);
+    }
+
+    private static void runIntHashTable(Tuple[] rows, int[] probe) {
+        long begin = System.nanoTime();
+        IntHashTable table = new IntHashTable(1024);
+        Tuple[] build = new Tuple[1024];
+        for (int i = 0; i < rows.length; i++) {
+            int e = table.add(2 * i);
+            if (e == build.length)
+                build = Arrays.copyOf(build, build.length * 2);
+            build[e] = rows[i];
+        }
+        long built = System.nanoTime();
+        long matches = 0;
+        for (int i = 0; i < probe.length; i++)
+            for (int e = table.first(probe[i]); e != -1; e = table.next(e))
+                if (build[e] != null)
+                    matches++;
+        report("IntHashTable", begin, built, System.nanoTime(), matches);
+    }
+}
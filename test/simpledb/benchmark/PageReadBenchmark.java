@@ -0,0 +1,107 @@
+package simpledb.benchmark;
+
+import java.io.*;
+import java.util.Random;
+
+import simpledb.BufferPool;
+import simpledb.PageChannel;
+
+/**
+ * Compares random page reads through a long-lived {@link PageChannel} with
+ * the old DbFile read path, which opened a new FileInputStream and
+ * BufferedInputStream for every page and skipped to its offset. Only the
+ * I/O is measured; no pages are decoded.
+ * <p>
+ * The file is written once and then read repeatedly, so after the first
+ * round it is normally in the OS page cache and the numbers show per-read
+ * overhead rather than disk speed.
+ * <p>
+ * Usage: PageReadBenchmark [pages [reads [threads]]]
+ */
+public class PageReadBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int numPages = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+        int reads = args.length > 1 ? Integer.parseInt(args[1]) : 200000;
+        int threads = args.length > 2 ? Integer.parseInt(args[2])
+            : Runtime.getRuntime().availableProcessors();
+        int pageSize = BufferPool.getPageSize();
+
+        File f = File.createTempFile("pagereads", ".dat");
+        f.deleteOnExit();
+        FileOutputStream fos = new FileOutputStream(f);
+        byte[] page = new byte[pageSize];
+        Random r = new Random(0);
+        for (int i = 0; i < numPages; i++) {
+            r.nextBytes(page);
+            fos.write(page);
+        }
+        fos.close();
+
+        final PageChannel channel = new PageChannel(f);
+        System.out.println("path\tthreads\treads/sec");
+        for (int round = 0; round < 2; round++) {
+            report("stream", 1, run(f, null, numPages, reads, 1));
+            report("channel", 1, run(f, channel, numPages, reads, 1));
+            if (threads > 1) {
+                report("stream", threads, run(f, null, numPages, reads, threads));
+                report("channel", threads, run(f, channel, numPages, reads, threads));
+            }
+        }
+        channel.close();
+    }
+
+    private static void report(String path, int threads, double readsPerSec) {
+        System.out.printf("%s\t%d\t%.0f%n", path, threads, readsPerSec);
+    }
+
+    /**
+     * Reads randomly chosen pages, either with a new stream per read (if
+     * channel is null) or through the channel.
+     * @return reads per second over all threads
+     */
+    private static double run(final File f, final PageChannel channel, final int numPages,
+            int reads, int threads) throws InterruptedException {
+        final int perThread = reads / threads;
+        Thread[] workers = new Thread[threads];
+        long begin = System.nanoTime();
+        for (int i = 0; i < threads; i++) {
+            final long seed = i;
+            workers[i] = new Thread() {
+                public void run() {
+                    Random r = new Random(seed);
+                    byte[] buf = new byte[BufferPool.getPageSize()];
+                    try {
+                        for (int j = 0; j < perThread; j++) {
+                            long offset = (long) r.nextInt(numPages) * buf.length;
+                            if (channel != null)
+                                channel.read(buf, offset);
+                            else
+                                streamRead(f, buf, offset);
+                        }
+                    } catch (IOException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            };
+            workers[i].start();
+        }
+        for (Thread t : workers)
+            t.join();
+        long elapsed = System.nanoTime() - begin;
+        return perThread * threads / (elapsed / 1e9);
+    }
+
+    /** The read path BTreeFile.readPage used before PageChannel. */
+    private static void streamRead(File f, byte[] buf, long offset) throws IOException {
+        BufferedInputStream bis = new BufferedInputStream(new FileInputStream(f));
+        try {
+            if (bis.skip(offset) != offset)
+                throw new IOException("Unable to seek to correct place in file");
+            if (bis.read(buf, 0, buf.length) < buf.length)
+                throw new IOException("Unable to read page");
+        } finally {
+            bis.close();
+        }
+    }
+}
@@ -33,6 +33,9 @@ public class EvictionTest extends SimpleDbTestBase {
             scan.next();
         }
         System.out.println("EvictionTest scan complete, testing memory usage of scan");
+        // every page that did not fit in the pool pushed another one out
+        Assert.assertTrue(Database.getBufferPool().getEvictionCount()
+                >= f.numPages() - BUFFER_PAGES);
         long endMem = SystemTestUtil.getMemoryFootprint();
         long memDiff = (endMem - beginMem) / (1<<20);
         if (memDiff > MEMORY_LIMIT_IN_MB) {